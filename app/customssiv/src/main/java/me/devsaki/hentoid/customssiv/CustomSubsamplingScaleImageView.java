@@ -18,6 +18,8 @@ import android.graphics.RectF;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.provider.MediaStore;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
@@ -40,17 +42,21 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.customssiv.R.styleable;
 import me.devsaki.hentoid.customssiv.decoder.CompatDecoderFactory;
@@ -237,6 +243,18 @@ public class CustomSubsamplingScaleImageView extends View {
 
     // overrides for the dimensions of the generated tiles
     public static final int TILE_SIZE_AUTO = Integer.MAX_VALUE;
+
+    // Target duration of a tile decode; tiles are made smaller when the decoder is too slow to honour it
+    private static final long TILE_DECODE_BUDGET_MS = 80;
+    // Minimum dimension of tiles sized according to the decoding speed
+    private static final int TILE_MIN_DIMENSION = 256;
+    // Weight of the last decoded tile in the average decoding speed
+    private static final float TILE_DECODE_SPEED_WEIGHT = 0.2f;
+    // How far ahead in time the movement of the image is anticipated when prioritizing tiles
+    private static final long TILE_VELOCITY_LOOKAHEAD_MS = 200;
+    // Translations older than that aren't considered part of the current movement
+    private static final long TILE_VELOCITY_MAX_INTERVAL_MS = 100;
+
     private int maxTileWidth = TILE_SIZE_AUTO;
     private int maxTileHeight = TILE_SIZE_AUTO;
 
@@ -375,6 +393,22 @@ public class CustomSubsamplingScaleImageView extends View {
 
     private final CompositeDisposable loadDisposable = new CompositeDisposable();
 
+    // Tiles of all instances are decoded by a bounded pool, so that they're decoded in the order they're submitted (i.e. by priority)
+    private static final Scheduler tileScheduler = Schedulers.from(
+            Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() - 1), r -> new Thread(r, "ssiv-tile"))
+    );
+    // Average tile decoding speed, in decoded pixels per ms (0 until the first tile has been decoded)
+    private static volatile float tileDecodeSpeed = 0;
+
+    // Last known translation, used to measure the velocity of gestures and animations
+    private final PointF vTranslateLast = new PointF();
+    private long vTranslateLastTime = 0;
+    // Current velocity of the image, in px per ms
+    private final PointF vVelocity = new PointF();
+
+    // Listener notified of each tile decode
+    private OnTileDecodedListener onTileDecodedListener;
+
 
     public CustomSubsamplingScaleImageView(Context context, AttributeSet attr) {
         super(context, attr);
@@ -666,6 +700,7 @@ public class CustomSubsamplingScaleImageView extends View {
             for (Map.Entry<Integer, List<Tile>> tileMapEntry : tileMap.entrySet()) {
                 for (Tile tile : tileMapEntry.getValue()) {
                     tile.visible = false;
+                    tile.generation++; // Discard the decodes that are still running
                     if (tile.bitmap != null) {
                         tile.bitmap.recycle();
                         tile.bitmap = null;
@@ -1499,18 +1534,21 @@ public class CustomSubsamplingScaleImageView extends View {
 
             List<Tile> baseGrid = tileMap.get(fullImageSampleSize);
             if (baseGrid != null) {
+                // Load the tiles at the center of the view first
+                List<Tile> sortedGrid = new ArrayList<>(baseGrid);
+                sortTilesByPriority(sortedGrid, getWidthInternal() / 2f, getHeightInternal() / 2f);
+                for (Tile tile : sortedGrid) tile.loading = true;
                 loadDisposable.add(
-                        Observable.fromIterable(baseGrid)
-                                .flatMap(tile -> Observable.just(tile)
-                                        .observeOn(Schedulers.io())
-                                        .map(tile2 -> loadTile(this, decoder, tile2))
-                                        .filter(res -> res.bitmap != null)
+                        Observable.fromIterable(sortedGrid)
+                                .flatMap(tile -> Observable.just(tile.generation)
+                                        .observeOn(tileScheduler)
+                                        .map(generation -> loadTile(this, decoder, tile, generation))
                                         .observeOn(Schedulers.computation())
                                         .map(res -> processTile(res, this, targetScale))
                                 )
                                 .observeOn(AndroidSchedulers.mainThread())
                                 .subscribe(
-                                        this::onTileLoaded,
+                                        this::onTileDecoded,
                                         onImageEventListener::onTileLoadError,
                                         () -> refreshRequiredTiles(true)
                                 )
@@ -1524,6 +1562,9 @@ public class CustomSubsamplingScaleImageView extends View {
     /**
      * Loads the optimum tiles for display at the current scale and translate, so the screen can be filled with tiles
      * that are at least as high resolution as the screen. Frees up bitmaps that are now off the screen.
+     * <p>
+     * Tiles are loaded by priority : closest to the center of the view first, shifted towards the direction of the
+     * current movement. Pending loads of tiles that aren't visible anymore are cancelled.
      *
      * @param load Whether to load the new tiles needed. Use false while scrolling/panning for performance.
      */
@@ -1532,7 +1573,9 @@ public class CustomSubsamplingScaleImageView extends View {
             return;
         }
 
+        updateVelocity();
         int sampleSize = Math.min(fullImageSampleSize, calculateInSampleSize(scale));
+        List<Tile> tilesToLoad = new ArrayList<>();
 
         // Load tiles of the correct sample size that are on screen. Discard tiles off screen, and those that are higher
         // resolution than required, or lower res than required but not the base layer, so the base layer is always present.
@@ -1540,6 +1583,7 @@ public class CustomSubsamplingScaleImageView extends View {
             for (Tile tile : tileMapEntry.getValue()) {
                 if (tile.sampleSize < sampleSize || (tile.sampleSize > sampleSize && tile.sampleSize != fullImageSampleSize)) {
                     tile.visible = false;
+                    cancelTileLoad(tile);
                     if (tile.bitmap != null) {
                         tile.bitmap.recycle();
                         tile.bitmap = null;
@@ -1548,22 +1592,10 @@ public class CustomSubsamplingScaleImageView extends View {
                 if (tile.sampleSize == sampleSize) {
                     if (tileVisible(tile)) {
                         tile.visible = true;
-                        if (!tile.loading && tile.bitmap == null && load) {
-                            loadDisposable.add(
-                                    Single.fromCallable(() -> loadTile(this, decoder, tile))
-                                            .subscribeOn(Schedulers.io())
-                                            .filter(res -> res.bitmap != null)
-                                            .observeOn(Schedulers.computation())
-                                            .map(res -> processTile(res, this, scale))
-                                            .observeOn(AndroidSchedulers.mainThread())
-                                            .subscribe(
-                                                    this::onTileLoaded,
-                                                    onImageEventListener::onTileLoadError
-                                            )
-                            );
-                        }
+                        if (!tile.loading && tile.bitmap == null && load) tilesToLoad.add(tile);
                     } else if (tile.sampleSize != fullImageSampleSize) {
                         tile.visible = false;
+                        cancelTileLoad(tile);
                         if (tile.bitmap != null) {
                             tile.bitmap.recycle();
                             tile.bitmap = null;
@@ -1575,6 +1607,77 @@ public class CustomSubsamplingScaleImageView extends View {
             }
         }
 
+        if (tilesToLoad.isEmpty()) return;
+
+        // Anticipate the movement of the image : tiles that will reach the center of the view soon come first
+        float vFocusX = getWidthInternal() / 2f - vVelocity.x * TILE_VELOCITY_LOOKAHEAD_MS;
+        float vFocusY = getHeightInternal() / 2f - vVelocity.y * TILE_VELOCITY_LOOKAHEAD_MS;
+        sortTilesByPriority(tilesToLoad, vFocusX, vFocusY);
+
+        for (Tile tile : tilesToLoad) {
+            tile.loading = true;
+            final int generation = tile.generation;
+            tile.loadTask = Single.fromCallable(() -> loadTile(this, decoder, tile, generation))
+                    .subscribeOn(tileScheduler)
+                    .observeOn(Schedulers.computation())
+                    .map(res -> processTile(res, this, scale))
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(
+                            this::onTileDecoded,
+                            e -> {
+                                tile.loadTask = null;
+                                tile.loading = false;
+                                onImageEventListener.onTileLoadError(e);
+                            }
+                    );
+            loadDisposable.add(tile.loadTask);
+        }
+    }
+
+    /**
+     * Sort the given tiles by ascending distance between their center and the given point of the view
+     *
+     * @param tiles  Tiles to sort
+     * @param vFocusX X coordinate of the point to sort tiles by, in view coordinates
+     * @param vFocusY Y coordinate of the point to sort tiles by, in view coordinates
+     */
+    private void sortTilesByPriority(@NonNull List<Tile> tiles, float vFocusX, float vFocusY) {
+        for (Tile tile : tiles) {
+            float dx = sourceToViewX(tile.sRect.exactCenterX()) - vFocusX;
+            float dy = sourceToViewY(tile.sRect.exactCenterY()) - vFocusY;
+            tile.priority = dx * dx + dy * dy;
+        }
+        Collections.sort(tiles, (t1, t2) -> Float.compare(t1.priority, t2.priority));
+    }
+
+    /**
+     * Measure the velocity of the image since the last call
+     */
+    private void updateVelocity() {
+        if (vTranslate == null) return;
+
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - vTranslateLastTime;
+        if (vTranslateLastTime > 0 && elapsed > 0 && elapsed < TILE_VELOCITY_MAX_INTERVAL_MS)
+            vVelocity.set((vTranslate.x - vTranslateLast.x) / elapsed, (vTranslate.y - vTranslateLast.y) / elapsed);
+        else if (elapsed > 0) vVelocity.set(0, 0);
+
+        vTranslateLast.set(vTranslate);
+        vTranslateLastTime = now;
+    }
+
+    /**
+     * Cancel the pending load of the given tile, if any
+     * NB : Disposing the load doesn't interrupt a decode that has already started; its result is discarded
+     * because the generation of the tile has changed
+     */
+    private void cancelTileLoad(@NonNull Tile tile) {
+        if (tile.loadTask != null) {
+            loadDisposable.remove(tile.loadTask); // Disposes it as well
+            tile.loadTask = null;
+            tile.loading = false;
+            tile.generation++;
+        }
     }
 
     /**
@@ -1773,6 +1876,9 @@ public class CustomSubsamplingScaleImageView extends View {
     private void initialiseTileMap(Point maxTileDimensions) {
         debug("initialiseTileMap maxTileDimensions=%dx%d", maxTileDimensions.x, maxTileDimensions.y);
         this.tileMap = new LinkedHashMap<>();
+        float decodeSpeed = tileDecodeSpeed;
+        int maxTilePixels = (decodeSpeed > 0) ? (int) Math.max(TILE_MIN_DIMENSION * TILE_MIN_DIMENSION, decodeSpeed * TILE_DECODE_BUDGET_MS) : 0;
+        debug("initialiseTileMap decodeSpeed=%.1fpx/ms maxTilePixels=%d", decodeSpeed, maxTilePixels);
         int sampleSize = fullImageSampleSize;
         int xTiles = 1;
         int yTiles = 1;
@@ -1791,6 +1897,21 @@ public class CustomSubsamplingScaleImageView extends View {
                 sTileHeight = sHeight() / yTiles;
                 subTileHeight = sTileHeight / sampleSize;
             }
+            // Split tiles further if the decoder is too slow to decode them within the budget
+            // NB : The base layer is left untouched as it's loaded all at once anyway
+            if (sampleSize < fullImageSampleSize && maxTilePixels > 0) {
+                while (subTileWidth * subTileHeight > maxTilePixels && Math.max(subTileWidth, subTileHeight) > TILE_MIN_DIMENSION) {
+                    if (subTileWidth >= subTileHeight) {
+                        xTiles += 1;
+                        sTileWidth = sWidth() / xTiles;
+                        subTileWidth = sTileWidth / sampleSize;
+                    } else {
+                        yTiles += 1;
+                        sTileHeight = sHeight() / yTiles;
+                        subTileHeight = sTileHeight / sampleSize;
+                    }
+                }
+            }
             List<Tile> tileGrid = new ArrayList<>(xTiles * yTiles);
             for (int x = 0; x < xTiles; x++) {
                 for (int y = 0; y < yTiles; y++) {
@@ -1826,7 +1947,13 @@ public class CustomSubsamplingScaleImageView extends View {
         String sourceUri = source.toString();
         view.debug("TilesInitTask.doInBackground");
         decoder = decoderFactory.make();
-        Point dimensions = decoder.init(context, source);
+        Point dimensions;
+        Trace.beginSection("ssiv.initDecoder");
+        try {
+            dimensions = decoder.init(context, source);
+        } finally {
+            Trace.endSection();
+        }
         int sWidthTile = dimensions.x;
         int sHeightTile = dimensions.y;
         int exifOrientation = view.getExifOrientation(context, sourceUri);
@@ -1873,42 +2000,97 @@ public class CustomSubsamplingScaleImageView extends View {
         requestLayout();
     }
 
+    /**
+     * Decode the given tile
+     * NB : The tile itself isn't modified; its bitmap and state are updated by onTileDecoded on the UI thread
+     *
+     * @param generation Generation of the tile when its load has been scheduled
+     * @return Result of the decoding; its bitmap is null if the tile hasn't been decoded, or if its load has been cancelled
+     */
     @WorkerThread
-    protected Tile loadTile(
+    protected TileLoad loadTile(
             @NonNull CustomSubsamplingScaleImageView view,
             @NonNull ImageRegionDecoder decoder,
-            @NonNull Tile tile) {
-        if (decoder.isReady() && tile.visible) {
+            @NonNull Tile tile,
+            int generation) {
+        TileLoad result = new TileLoad(tile, generation);
+        if (decoder.isReady() && tile.visible && generation == tile.generation) {
             view.decoderLock.readLock().lock();
             try {
                 if (decoder.isReady()) {
-                    tile.loading = true;
                     // Update tile's file sRect according to rotation
                     view.fileSRect(tile.sRect, tile.fileSRect);
                     if (view.sRegion != null)
                         tile.fileSRect.offset(view.sRegion.left, view.sRegion.top);
-                    tile.bitmap = decoder.decodeRegion(tile.fileSRect, tile.sampleSize);
+                    long start = SystemClock.uptimeMillis();
+                    // Visible in systrace captures
+                    Trace.beginSection("ssiv.decodeTile");
+                    try {
+                        result.bitmap = decoder.decodeRegion(tile.fileSRect, tile.sampleSize);
+                    } finally {
+                        Trace.endSection();
+                    }
+                    result.decodeTimeMs = SystemClock.uptimeMillis() - start;
+                    if (result.bitmap != null) {
+                        recordDecodeSpeed(result.bitmap, result.decodeTimeMs);
+                        // Load cancelled while decoding
+                        if (generation != tile.generation) result.discard();
+                    }
                 }
             } finally {
                 view.decoderLock.readLock().unlock();
             }
         }
-        if (null == tile.bitmap) tile.loading = false;
-        return tile;
+        return result;
     }
 
     @WorkerThread
-    protected Tile processTile(
-            @NonNull Tile loadedTile,
+    protected TileLoad processTile(
+            @NonNull TileLoad load,
             @NonNull CustomSubsamplingScaleImageView view,
             final float targetScale) {
+        if (null == load.bitmap) return load;
+        if (load.generation != load.tile.generation) {
+            load.discard();
+            return load;
+        }
 
         ImmutablePair<Integer, Float> resizeParams = computeResizeParams(targetScale);
-        loadedTile.bitmap = ResizeBitmapHelper.successiveResize(loadedTile.bitmap, resizeParams.left);
+        load.bitmap = ResizeBitmapHelper.successiveResize(load.bitmap, resizeParams.left);
         //workingBitmap = ResizeBitmap.successiveResizeRS(rs, loadedTile.bitmap, resizeParams.left); <-- needs bitmaps decoded as ARGB_8888; demands more memory
 
-        loadedTile.loading = false;
-        return loadedTile;
+        return load;
+    }
+
+    /**
+     * Update the average tile decoding speed with the given decoded tile
+     */
+    private static void recordDecodeSpeed(@NonNull Bitmap decoded, long decodeTimeMs) {
+        float speed = decoded.getWidth() * decoded.getHeight() / (float) Math.max(1, decodeTimeMs);
+        float currentSpeed = tileDecodeSpeed;
+        tileDecodeSpeed = (0 == currentSpeed) ? speed : currentSpeed + TILE_DECODE_SPEED_WEIGHT * (speed - currentSpeed);
+    }
+
+    /**
+     * Called by worker task when a tile has been decoded and processed.
+     */
+    private void onTileDecoded(TileLoad load) {
+        Tile tile = load.tile;
+        // Load cancelled after the tile has been processed
+        if (load.generation != tile.generation) {
+            load.discard();
+            return;
+        }
+        tile.loadTask = null;
+        tile.loading = false;
+        if (null == load.bitmap) return; // Tile hasn't been decoded
+
+        tile.bitmap = load.bitmap;
+        tile.decodeTimeMs = load.decodeTimeMs;
+        debug("onTileDecoded sampleSize=%d sRect=%s time=%dms", tile.sampleSize, tile.sRect, tile.decodeTimeMs);
+        if (onTileDecodedListener != null)
+            onTileDecodedListener.onTileDecoded(new Rect(tile.sRect), tile.sampleSize, tile.decodeTimeMs);
+        onTileLoaded(tile);
     }
 
     /**
@@ -2104,6 +2286,14 @@ public class CustomSubsamplingScaleImageView extends View {
         private Bitmap bitmap;
         private boolean loading;
         private boolean visible;
+        // Pending load; null if none
+        private Disposable loadTask;
+        // Incremented each time a pending load is cancelled, so that the result of a decode that was running is discarded
+        private volatile int generation;
+        // Loading priority (the lower, the sooner)
+        private float priority;
+        // Duration of the last decode
+        private long decodeTimeMs;
 
         // Volatile fields instantiated once then updated before use to reduce GC.
         private Rect vRect;
@@ -2111,6 +2301,30 @@ public class CustomSubsamplingScaleImageView extends View {
 
     }
 
+    /**
+     * Result of the decoding of a tile, to be applied to the tile on the UI thread
+     */
+    private static class TileLoad {
+
+        private final Tile tile;
+        // Generation of the tile when its load has been scheduled
+        private final int generation;
+        private Bitmap bitmap;
+        private long decodeTimeMs;
+
+        TileLoad(@NonNull Tile tile, int generation) {
+            this.tile = tile;
+            this.generation = generation;
+        }
+
+        private void discard() {
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        }
+    }
+
     private static class Anim {
 
         private float scaleStart; // Scale at start of anim
@@ -3146,6 +3360,15 @@ public class CustomSubsamplingScaleImageView extends View {
         this.onImageEventListener = onImageEventListener;
     }
 
+    /**
+     * Add a listener notified each time a tile is decoded, e.g. to spot pictures that are slow to decode.
+     *
+     * @param onTileDecodedListener an {@link OnTileDecodedListener} instance.
+     */
+    public void setOnTileDecodedListener(OnTileDecodedListener onTileDecodedListener) {
+        this.onTileDecodedListener = onTileDecodedListener;
+    }
+
     /**
      * Add a listener for pan and zoom events. Extend {@link DefaultOnStateChangedListener} to simplify
      * implementation.
@@ -3558,6 +3781,21 @@ public class CustomSubsamplingScaleImageView extends View {
 
     }
 
+    /**
+     * A listener notified of tile decodes. Its method is called on the UI thread.
+     */
+    public interface OnTileDecodedListener {
+
+        /**
+         * Called when a tile has been decoded.
+         *
+         * @param sRect        Area of the tile, in source coordinates
+         * @param sampleSize   Sample size the tile has been decoded with
+         * @param decodeTimeMs Time taken by the decoder to decode the tile, in ms
+         */
+        void onTileDecoded(Rect sRect, int sampleSize, long decodeTimeMs);
+    }
+
     /**
      * An event listener, allowing activities to be notified of pan and zoom events. Initialisation
      * and calls made by your code do not trigger events; touch events and animations do. Methods in
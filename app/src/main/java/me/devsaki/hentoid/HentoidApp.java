@@ -7,7 +7,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 
+import androidx.annotation.NonNull;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.OnLifecycleEvent;
@@ -21,6 +23,8 @@ import com.jakewharton.threetenabp.AndroidThreeTen;
 import org.threeten.bp.Instant;
 
 import io.fabric.sdk.android.Fabric;
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.activities.IntroActivity;
 import me.devsaki.hentoid.database.DatabaseMaintenance;
 import me.devsaki.hentoid.database.HentoidDB;
@@ -30,8 +34,12 @@ import me.devsaki.hentoid.notification.update.UpdateNotificationChannel;
 import me.devsaki.hentoid.services.DatabaseMaintenanceService;
 import me.devsaki.hentoid.services.UpdateCheckService;
 import me.devsaki.hentoid.timber.CrashlyticsTree;
+import me.devsaki.hentoid.util.Consts;
+import me.devsaki.hentoid.util.ContentJsonWriter;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.ShortcutHelper;
+import me.devsaki.hentoid.util.ThumbnailAtlas;
+import me.devsaki.hentoid.util.Tracer;
 import timber.log.Timber;
 
 /**
@@ -85,6 +93,7 @@ public class HentoidApp extends Application {
     public void onCreate() {
         super.onCreate();
         instance = this;
+        long startTime = SystemClock.elapsedRealtime();
 
         Fabric.with(this, new Crashlytics());
 
@@ -102,10 +111,12 @@ public class HentoidApp extends Application {
         // Timber
         if (BuildConfig.DEBUG) Timber.plant(new Timber.DebugTree());
         Timber.plant(new CrashlyticsTree());
+        long phaseTime = logStartupPhase("Core libraries", startTime);
 
         // Prefs
         Preferences.init(this);
         Preferences.performHousekeeping();
+        Tracer.setEnabled(Preferences.isTracingEnabled());
 
         // Init version number on first run
         if (0 == Preferences.getLastKnownAppVersionCode())
@@ -114,9 +125,14 @@ public class HentoidApp extends Application {
         // Firebase
         boolean isAnalyticsEnabled = Preferences.isAnalyticsEnabled();
         FirebaseAnalytics.getInstance(this).setAnalyticsCollectionEnabled(isAnalyticsEnabled);
+        phaseTime = logStartupPhase("Preferences", phaseTime);
 
         // DB housekeeping
         performDatabaseHousekeeping();
+        phaseTime = logStartupPhase("Database housekeeping", phaseTime);
+
+        // Load the index of the library's thumbnails in the background
+        ThumbnailAtlas.getInstance(this);
 
         // Init notification channels
         UpdateNotificationChannel.init(this);
@@ -145,6 +161,23 @@ public class HentoidApp extends Application {
         FirebaseAnalytics.getInstance(this).setUserProperty("endless", Boolean.toString(Preferences.getEndlessScroll()));
 
         ProcessLifecycleOwner.get().getLifecycle().addObserver(new LifeCycleListener());
+        phaseTime = logStartupPhase("Notifications and services", phaseTime);
+        Tracer.addSpan("startup", startTime, phaseTime);
+        Timber.i("Startup : done in %s ms", phaseTime - startTime);
+    }
+
+    /**
+     * Log the duration of the given startup phase
+     *
+     * @param phase Name of the phase
+     * @param since Time the phase has started at (as per SystemClock.elapsedRealtime)
+     * @return Time the phase has ended at, to be used as the start time of the next phase
+     */
+    private static long logStartupPhase(@NonNull String phase, long since) {
+        long now = SystemClock.elapsedRealtime();
+        Timber.i("Startup : %s took %s ms", phase, now - since);
+        Tracer.addSpan("startup." + phase, since, now);
+        return now;
     }
 
     /**
@@ -163,17 +196,35 @@ public class HentoidApp extends Application {
      */
     @SuppressWarnings({"deprecation", "squid:CallToDeprecatedMethod"})
     private void performDatabaseHousekeeping() {
-        HentoidDB oldDB = HentoidDB.getInstance(this);
-
-        // Perform technical data updates that need to be done before app launches
-        DatabaseMaintenance.performOldDatabaseUpdate(oldDB);
+        // The old database is only opened until its books have been migrated
+        if (DatabaseMaintenance.hasLegacyDatabase(this)) {
+            HentoidDB oldDB = HentoidDB.getInstance(this);
+            if (oldDB.countContentEntries() > 0) {
+                // Perform technical data updates that need to be done before app launches
+                DatabaseMaintenance.performOldDatabaseUpdate(oldDB);
+            } else {
+                Timber.i("Removing empty legacy database");
+                deleteDatabase(Consts.DATABASE_NAME);
+            }
+        }
 
-        // Launch a service that will perform non-structural DB housekeeping tasks
-        Intent intent = DatabaseMaintenanceService.makeIntent(this);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(intent);
-        } else {
-            startService(intent);
+        // Perform the light cleanups needed after every session in the background
+        Completable.fromAction(() -> DatabaseMaintenance.performStartupCleanups(this))
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::e
+                );
+
+        // Launch a service that will apply one-shot DB migrations, if any is pending
+        if (DatabaseMaintenance.hasPendingMigrations()) {
+            Intent intent = DatabaseMaintenanceService.makeIntent(this);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                startForegroundService(intent);
+            } else {
+                startService(intent);
+            }
         }
     }
 
@@ -197,6 +248,8 @@ public class HentoidApp extends Application {
         @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
         private void onMoveToBackground() {
             Timber.d("Moving to background");
+            // Write pending JSON updates while the app is still alive
+            ContentJsonWriter.getInstance(HentoidApp.getInstance()).flush();
             if (enabled && !Preferences.getAppLockPin().isEmpty() && Preferences.isLockOnAppRestore()) {
                 HentoidApp.setUnlocked(false);
                 HentoidApp.setLockInstant(Instant.now().toEpochMilli());
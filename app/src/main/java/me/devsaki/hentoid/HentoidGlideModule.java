@@ -0,0 +1,66 @@
+package me.devsaki.hentoid;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+import java.nio.ByteBuffer;
+
+import me.devsaki.hentoid.util.ThumbnailAtlas;
+import me.devsaki.hentoid.util.ThumbnailAtlasLoader;
+
+/**
+ * Glide configuration tuned for the library's cover grid
+ */
+@GlideModule
+public class HentoidGlideModule extends AppGlideModule {
+
+    private static final String DISK_CACHE_FOLDER = "glide";
+    private static final long DISK_CACHE_SIZE = 100L * 1024 * 1024; // 100 MB
+
+    // Number of screens worth of covers to keep in memory when scrolling the library back and forth
+    private static final float MEMORY_CACHE_SCREENS = 3;
+    private static final float BITMAP_POOL_SCREENS = 3;
+
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(MEMORY_CACHE_SCREENS)
+                .setBitmapPoolScreens(BITMAP_POOL_SCREENS)
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+        builder.setBitmapPool(new LruBitmapPool(calculator.getBitmapPoolSize()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_FOLDER, DISK_CACHE_SIZE));
+
+        // Covers are opaque => RGB_565 halves the memory footprint of each decoded picture
+        // NB : Glide still uses hardware bitmaps when available (Android O+)
+        builder.setDefaultRequestOptions(new RequestOptions().format(DecodeFormat.PREFER_RGB_565));
+        builder.setLogLevel(Log.ERROR);
+    }
+
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        // Covers stored inside the packed thumbnail file
+        registry.prepend(ThumbnailAtlas.Thumbnail.class, ByteBuffer.class, new ThumbnailAtlasLoader.Factory(context));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        // No legacy Glide module is declared in the manifest
+        return false;
+    }
+}
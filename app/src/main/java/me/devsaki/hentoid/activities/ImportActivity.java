@@ -47,6 +47,7 @@ import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.PermissionUtil;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.ThemeHelper;
+import me.devsaki.hentoid.util.ThumbnailHelper;
 import me.devsaki.hentoid.util.ToastUtil;
 import timber.log.Timber;
 
@@ -568,7 +569,7 @@ public class ImportActivity extends AppCompatActivity implements KitkatRootFolde
         Timber.d("Cleaning up DB.");
         Context context = HentoidApp.getInstance();
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        db.deleteAllBooks();
+        ThumbnailHelper.removeThumbnailsAsync(context, db.deleteAllBooks());
     }
 
     private void exit(int resultCode, String data) {
@@ -32,6 +32,7 @@ import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.ThemeHelper;
+import me.devsaki.hentoid.util.Tracer;
 import me.devsaki.hentoid.views.NestedScrollWebView;
 import timber.log.Timber;
 
@@ -44,12 +45,15 @@ public class SplashActivity extends AppCompatActivity {
 
     private ProgressDialog progressDialog;
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
+    // Time spent between the creation of the splash screen and the launch of the next screen
+    private Tracer.Span splashSpan;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         Timber.d("Splash / Init");
+        splashSpan = Tracer.beginAsync("splash");
 
         EventBus.getDefault().register(this);
 
@@ -83,6 +87,7 @@ public class SplashActivity extends AppCompatActivity {
     }
 
     private void goToActivity(Intent intent) {
+        splashSpan.end();
         startActivity(intent);
         overridePendingTransition(R.anim.fade_in, R.anim.fade_out);
         finish();
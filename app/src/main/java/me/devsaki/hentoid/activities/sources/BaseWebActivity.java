@@ -10,6 +10,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.util.LruCache;
 import android.util.Pair;
 import android.view.KeyEvent;
 import android.view.MenuItem;
@@ -42,11 +43,16 @@ import com.google.android.material.bottomnavigation.BottomNavigationView;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
@@ -59,8 +65,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
@@ -92,11 +98,16 @@ import me.devsaki.hentoid.services.ContentQueueManager;
 import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.HtmlStreamSanitizer;
 import me.devsaki.hentoid.util.HttpHelper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.PermissionUtil;
 import me.devsaki.hentoid.util.Preferences;
+import me.devsaki.hentoid.util.TeeInputStream;
 import me.devsaki.hentoid.util.ToastUtil;
+import me.devsaki.hentoid.util.Tracer;
+import me.devsaki.hentoid.util.UrlBlocklist;
+import me.devsaki.hentoid.util.UrlPatternMatcher;
 import me.devsaki.hentoid.views.NestedScrollWebView;
 import okhttp3.Response;
 import pl.droidsonroids.jspoon.HtmlAdapter;
@@ -157,6 +168,14 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
     private ImageView alertIcon;
     private TextView alertMessage;
 
+    // Javascript returning the links of the current page as a JSON array
+    private static final String JS_GET_LINKS = "(function(){var r=[];for(var i=0;i<document.links.length;i++)r.push(document.links[i].href);return r;})()";
+    // Javascript outlining the links of the given JSON object (link -> mark)
+    private static final String JS_MARK_LINKS = "(function(m){for(var i=0;i<document.links.length;i++){var a=document.links[i];var s=m[a.href];"
+            + "if(s){a.style.outline=('c'==s)?'3px solid #4CAF50':'3px dashed #FF9800';a.style.outlineOffset='-3px';}}})(%s)";
+    private static final String MARK_COLLECTION = "c";
+    private static final String MARK_QUEUE = "q";
+
     // === VARIABLES
     private CustomWebViewClient webClient;
     // Currently viewed content
@@ -174,8 +193,15 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
     // List of blocked content (ads or annoying images) -- will be replaced by a blank stream
     private static final List<String> universalBlockedContent = new ArrayList<>();      // Universal list (applied to all sites)
     private List<String> localBlockedContent;                                           // Local list (applied to current site)
+    // Compiled versions of the above lists
+    private static UrlBlocklist universalBlocklist = null;
+    private volatile UrlBlocklist localBlocklist = null;
+    // Folder where users can drop additional block lists (one .txt file per list)
+    private static final String EXTERNAL_BLOCKLISTS_FOLDER = "blocklists";
     // List of "dirty" elements (CSS selector) to be cleaned before displaying the page
     private List<String> dirtyElements;
+    // Compiled version of the above list; null if it can't be handled by the streaming sanitizer
+    private HtmlStreamSanitizer dirtyElementsSanitizer;
 
     static {
         universalBlockedContent.add("exoclick.com");
@@ -220,6 +246,28 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
     protected void addContentBlockFilter(String[] filter) {
         if (null == localBlockedContent) localBlockedContent = new ArrayList<>();
         Collections.addAll(localBlockedContent, filter);
+        localBlocklist = new UrlBlocklist(localBlockedContent, Collections.emptyList());
+    }
+
+    /**
+     * Get the compiled universal block list, built at first call
+     * NB : Reads external block lists; not to be called from the UI thread
+     *
+     * @return Compiled universal block list, external block lists included
+     */
+    private static synchronized UrlBlocklist getUniversalBlocklist() {
+        if (null == universalBlocklist) {
+            List<String> contentPatterns = new ArrayList<>(universalBlockedContent);
+            List<String> hosts = new ArrayList<>();
+            File externalFolder = HentoidApp.getInstance().getExternalFilesDir(EXTERNAL_BLOCKLISTS_FOLDER);
+            File[] externalLists = (null == externalFolder) ? null : externalFolder.listFiles((dir, name) -> name.endsWith(".txt"));
+            if (externalLists != null)
+                for (File f : externalLists) UrlBlocklist.readList(f, contentPatterns, hosts);
+
+            universalBlocklist = new UrlBlocklist(contentPatterns, hosts);
+            Timber.i("Universal block list compiled : %s entries", universalBlocklist.size());
+        }
+        return universalBlocklist;
     }
 
     /**
@@ -230,6 +278,7 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
     protected void addDirtyElements(String[] elements) {
         if (null == dirtyElements) dirtyElements = new ArrayList<>();
         Collections.addAll(dirtyElements, elements);
+        dirtyElementsSanitizer = HtmlStreamSanitizer.compile(dirtyElements);
     }
 
     @Override
@@ -754,13 +803,17 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
 
         // Used to clear RxJava observers (avoiding memory leaks)
         protected final CompositeDisposable compositeDisposable = new CompositeDisposable();
+        // Maximum number of bytes of a page kept in memory while the parser and the WebView both read it
+        private static final int MAX_TEE_BUFFER_SIZE = 256 * 1024;
         // Pre-built object to represent an empty input stream
         // (will be used instead of the actual stream when the requested resource is blocked)
         private final ByteArrayInputStream nothing = new ByteArrayInputStream("".getBytes());
         // Listener to the results of the page parser
         protected final WebContentListener listener;
-        // List of the URL patterns identifying a parsable book gallery page
-        private final List<Pattern> filteredUrlPattern = new ArrayList<>();
+        // URL patterns identifying a parsable book gallery page
+        private final UrlPatternMatcher galleryUrlMatcher;
+        // Latest results of galleryUrlMatcher (the whole browsing history is examined after each page)
+        private final LruCache<String, Boolean> galleryUrlCache = new LruCache<>(100);
         // Adapter used to parse the HTML code of book gallery pages
         private final HtmlAdapter<ContentParser> htmlAdapter;
         // Domain name for which link navigation is restricted
@@ -769,6 +822,9 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
         private boolean isPageLoading = false;
         // Loading state of the HTML code of the current webpage (used to trigger the action button)
         boolean isHtmlLoaded = false;
+        // Time spent filtering the requests of the current webpage
+        private final AtomicLong filterTimeNs = new AtomicLong();
+        private final AtomicInteger filteredRequests = new AtomicInteger();
 
 
         @SuppressWarnings("unchecked")
@@ -779,7 +835,7 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
             final Jspoon jspoon = Jspoon.create();
             htmlAdapter = jspoon.adapter(c); // Unchecked but alright
 
-            for (String s : filteredUrl) filteredUrlPattern.add(Pattern.compile(s));
+            galleryUrlMatcher = new UrlPatternMatcher(filteredUrl);
         }
 
         void destroy() {
@@ -801,13 +857,12 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
          * @return True if the given URL represents a book gallery page
          */
         boolean isBookGallery(@NonNull final String url) {
-            if (filteredUrlPattern.isEmpty()) return false;
-
-            for (Pattern p : filteredUrlPattern) {
-                Matcher matcher = p.matcher(url);
-                if (matcher.find()) return true;
+            Boolean result = galleryUrlCache.get(url);
+            if (null == result) {
+                result = galleryUrlMatcher.matches(url);
+                galleryUrlCache.put(url, result);
             }
-            return false;
+            return result;
         }
 
         /**
@@ -817,14 +872,9 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
          * @return True if URL is forbidden according to current filters; false if not
          */
         private boolean isUrlForbidden(@NonNull String url) {
-            for (String s : universalBlockedContent) {
-                if (url.contains(s)) return true;
-            }
-            if (localBlockedContent != null)
-                for (String s : localBlockedContent) {
-                    if (url.contains(s)) return true;
-                }
-            return false;
+            if (getUniversalBlocklist().isForbidden(url)) return true;
+            UrlBlocklist localList = localBlocklist;
+            return localList != null && localList.isForbidden(url);
         }
 
         /**
@@ -872,6 +922,8 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
         public void onPageStarted(WebView view, String url, Bitmap favicon) {
             refreshStopMenu.setIcon(R.drawable.ic_close);
             isPageLoading = true;
+            filterTimeNs.set(0);
+            filteredRequests.set(0);
             if (!isHtmlLoaded) {
                 actionMenu.setIcon(R.drawable.selector_download_action);
                 actionMenu.setEnabled(false);
@@ -884,6 +936,14 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
             isHtmlLoaded = false; // Reset for the next page
             refreshStopMenu.setIcon(R.drawable.ic_action_refresh);
             refreshNavigationMenu();
+
+            long filterTimeUs = filterTimeNs.get() / 1000;
+            Timber.d("URL filter : %s requests filtered in %s us for %s", filteredRequests.get(), filterTimeUs, url);
+            Tracer.histogram("browser.urlFilter.pageUs", filterTimeUs);
+            Tracer.count("browser.urlFilter.requests", filteredRequests.get());
+
+            if (Preferences.isBrowserMarkDownloaded() && url != null && !isBookGallery(url))
+                markGalleryLinks();
         }
 
         /**
@@ -936,10 +996,16 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
         @Nullable
         private WebResourceResponse shouldInterceptRequestInternal(@NonNull final String url,
                                                                    @Nullable final Map<String, String> headers) {
-            if (isUrlForbidden(url)) {
+            long start = System.nanoTime();
+            boolean isForbidden = isUrlForbidden(url);
+            boolean isGallery = !isForbidden && isBookGallery(url);
+            filterTimeNs.addAndGet(System.nanoTime() - start);
+            filteredRequests.incrementAndGet();
+
+            if (isForbidden) {
                 return new WebResourceResponse("text/plain", "utf-8", nothing);
             } else {
-                if (isBookGallery(url)) return parseResponse(url, headers, true, false);
+                if (isGallery) return parseResponse(url, headers, true, false);
                 // If we're here to remove "dirty elements", we only do it on HTML resources (URLs without extension)
                 if (dirtyElements != null && HttpHelper.getExtensionFromUri(url).isEmpty())
                     return parseResponse(url, headers, false, false);
@@ -996,27 +1062,49 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
                 if (null == response.body()) throw new IOException("Empty body");
 
                 InputStream parserStream;
-                WebResourceResponse result;
+                InputStream browserStream;
                 if (canUseSingleOkHttpRequest()) {
-                    InputStream browserStream;
                     if (analyzeForDownload) {
                         // Response body bytestream needs to be duplicated
                         // because Jsoup closes it, which makes it unavailable for the WebView to use
-                        List<InputStream> is = Helper.duplicateInputStream(response.body().byteStream(), 2);
+                        // NB : Both copies are fed as bytes arrive; the WebView doesn't wait for the whole page to be downloaded
+                        List<InputStream> is = TeeInputStream.split(response.body().byteStream(), 2, getTeeBufferSize(response.body().contentLength()));
                         parserStream = is.get(0);
                         browserStream = is.get(1);
                     } else {
                         parserStream = null;
                         browserStream = response.body().byteStream();
                     }
+                } else {
+                    parserStream = response.body().byteStream();
+                    browserStream = null; // Default webview behaviour
+                }
 
+                // Parsing has to start before the WebView reads its copy, as each copy can't get too far ahead of the other one
+                if (analyzeForDownload)
+                    compositeDisposable.add(
+                            Single.fromCallable(() -> htmlAdapter.fromInputStream(parserStream, new URL(urlStr)).toContent(urlStr))
+                                    .subscribeOn(Schedulers.computation())
+                                    .doFinally(parserStream::close) // Free the WebView's copy if parsing is canceled
+                                    .observeOn(AndroidSchedulers.mainThread())
+                                    .subscribe(
+                                            content -> processContent(content, requestHeadersList, quickDownload),
+                                            throwable -> {
+                                                Timber.e(throwable, "Error parsing content.");
+                                                isHtmlLoaded = true;
+                                                listener.onResultFailed();
+                                            })
+                    );
+
+                WebResourceResponse result = null;
+                if (browserStream != null) {
                     // Remove dirty elements from HTML resources
                     if (dirtyElements != null) {
-                        String mimeType = response.header(HEADER_CONTENT_TYPE);
-                        if (mimeType != null) {
-                            mimeType = HttpHelper.cleanContentType(mimeType).first.toLowerCase();
-                            if (mimeType.contains("html"))
-                                browserStream = removeCssElementsFromStream(browserStream, urlStr, dirtyElements);
+                        String contentType = response.header(HEADER_CONTENT_TYPE);
+                        if (contentType != null) {
+                            Pair<String, String> details = HttpHelper.cleanContentType(contentType);
+                            if (details.first.toLowerCase().contains("html"))
+                                browserStream = removeCssElementsFromStream(browserStream, urlStr, details.second, dirtyElements);
                         }
                     }
 
@@ -1031,25 +1119,8 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
                             HttpHelper.setDomainCookies(urlStr, cookies);
                         }
                     }
-                } else {
-                    parserStream = response.body().byteStream();
-                    result = null; // Default webview behaviour
                 }
 
-                if (analyzeForDownload)
-                    compositeDisposable.add(
-                            Single.fromCallable(() -> htmlAdapter.fromInputStream(parserStream, new URL(urlStr)).toContent(urlStr))
-                                    .subscribeOn(Schedulers.computation())
-                                    .observeOn(AndroidSchedulers.mainThread())
-                                    .subscribe(
-                                            content -> processContent(content, requestHeadersList, quickDownload),
-                                            throwable -> {
-                                                Timber.e(throwable, "Error parsing content.");
-                                                isHtmlLoaded = true;
-                                                listener.onResultFailed();
-                                            })
-                    );
-
                 return result;
             } catch (MalformedURLException e) {
                 Timber.e(e, "Malformed URL : %s", urlStr);
@@ -1059,6 +1130,16 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
             return null;
         }
 
+        /**
+         * Get the size of the buffer shared by the parser's and the WebView's copies of a page
+         * @param contentLength Length of the page, as announced by the server; -1 if unknown
+         * @return Size of the buffer to use, in bytes
+         */
+        private int getTeeBufferSize(long contentLength) {
+            if (contentLength > 0) return (int) Math.min(contentLength, MAX_TEE_BUFFER_SIZE);
+            return MAX_TEE_BUFFER_SIZE;
+        }
+
         /**
          * Process Content parsed from a webpage
          * @param content Content to be processed
@@ -1094,11 +1175,20 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
          * Remove nodes from the HTML document contained in the given stream, using a list of CSS selectors to identify them
          * @param stream Stream containing the HTML document to process
          * @param baseUri Base URI if the document
+         * @param charset Charset of the document, as declared by the server; null if none has been declared
          * @param dirtyElements CSS selectors of the nodes to remove
          * @return Stream containing the HTML document stripped from the elements to remove
          */
-        private InputStream removeCssElementsFromStream(@NonNull InputStream stream, @NonNull String baseUri, @NonNull List<String> dirtyElements) {
+        private InputStream removeCssElementsFromStream(@NonNull InputStream stream, @NonNull String baseUri, @Nullable String charset, @NonNull List<String> dirtyElements) {
             try {
+                // Remove elements while the page is being downloaded, when possible
+                if (dirtyElementsSanitizer != null) {
+                    BufferedInputStream bufferedStream = new BufferedInputStream(stream);
+                    InputStream result = dirtyElementsSanitizer.sanitize(bufferedStream, charset);
+                    if (result != null) return result;
+                    stream = bufferedStream; // Unsupported encoding; the stream is still readable from its start
+                }
+
                 Document doc = Jsoup.parse(stream, null, baseUri);
                 for (String s : dirtyElements)
                     for (Element e : doc.select(s)) {
@@ -1114,6 +1204,82 @@ public abstract class BaseWebActivity extends BaseActivity implements WebContent
 
     }
 
+    /**
+     * Outline the links of the current page that lead to books that are already downloaded or queued
+     * NB : Only works for sites whose gallery links have the same form as {@link Content#getGalleryUrl()}
+     */
+    private void markGalleryLinks() {
+        webView.evaluateJavascript(JS_GET_LINKS, linksJson -> {
+            if (null == webClient) return;
+            Site site = getStartSite();
+            webClient.compositeDisposable.add(
+                    Single.fromCallable(() -> getGalleryLinkMarks(site, linksJson))
+                            .subscribeOn(Schedulers.io())
+                            .observeOn(AndroidSchedulers.mainThread())
+                            .subscribe(
+                                    marks -> {
+                                        if (webView != null && marks.length() > 0)
+                                            webView.evaluateJavascript(String.format(JS_MARK_LINKS, marks.toString()), null);
+                                    },
+                                    Timber::w)
+            );
+        });
+    }
+
+    /**
+     * Get the marks of the given links, i.e. whether the book they lead to is downloaded or queued
+     * NB : All gallery links of the page are looked up in one single batch
+     *
+     * @param site      Site of the page the links come from
+     * @param linksJson JSON array of the links of the page
+     * @return JSON object whose keys are the links to mark and values are either MARK_COLLECTION or MARK_QUEUE
+     * @throws JSONException If the given links can't be read
+     */
+    @WorkerThread
+    private JSONObject getGalleryLinkMarks(@NonNull Site site, @Nullable String linksJson) throws JSONException {
+        JSONObject result = new JSONObject();
+        if (null == linksJson || !linksJson.startsWith("[") || null == webClient) return result;
+
+        // Keep gallery links only, by DB URL
+        Map<String, List<String>> linksByUrl = new HashMap<>();
+        JSONArray links = new JSONArray(linksJson);
+        for (int i = 0; i < links.length(); i++) {
+            String link = links.optString(i);
+            if (link.isEmpty() || !webClient.isBookGallery(link)) continue;
+            String url = Content.getUrlFromGalleryUrl(site, link);
+            if (null == url) continue;
+            List<String> urlLinks = linksByUrl.get(url);
+            if (null == urlLinks) {
+                urlLinks = new ArrayList<>();
+                linksByUrl.put(url, urlLinks);
+            }
+            urlLinks.add(link);
+        }
+        if (linksByUrl.isEmpty()) return result;
+
+        Map<String, StatusContent> statuses = objectBoxDAO.selectContentStatusesBySourceAndUrls(site, linksByUrl.keySet());
+        for (Map.Entry<String, StatusContent> entry : statuses.entrySet()) {
+            String mark;
+            switch (entry.getValue()) {
+                case DOWNLOADED:
+                case MIGRATED:
+                case ERROR:
+                    mark = MARK_COLLECTION;
+                    break;
+                case DOWNLOADING:
+                case PAUSED:
+                    mark = MARK_QUEUE;
+                    break;
+                default:
+                    continue;
+            }
+            List<String> urlLinks = linksByUrl.get(entry.getKey());
+            if (urlLinks != null) for (String link : urlLinks) result.put(link, mark);
+        }
+        Timber.d("Marked links : %s out of %s gallery links", result.length(), linksByUrl.size());
+        return result;
+    }
+
     /**
      * Indicate if the browser's back list contains a book gallery
      * Used to determine the display of the "back to latest gallery" button
@@ -1,7 +1,10 @@
 package me.devsaki.hentoid.adapters;
 
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,11 +31,17 @@ import com.github.penfeizhou.animation.io.Reader;
 import com.github.penfeizhou.animation.io.StreamReader;
 import com.github.penfeizhou.animation.loader.Loader;
 
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import me.devsaki.hentoid.HentoidApp;
 import me.devsaki.hentoid.R;
@@ -42,6 +51,8 @@ import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.Preferences;
+import me.devsaki.hentoid.util.Tracer;
+import me.devsaki.hentoid.views.StripImageView;
 import timber.log.Timber;
 
 
@@ -51,15 +62,18 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
     private static final int IMG_TYPE_GIF = 1;      // Static and animated GIFs -> use native Glide
     private static final int IMG_TYPE_APNG = 2;     // Animated PNGs -> use APNG4Android library
 
-    @IntDef({ViewType.IMAGEVIEW, ViewType.IMAGEVIEW_STRETCH, ViewType.SSIV_HORIZONTAL, ViewType.SSIV_VERTICAL})
+    @IntDef({ViewType.IMAGEVIEW, ViewType.IMAGEVIEW_STRETCH, ViewType.SSIV_HORIZONTAL, ViewType.STRIP_VERTICAL})
     @Retention(RetentionPolicy.SOURCE)
     public @interface ViewType {
         int IMAGEVIEW = 0;
         int IMAGEVIEW_STRETCH = 1;
         int SSIV_HORIZONTAL = 2;
-        int SSIV_VERTICAL = 3;
+        int STRIP_VERTICAL = 3;
     }
 
+    // Tiles taking longer than that to decode are reported in the logs
+    private static final long SLOW_TILE_DECODE_MS = 150;
+
     private static final int PX_600_DP = Helper.dpToPixel(HentoidApp.getInstance(), 600);
 
     private final RequestOptions glideRequestOptions = new RequestOptions().centerInside();
@@ -145,7 +159,7 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
         if (Preferences.Constant.PREF_VIEWER_DISPLAY_STRETCH == displayMode)
             return ViewType.IMAGEVIEW_STRETCH;
         if (Preferences.Constant.PREF_VIEWER_ORIENTATION_VERTICAL == viewerOrientation)
-            return ViewType.SSIV_VERTICAL;
+            return ViewType.STRIP_VERTICAL;
         return ViewType.SSIV_HORIZONTAL;
     }
 
@@ -160,10 +174,8 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
         } else if (ViewType.IMAGEVIEW_STRETCH == viewType) {
             view = inflater.inflate(R.layout.item_viewer_image_simple, viewGroup, false);
             ((ImageView) view).setScaleType(ImageView.ScaleType.FIT_XY);
-        } else if (ViewType.SSIV_VERTICAL == viewType) {
-            view = inflater.inflate(R.layout.item_viewer_image_subsampling, viewGroup, false);
-            ((CustomSubsamplingScaleImageView) view).setIgnoreTouchEvents(true);
-            ((CustomSubsamplingScaleImageView) view).setDirection(CustomSubsamplingScaleImageView.Direction.VERTICAL);
+        } else if (ViewType.STRIP_VERTICAL == viewType) {
+            view = inflater.inflate(R.layout.item_viewer_image_strip, viewGroup, false);
         } else {
             view = inflater.inflate(R.layout.item_viewer_image_subsampling, viewGroup, false);
         }
@@ -192,6 +204,22 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
         if (img != null) holder.setImage(img);
     }
 
+    @Override
+    public void onViewAttachedToWindow(@NonNull ImageViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        // Resume animations when their page comes back on screen
+        Animatable animation = holder.getAnimation();
+        if (animation != null && !animation.isRunning()) animation.start();
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull ImageViewHolder holder) {
+        // Stop decoding the frames of animations whose page is off screen
+        Animatable animation = holder.getAnimation();
+        if (animation != null && animation.isRunning()) animation.stop();
+        super.onViewDetachedFromWindow(holder);
+    }
+
     @Override
     public void onViewRecycled(@NonNull ImageViewHolder holder) {
         // Set the holder back to its original constraints while in vertical mode
@@ -200,8 +228,10 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
             holder.imgView.setMinimumHeight(PX_600_DP);
 
         // Free the SSIV's resources
-        if (ViewType.SSIV_HORIZONTAL == holder.viewType || ViewType.SSIV_VERTICAL == holder.viewType) // SubsamplingScaleImageView
+        if (ViewType.SSIV_HORIZONTAL == holder.viewType) // SubsamplingScaleImageView
             ((CustomSubsamplingScaleImageView) holder.imgView).recycle();
+        else if (ViewType.STRIP_VERTICAL == holder.viewType)
+            ((StripImageView) holder.imgView).recycle();
 
         super.onViewRecycled(holder);
     }
@@ -242,7 +272,7 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
                 }
             };
 
-    final class ImageViewHolder extends RecyclerView.ViewHolder implements CustomSubsamplingScaleImageView.OnImageEventListener, RequestListener<Drawable> {
+    final class ImageViewHolder extends RecyclerView.ViewHolder implements CustomSubsamplingScaleImageView.OnImageEventListener, CustomSubsamplingScaleImageView.OnTileDecodedListener, RequestListener<Drawable> {
 
         private final @ViewType
         int viewType;
@@ -265,11 +295,17 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
             String uri = img.getAbsolutePath();
             Timber.i(">>>>IMG %s %s", imgType, uri);
 
-            if (ViewType.SSIV_HORIZONTAL == viewType || ViewType.SSIV_VERTICAL == viewType) { // SubsamplingScaleImageView
+            if (ViewType.STRIP_VERTICAL == viewType) { // Vertical strip
+                StripImageView stripView = (StripImageView) imgView;
+                stripView.setPadding(0, 0, 0, separatingBarsHeight);
+                stripView.setOnImageLoadErrorListener(this::onImageLoadError);
+                stripView.setImage(uri);
+            } else if (ViewType.SSIV_HORIZONTAL == viewType) { // SubsamplingScaleImageView
                 CustomSubsamplingScaleImageView ssView = (CustomSubsamplingScaleImageView) imgView;
                 ssView.recycle();
                 ssView.setMinimumScaleType(getScaleType());
                 ssView.setOnImageEventListener(this);
+                ssView.setOnTileDecodedListener(this);
                 ssView.setLongTapZoomEnabled(longTapZoomEnabled);
                 ssView.setAutoRotate(autoRotate);
                 if (maxBitmapWidth > 0) ssView.setMaxTileSize(maxBitmapWidth, maxBitmapHeight);
@@ -292,6 +328,18 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
             }
         }
 
+        /**
+         * Get the animation displayed by the holder
+         *
+         * @return Animation displayed by the holder; null if the holder doesn't display an animation
+         */
+        @Nullable
+        private Animatable getAnimation() {
+            if (ViewType.IMAGEVIEW != viewType) return null;
+            Drawable drawable = ((ImageView) imgView).getDrawable();
+            return (drawable instanceof Animatable) ? (Animatable) drawable : null;
+        }
+
         private int getScaleType() {
             if (Preferences.Constant.PREF_VIEWER_DISPLAY_FILL == displayMode) {
                 return CustomSubsamplingScaleImageView.ScaleType.SMART_FILL;
@@ -301,7 +349,7 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
         }
 
         void resetScale() {
-            if (ViewType.SSIV_HORIZONTAL == viewType || ViewType.SSIV_VERTICAL == viewType) {
+            if (ViewType.SSIV_HORIZONTAL == viewType) {
                 CustomSubsamplingScaleImageView ssView = (CustomSubsamplingScaleImageView) imgView;
                 if (ssView.isImageLoaded() && ssView.isReady() && ssView.isLaidOut())
                     ssView.resetScale();
@@ -327,6 +375,13 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
             // Nothing special
         }
 
+        @Override
+        public void onTileDecoded(Rect sRect, int sampleSize, long decodeTimeMs) {
+            Tracer.histogram("ssiv.tileDecode.ms", decodeTimeMs);
+            if (decodeTimeMs > SLOW_TILE_DECODE_MS)
+                Timber.d(">>>>IMG %s : slow tile %s (sample size %d) decoded in %d ms", img.getAbsolutePath(), sRect, sampleSize, decodeTimeMs);
+        }
+
         @Override
         public void onPreviewLoadError(Throwable e) {
             // Nothing special
@@ -391,26 +446,53 @@ public final class ImagePagerAdapter extends ListAdapter<ImageFile, ImagePagerAd
         public synchronized Reader obtain() throws IOException {
             DocumentFile file = FileHelper.getDocumentFile(new File(path), false); // Helper to get a DocumentFile out of the given File
             if (null == file || !file.exists()) return null; // Not triggered
-            return new ImgReader(file.getUri());
+            return ImgReader.open(file.getUri());
         }
     }
 
+    /**
+     * Reader for APNG4Android that reads the file through a buffered, seekable channel
+     * NB : The animation is decoded incrementally and rewound at each loop; rewinding seeks the channel back to
+     * the beginning of the file instead of reopening it through the content resolver
+     */
     static class ImgReader extends FilterReader {
-        private Uri uri;
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final ParcelFileDescriptor descriptor;
+        private final FileChannel channel;
 
-        private static InputStream getInputStream(Uri uri) throws IOException {
-            return HentoidApp.getInstance().getContentResolver().openInputStream(uri);
+        static ImgReader open(@NonNull Uri uri) throws IOException {
+            ParcelFileDescriptor descriptor = HentoidApp.getInstance().getContentResolver().openFileDescriptor(uri, "r");
+            if (null == descriptor) throw new IOException("Cannot open " + uri);
+            return new ImgReader(descriptor, new FileInputStream(descriptor.getFileDescriptor()).getChannel());
         }
 
-        ImgReader(Uri uri) throws IOException {
-            super(new StreamReader(getInputStream(uri)));
-            this.uri = uri;
+        private static InputStream getInputStream(@NonNull FileChannel channel) {
+            // The channel is closed along with the reader, not with the stream
+            return new BufferedInputStream(new CloseShieldInputStream(Channels.newInputStream(channel)), BUFFER_SIZE);
+        }
+
+        private ImgReader(@NonNull ParcelFileDescriptor descriptor, @NonNull FileChannel channel) {
+            super(new StreamReader(getInputStream(channel)));
+            this.descriptor = descriptor;
+            this.channel = channel;
         }
 
         @Override
         public void reset() throws IOException {
             reader.close();
-            reader = new StreamReader(getInputStream(uri));
+            channel.position(0);
+            reader = new StreamReader(getInputStream(channel));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+                channel.close();
+            } finally {
+                descriptor.close();
+            }
         }
     }
 
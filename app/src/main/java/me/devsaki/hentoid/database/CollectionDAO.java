@@ -8,7 +8,9 @@ import androidx.lifecycle.LiveData;
 import androidx.paging.PagedList;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.Single;
 import me.devsaki.hentoid.database.domains.Attribute;
@@ -20,6 +22,7 @@ import me.devsaki.hentoid.database.domains.SiteHistory;
 import me.devsaki.hentoid.enums.AttributeType;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
+import me.devsaki.hentoid.util.OrderedIdList;
 
 public interface CollectionDAO {
 
@@ -31,6 +34,8 @@ public interface CollectionDAO {
 
     Content selectContentBySourceAndUrl(@NonNull Site site, @NonNull String url);
 
+    Map<String, StatusContent> selectContentStatusesBySourceAndUrls(@NonNull Site site, @NonNull Collection<String> urls);
+
     void insertContent(@NonNull final Content content);
 
     void updateContentStatus(@NonNull final StatusContent updateFrom, @NonNull final StatusContent updateTo);
@@ -44,11 +49,11 @@ public interface CollectionDAO {
 
     // High-level queries
 
-    Single<List<Long>> getRecentBookIds(int orderStyle, boolean favouritesOnly);
+    Single<OrderedIdList> getRecentBookIds(int orderStyle, boolean favouritesOnly);
 
-    Single<List<Long>> searchBookIds(String query, List<Attribute> metadata, int orderStyle, boolean favouritesOnly);
+    Single<OrderedIdList> searchBookIds(String query, List<Attribute> metadata, int orderStyle, boolean favouritesOnly);
 
-    Single<List<Long>> searchBookIdsUniversal(String query, int orderStyle, boolean favouritesOnly);
+    Single<OrderedIdList> searchBookIdsUniversal(String query, int orderStyle, boolean favouritesOnly);
 
 
     LiveData<PagedList<Content>> searchBooksUniversal(String query, int orderStyle, boolean favouritesOnly, boolean loadAll);
@@ -70,7 +75,9 @@ public interface CollectionDAO {
 
     void updateImageContentStatus(long contentId, StatusContent updateFrom, @NonNull StatusContent updateTo);
 
-    void updateImageFileStatusParamsMimeType(@NonNull ImageFile image);
+    void updateImageFileStatusParamsMimeTypePath(@NonNull ImageFile image);
+
+    void updateImageFilePaths(@NonNull List<ImageFile> images);
 
     void deleteImageFile(@NonNull ImageFile img);
 
@@ -85,7 +92,9 @@ public interface CollectionDAO {
 
     List<QueueRecord> selectQueue();
 
-    void updateQueue(long contentId, int newOrder);
+    void reorderQueue(@NonNull List<Long> orderedIds);
+
+    int moveQueue(long contentId, int offset);
 
     void deleteQueue(@NonNull Content content);
 
@@ -95,6 +104,8 @@ public interface CollectionDAO {
 
     void addContentToQueue(@NonNull final Content content, StatusContent targetImageStatus);
 
+    void addContentToQueue(@NonNull final List<Content> contents, StatusContent targetImageStatus);
+
 
     // ATTRIBUTES
 
@@ -1,70 +1,115 @@
 package me.devsaki.hentoid.database;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
+import com.annimon.stream.function.Consumer;
+
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.StatusContent;
+import me.devsaki.hentoid.util.Consts;
+import me.devsaki.hentoid.util.Preferences;
 import timber.log.Timber;
 
 public class DatabaseMaintenance {
 
+    /**
+     * One-shot data migrations, applied once per installation in ascending version order
+     * NB : New migrations must be appended with a higher version; versions that have been released must never change
+     */
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(1, "Upgrading Pururin image hosts", DatabaseMaintenance::upgradePururinHosts),
+            new Migration(2, "Upgrading Tsumino covers", DatabaseMaintenance::upgradeTsuminoCovers)
+    );
+
     private DatabaseMaintenance() {
         throw new IllegalStateException("Utility class");
     }
 
     /**
-     * Clean up and upgrade database
-     * NB : Heavy operations; must be performed in the background to avoid ANR at startup
+     * Perform the cleanups that are needed after every app launch
+     * NB : These only involve the books that were being browsed or downloaded during the previous session
      */
-    @SuppressWarnings({"deprecation", "squid:CallToDeprecatedMethod"})
-    public static void performDatabaseHousekeeping(@NonNull Context context) {
+    public static void performStartupCleanups(@NonNull Context context) {
+        long start = SystemClock.elapsedRealtime();
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
 
-        Timber.d("Content item(s) count: %s", db.countContentEntries());
-
-        // Perform functional data updates
-        performDatabaseCleanups(db);
-
-        HentoidDB oldDb = HentoidDB.getInstance(context);
-        // Perform technical data updates on the old database engine
-        if (oldDb.countContentEntries() > 0) {
-            oldDb.updateContentStatus(StatusContent.DOWNLOADING, StatusContent.PAUSED);
-        }
-    }
-
-    private static void performDatabaseCleanups(@NonNull ObjectBoxDB db) {
         // Set items that were being downloaded in previous session as paused
-        Timber.i("Updating queue status : start");
         db.updateContentStatus(StatusContent.DOWNLOADING, StatusContent.PAUSED);
-        Timber.i("Updating queue status : done");
 
         // Add back in the queue isolated DOWNLOADING or PAUSED books that aren't in the queue (since version code 106 / v1.8.0)
-        Timber.i("Moving back isolated items to queue : start");
         List<Content> contents = db.selectContentByStatus(StatusContent.PAUSED);
-        List<Content> queueContents = db.selectQueueContents();
-        contents.removeAll(queueContents);
         if (!contents.isEmpty()) {
-            int queueMaxPos = (int) db.selectMaxQueueOrder();
-            for (Content c : contents) db.insertQueue(c.getId(), ++queueMaxPos);
+            Set<Long> queueContentIds = new HashSet<>();
+            for (long id : db.selectQueueContentIds()) queueContentIds.add(id);
+
+            for (Content c : contents)
+                if (!queueContentIds.contains(c.getId())) {
+                    db.insertQueueLast(c.getId());
+                    Timber.i("Isolated item %s moved back to queue", c.getId());
+                }
         }
-        Timber.i("Moving back isolated items to queue : done");
 
         // Clear temporary books created from browsing a book page without downloading it (since versionCode 60 / v1.3.7)
-        Timber.i("Clearing temporary books : start");
         contents = db.selectContentByStatus(StatusContent.SAVED);
-        Timber.i("Clearing temporary books : %s books detected", contents.size());
         for (Content c : contents) db.deleteContent(c);
-        Timber.i("Clearing temporary books : done");
 
-        // Update URLs from deprecated Pururin image hosts
-        Timber.i("Upgrading Pururin image hosts : start");
-        contents = db.selectContentWithOldPururinHost();
+        Timber.i("Startup cleanups : done in %s ms (%s temporary books cleared)", SystemClock.elapsedRealtime() - start, contents.size());
+    }
+
+    /**
+     * Indicate whether some one-shot data migrations haven't been applied yet
+     *
+     * @return True if some one-shot data migrations haven't been applied yet
+     */
+    public static boolean hasPendingMigrations() {
+        return Preferences.getDbMaintenanceVersion() < MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Apply the one-shot data migrations that haven't been applied yet
+     * NB : Heavy operations; must be performed in the background to avoid ANR at startup
+     */
+    public static void performPendingMigrations(@NonNull Context context) {
+        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
+        Timber.d("Content item(s) count: %s", db.countContentEntries());
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= Preferences.getDbMaintenanceVersion()) continue;
+
+            long start = SystemClock.elapsedRealtime();
+            Timber.i("%s : start", migration.description);
+            migration.action.accept(db);
+            // Recorded after each migration so that an interrupted run resumes where it stopped
+            Preferences.setDbMaintenanceVersion(migration.version);
+            Timber.i("%s : done in %s ms", migration.description, SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    /**
+     * Update the deprecated URLs of the books that have been added to the database without going through
+     * the app (legacy database migration, JSON import)
+     * NB1 : The one-shot migrations only cover the books that were in the database when they were applied
+     * NB2 : Only the books that still have deprecated URLs are updated
+     */
+    public static void performUrlUpgrades(@NonNull Context context) {
+        ObjectBoxDB db = ObjectBoxDB.getInstance(context);
+        upgradePururinHosts(db);
+        upgradeTsuminoCovers(db);
+    }
+
+    // Update URLs from deprecated Pururin image hosts
+    private static void upgradePururinHosts(@NonNull ObjectBoxDB db) {
+        List<Content> contents = db.selectContentWithOldPururinHost();
         Timber.i("Upgrading Pururin image hosts : %s books detected", contents.size());
         for (Content c : contents) {
             c.setCoverImageUrl(c.getCoverImageUrl().replace("api.pururin.io/images/", "cdn.pururin.io/assets/images/data/"));
@@ -74,11 +119,11 @@ public class DatabaseMaintenance {
                 }
             db.insertContent(c);
         }
-        Timber.i("Upgrading Pururin image hosts : done");
+    }
 
-        // Update URLs from deprecated Tsumino image covers
-        Timber.i("Upgrading Tsumino covers : start");
-        contents = db.selectContentWithOldTsuminoCovers();
+    // Update URLs from deprecated Tsumino image covers
+    private static void upgradeTsuminoCovers(@NonNull ObjectBoxDB db) {
+        List<Content> contents = db.selectContentWithOldTsuminoCovers();
         Timber.i("Upgrading Tsumino covers : %s books detected", contents.size());
         for (Content c : contents) {
             String url = c.getCoverImageUrl().replace("www.tsumino.com/Image/Thumb", "content.tsumino.com/thumbs");
@@ -86,7 +131,17 @@ public class DatabaseMaintenance {
             c.setCoverImageUrl(url);
             db.insertContent(c);
         }
-        Timber.i("Upgrading Tsumino covers : done");
+    }
+
+    /**
+     * Indicate whether the database of the old engine is still present on the device
+     * NB : Only checks the presence of its file, to avoid creating it by opening it
+     *
+     * @param context Context to use
+     * @return True if the database of the old engine is still present on the device
+     */
+    public static boolean hasLegacyDatabase(@NonNull Context context) {
+        return context.getDatabasePath(Consts.DATABASE_NAME).exists();
     }
 
     /**
@@ -120,11 +175,28 @@ public class DatabaseMaintenance {
                 db.insertQueue(i, lastIndex++);
             }
         }
+
+        // Set items that were being downloaded in previous session as paused
+        db.updateContentStatus(StatusContent.DOWNLOADING, StatusContent.PAUSED);
     }
 
     @SuppressWarnings({"deprecation", "squid:CallToDeprecatedMethod"})
     public static boolean hasToMigrate(@NonNull Context context) {
+        if (!hasLegacyDatabase(context)) return false;
         HentoidDB oldDb = HentoidDB.getInstance(context);
         return (oldDb.countContentEntries() > 0);
     }
+
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final Consumer<ObjectBoxDB> action;
+
+        Migration(int version, @NonNull String description, @NonNull Consumer<ObjectBoxDB> action) {
+            this.version = version;
+            this.description = description;
+            this.action = action;
+        }
+    }
 }
@@ -12,8 +12,10 @@ import androidx.paging.PagedList;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -33,8 +35,9 @@ import me.devsaki.hentoid.database.domains.SiteHistory;
 import me.devsaki.hentoid.enums.AttributeType;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
-import me.devsaki.hentoid.util.Helper;
+import me.devsaki.hentoid.util.OrderedIdList;
 import me.devsaki.hentoid.util.Preferences;
+import me.devsaki.hentoid.util.Tracer;
 
 public class ObjectBoxDAO implements CollectionDAO {
 
@@ -65,21 +68,21 @@ public class ObjectBoxDAO implements CollectionDAO {
     }
 
     @Override
-    public Single<List<Long>> getRecentBookIds(int orderStyle, boolean favouritesOnly) {
+    public Single<OrderedIdList> getRecentBookIds(int orderStyle, boolean favouritesOnly) {
         return Single.fromCallable(() -> contentIdSearch(Mode.SEARCH_CONTENT_MODULAR, "", Collections.emptyList(), orderStyle, favouritesOnly))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
     @Override
-    public Single<List<Long>> searchBookIds(String query, List<Attribute> metadata, int orderStyle, boolean favouritesOnly) {
+    public Single<OrderedIdList> searchBookIds(String query, List<Attribute> metadata, int orderStyle, boolean favouritesOnly) {
         return Single.fromCallable(() -> contentIdSearch(Mode.SEARCH_CONTENT_MODULAR, query, metadata, orderStyle, favouritesOnly))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
     @Override
-    public Single<List<Long>> searchBookIdsUniversal(String query, int orderStyle, boolean favouritesOnly) {
+    public Single<OrderedIdList> searchBookIdsUniversal(String query, int orderStyle, boolean favouritesOnly) {
         return
                 Single.fromCallable(() -> contentIdSearch(Mode.SEARCH_CONTENT_UNIVERSAL, query, Collections.emptyList(), orderStyle, favouritesOnly))
                         .subscribeOn(Schedulers.io())
@@ -169,15 +172,27 @@ public class ObjectBoxDAO implements CollectionDAO {
     }
 
     public Content selectContent(long id) {
-        return db.selectContentById(id);
+        try (Tracer.Span ignored = Tracer.begin("dao.selectContent")) {
+            return db.selectContentById(id);
+        }
     }
 
     public Content selectContentBySourceAndUrl(@NonNull Site site, @NonNull String url) {
-        return db.selectContentBySourceAndUrl(site, url);
+        try (Tracer.Span ignored = Tracer.begin("dao.selectContentBySourceAndUrl")) {
+            return db.selectContentBySourceAndUrl(site, url);
+        }
+    }
+
+    public Map<String, StatusContent> selectContentStatusesBySourceAndUrls(@NonNull Site site, @NonNull Collection<String> urls) {
+        try (Tracer.Span ignored = Tracer.begin("dao.selectContentStatusesBySourceAndUrls")) {
+            return db.selectContentStatusesBySourceAndUrls(site, urls);
+        }
     }
 
     public void insertContent(@NonNull final Content content) {
-        db.insertContent(content);
+        try (Tracer.Span ignored = Tracer.begin("dao.insertContent")) {
+            db.insertContent(content);
+        }
     }
 
     public void updateContentStatus(@NonNull final StatusContent updateFrom, @NonNull final StatusContent updateTo) {
@@ -201,16 +216,22 @@ public class ObjectBoxDAO implements CollectionDAO {
     }
 
     public void replaceImageList(long contentId, @NonNull final List<ImageFile> newList) {
-        db.deleteImageFiles(contentId);
-        db.insertImageFiles(newList);
+        try (Tracer.Span ignored = Tracer.begin("dao.replaceImageList")) {
+            db.deleteImageFiles(contentId);
+            db.insertImageFiles(newList);
+        }
     }
 
     public void updateImageContentStatus(long contentId, StatusContent updateFrom, @NonNull StatusContent updateTo) {
         db.updateImageContentStatus(contentId, updateFrom, updateTo);
     }
 
-    public void updateImageFileStatusParamsMimeType(@NonNull ImageFile image) {
-        db.updateImageFileStatusParamsMimeType(image);
+    public void updateImageFileStatusParamsMimeTypePath(@NonNull ImageFile image) {
+        db.updateImageFileStatusParamsMimeTypePath(image);
+    }
+
+    public void updateImageFilePaths(@NonNull List<ImageFile> images) {
+        db.updateImageFilePaths(images);
     }
 
     public void deleteImageFile(@NonNull ImageFile img) {
@@ -232,27 +253,27 @@ public class ObjectBoxDAO implements CollectionDAO {
 
 
     public void addContentToQueue(@NonNull final Content content, StatusContent targetImageStatus) {
-        if (targetImageStatus != null)
-            db.updateImageContentStatus(content.getId(), null, targetImageStatus);
-
-        content.setStatus(StatusContent.DOWNLOADING);
-        db.insertContent(content);
-
-        List<QueueRecord> queue = db.selectQueue();
-        int lastIndex = 1;
-        if (!queue.isEmpty())
-            lastIndex = queue.get(queue.size() - 1).rank + 1;
-        db.insertQueue(content.getId(), lastIndex);
+        addContentToQueue(Collections.singletonList(content), targetImageStatus);
     }
 
-    private List<Long> contentIdSearch(@Mode int mode, String filter, List<Attribute> metadata, int orderStyle, boolean favouritesOnly) {
+    public void addContentToQueue(@NonNull final List<Content> contents, StatusContent targetImageStatus) {
+        try (Tracer.Span ignored = Tracer.begin("dao.addContentToQueue")) {
+            db.insertQueueContents(contents, targetImageStatus);
+        }
+    }
 
-        if (Mode.SEARCH_CONTENT_MODULAR == mode) {
-            return Helper.getListFromPrimitiveArray(db.selectContentSearchId(filter, metadata, favouritesOnly, orderStyle));
-        } else if (Mode.SEARCH_CONTENT_UNIVERSAL == mode) {
-            return Helper.getListFromPrimitiveArray(db.selectContentUniversalId(filter, favouritesOnly, orderStyle));
-        } else {
-            return Collections.emptyList();
+    private OrderedIdList contentIdSearch(@Mode int mode, String filter, List<Attribute> metadata, int orderStyle, boolean favouritesOnly) {
+        Tracer.Span span = Tracer.begin("dao.contentIdSearch");
+        try {
+            if (Mode.SEARCH_CONTENT_MODULAR == mode) {
+                return new OrderedIdList(db.selectContentSearchId(filter, metadata, favouritesOnly, orderStyle));
+            } else if (Mode.SEARCH_CONTENT_UNIVERSAL == mode) {
+                return new OrderedIdList(db.selectContentUniversalId(filter, favouritesOnly, orderStyle));
+            } else {
+                return OrderedIdList.empty();
+            }
+        } finally {
+            Tracer.histogram("dao.contentIdSearch.ms", span.end());
         }
     }
 
@@ -264,6 +285,7 @@ public class ObjectBoxDAO implements CollectionDAO {
             int sortOrder,
             int pageNum,
             int itemPerPage) {
+        Tracer.Span span = Tracer.begin("dao.pagedAttributeSearch");
         AttributeQueryResult result = new AttributeQueryResult();
 
         if (!attrTypes.isEmpty()) {
@@ -279,10 +301,12 @@ public class ObjectBoxDAO implements CollectionDAO {
             }
         }
 
+        Tracer.histogram("dao.pagedAttributeSearch.ms", span.end());
         return result;
     }
 
     private SparseIntArray count(List<Attribute> filter) {
+        Tracer.Span span = Tracer.begin("dao.countAttributesPerType");
         SparseIntArray result;
 
         if (null == filter || filter.isEmpty()) {
@@ -293,6 +317,7 @@ public class ObjectBoxDAO implements CollectionDAO {
             result.put(AttributeType.SOURCE.getCode(), db.selectAvailableSources(filter).size());
         }
 
+        span.end();
         return result;
     }
 
@@ -308,8 +333,16 @@ public class ObjectBoxDAO implements CollectionDAO {
         return db.selectQueue();
     }
 
-    public void updateQueue(long contentId, int newOrder) {
-        db.updateQueue(contentId, newOrder);
+    public void reorderQueue(@NonNull List<Long> orderedIds) {
+        try (Tracer.Span ignored = Tracer.begin("dao.reorderQueue")) {
+            db.reorderQueue(orderedIds);
+        }
+    }
+
+    public int moveQueue(long contentId, int offset) {
+        try (Tracer.Span ignored = Tracer.begin("dao.moveQueue")) {
+            return db.moveQueue(contentId, offset);
+        }
     }
 
     public void deleteQueue(@NonNull Content content) {
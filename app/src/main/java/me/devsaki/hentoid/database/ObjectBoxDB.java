@@ -9,10 +9,14 @@ import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -52,6 +56,9 @@ public class ObjectBoxDB {
 
     // TODO - put indexes
 
+    // Gap left between the ranks of consecutive queue records, so that records can be moved without renumbering the others
+    private static final int QUEUE_RANK_GAP = 1 << 16;
+
     private static final int[] visibleContentStatus = new int[]{StatusContent.DOWNLOADED.getCode(),
             StatusContent.ERROR.getCode(),
             StatusContent.MIGRATED.getCode()};
@@ -152,10 +159,12 @@ public class ObjectBoxDB {
         return store.boxFor(Content.class).query().in(Content_.status, statusCodes).build().find();
     }
 
-    /*
-    Remove all books in the library but keep the download queue intact
+    /**
+     * Remove all books in the library but keep the download queue intact
+     *
+     * @return IDs of the removed books
      */
-    public void deleteAllBooks() {
+    public long[] deleteAllBooks() {
         // All statuses except DOWNLOADING and PAUSED that imply the book is in the download queue
         int[] storedContentStatus = new int[]{
                 StatusContent.SAVED.getCode(),
@@ -171,6 +180,7 @@ public class ObjectBoxDB {
         // Base content that has to be removed
         long[] deletableContentId = store.boxFor(Content.class).query().in(Content_.status, storedContentStatus).build().findIds();
         deleteContentById(deletableContentId);
+        return deletableContentId;
     }
 
     void deleteContent(Content content) {
@@ -237,26 +247,229 @@ public class ObjectBoxDB {
         return result;
     }
 
-    Query<QueueRecord> selectQueueContentsQ() {
-        return store.boxFor(QueueRecord.class).query().order(QueueRecord_.rank).build();
+    // NB : IDs are returned in queue order
+    long[] selectQueueContentIds() {
+        return store.boxFor(QueueRecord.class).query().order(QueueRecord_.rank).build().property(QueueRecord_.contentId).findLongs();
     }
 
-    long selectMaxQueueOrder() {
-        return store.boxFor(QueueRecord.class).query().build().property(QueueRecord_.rank).max();
+    Query<QueueRecord> selectQueueContentsQ() {
+        return store.boxFor(QueueRecord.class).query().order(QueueRecord_.rank).build();
     }
 
     public void insertQueue(long id, int order) {
         store.boxFor(QueueRecord.class).put(new QueueRecord(id, order));
     }
 
-    void updateQueue(long contentId, int newOrder) {
+    /**
+     * Add the given Content at the end of the queue
+     *
+     * @param contentId ID of the Content to add to the queue
+     */
+    void insertQueueLast(long contentId) {
+        store.runInTx(() -> appendToQueue(Collections.singletonList(contentId)));
+    }
+
+    /**
+     * Set the given Content as being downloaded and add it at the end of the queue, inside one single transaction
+     * NB : Content that is already queued keeps its place
+     *
+     * @param contents          Content to add to the queue, in queue order
+     * @param targetImageStatus Status to set to all the images of the given Content; null to leave them as they are
+     */
+    void insertQueueContents(@NonNull List<Content> contents, @Nullable StatusContent targetImageStatus) {
+        if (contents.isEmpty()) return;
+        Box<Content> contentBox = store.boxFor(Content.class);
+
+        store.runInTx(() -> {
+            List<Content> knownContents = new ArrayList<>();
+            for (Content c : contents) {
+                c.setStatus(StatusContent.DOWNLOADING);
+                // Only new Content needs its attributes to be resolved against the DB
+                if (0 == c.getId()) insertContent(c);
+                else knownContents.add(c);
+            }
+            contentBox.put(knownContents);
+
+            long[] contentIds = new long[contents.size()];
+            for (int i = 0; i < contents.size(); i++) contentIds[i] = contents.get(i).getId();
+            if (targetImageStatus != null)
+                updateImageContentStatus(contentIds, null, targetImageStatus);
+
+            appendToQueue(Helper.getListFromPrimitiveArray(contentIds));
+        });
+    }
+
+    /**
+     * Add the given Content at the end of the queue, with consecutive ranks
+     * NB : Has to be called inside a transaction
+     *
+     * @param contentIds IDs of the Content to add to the queue; those that are already queued are ignored
+     */
+    private void appendToQueue(@NonNull List<Long> contentIds) {
         Box<QueueRecord> queueRecordBox = store.boxFor(QueueRecord.class);
 
-        QueueRecord record = queueRecordBox.query().equal(QueueRecord_.contentId, contentId).order(QueueRecord_.rank).build().findFirst();
-        if (record != null) {
-            record.rank = newOrder;
-            queueRecordBox.put(record);
+        Set<Long> queuedIds = new HashSet<>();
+        for (long id : selectQueueContentIds()) queuedIds.add(id);
+        List<Long> newIds = new ArrayList<>();
+        for (Long id : contentIds) if (queuedIds.add(id)) newIds.add(id);
+        if (newIds.isEmpty()) return;
+
+        QueueRecord last = queueRecordBox.query().orderDesc(QueueRecord_.rank).build().findFirst();
+        long lastRank = (null == last) ? 0 : last.rank;
+        int gap = QUEUE_RANK_GAP;
+        if (lastRank + (long) gap * newIds.size() > Integer.MAX_VALUE) {
+            gap = getQueueRankGap(queuedIds.size());
+            lastRank = renumberQueue(queueRecordBox, gap);
         }
+
+        List<QueueRecord> records = new ArrayList<>(newIds.size());
+        for (int i = 0; i < newIds.size(); i++)
+            records.add(new QueueRecord(newIds.get(i), (int) (lastRank + (long) gap * (i + 1))));
+        queueRecordBox.put(records);
+    }
+
+    /**
+     * Reorder the queue according to the given list of Content IDs, inside one single transaction
+     * <p>
+     * Ranks are sparse : only the records that need to move get a new rank, picked between the ranks of their
+     * new neighbours. The whole queue is renumbered when there's no room left between these ranks.
+     * NB : Queued Content that isn't in the given list keeps its relative order, after the given ones
+     *
+     * @param orderedIds IDs of the queued Content, in their new order
+     */
+    void reorderQueue(@NonNull List<Long> orderedIds) {
+        Box<QueueRecord> queueRecordBox = store.boxFor(QueueRecord.class);
+        store.runInTx(() -> {
+            List<QueueRecord> queue = selectQueue();
+            Map<Long, QueueRecord> recordsByContentId = new HashMap<>();
+            for (QueueRecord record : queue) recordsByContentId.put(record.content.getTargetId(), record);
+
+            List<QueueRecord> newQueue = new ArrayList<>(queue.size());
+            for (Long contentId : orderedIds) {
+                QueueRecord record = recordsByContentId.remove(contentId);
+                if (record != null) newQueue.add(record);
+            }
+            for (QueueRecord record : queue)
+                if (recordsByContentId.containsKey(record.content.getTargetId())) newQueue.add(record);
+
+            int[] ranks = new int[newQueue.size()];
+            for (int i = 0; i < ranks.length; i++) ranks[i] = newQueue.get(i).rank;
+            int[] newRanks = computeQueueRanks(ranks, QUEUE_RANK_GAP);
+
+            List<QueueRecord> updatedRecords = new ArrayList<>();
+            for (int i = 0; i < newRanks.length; i++) {
+                QueueRecord record = newQueue.get(i);
+                if (record.rank != newRanks[i]) {
+                    record.rank = newRanks[i];
+                    updatedRecords.add(record);
+                }
+            }
+            if (!updatedRecords.isEmpty()) queueRecordBox.put(updatedRecords);
+        });
+    }
+
+    /**
+     * Move the given Content inside the queue, inside one single transaction
+     *
+     * @param contentId ID of the queued Content to move
+     * @param offset    Number of positions to move the Content by (negative = towards the top of the queue);
+     *                  the Content stops at the top or at the bottom of the queue
+     * @return Former position of the Content inside the queue; -1 if it isn't queued or hasn't moved
+     */
+    int moveQueue(long contentId, int offset) {
+        return store.callInTxNoException(() -> {
+            List<Long> orderedIds = new ArrayList<>();
+            for (long id : selectQueueContentIds()) orderedIds.add(id);
+            int position = orderedIds.indexOf(contentId);
+            if (position < 0) return -1;
+            int newPosition = (int) Math.max(0, Math.min(orderedIds.size() - 1L, (long) position + offset));
+            if (newPosition == position) return -1;
+
+            orderedIds.add(newPosition, orderedIds.remove(position));
+            reorderQueue(orderedIds); // Runs inside the current transaction
+            return position;
+        });
+    }
+
+    /**
+     * Renumber the whole queue with evenly spaced ranks
+     * NB : Has to be called inside a transaction
+     *
+     * @param gap Gap to leave between ranks
+     * @return Rank of the last record of the queue; 0 if the queue is empty
+     */
+    private long renumberQueue(@NonNull Box<QueueRecord> queueRecordBox, int gap) {
+        List<QueueRecord> queue = selectQueue();
+        for (int i = 0; i < queue.size(); i++) queue.get(i).rank = gap * (i + 1);
+        queueRecordBox.put(queue);
+        Timber.d("Queue renumbered (%s records)", queue.size());
+        return (long) gap * queue.size();
+    }
+
+    /**
+     * Compute the ranks of queue records that have been reordered, rewriting as few of them as possible
+     * <p>
+     * The records that are already in order (the longest strictly increasing sequence of current ranks) keep
+     * their rank; the others get ranks evenly spread between those of their nearest kept neighbours
+     *
+     * @param ranks Current ranks of the queue records, in their new order
+     * @param gap   Gap to leave between ranks when there's no upper or lower bound
+     * @return New ranks of the queue records, in the same order
+     */
+    static int[] computeQueueRanks(@NonNull int[] ranks, int gap) {
+        int n = ranks.length;
+        int[] result = new int[n];
+        if (0 == n) return result;
+
+        // Longest strictly increasing subsequence (patience sorting)
+        int[] tailIndexes = new int[n];
+        int[] previousIndexes = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ranks[tailIndexes[mid]] < ranks[i]) low = mid + 1;
+                else high = mid;
+            }
+            previousIndexes[i] = (low > 0) ? tailIndexes[low - 1] : -1;
+            tailIndexes[low] = i;
+            if (low == length) length++;
+        }
+        boolean[] kept = new boolean[n];
+        for (int i = tailIndexes[length - 1]; i >= 0; i = previousIndexes[i]) kept[i] = true;
+
+        // Spread the other records between the kept ones
+        int i = 0;
+        while (i < n) {
+            if (kept[i]) {
+                result[i] = ranks[i];
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < n && !kept[i]) i++;
+            int runLength = i - runStart;
+            // Bounds are exclusive; without a neighbour, the gap shrinks when it would get past the range of int
+            long lower = (runStart > 0) ? result[runStart - 1] : Math.max((long) ranks[i] - (long) gap * (runLength + 1), Integer.MIN_VALUE - 1L);
+            long upper = (i < n) ? ranks[i] : Math.min(lower + (long) gap * (runLength + 1), Integer.MAX_VALUE + 1L);
+            long step = (upper - lower) / (runLength + 1);
+            if (step < 1) return renumberQueueRanks(n, gap);
+            for (int j = 0; j < runLength; j++) result[runStart + j] = (int) (lower + step * (j + 1));
+        }
+        return result;
+    }
+
+    private static int[] renumberQueueRanks(int size, int gap) {
+        int[] result = new int[size];
+        gap = Math.min(gap, getQueueRankGap(size));
+        for (int i = 0; i < size; i++) result[i] = gap * (i + 1);
+        return result;
+    }
+
+    private static int getQueueRankGap(int queueSize) {
+        return (int) Math.max(1, Math.min(QUEUE_RANK_GAP, Integer.MAX_VALUE / ((long) queueSize + 1)));
     }
 
     void deleteQueue(@NonNull Content content) {
@@ -264,7 +477,8 @@ public class ObjectBoxDB {
     }
 
     void deleteQueue(int queueIndex) {
-        store.boxFor(QueueRecord.class).remove(selectQueue().get(queueIndex).id);
+        List<QueueRecord> records = selectQueueContentsQ().find(queueIndex, 1);
+        if (!records.isEmpty()) store.boxFor(QueueRecord.class).remove(records.get(0));
     }
 
     private void deleteQueue(long contentId) {
@@ -289,7 +503,30 @@ public class ObjectBoxDB {
 
     @Nullable
     Content selectContentBySourceAndUrl(@NonNull Site site, @NonNull String url) {
-        return store.boxFor(Content.class).query().equal(Content_.url, url).equal(Content_.site, site.getCode()).build().findFirst();
+        return store.boxFor(Content.class).query().equal(Content_.url, url, QueryBuilder.StringOrder.CASE_SENSITIVE).equal(Content_.site, site.getCode()).build().findFirst();
+    }
+
+    /**
+     * Get the status of the books of the given source that have the given URLs, in one single read transaction
+     * NB : Each URL is looked up through the index of Content.url, which is only used by case-sensitive conditions
+     *
+     * @param site Source of the books to look for
+     * @param urls URLs of the books to look for, as stored in Content.url
+     * @return Status of the books that have been found, by URL; unknown URLs are absent from the result
+     */
+    Map<String, StatusContent> selectContentStatusesBySourceAndUrls(@NonNull Site site, @NonNull Collection<String> urls) {
+        Map<String, StatusContent> result = new HashMap<>();
+        if (urls.isEmpty()) return result;
+
+        Query<Content> query = store.boxFor(Content.class).query().equal(Content_.url, "", QueryBuilder.StringOrder.CASE_SENSITIVE).equal(Content_.site, site.getCode()).build();
+        store.runInReadTx(() -> {
+            for (String url : urls) {
+                Content content = query.setParameter(Content_.url, url).findFirst();
+                if (content != null && content.getStatus() != null)
+                    result.put(url, content.getStatus());
+            }
+        });
+        return result;
     }
 
     private static long[] getIdsFromAttributes(@NonNull List<Attribute> attrs) {
@@ -639,22 +876,45 @@ public class ObjectBoxDB {
         return result;
     }
 
-    void updateImageFileStatusParamsMimeType(@NonNull ImageFile image) {
+    void updateImageFileStatusParamsMimeTypePath(@NonNull ImageFile image) {
         Box<ImageFile> imgBox = store.boxFor(ImageFile.class);
         ImageFile img = imgBox.get(image.getId());
         if (img != null) {
             img.setStatus(image.getStatus());
             img.setDownloadParams(image.getDownloadParams());
+            img.setBackupUrl(image.getBackupUrl());
+            img.setPageInfo(image.getPageInfo());
             img.setMimeType(image.getMimeType());
+            img.setAbsolutePath(image.getAbsolutePath());
             imgBox.put(img);
         }
     }
 
+    void updateImageFilePaths(@NonNull List<ImageFile> images) {
+        Box<ImageFile> imgBox = store.boxFor(ImageFile.class);
+        store.runInTx(() -> {
+            List<ImageFile> toUpdate = new ArrayList<>(images.size());
+            for (ImageFile image : images) {
+                ImageFile img = imgBox.get(image.getId());
+                if (img != null) {
+                    img.setAbsolutePath(image.getAbsolutePath());
+                    toUpdate.add(img);
+                }
+            }
+            imgBox.put(toUpdate);
+        });
+    }
+
     void updateImageContentStatus(long contentId, StatusContent
             updateFrom, @NonNull StatusContent updateTo) {
+        updateImageContentStatus(new long[]{contentId}, updateFrom, updateTo);
+    }
+
+    private void updateImageContentStatus(@NonNull long[] contentIds, StatusContent
+            updateFrom, @NonNull StatusContent updateTo) {
         QueryBuilder<ImageFile> query = store.boxFor(ImageFile.class).query();
         if (updateFrom != null) query.equal(ImageFile_.status, updateFrom.getCode());
-        List<ImageFile> imgs = query.equal(ImageFile_.contentId, contentId).build().find();
+        List<ImageFile> imgs = query.in(ImageFile_.contentId, contentIds).build().find();
 
         if (imgs.isEmpty()) return;
 
@@ -15,6 +15,7 @@ import io.objectbox.annotation.Backlink;
 import io.objectbox.annotation.Convert;
 import io.objectbox.annotation.Entity;
 import io.objectbox.annotation.Id;
+import io.objectbox.annotation.Index;
 import io.objectbox.annotation.Transient;
 import io.objectbox.relation.ToMany;
 import me.devsaki.hentoid.activities.sources.ASMHentaiActivity;
@@ -47,7 +48,9 @@ public class Content implements Serializable {
 
     @Id
     private long id;
+    @Index
     private String url;
+    @Index
     private String uniqueSiteId; // Has to be queryable in DB, hence has to be a field
     private String title;
     private String author;
@@ -69,6 +72,10 @@ public class Content implements Serializable {
     private int lastReadPageIndex = 0;
     // Temporary during SAVED state only; no need to expose them for JSON persistence
     private String downloadParams;
+    // Headers shared by the download requests of all pages, set when parsing the image list
+    // Temporary during SAVED state only; no need to expose them for JSON persistence
+    private String downloadCookie;
+    private String downloadReferer;
     // Temporary during ERROR state only; no need to expose them for JSON persistence
     @Backlink(to = "content")
     private ToMany<ErrorRecord> errorLog;
@@ -291,6 +298,16 @@ public class Content implements Serializable {
     }
 
     public String getGalleryUrl() {
+        return getGalleryUrlPrefix(site) + url;
+    }
+
+    /**
+     * Get the part of the gallery URL that precedes the URL stored in the DB, for the given source
+     *
+     * @param site Source to get the gallery URL prefix for
+     * @return Part of the gallery URL that precedes the URL stored in the DB
+     */
+    private static String getGalleryUrlPrefix(@NonNull Site site) {
         String galleryConst;
         switch (site) {
             case PURURIN:
@@ -316,9 +333,9 @@ public class Content implements Serializable {
                 galleryConst = "/view";
                 break;
             case LUSCIOUS:
-                return site.getUrl().replace("/manga/", "") + url;
+                return site.getUrl().replace("/manga/", "");
             case PORNCOMIX:
-                return url;
+                return "";
             case FAKKU:
             case HENTAICAFE:
             case PANDA:
@@ -329,7 +346,22 @@ public class Content implements Serializable {
                 galleryConst = "";
         }
 
-        return site.getUrl() + galleryConst + url;
+        return site.getUrl() + galleryConst;
+    }
+
+    /**
+     * Get the URL to store in the DB for the given gallery URL; reverse of {@link #getGalleryUrl()}
+     * NB : Only works for gallery URLs that have the same form as the ones built by {@link #getGalleryUrl()}
+     *
+     * @param site       Source of the gallery
+     * @param galleryUrl Gallery URL to convert
+     * @return URL to store in the DB; null if the given gallery URL doesn't have the expected form
+     */
+    @Nullable
+    public static String getUrlFromGalleryUrl(@NonNull Site site, @NonNull String galleryUrl) {
+        String prefix = getGalleryUrlPrefix(site);
+        if (!galleryUrl.startsWith(prefix) || galleryUrl.length() == prefix.length()) return null;
+        return galleryUrl.substring(prefix.length());
     }
 
     public String getReaderUrl() {
@@ -569,6 +601,24 @@ public class Content implements Serializable {
         return this;
     }
 
+    public String getDownloadCookie() {
+        return (null == downloadCookie) ? "" : downloadCookie;
+    }
+
+    public Content setDownloadCookie(String downloadCookie) {
+        this.downloadCookie = downloadCookie;
+        return this;
+    }
+
+    public String getDownloadReferer() {
+        return (null == downloadReferer) ? "" : downloadReferer;
+    }
+
+    public Content setDownloadReferer(String downloadReferer) {
+        this.downloadReferer = downloadReferer;
+        return this;
+    }
+
     public int getLastReadPageIndex() {
         return lastReadPageIndex;
     }
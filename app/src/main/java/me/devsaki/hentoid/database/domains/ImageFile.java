@@ -28,9 +28,17 @@ public class ImageFile {
     private StatusContent status;
     public ToOne<Content> content;
     private String mimeType;
+    // Absolute storage path of the downloaded image, recorded by the downloader and the importer; empty or null if unknown
+    // NB : Trusted by the image viewer; only checked when the image is displayed
+    private String absolutePath;
 
 
     // Temporary attributes during SAVED state only; no need to expose them for JSON persistence
+    // URL of the page to parse again if the image can't be downloaded
+    private String backupUrl;
+    // Processing information of Fakku's protected pages (serialized PageInfo or "unprotected")
+    private String pageInfo;
+    // Legacy download parameters (JSON map); only valued by images queued with previous versions
     private String downloadParams;
 
 
@@ -39,9 +47,6 @@ public class ImageFile {
     // Display order of the image in the image viewer
     @Transient
     private int displayOrder;
-    // Absolute storage path of the image
-    @Transient
-    private String absolutePath;
     // Has the image been read from a backup URL ?
     @Transient
     private boolean isBackup = false;
@@ -114,6 +119,24 @@ public class ImageFile {
         return this;
     }
 
+    public String getBackupUrl() {
+        return (null == backupUrl) ? "" : backupUrl;
+    }
+
+    public ImageFile setBackupUrl(String backupUrl) {
+        this.backupUrl = backupUrl;
+        return this;
+    }
+
+    public String getPageInfo() {
+        return (null == pageInfo) ? "" : pageInfo;
+    }
+
+    public ImageFile setPageInfo(String pageInfo) {
+        this.pageInfo = pageInfo;
+        return this;
+    }
+
     public boolean isFavourite() {
         return favourite;
     }
@@ -2,11 +2,16 @@ package me.devsaki.hentoid.fragments
 
 import android.content.SharedPreferences
 import android.os.Bundle
+import android.text.format.Formatter
 import androidx.appcompat.app.AppCompatActivity
 import androidx.fragment.app.commit
 import androidx.preference.Preference
 import androidx.preference.PreferenceFragmentCompat
 import androidx.preference.PreferenceScreen
+import io.reactivex.Completable
+import io.reactivex.Single
+import io.reactivex.android.schedulers.AndroidSchedulers
+import io.reactivex.schedulers.Schedulers
 import me.devsaki.hentoid.R
 import me.devsaki.hentoid.activities.PinPreferenceActivity
 import me.devsaki.hentoid.enums.Theme
@@ -15,6 +20,7 @@ import me.devsaki.hentoid.services.ImportService
 import me.devsaki.hentoid.services.UpdateCheckService
 import me.devsaki.hentoid.services.UpdateDownloadService
 import me.devsaki.hentoid.util.*
+import timber.log.Timber
 
 
 class PreferenceFragment : PreferenceFragmentCompat(),
@@ -60,6 +66,7 @@ class PreferenceFragment : PreferenceFragmentCompat(),
         setPreferencesFromResource(R.xml.preferences, rootKey)
 
         onFolderChanged()
+        updateHttpCacheSummary()
     }
 
     override fun onPreferenceTreeClick(preference: Preference): Boolean =
@@ -84,6 +91,14 @@ class PreferenceFragment : PreferenceFragmentCompat(),
                     requireContext().startLocalActivity<PinPreferenceActivity>()
                     true
                 }
+                Preferences.Key.PREF_TRACING_EXPORT -> {
+                    onExportTracePrefClick()
+                    true
+                }
+                Preferences.Key.PREF_HTTP_CACHE -> {
+                    onHttpCachePrefClick()
+                    true
+                }
                 else -> super.onPreferenceTreeClick(preference)
             }
 
@@ -105,6 +120,60 @@ class PreferenceFragment : PreferenceFragmentCompat(),
         }
     }
 
+    private fun onExportTracePrefClick() {
+        val context = requireContext().applicationContext
+        // Result is displayed as a toast; no need to keep the subscription
+        Single.fromCallable { LogUtil.writeTrace(context)?.absolutePath ?: "" }
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        { path ->
+                            if (path.isEmpty()) ToastUtil.toast(context, R.string.pref_tracing_export_failure)
+                            else ToastUtil.toast(context, context.getString(R.string.pref_tracing_export_success, path))
+                        },
+                        { t ->
+                            Timber.w(t)
+                            ToastUtil.toast(context, R.string.pref_tracing_export_failure)
+                        }
+                )
+    }
+
+    private fun onHttpCachePrefClick() {
+        val context = requireContext().applicationContext
+        // Result is displayed as a toast; no need to keep the subscription
+        Completable.fromRunnable { OkHttpClientSingleton.clearCache() }
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        {
+                            ToastUtil.toast(context, R.string.pref_http_cache_cleared)
+                            if (isAdded) updateHttpCacheSummary()
+                        },
+                        { t -> Timber.w(t) }
+                )
+    }
+
+    private fun updateHttpCacheSummary() {
+        val httpCachePref: Preference = findPreference(Preferences.Key.PREF_HTTP_CACHE) ?: return
+        val context = requireContext().applicationContext
+        // Reading the size of the cache may read its journal
+        Single.fromCallable { OkHttpClientSingleton.getCacheStats()?.let { listOf(it) } ?: emptyList() }
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        { stats ->
+                            stats.firstOrNull()?.let {
+                                httpCachePref.summary = context.getString(R.string.pref_http_cache_summary,
+                                        it.hitCount,
+                                        it.requestCount,
+                                        Formatter.formatShortFileSize(context, it.size),
+                                        Formatter.formatShortFileSize(context, it.maxSize))
+                            }
+                        },
+                        { t -> Timber.w(t) }
+                )
+    }
+
     private fun onPrefRequiringRestartChanged() {
         ToastUtil.toast(R.string.restart_needed)
     }
@@ -129,6 +198,7 @@ class PreferenceFragment : PreferenceFragmentCompat(),
             Preferences.Key.PREF_ANALYTICS_PREFERENCE -> onPrefRequiringRestartChanged()
             Preferences.Key.PREF_SETTINGS_FOLDER,
             Preferences.Key.PREF_SD_STORAGE_URI -> onFolderChanged()
+            Preferences.Key.PREF_TRACING_ENABLED -> Tracer.setEnabled(Preferences.isTracingEnabled())
         }
     }
 }
\ No newline at end of file
@@ -68,7 +68,6 @@ import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.events.AppUpdatedEvent;
-import me.devsaki.hentoid.services.ContentQueueManager;
 import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.Debouncer;
 import me.devsaki.hentoid.util.FileHelper;
@@ -129,6 +128,8 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
     private MenuItem itemShare;
     private MenuItem itemArchive;
     private MenuItem itemDeleteSwipe;
+    // Displays the progress of the current export
+    private Snackbar exportSnackbar = null;
 
     // === FASTADAPTER COMPONENTS AND HELPERS
     private ItemAdapter<ContentItem> itemAdapter;
@@ -286,6 +287,10 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
         viewModel.getNewSearch().observe(getViewLifecycleOwner(), this::onNewSearch);
         viewModel.getLibraryPaged().observe(getViewLifecycleOwner(), this::onLibraryChanged);
         viewModel.getTotalContent().observe(getViewLifecycleOwner(), this::onTotalContentChanged);
+        viewModel.getExportProgress().observe(getViewLifecycleOwner(), this::onExportProgress);
+        viewModel.getExportResult().observe(getViewLifecycleOwner(), this::onContentExportSuccess);
+        viewModel.getExportError().observe(getViewLifecycleOwner(), this::onContentExportError);
+        viewModel.getContentQueued().observe(getViewLifecycleOwner(), this::onContentQueued);
 
         viewModel.updateOrder(); // Trigger a blank search
     }
@@ -502,7 +507,6 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
 
         itemDelete.setVisible(!isMultipleSelection);
         itemShare.setVisible(!isMultipleSelection);
-        itemArchive.setVisible(!isMultipleSelection);
         itemDeleteSwipe.setVisible(isMultipleSelection);
 
         selectionToolbar.setTitle(selectedCount + (selectedCount > 1 ? " items selected" : " item selected"));
@@ -541,6 +545,11 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
             ToastUtil.toast(R.string.packaging_content);
             Content c = Stream.of(selectedItems).findFirst().get().getContent();
             if (c != null) viewModel.archiveContent(c, this::onContentArchiveSuccess);
+        } else if (selectedItems.size() > 1) {
+            // Several books are exported as CBZ archives to the Downloads folder
+            // NB : The view model ignores the request if an export is already running
+            List<Content> contents = Stream.of(selectedItems).map(ContentItem::getContent).toList();
+            viewModel.exportContents(contents);
         }
     }
 
@@ -611,6 +620,54 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
         }
     }
 
+    /**
+     * LiveData callback for the progress of the "export items" action
+     *
+     * @param percent Percentage of the export that has been processed; null if no export is running
+     */
+    private void onExportProgress(@Nullable Integer percent) {
+        if (null == percent) {
+            if (exportSnackbar != null) exportSnackbar.dismiss();
+            exportSnackbar = null;
+            return;
+        }
+
+        String text = getString(R.string.export_progress, percent);
+        if (null == exportSnackbar) {
+            exportSnackbar = Snackbar.make(recyclerView, text, BaseTransientBottomBar.LENGTH_INDEFINITE);
+            exportSnackbar.show();
+        } else {
+            exportSnackbar.setText(text);
+        }
+    }
+
+    /**
+     * LiveData callback for the success of the "export items" action
+     *
+     * @param nbArchives Number of archives that have been created; null if there's nothing to notify
+     */
+    private void onContentExportSuccess(@Nullable Integer nbArchives) {
+        if (null == nbArchives) return;
+        viewModel.clearExportOutcome();
+
+        Snackbar.make(recyclerView, getResources().getQuantityString(R.plurals.export_success, nbArchives, nbArchives), BaseTransientBottomBar.LENGTH_LONG)
+                .setAction("OPEN FOLDER", v -> FileHelper.openFile(requireContext(), FileHelper.getDownloadsFolder()))
+                .show();
+    }
+
+    /**
+     * LiveData callback for the failure of the "export items" action
+     *
+     * @param t Error that occurred; null if there's nothing to notify
+     */
+    private void onContentExportError(@Nullable Throwable t) {
+        if (null == t) return;
+        viewModel.clearExportOutcome();
+        Timber.e(t, "Export failed");
+
+        Snackbar.make(recyclerView, R.string.export_fail, BaseTransientBottomBar.LENGTH_LONG).show();
+    }
+
     /**
      * Display the yes/no dialog to make sure the user really wants to delete selected items
      *
@@ -726,6 +783,13 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        // The export snackbar belongs to the view; it is recreated with the next one if the export is still running
+        exportSnackbar = null;
+        super.onDestroyView();
+    }
+
     @Override
     public void onDestroy() {
         Preferences.unregisterPrefsChangedListener(prefsListener);
@@ -1094,10 +1158,17 @@ public class LibraryFragment extends Fragment implements ErrorsDialogFragment.Pa
 
     private void redownloadContent(@NonNull final List<Content> contentList, boolean reparseImages) {
         StatusContent targetImageStatus = reparseImages ? StatusContent.ERROR : null;
-        for (Content c : contentList) viewModel.addContentToQueue(c, targetImageStatus);
+        viewModel.addContentToQueue(contentList, targetImageStatus);
+    }
 
-        if (Preferences.isQueueAutostart())
-            ContentQueueManager.getInstance().resumeQueue(getContext());
+    /**
+     * LiveData callback for the end of the addition of content to the download queue
+     *
+     * @param isQueued True if content has just been added to the download queue
+     */
+    private void onContentQueued(Boolean isQueued) {
+        if (!Boolean.TRUE.equals(isQueued)) return;
+        viewModel.clearContentQueued();
 
         Snackbar snackbar = Snackbar.make(recyclerView, R.string.add_to_queue, BaseTransientBottomBar.LENGTH_LONG);
         snackbar.setAction("VIEW QUEUE", v -> viewQueue());
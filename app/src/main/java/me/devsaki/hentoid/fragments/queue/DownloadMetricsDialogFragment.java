@@ -0,0 +1,147 @@
+package me.devsaki.hentoid.fragments.queue;
+
+import android.os.Bundle;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.Fragment;
+
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
+import me.devsaki.hentoid.R;
+import me.devsaki.hentoid.util.DownloadMetrics;
+import timber.log.Timber;
+
+import static androidx.core.view.ViewCompat.requireViewById;
+
+/**
+ * Info dialog for download metrics, by site and host
+ */
+public class DownloadMetricsDialogFragment extends DialogFragment {
+
+    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
+
+    private TextView details;
+
+    public static void invoke(Fragment parent) {
+        DownloadMetricsDialogFragment fragment = new DownloadMetricsDialogFragment();
+        fragment.show(parent.getChildFragmentManager(), null);
+    }
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedState) {
+        return inflater.inflate(R.layout.dialog_queue_metrics, container, false);
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View rootView, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(rootView, savedInstanceState);
+
+        details = requireViewById(rootView, R.id.metrics_details);
+        details.setText(R.string.downloads_loading);
+
+        View resetButton = requireViewById(rootView, R.id.reset_btn);
+        resetButton.setOnClickListener(v -> this.resetStats());
+
+        loadStats();
+    }
+
+    private void loadStats() {
+        DownloadMetrics metrics = DownloadMetrics.getInstance(requireContext());
+        compositeDisposable.add(
+                Single.fromCallable(metrics::getStats)
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                this::displayStats,
+                                Timber::w
+                        )
+        );
+    }
+
+    private void resetStats() {
+        DownloadMetrics metrics = DownloadMetrics.getInstance(requireContext());
+        compositeDisposable.add(
+                Completable.fromRunnable(metrics::clear)
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                this::loadStats,
+                                Timber::w
+                        )
+        );
+    }
+
+    private void displayStats(@NonNull List<DownloadMetrics.HostStats> stats) {
+        if (stats.isEmpty()) {
+            details.setText(R.string.dl_metrics_empty);
+            return;
+        }
+
+        String lineSeparator = System.getProperty("line.separator");
+        StringBuilder detailsStr = new StringBuilder();
+
+        // Current decisions of the download concurrency controller
+        Map<String, Integer> concurrency = DownloadMetrics.getInstance(requireContext()).getConcurrency();
+        if (!concurrency.isEmpty()) {
+            StringBuilder concurrencyStr = new StringBuilder();
+            for (Map.Entry<String, Integer> host : concurrency.entrySet()) {
+                if (concurrencyStr.length() > 0) concurrencyStr.append(", ");
+                concurrencyStr.append(host.getKey()).append(" x").append(host.getValue());
+            }
+            detailsStr.append(getString(R.string.dl_metrics_concurrency, concurrencyStr.toString()));
+            detailsStr.append(lineSeparator);
+        }
+
+        for (DownloadMetrics.HostStats s : stats) {
+            if (detailsStr.length() > 0) detailsStr.append(lineSeparator);
+            detailsStr.append(s.getSite()).append(" - ").append(s.getHost()).append(lineSeparator);
+
+            detailsStr.append(getString(R.string.dl_metrics_images, s.getImages(), s.getErrors(), s.getRetries(), s.getBackupUrls()));
+            detailsStr.append(lineSeparator);
+
+            long p95 = s.getP95LatencyMs();
+            detailsStr.append(getString(R.string.dl_metrics_speed,
+                    Formatter.formatShortFileSize(requireContext(), s.getBytesPerSecond()),
+                    s.getAverageLatencyMs(),
+                    (p95 < 0) ? "> 30000" : Long.toString(p95)));
+            detailsStr.append(lineSeparator);
+
+            StringBuilder statusesStr = new StringBuilder();
+            for (Map.Entry<String, Long> status : s.getStatuses().entrySet()) {
+                if (statusesStr.length() > 0) statusesStr.append(", ");
+                statusesStr.append(status.getKey()).append(" x").append(status.getValue());
+            }
+            detailsStr.append(getString(R.string.dl_metrics_statuses, statusesStr.toString()));
+            detailsStr.append(lineSeparator);
+
+            detailsStr.append(getString(R.string.dl_metrics_phases,
+                    s.getPhaseMs(DownloadMetrics.Phase.PARSE) / 1000,
+                    s.getPhaseMs(DownloadMetrics.Phase.DOWNLOAD) / 1000,
+                    s.getPhaseMs(DownloadMetrics.Phase.PROCESS) / 1000,
+                    s.getPhaseMs(DownloadMetrics.Phase.SAVE) / 1000));
+            detailsStr.append(lineSeparator);
+        }
+
+        details.setText(detailsStr.toString());
+    }
+
+    @Override
+    public void onDestroy() {
+        compositeDisposable.clear();
+        super.onDestroy();
+    }
+}
@@ -2,6 +2,7 @@ package me.devsaki.hentoid.fragments.queue;
 
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
@@ -138,6 +139,7 @@ public class QueueFragment extends Fragment {
 
         toolbar = requireViewById(rootView, R.id.queue_toolbar);
         toolbar.setNavigationOnClickListener(v -> requireActivity().onBackPressed());
+        toolbar.setOnMenuItemClickListener(this::toolbarOnItemClicked);
 
         mEmptyText = requireViewById(rootView, R.id.queue_empty_txt);
 
@@ -474,6 +476,14 @@ public class QueueFragment extends Fragment {
         }
     }
 
+    private boolean toolbarOnItemClicked(@NonNull MenuItem menuItem) {
+        if (menuItem.getItemId() == R.id.action_download_metrics) {
+            DownloadMetricsDialogFragment.invoke(this);
+            return true;
+        }
+        return false;
+    }
+
     private void showErrorStats() {
         if (itemAdapter.getAdapterItemCount() > 0) {
             Content c = itemAdapter.getAdapterItem(0).getContent();
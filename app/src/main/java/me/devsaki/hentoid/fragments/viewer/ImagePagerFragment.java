@@ -527,6 +527,7 @@ public class ImagePagerFragment extends Fragment implements GoToPageDialogFragme
             Timber.w("No image at position %s", imageIndex);
             return;
         }
+        viewModel.verifyPageFile(img);
 
         String pageNum = img.getOrder() + "";
         String maxPage = maxPageNumber + "";
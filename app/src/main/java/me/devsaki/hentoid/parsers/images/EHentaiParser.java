@@ -11,9 +11,7 @@ import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -25,7 +23,6 @@ import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.events.DownloadEvent;
 import me.devsaki.hentoid.parsers.ParseHelper;
 import me.devsaki.hentoid.util.HttpHelper;
-import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.exception.LimitReachedException;
 import me.devsaki.hentoid.util.exception.PreparationInterruptedException;
 
@@ -43,7 +40,6 @@ public class EHentaiParser implements ImageListParser {
 
         List<ImageFile> result = new ArrayList<>();
         boolean useHentoidAgent = Site.EHENTAI.canKnowHentoidAgent();
-        Map<String, String> downloadParams = new HashMap<>();
         int order = 1;
 
         /*
@@ -114,9 +110,7 @@ public class EHentaiParser implements ImageListParser {
                             // Get the final URL
                             doc = getOnlineDocument(pageUrl, headers, useHentoidAgent);
                             if (doc != null) {
-                                downloadParams.put("backupUrl", pageUrl);
-                                String downloadParamsStr = JsonHelper.serializeToJson(downloadParams, JsonHelper.MAP_STRINGS);
-                                img.setDownloadParams(downloadParamsStr);
+                                img.setBackupUrl(pageUrl);
                             }
                         }
                     }
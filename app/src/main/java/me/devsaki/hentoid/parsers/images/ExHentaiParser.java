@@ -12,7 +12,6 @@ import org.jsoup.select.Elements;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -71,7 +70,6 @@ public class ExHentaiParser implements ImageListParser {
             String cookieValue = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY) + "; nw=1"; // nw=1 (always) avoids the Offensive Content popup (equivalent to clicking the "Never warn me again" link)
             headers.add(new Pair<>(HttpHelper.HEADER_COOKIE_KEY, cookieValue));
 
-            Map<String, String> targetDownloadParams = new HashMap<>();
             int order = 1;
 
             /*
@@ -140,9 +138,7 @@ public class ExHentaiParser implements ImageListParser {
                                 // Get the final URL
                                 doc = getOnlineDocument(pageUrl, headers, useHentoidAgent);
                                 if (doc != null) {
-                                    targetDownloadParams.put("backupUrl", pageUrl);
-                                    downloadParamsStr = JsonHelper.serializeToJson(targetDownloadParams, JsonHelper.MAP_STRINGS);
-                                    img.setDownloadParams(downloadParamsStr);
+                                    img.setBackupUrl(pageUrl);
                                 }
                             }
                         }
@@ -51,16 +51,17 @@ public class FakkuParser implements ImageListParser {
             return result;
         }
 
-        // Add referer information to downloadParams
-        downloadParams.put(HttpHelper.HEADER_REFERER_KEY, content.getReaderUrl());
-
         String cookieStr = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY);
         if (null == cookieStr || !cookieStr.toLowerCase().contains("fakku"))
             throw new AccountException("Your have to be logged with a Fakku account");
 
+        // Pages are downloaded with the same cookie and referer
+        content.setDownloadCookie(cookieStr);
+        content.setDownloadReferer(content.getReaderUrl());
+
         List<Pair<String, String>> headers = new ArrayList<>();
         headers.add(new Pair<>(HttpHelper.HEADER_COOKIE_KEY, cookieStr));
-        headers.add(new Pair<>(HttpHelper.HEADER_REFERER_KEY, downloadParams.get(HttpHelper.HEADER_REFERER_KEY)));
+        headers.add(new Pair<>(HttpHelper.HEADER_REFERER_KEY, content.getReaderUrl()));
         String readUrl = content.getGalleryUrl().replace("www", "books").replace("/hentai", "//hentai") + "/read";
 
         // Get the raw content of the page to detect if it's JSON (no JSON = probably trying to get a premium book with a non-premium account)
@@ -82,15 +83,12 @@ public class FakkuParser implements ImageListParser {
 
         // Process book info to get page detailed info
         String pid = null;
-        String cookie = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY);
-        if (cookie != null) {
-            String[] cookieContent = cookie.split(";");
-            for (String s : cookieContent) {
-                String[] cookieParts = s.split("=");
-                if (cookieParts[0].toLowerCase().trim().equals("fakku_zid")) {
-                    pid = cookieParts[1];
-                    break;
-                }
+        String[] cookieContent = cookieStr.split(";");
+        for (String s : cookieContent) {
+            String[] cookieParts = s.split("=");
+            if (cookieParts[0].toLowerCase().trim().equals("fakku_zid")) {
+                pid = cookieParts[1];
+                break;
             }
         }
         if (null == pid) {
@@ -117,10 +115,7 @@ public class FakkuParser implements ImageListParser {
                     pageInfoValue = JsonHelper.serializeToJson(pageInfo.get(order - 1), PageInfo.class); // String contains JSON data within a JSON...
                 else pageInfoValue = "unprotected";
 
-                downloadParams.put("pageInfo", pageInfoValue);
-                downloadParamsStr = JsonHelper.serializeToJson(downloadParams, JsonHelper.MAP_STRINGS);
-
-                img.setDownloadParams(downloadParamsStr);
+                img.setPageInfo(pageInfoValue);
                 result.add(img);
                 progress.advance();
             }
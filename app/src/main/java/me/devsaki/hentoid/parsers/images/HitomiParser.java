@@ -8,9 +8,7 @@ import org.jsoup.nodes.Document;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.database.domains.ImageFile;
@@ -60,10 +58,8 @@ public class HitomiParser implements ImageListParser {
         String json = response.body().string().replace("var galleryinfo = ", "");
         HitomiGalleryInfo gallery = JsonHelper.jsonToObject(json, HitomiGalleryInfo.class);
 
-        Map<String, String> downloadParams = new HashMap<>();
-        // Add referer information to downloadParams for future image download
-        downloadParams.put(HttpHelper.HEADER_REFERER_KEY, pageUrl);
-        String downloadParamsStr = JsonHelper.serializeToJson(downloadParams, JsonHelper.MAP_STRINGS);
+        // Add referer information for future image download
+        content.setDownloadReferer(pageUrl);
 
         ImageFile img;
         int order = 1;
@@ -75,7 +71,6 @@ public class HitomiParser implements ImageListParser {
             else if (isHashAvailable)
                 img = buildHashPicture(page, order++, gallery.getFiles().size());
             else img = buildSimplePicture(content, page, order++, gallery.getFiles().size());
-            img.setDownloadParams(downloadParamsStr);
             result.add(img);
         }
 
@@ -7,38 +7,40 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.SparseIntArray;
 import android.webkit.MimeTypeMap;
 
 import androidx.annotation.NonNull;
 import androidx.documentfile.provider.DocumentFile;
 
-import com.android.volley.AuthFailureError;
-import com.android.volley.NetworkError;
-import com.android.volley.NoConnectionError;
-import com.android.volley.ParseError;
-import com.android.volley.Request;
-import com.android.volley.ServerError;
-import com.android.volley.TimeoutError;
-import com.android.volley.VolleyError;
-
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.threeten.bp.Instant;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import io.reactivex.Completable;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -65,12 +67,16 @@ import me.devsaki.hentoid.notification.download.DownloadSuccessNotification;
 import me.devsaki.hentoid.notification.download.DownloadWarningNotification;
 import me.devsaki.hentoid.parsers.ContentParserFactory;
 import me.devsaki.hentoid.parsers.images.ImageListParser;
+import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.DownloadMetrics;
 import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.HttpHelper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.Preferences;
+import me.devsaki.hentoid.util.ThumbnailHelper;
+import me.devsaki.hentoid.util.Tracer;
 import me.devsaki.hentoid.util.exception.AccountException;
 import me.devsaki.hentoid.util.exception.CaptchaException;
 import me.devsaki.hentoid.util.exception.EmptyResultException;
@@ -95,9 +101,22 @@ public class ContentDownloadService extends IntentService {
     private boolean downloadCanceled;                       // True if a Cancel event has been processed; false by default
     private boolean downloadSkipped;                        // True if a Skip event has been processed; false by default
 
-    private RequestQueueManager<Object> requestQueueManager;
+    private RequestQueueManager requestQueueManager;
+    private DownloadMetrics metrics;
     protected final CompositeDisposable compositeDisposable = new CompositeDisposable();
 
+    // Download pipeline : network (OkHttp threads) -> image processing -> storage
+    // Each stage has its own bounded executor so that slow processing or storage doesn't hold the network threads;
+    // when a stage is saturated, the previous stage processes the task itself (back-pressure)
+    private static final int PROCESSING_QUEUE_SIZE = 8;
+    private static final int STORAGE_QUEUE_SIZE = 16;
+    private static final long PIPELINE_SHUTDOWN_TIMEOUT_S = 5; // Waited for in the background
+    // Extension of the pictures being downloaded (not supported by the image viewer, which ignores them)
+    // Number of bytes read to detect the format of a picture, including the 'acTL' chunk of animated PNGs that precedes their image data
+    private static final int PICTURE_HEADER_SIZE = 64 * 1024;
+    private ExecutorService processingExecutor;
+    private ExecutorService storageExecutor;
+
 
     public ContentDownloadService() {
         super(ContentDownloadService.class.getName());
@@ -125,6 +144,11 @@ public class ContentDownloadService extends IntentService {
         dao = new ObjectBoxDAO(this);
 
         requestQueueManager = RequestQueueManager.getInstance(this);
+        metrics = DownloadMetrics.getInstance(this);
+
+        processingExecutor = createStageExecutor("dl-processing", Math.max(1, Runtime.getRuntime().availableProcessors() - 1), PROCESSING_QUEUE_SIZE);
+        // Single writer : parallel writes don't make storage faster, especially on SD cards
+        storageExecutor = createStageExecutor("dl-storage", 1, STORAGE_QUEUE_SIZE);
 
         Timber.d("Download service created");
     }
@@ -133,6 +157,7 @@ public class ContentDownloadService extends IntentService {
     public void onDestroy() {
         EventBus.getDefault().unregister(this);
         compositeDisposable.clear();
+        shutdownPipeline();
 
         dao.cleanup();
 
@@ -144,6 +169,58 @@ public class ContentDownloadService extends IntentService {
         super.onDestroy();
     }
 
+    /**
+     * Create the executor of a stage of the download pipeline
+     *
+     * @param name      Name of the stage (used to name its threads)
+     * @param threads   Number of threads of the stage
+     * @param queueSize Number of tasks that can wait to be processed by the stage
+     * @return Executor of the stage
+     */
+    private static ExecutorService createStageExecutor(@NonNull final String name, int threads, int queueSize) {
+        return new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> new Thread(r, name),
+                new ThreadPoolExecutor.CallerRunsPolicy() // Back-pressure : the caller processes the task when the queue is full
+        );
+    }
+
+    /**
+     * Let the tasks that are still in the pipeline complete, then flush the metrics
+     * NB : Waiting is done in the background, so that the UI thread isn't blocked
+     */
+    private void shutdownPipeline() {
+        final ExecutorService processing = processingExecutor;
+        final ExecutorService storage = storageExecutor;
+        processing.shutdown();
+        Completable.fromAction(() -> {
+            try {
+                if (!processing.awaitTermination(PIPELINE_SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                    Timber.w("Processing stage did not terminate in time");
+                    processing.shutdownNow();
+                }
+                // Processing stage feeds the storage stage => shut it down afterwards
+                storage.shutdown();
+                if (!storage.awaitTermination(PIPELINE_SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                    Timber.w("Storage stage did not terminate in time");
+                    storage.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Timber.w(e);
+                Thread.currentThread().interrupt();
+            }
+        })
+                .subscribeOn(Schedulers.io())
+                .doFinally(metrics::flush)
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::w
+                );
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         Timber.d("New intent processed");
@@ -260,7 +337,11 @@ public class ContentDownloadService extends IntentService {
                 // Manually insert new images (without using insertContent)
                 dao.replaceImageList(content.getId(), images);
 
+                // Headers set by the parser are saved along with the book when its download starts
+                String downloadCookie = content.getDownloadCookie();
+                String downloadReferer = content.getDownloadReferer();
                 content = dao.selectContent(content.getId()); // Get updated Content with the generated ID of new images
+                content.setDownloadCookie(downloadCookie).setDownloadReferer(downloadReferer);
             } catch (CaptchaException cpe) {
                 Timber.w(cpe, "A captcha has been found while parsing %s. Download aborted.", content.getTitle());
                 logErrorRecord(content.getId(), ErrorType.CAPTCHA, content.getUrl(), CONTENT_PART_IMAGE_LIST, "Captcha found");
@@ -326,6 +407,12 @@ public class ContentDownloadService extends IntentService {
             return null;
         }
 
+        // Images queued by previous versions still carry their download parameters as JSON
+        upgradeLegacyDownloadParams(content, images);
+
+        // Pictures that were being downloaded when the previous session stopped are downloaded again from scratch
+        removeDownloadLeftovers(dir);
+
         // Folder creation succeeds -> memorize its path
         String fileRoot = Preferences.getRootFolderName();
         content.setStorageFolder(dir.getAbsolutePath().substring(fileRoot.length()));
@@ -340,14 +427,17 @@ public class ContentDownloadService extends IntentService {
 
         // Forge a request for the book's cover
         ImageFile cover = new ImageFile().setName("thumb").setUrl(content.getCoverImageUrl());
-        cover.setDownloadParams(content.getDownloadParams());
 
         // Queue image download requests
+        // NB : Headers are built once and shared by all requests of the book
         Site site = content.getSite();
-        requestQueueManager.queueRequest(buildDownloadRequest(cover, dir, site.canKnowHentoidAgent(), site.hasImageProcessing()));
-        for (ImageFile img : images) {
-            if (img.getStatus().equals(StatusContent.SAVED))
-                requestQueueManager.queueRequest(buildDownloadRequest(img, dir, site.canKnowHentoidAgent(), site.hasImageProcessing()));
+        try (Tracer.Span ignored = Tracer.begin("download.queueRequests")) {
+            requestQueueManager.queueRequest(buildDownloadRequest(cover, dir, getCoverHeaders(content), site));
+            Map<String, String> imageHeaders = getImageHeaders(content);
+            for (ImageFile img : images) {
+                if (img.getStatus().equals(StatusContent.SAVED))
+                    requestQueueManager.queueRequest(buildDownloadRequest(img, dir, imageHeaders, site));
+            }
         }
 
         return content;
@@ -356,7 +446,7 @@ public class ContentDownloadService extends IntentService {
     /**
      * Watch download progress
      * <p>
-     * NB : download pause is managed at the Volley queue level (see RequestQueueManager.pauseQueue / startQueue)
+     * NB : download pause is managed at the request queue level (see RequestQueueManager.cancelQueue)
      *
      * @param content Content to watch (1st book of the download queue)
      */
@@ -443,12 +533,14 @@ public class ContentDownloadService extends IntentService {
                     content.increaseNumberDownloadRetries();
 
                     // Re-queue all failed images
+                    Map<String, String> imageHeaders = getImageHeaders(content);
                     for (ImageFile img : images)
                         if (img.getStatus().equals(StatusContent.ERROR)) {
                             Timber.i("Auto-retry #%s for content %s / image @ %s", content.getNumberDownloadRetries(), content.getTitle(), img.getUrl());
                             img.setStatus(StatusContent.SAVED);
                             dao.insertImageFile(img);
-                            requestQueueManager.queueRequest(buildDownloadRequest(img, dir, content.getSite().canKnowHentoidAgent(), content.getSite().hasImageProcessing()));
+                            metrics.recordRetry(content.getSite(), img.getUrl());
+                            requestQueueManager.queueRequest(buildDownloadRequest(img, dir, imageHeaders, content.getSite()));
                         }
                     return;
                 }
@@ -459,7 +551,8 @@ public class ContentDownloadService extends IntentService {
                 content.setDownloadDate(Instant.now().toEpochMilli());
             content.setStatus((0 == pagesKO && !hasError) ? StatusContent.DOWNLOADED : StatusContent.ERROR);
             // Clear download params from content
-            if (0 == pagesKO && !hasError) content.setDownloadParams("");
+            if (0 == pagesKO && !hasError)
+                content.setDownloadParams("").setDownloadCookie("").setDownloadReferer("");
 
             dao.insertContent(content);
 
@@ -478,6 +571,10 @@ public class ContentDownloadService extends IntentService {
                 } catch (IOException e) {
                     Timber.e(e, "I/O Error saving JSON: %s", title);
                 }
+
+                // Generate the library thumbnail from the downloaded cover
+                File cover = ContentHelper.getCoverFile(content);
+                if (cover.exists()) ThumbnailHelper.generateThumbnail(this, content.getId(), cover);
             } else {
                 Timber.w("completeDownload : Directory %s does not exist - JSON not saved", dir.getAbsolutePath());
             }
@@ -527,7 +624,12 @@ public class ContentDownloadService extends IntentService {
         List<ImageFile> imgs;
         // Use ImageListParser to query the source
         ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(content);
-        imgs = parser.parseImageList(content);
+        long start = SystemClock.elapsedRealtime();
+        try (Tracer.Span ignored = Tracer.begin("download.parseImageList")) {
+            imgs = parser.parseImageList(content);
+        } finally {
+            metrics.recordPhase(content.getSite(), content.getGalleryUrl(), DownloadMetrics.Phase.PARSE, SystemClock.elapsedRealtime() - start);
+        }
 
         if (imgs.isEmpty()) throw new EmptyResultException();
 
@@ -542,84 +644,218 @@ public class ContentDownloadService extends IntentService {
     }
 
     /**
-     * Create an image download request an its handler from a given image URL, file name and destination folder
+     * Upgrade the download parameters of images queued by previous versions (JSON map) to their typed fields
+     * NB : Headers are the same for all the pages of a book; they are stored once, in the book
      *
-     * @param img Image to download
-     * @param dir Destination folder
-     * @return Volley request and its handler
+     * @param content Book whose images to upgrade
+     * @param images  Images to upgrade
      */
-    private Request<Object> buildDownloadRequest(
-            @Nonnull ImageFile img,
-            @Nonnull File dir,
-            boolean canKnowHentoidAgent,
-            boolean hasImageProcessing) {
-
-        String backupUrl = "";
+    private void upgradeLegacyDownloadParams(@NonNull Content content, @NonNull List<ImageFile> images) {
+        boolean upgraded = false;
+        for (ImageFile img : images) {
+            String downloadParamsStr = img.getDownloadParams();
+            if (downloadParamsStr.isEmpty()) continue;
 
-        Map<String, String> headers = new HashMap<>();
-        String downloadParamsStr = img.getDownloadParams();
-        if (downloadParamsStr != null && downloadParamsStr.length() > 2) // Avoid empty and "{}"
-        {
             Map<String, String> downloadParams = null;
             try {
-                downloadParams = JsonHelper.jsonToObject(downloadParamsStr, JsonHelper.MAP_STRINGS);
+                if (downloadParamsStr.length() > 2) // Avoid "{}"
+                    downloadParams = JsonHelper.jsonToObject(downloadParamsStr, JsonHelper.MAP_STRINGS);
             } catch (IOException e) {
                 Timber.w(e);
             }
 
             if (downloadParams != null) {
-                if (downloadParams.containsKey(HttpHelper.HEADER_COOKIE_KEY)) {
-                    String value = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY);
-                    if (value != null) headers.put(HttpHelper.HEADER_COOKIE_KEY, value);
-                }
-                if (downloadParams.containsKey(HttpHelper.HEADER_REFERER_KEY)) {
-                    String value = downloadParams.get(HttpHelper.HEADER_REFERER_KEY);
-                    if (value != null) headers.put(HttpHelper.HEADER_REFERER_KEY, value);
-                }
-                if (downloadParams.containsKey("backupUrl"))
-                    backupUrl = downloadParams.get("backupUrl");
+                String value = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY);
+                if (value != null) content.setDownloadCookie(value);
+                value = downloadParams.get(HttpHelper.HEADER_REFERER_KEY);
+                if (value != null) content.setDownloadReferer(value);
+                value = downloadParams.get("backupUrl");
+                if (value != null) img.setBackupUrl(value);
+                value = downloadParams.get("pageInfo");
+                if (value != null) img.setPageInfo(value);
+            }
+            img.setDownloadParams("");
+            upgraded = true;
+        }
+        if (upgraded) {
+            Timber.i("Download parameters of %s upgraded", content.getTitle());
+            // NB : The book itself is saved right after
+            dao.replaceImageList(content.getId(), images);
+        }
+    }
+
+    /**
+     * Build the HTTP headers to download the cover of the given book with
+     *
+     * @param content Book whose cover to download
+     * @return HTTP headers to download the cover of the given book with
+     */
+    private static Map<String, String> getCoverHeaders(@NonNull Content content) {
+        Map<String, String> headers = new HashMap<>();
+        String downloadParamsStr = content.getDownloadParams();
+        if (downloadParamsStr.length() > 2) // Avoid empty and "{}"
+        {
+            try {
+                Map<String, String> downloadParams = JsonHelper.jsonToObject(downloadParamsStr, JsonHelper.MAP_STRINGS);
+                String value = downloadParams.get(HttpHelper.HEADER_COOKIE_KEY);
+                if (value != null) headers.put(HttpHelper.HEADER_COOKIE_KEY, value);
+            } catch (IOException e) {
+                Timber.w(e);
             }
         }
-        final String backupUrlFinal = (null == backupUrl) ? "" : backupUrl;
+        return headers;
+    }
 
-        return new InputStreamVolleyRequest(
-                Request.Method.GET,
-                img.getUrl(),
+    /**
+     * Build the HTTP headers to download the pages of the given book with
+     *
+     * @param content Book whose pages to download
+     * @return HTTP headers to download the pages of the given book with
+     */
+    private static Map<String, String> getImageHeaders(@NonNull Content content) {
+        Map<String, String> headers = new HashMap<>();
+        if (!content.getDownloadCookie().isEmpty())
+            headers.put(HttpHelper.HEADER_COOKIE_KEY, content.getDownloadCookie());
+        if (!content.getDownloadReferer().isEmpty())
+            headers.put(HttpHelper.HEADER_REFERER_KEY, content.getDownloadReferer());
+        return headers;
+    }
+
+    /**
+     * Create an image download request an its handler from a given image URL, file name and destination folder
+     *
+     * @param img     Image to download
+     * @param dir     Destination folder
+     * @param headers HTTP headers to send with the request
+     * @param site    Site the image belongs to
+     * @return Download request and its handler
+     */
+    private ImageDownloadRequest buildDownloadRequest(
+            @Nonnull ImageFile img,
+            @Nonnull File dir,
+            @Nonnull Map<String, String> headers,
+            @Nonnull Site site) {
+
+        final String backupUrl = img.getBackupUrl();
+        final String url = img.getUrl();
+        // Picture is streamed into a temporary file that gets its final name once processed
+        final File downloadFile = new File(dir, img.getName() + Consts.DOWNLOAD_EXTENSION);
+        // NB : Includes the time spent waiting in the request queue
+        final Tracer.Span requestSpan = Tracer.beginAsync("download.image.request");
+
+        return new ImageDownloadRequest(
+                url,
                 headers,
-                canKnowHentoidAgent,
-                result -> onRequestSuccess(result, img, dir, hasImageProcessing, backupUrlFinal),
-                error -> onRequestError(error, img, dir, backupUrlFinal));
+                downloadFile,
+                site.canKnowHentoidAgent(),
+                result -> {
+                    Tracer.histogram("download.image.request.ms", requestSpan.end());
+                    metrics.recordImage(site, url, result.getStatusCode(), result.getNetworkTimeMs(), result.getSize(), true);
+                    onRequestSuccess(result, img, dir, site.hasImageProcessing(), backupUrl);
+                },
+                error -> {
+                    requestSpan.end();
+                    Tracer.count("download.image.requestErrors", 1);
+                    int statusCode = (error.getStatusCode() > 0) ? error.getStatusCode() : DownloadMetrics.STATUS_NO_RESPONSE;
+                    metrics.recordImage(site, url, statusCode, error.getNetworkTimeMs(), 0, false);
+                    onRequestError(error, img, dir, backupUrl);
+                },
+                () -> metrics.recordRetry(site, url));
     }
 
-    private void onRequestSuccess(Map.Entry<byte[], Map<String, String>> result, @Nonnull ImageFile img, @Nonnull File dir, boolean hasImageProcessing, @NonNull String backupUrl) {
+    private void onRequestSuccess(ImageDownloadRequest.Result result, @Nonnull ImageFile img, @Nonnull File dir, boolean hasImageProcessing, @NonNull String backupUrl) {
+        // Hand the picture over to the processing stage to free the network thread
+        String contentType = result.getContentType();
+        File downloadFile = result.getFile();
+        Tracer.count("download.bytes", result.getSize());
+        submitToStage(processingExecutor, img, () -> onImageDownloaded(img, dir, contentType, downloadFile, hasImageProcessing, backupUrl));
+    }
+
+    /**
+     * Processing stage of the download pipeline : process the downloaded picture and hand it over to the storage stage
+     */
+    private void onImageDownloaded(@Nonnull ImageFile img, @Nonnull File dir, @Nullable String contentType, @NonNull File downloadFile, boolean hasImageProcessing, @NonNull String backupUrl) {
         try {
-            if (result != null) {
-                processAndSaveImage(img, dir, result.getValue().get(HttpHelper.HEADER_CONTENT_TYPE), result.getKey(), hasImageProcessing);
-                updateImage(img, true);
-            } else {
-                updateImage(img, false);
-                logErrorRecord(img.content.getTargetId(), ErrorType.UNDEFINED, img.getUrl(), img.getName(), "Result null");
+            ImmutablePair<String, byte[]> processed;
+            long start = SystemClock.elapsedRealtime();
+            try (Tracer.Span ignored = Tracer.begin("download.image.process")) {
+                processed = processImage(img, contentType, downloadFile, hasImageProcessing);
+            } finally {
+                recordPhase(img, DownloadMetrics.Phase.PROCESS, start);
             }
+            submitToStage(storageExecutor, img, () -> onImageProcessed(img, dir, downloadFile, processed.left, processed.right));
         } catch (UnsupportedContentException e) {
             Timber.w(e);
+            FileHelper.removeFile(downloadFile);
             if (!backupUrl.isEmpty()) tryUsingBackupUrl(img, dir, backupUrl);
             else {
                 Timber.w("No backup URL found - image aborted");
                 updateImage(img, false);
                 logErrorRecord(img.content.getTargetId(), ErrorType.UNDEFINED, img.getUrl(), img.getName(), e.getMessage());
             }
-        } catch (InvalidParameterException e) {
+        } catch (InvalidParameterException | IOException e) {
             Timber.w(e, "Processing error - Image %s not processed properly", img.getUrl());
+            FileHelper.removeFile(downloadFile);
             updateImage(img, false);
-            logErrorRecord(img.content.getTargetId(), ErrorType.IMG_PROCESSING, img.getUrl(), img.getName(), "Download params : " + img.getDownloadParams());
+            logErrorRecord(img.content.getTargetId(), ErrorType.IMG_PROCESSING, img.getUrl(), img.getName(), "Page info : " + img.getPageInfo());
+        }
+    }
+
+    /**
+     * Storage stage of the download pipeline : give the picture its final name (or save its processed version) and record its status
+     *
+     * @param processedContent Processed picture to save instead of the downloaded one; null to keep the downloaded one
+     */
+    private void onImageProcessed(@Nonnull ImageFile img, @Nonnull File dir, @NonNull File downloadFile, @NonNull String fileName, @Nullable byte[] processedContent) {
+        long start = SystemClock.elapsedRealtime();
+        try (Tracer.Span ignored = Tracer.begin("download.image.save")) {
+            File file;
+            if (null == processedContent) {
+                file = renameImage(downloadFile, fileName);
+            } else {
+                file = saveImage(dir, fileName, processedContent);
+                FileHelper.removeFile(downloadFile);
+            }
+            recordPhase(img, DownloadMetrics.Phase.SAVE, start);
+            if (file != null) img.setAbsolutePath(file.getAbsolutePath());
+            updateImage(img, true);
         } catch (IOException e) {
             Timber.w(e, "I/O error - Image %s not saved in dir %s", img.getUrl(), dir.getPath());
+            FileHelper.removeFile(downloadFile);
             updateImage(img, false);
             logErrorRecord(img.content.getTargetId(), ErrorType.IO, img.getUrl(), img.getName(), "Save failed in dir " + dir.getAbsolutePath() + " " + e.getMessage());
         }
     }
 
-    private void onRequestError(VolleyError error, @Nonnull ImageFile img, @Nonnull File dir, @Nonnull String backupUrl) {
+    private void recordPhase(@Nonnull ImageFile img, @NonNull DownloadMetrics.Phase phase, long startMs) {
+        Content content = img.content.getTarget();
+        if (content != null)
+            metrics.recordPhase(content.getSite(), img.getUrl(), phase, SystemClock.elapsedRealtime() - startMs);
+    }
+
+    private void submitToStage(@NonNull ExecutorService stage, @NonNull ImageFile img, @NonNull Runnable task) {
+        try {
+            stage.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Service is shutting down => leave the image as it is; it will be downloaded again when the book resumes
+            Timber.w("Image %s dropped from the download pipeline", img.getUrl());
+        }
+    }
+
+    /**
+     * Remove the temporary files of the pictures that were being downloaded in the given folder
+     *
+     * @param dir Download folder of the book to clean up
+     */
+    private static void removeDownloadLeftovers(@NonNull File dir) {
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(Consts.DOWNLOAD_EXTENSION));
+        if (null == leftovers) return;
+        for (File f : leftovers) {
+            if (!FileHelper.removeFile(f)) Timber.w("Unfinished download %s could not be removed", f.getAbsolutePath());
+        }
+    }
+
+    private void onRequestError(ImageDownloadRequest.Failure error, @Nonnull ImageFile img, @Nonnull File dir, @Nonnull String backupUrl) {
         // Try with the backup URL, if it exists
         if (!backupUrl.isEmpty()) {
             tryUsingBackupUrl(img, dir, backupUrl);
@@ -627,25 +863,31 @@ public class ContentDownloadService extends IntentService {
         }
 
         // If no backup, then process the error
-        String statusCode = (error.networkResponse != null) ? error.networkResponse.statusCode + "" : "N/A";
+        String statusCode = (error.getStatusCode() > 0) ? error.getStatusCode() + "" : "N/A";
         String message = error.getMessage() + (img.isBackup() ? " (from backup URL)" : "");
         String cause = "";
 
-        if (error instanceof TimeoutError) {
-            cause = "Timeout";
-        } else if (error instanceof NoConnectionError) {
-            cause = "No connection";
-        } else if (error instanceof AuthFailureError) {
-            cause = "Auth failure";
-        } else if (error instanceof ServerError) {
-            cause = "Server error";
-        } else if (error instanceof NetworkError) {
-            cause = "Network error";
-        } else if (error instanceof ParseError) {
-            cause = "Network parse error";
+        switch (error.getReason()) {
+            case TIMEOUT:
+                cause = "Timeout";
+                break;
+            case NO_CONNECTION:
+                cause = "No connection";
+                break;
+            case AUTH_FAILURE:
+                cause = "Auth failure";
+                break;
+            case SERVER_ERROR:
+                cause = "Server error";
+                break;
+            case NETWORK_ERROR:
+                cause = "Network error";
+                break;
+            default:
+                // Nothing
         }
 
-        Timber.w(error);
+        Timber.w("Download failed for %s : %s; HTTP statusCode=%s; message=%s", img.getUrl(), cause, statusCode, message);
 
         updateImage(img, false);
         logErrorRecord(img.content.getTargetId(), ErrorType.NETWORKING, img.getUrl(), img.getName(), cause + "; HTTP statusCode=" + statusCode + "; message=" + message);
@@ -655,16 +897,17 @@ public class ContentDownloadService extends IntentService {
         Timber.i("Using backup URL %s", backupUrl);
         Content content = img.content.getTarget();
         Site site = content.getSite();
+        metrics.recordBackupUrl(site, img.getUrl());
         ImageListParser parser = ContentParserFactory.getInstance().getImageListParser(site);
 
-        // per Volley behaviour, this method is called on the UI thread
+        // This method is called on a network thread that must not be held
         // -> need to create a new thread to do a network call
         compositeDisposable.add(
                 Single.fromCallable(() -> parser.parseBackupUrl(backupUrl, img.getOrder(), content.getQtyPages()))
                         .subscribeOn(Schedulers.computation())
                         .observeOn(AndroidSchedulers.mainThread()) // <- do we really want to do that on the main thread ?
                         .subscribe(
-                                imageFile -> processBackupImage(imageFile, img, dir, site),
+                                imageFile -> processBackupImage(imageFile, img, dir, content),
                                 throwable ->
                                 {
                                     updateImage(img, false);
@@ -675,25 +918,17 @@ public class ContentDownloadService extends IntentService {
         );
     }
 
-    private void processBackupImage(ImageFile backupImage, @Nonnull ImageFile originalImage, @Nonnull File dir, Site site) {
+    private void processBackupImage(ImageFile backupImage, @Nonnull ImageFile originalImage, @Nonnull File dir, @Nonnull Content content) {
         if (backupImage != null) {
             Timber.i("Backup URL contains image @ %s; queuing", backupImage.getUrl());
             originalImage.setUrl(backupImage.getUrl()); // Replace original image URL by backup image URL
             originalImage.setBackup(true); // Indicates the image is from a backup (for display in error logs)
             dao.insertImageFile(originalImage);
-            requestQueueManager.queueRequest(buildDownloadRequest(originalImage, dir, site.canKnowHentoidAgent(), site.hasImageProcessing()));
+            requestQueueManager.queueRequest(buildDownloadRequest(originalImage, dir, getImageHeaders(content), content.getSite()));
         } else Timber.w("Failed to parse backup URL");
     }
 
-    private static byte[] processImage(String downloadParamsStr, byte[] binaryContent) throws IOException {
-        Map<String, String> downloadParams = JsonHelper.jsonToObject(downloadParamsStr, JsonHelper.MAP_STRINGS);
-
-        if (!downloadParams.containsKey("pageInfo"))
-            throw new InvalidParameterException("No pageInfo");
-
-        String pageInfoValue = downloadParams.get("pageInfo");
-        if (null == pageInfoValue) throw new InvalidParameterException("PageInfo is null");
-
+    private static byte[] processImage(@NonNull String pageInfoValue, byte[] binaryContent) throws IOException {
         if (pageInfoValue.equals("unprotected"))
             return binaryContent; // Free content, picture is not protected
 
@@ -722,30 +957,29 @@ public class ContentDownloadService extends IntentService {
     }
 
     /**
-     * Create the given file in the given destination folder, and write binary data to it
+     * Process the given downloaded picture and determine its file name
      *
-     * @param img           ImageFile that is being processed
-     * @param dir           Destination folder
-     * @param contentType   Content type of the image (because some sources don't serve images with extensions)
-     * @param binaryContent Binary content of the image
-     * @throws IOException IOException if image cannot be saved at given location
+     * @param img          ImageFile that is being processed
+     * @param contentType  Content type of the image (because some sources don't serve images with extensions)
+     * @param downloadFile File the image has been downloaded into
+     * @return Pair containing
+     * - left : Name of the file to save the picture to (with the extension)
+     * - right : Processed picture to save; null if the downloaded file is to be kept as is
+     * @throws IOException IOException if processing parameters or the downloaded file cannot be read
      */
-    private static void processAndSaveImage(@NonNull ImageFile img,
-                                            @NonNull File dir,
-                                            @Nullable String contentType,
-                                            byte[] binaryContent,
-                                            boolean hasImageProcessing) throws IOException, UnsupportedContentException {
-
-        if (!dir.exists()) {
-            Timber.w("processAndSaveImage : Directory %s does not exist - image not saved", dir.getAbsolutePath());
-            return;
-        }
+    private static ImmutablePair<String, byte[]> processImage(@NonNull ImageFile img,
+                                                              @Nullable String contentType,
+                                                              @NonNull File downloadFile,
+                                                              boolean hasImageProcessing) throws IOException, UnsupportedContentException {
 
         byte[] finalBinaryContent = null;
         if (hasImageProcessing && !img.getName().equals("thumb")) {
-            if (img.getDownloadParams() != null && !img.getDownloadParams().isEmpty())
-                finalBinaryContent = processImage(img.getDownloadParams(), binaryContent);
-            else throw new InvalidParameterException("No processing parameters found");
+            if (!img.getPageInfo().isEmpty()) {
+                // NB : Unscrambling needs the whole picture in memory
+                byte[] binaryContent = readImage(downloadFile, -1);
+                byte[] processedContent = processImage(img.getPageInfo(), binaryContent);
+                if (processedContent != binaryContent) finalBinaryContent = processedContent;
+            } else throw new InvalidParameterException("No pageInfo");
         }
 
         String fileExt = null;
@@ -770,7 +1004,7 @@ public class ContentDownloadService extends IntentService {
         // No extension detected in the URL => Read binary header of the file to detect known formats
         // If PNG, peek into the file to see if it is an animated PNG or not (no other way to do that)
         if (fileExt.isEmpty() || fileExt.equals("png")) {
-            mimeType = FileHelper.getMimeTypeFromPictureBinary(binaryContent);
+            mimeType = FileHelper.getMimeTypeFromPictureBinary(readImage(downloadFile, PICTURE_HEADER_SIZE));
             fileExt = FileHelper.getExtensionFromMimeType(mimeType);
             Timber.d("Reading headers to determine file extension for %s -> %s (from detected mime-type %s)", img.getUrl(), fileExt, mimeType);
         }
@@ -784,8 +1018,39 @@ public class ContentDownloadService extends IntentService {
 
         if (!Helper.isImageExtensionSupported(fileExt))
             throw new UnsupportedContentException(String.format("Unsupported extension %s for %s - image not processed", fileExt, img.getUrl()));
-        else
-            saveImage(dir, img.getName() + "." + fileExt, (null == finalBinaryContent) ? binaryContent : finalBinaryContent);
+
+        return new ImmutablePair<>(img.getName() + "." + fileExt, finalBinaryContent);
+    }
+
+    /**
+     * Read the given downloaded picture
+     *
+     * @param downloadFile File to read
+     * @param maxSize      Maximum number of bytes to read; -1 to read the whole file
+     * @return Content of the given file, up to the given size
+     * @throws IOException If the file can't be read
+     */
+    private static byte[] readImage(@NonNull File downloadFile, int maxSize) throws IOException {
+        try (InputStream input = FileHelper.getInputStream(downloadFile)) {
+            if (maxSize < 0) return IOUtils.toByteArray(input);
+            byte[] buffer = new byte[maxSize];
+            int read = IOUtils.read(input, buffer);
+            return (read < maxSize) ? Arrays.copyOf(buffer, read) : buffer;
+        }
+    }
+
+    /**
+     * Give the given downloaded picture its final name
+     *
+     * @param downloadFile Downloaded picture
+     * @param fileName     Final name of the picture (with the extension)
+     * @return Renamed file
+     * @throws IOException If the file can't be renamed
+     */
+    private static File renameImage(@NonNull File downloadFile, @NonNull String fileName) throws IOException {
+        if (!FileHelper.renameFile(downloadFile, fileName))
+            throw new IOException("Could not rename " + downloadFile.getName() + " to " + fileName);
+        return new File(downloadFile.getParentFile(), fileName);
     }
 
     /**
@@ -794,11 +1059,18 @@ public class ContentDownloadService extends IntentService {
      * @param dir           Destination folder
      * @param fileName      Name of the file to write (with the extension)
      * @param binaryContent Binary content of the image
+     * @return Saved file; null if the destination folder doesn't exist
      * @throws IOException IOException if image cannot be saved at given location
      */
-    private static void saveImage(@NonNull File dir, @NonNull String fileName, byte[] binaryContent) throws IOException {
+    @Nullable
+    private static File saveImage(@NonNull File dir, @NonNull String fileName, byte[] binaryContent) throws IOException {
+        if (!dir.exists()) {
+            Timber.w("saveImage : Directory %s does not exist - image not saved", dir.getAbsolutePath());
+            return null;
+        }
         File file = new File(dir, fileName);
         FileHelper.saveBinaryInFile(file, binaryContent);
+        return file;
     }
 
     /**
@@ -809,9 +1081,9 @@ public class ContentDownloadService extends IntentService {
      */
     private void updateImage(ImageFile img, boolean success) {
         img.setStatus(success ? StatusContent.DOWNLOADED : StatusContent.ERROR);
-        if (success) img.setDownloadParams("");
+        if (success) img.setDownloadParams("").setBackupUrl("").setPageInfo("");
         if (img.getId() > 0)
-            dao.updateImageFileStatusParamsMimeType(img); // because thumb image isn't in the DB
+            dao.updateImageFileStatusParamsMimeTypePath(img); // because thumb image isn't in the DB
     }
 
     /**
@@ -13,7 +13,7 @@ import me.devsaki.hentoid.util.notification.ServiceNotificationManager;
 import timber.log.Timber;
 
 /**
- * Service responsible for performing housekeeping tasks on the database
+ * Service responsible for applying the one-shot data migrations of the database
  */
 public class DatabaseMaintenanceService extends IntentService {
 
@@ -54,6 +54,6 @@ public class DatabaseMaintenanceService extends IntentService {
 
     @Override
     protected void onHandleIntent(@Nullable Intent intent) {
-        DatabaseMaintenance.performDatabaseHousekeeping(this);
+        DatabaseMaintenance.performPendingMigrations(this);
     }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import me.devsaki.hentoid.HentoidApp;
+import me.devsaki.hentoid.database.DatabaseMaintenance;
 import me.devsaki.hentoid.database.HentoidDB;
 import me.devsaki.hentoid.database.ObjectBoxDB;
 import me.devsaki.hentoid.database.domains.Content;
@@ -26,6 +27,7 @@ import me.devsaki.hentoid.events.ImportEvent;
 import me.devsaki.hentoid.notification.maintenance.MaintenanceNotification;
 import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.LogUtil;
+import me.devsaki.hentoid.util.ThumbnailHelper;
 import me.devsaki.hentoid.util.notification.ServiceNotificationManager;
 import timber.log.Timber;
 
@@ -95,7 +97,7 @@ public class DatabaseMigrationService extends IntentService {
         Timber.d("Cleaning up DB.");
         Context context = HentoidApp.getInstance();
         ObjectBoxDB db = ObjectBoxDB.getInstance(context);
-        db.deleteAllBooks();
+        ThumbnailHelper.removeThumbnailsAsync(context, db.deleteAllBooks());
         db.deleteAllQueue();
     }
 
@@ -159,6 +161,10 @@ public class DatabaseMigrationService extends IntentService {
             }
         }
         trace(Log.INFO, log, "Queue migration complete : %s OK; %s KO", queueOK + "", queueKO + "");
+
+        // Migrated books may still use deprecated URLs
+        DatabaseMaintenance.performUrlUpgrades(this);
+        trace(Log.INFO, log, "URL upgrades complete");
         this.getApplicationContext().deleteDatabase(Consts.DATABASE_NAME);
 
         // Write log in root folder
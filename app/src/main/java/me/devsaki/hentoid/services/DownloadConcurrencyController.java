@@ -0,0 +1,200 @@
+package me.devsaki.hentoid.services;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.annimon.stream.function.LongSupplier;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * AIMD-style controller of the number of parallel downloads, per host
+ * <p>
+ * - Additive increase : the limit of a host grows by 1 each time a whole window of downloads (= the current limit) succeeds
+ * - Saturation : the limit stops growing when the throughput of each download falls well below the best observed one,
+ * i.e. when adding parallel downloads only makes each of them slower without improving the total throughput
+ * - Multiplicative decrease : the limit is halved when the host throttles (HTTP 429 / 503) or times out
+ * - Memory budget : the total number of parallel downloads is capped so that downloaded pictures fit in a part of the heap
+ * <p>
+ * NB : When adaptive mode is off, limits stay at their initial value
+ */
+class DownloadConcurrencyController {
+
+    private static final int MIN_LIMIT = 1;
+    // Factor applied to the limit when the host throttles
+    private static final double DECREASE_FACTOR = 0.5;
+    // Download time per MB above which the host is considered as saturated, relative to its best time per MB
+    private static final double SATURATION_TOLERANCE = 2.0;
+    // Smaller pictures are considered as having that size when measuring throughput (latency dominates their download time)
+    private static final long MIN_MEASURED_SIZE = 64 * 1024;
+    // Weight of the latest value in moving averages
+    private static final double EWMA_WEIGHT = 0.2;
+    // Minimum delay between two decreases of the limit of the same host
+    private static final long MIN_DECREASE_INTERVAL_MS = 1000;
+    // Part of the heap downloaded pictures may use
+    private static final int MEMORY_BUDGET_RATIO = 4;
+    // Expected size of a picture until one has been downloaded
+    private static final long DEFAULT_RESPONSE_SIZE = 1024L * 1024;
+
+    private final boolean adaptive;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final long memoryBudget;
+    private final LimitListener listener;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final Map<String, HostState> hosts = new HashMap<>();
+    private double averageResponseSize = DEFAULT_RESPONSE_SIZE;
+
+
+    /**
+     * @param adaptive     True to adapt limits to the observed behaviour of each host; false to keep them at initialLimit
+     * @param initialLimit Initial number of parallel downloads of each host
+     * @param maxLimit     Maximum number of parallel downloads
+     * @param memoryClass  Memory class of the device, in MB
+     * @param listener     Listener to report the limits of each host to (e.g. download metrics)
+     */
+    DownloadConcurrencyController(boolean adaptive, int initialLimit, int maxLimit, int memoryClass, @NonNull LimitListener listener) {
+        this(adaptive, initialLimit, maxLimit, memoryClass, listener, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clock Clock giving the current time, in ms
+     */
+    @VisibleForTesting
+    DownloadConcurrencyController(boolean adaptive, int initialLimit, int maxLimit, int memoryClass, @NonNull LimitListener listener, @NonNull LongSupplier clock) {
+        this.adaptive = adaptive;
+        this.initialLimit = Math.max(MIN_LIMIT, Math.min(initialLimit, maxLimit));
+        this.maxLimit = maxLimit;
+        this.memoryBudget = (memoryClass > 0) ? memoryClass * 1024L * 1024 / MEMORY_BUDGET_RATIO : Runtime.getRuntime().maxMemory() / MEMORY_BUDGET_RATIO;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * @param host Host to get the limit of
+     * @return Number of parallel downloads allowed for the given host
+     */
+    synchronized int getHostLimit(@NonNull String host) {
+        return (int) getState(host).limit;
+    }
+
+    /**
+     * @return Total number of parallel downloads allowed, all hosts included
+     */
+    synchronized int getGlobalLimit() {
+        if (!adaptive) return maxLimit;
+
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long budget = Math.min(memoryBudget, available / 2);
+        int limit = (int) (budget / averageResponseSize);
+        return Math.max(MIN_LIMIT, Math.min(limit, maxLimit));
+    }
+
+    /**
+     * Report a successful download
+     *
+     * @param host      Host the picture has been downloaded from
+     * @param latencyMs Network time of the download, in ms
+     * @param bytes     Size of the downloaded picture, in bytes
+     */
+    synchronized void onSuccess(@NonNull String host, long latencyMs, long bytes) {
+        if (!adaptive) return;
+
+        averageResponseSize = ewma(averageResponseSize, bytes);
+        HostState state = getState(host);
+        state.averageLatencyMs = (0 == state.averageLatencyMs) ? latencyMs : ewma(state.averageLatencyMs, latencyMs);
+        // Inverse of the throughput of the download
+        double msPerMb = latencyMs * 1024.0 * 1024.0 / Math.max(bytes, MIN_MEASURED_SIZE);
+        state.averageMsPerMb = (0 == state.averageMsPerMb) ? msPerMb : ewma(state.averageMsPerMb, msPerMb);
+        if (msPerMb > 0 && (0 == state.bestMsPerMb || msPerMb < state.bestMsPerMb))
+            state.bestMsPerMb = msPerMb;
+
+        // Saturated : more parallel downloads would just be slower
+        if (state.bestMsPerMb > 0 && state.averageMsPerMb > SATURATION_TOLERANCE * state.bestMsPerMb) {
+            state.successes = 0;
+            return;
+        }
+
+        if (++state.successes >= (int) state.limit && state.limit < maxLimit) {
+            state.successes = 0;
+            state.limit++;
+            report(host, state, "increase");
+        }
+    }
+
+    /**
+     * Report a download that has been throttled by the host (HTTP 429 / 503) or that has timed out
+     *
+     * @param host Host the picture has been requested from
+     */
+    synchronized void onThrottled(@NonNull String host) {
+        if (!adaptive) return;
+
+        HostState state = getState(host);
+        state.successes = 0;
+        // Downloads running at the time of the decrease have been sent under the previous limit => don't decrease again because of them
+        long now = clock.getAsLong();
+        if (now - state.lastDecreaseTime < Math.max(MIN_DECREASE_INTERVAL_MS, (long) state.averageLatencyMs))
+            return;
+        state.lastDecreaseTime = now;
+
+        double newLimit = Math.max(MIN_LIMIT, Math.floor(state.limit * DECREASE_FACTOR));
+        if (newLimit < state.limit) {
+            state.limit = newLimit;
+            report(host, state, "decrease");
+        }
+    }
+
+    private HostState getState(@NonNull String host) {
+        HostState state = hosts.get(host);
+        if (null == state) {
+            state = new HostState(initialLimit);
+            hosts.put(host, state);
+            listener.onLimitChanged(host, initialLimit);
+        }
+        return state;
+    }
+
+    private void report(@NonNull String host, @NonNull HostState state, @NonNull String decision) {
+        Timber.d("Parallel downloads for host %s : %s to %s (latency %s ms; %s ms/MB; best %s ms/MB)", host, decision, (int) state.limit, (long) state.averageLatencyMs, (long) state.averageMsPerMb, (long) state.bestMsPerMb);
+        listener.onLimitChanged(host, (int) state.limit);
+    }
+
+    private static double ewma(double average, double value) {
+        return average + EWMA_WEIGHT * (value - average);
+    }
+
+    /**
+     * Listener of the changes of the limit of each host
+     */
+    interface LimitListener {
+        /**
+         * @param host  Host whose limit has changed
+         * @param limit New number of parallel downloads allowed for the given host
+         */
+        void onLimitChanged(@NonNull String host, int limit);
+    }
+
+    private static class HostState {
+        private double limit;
+        // Successful downloads since the last change of the limit
+        private int successes = 0;
+        private double averageLatencyMs = 0;
+        // Download time per MB (i.e. inverse of the throughput of each download)
+        private double averageMsPerMb = 0;
+        private double bestMsPerMb = 0;
+        private long lastDecreaseTime = 0;
+
+        HostState(int limit) {
+            this.limit = limit;
+        }
+    }
+}
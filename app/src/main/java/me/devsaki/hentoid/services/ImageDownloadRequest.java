@@ -0,0 +1,203 @@
+package me.devsaki.hentoid.services;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.annimon.stream.function.Consumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+
+/**
+ * Request for the download of a picture, executed by the {@link RequestQueueManager}
+ * <p>
+ * The picture is streamed into the target file of the request, so that it is never held in memory as a whole
+ * <p>
+ * Listeners are called on the network threads :
+ * - success : the picture has been downloaded into the target file (HTTP 2xx)
+ * - error : the picture couldn't be downloaded, retries included
+ * - retry : a failed attempt is about to be retried
+ * <p>
+ * NB : Canceled requests don't call any listener
+ */
+class ImageDownloadRequest {
+
+    // Number of times a failed attempt (timeout, network error) is retried
+    private static final int MAX_RETRIES = 1;
+
+    private final String url;
+    private final Map<String, String> headers;
+    private final File targetFile;
+    private final boolean useHentoidAgent;
+    private final Consumer<Result> successListener;
+    private final Consumer<Failure> errorListener;
+    private final Runnable retryListener;
+
+    private int nbRetries = 0;
+
+
+    ImageDownloadRequest(
+            @NonNull String url,
+            @NonNull Map<String, String> headers,
+            @NonNull File targetFile,
+            boolean useHentoidAgent,
+            @NonNull Consumer<Result> successListener,
+            @NonNull Consumer<Failure> errorListener,
+            @NonNull Runnable retryListener) {
+        this.url = url;
+        this.headers = headers;
+        this.targetFile = targetFile;
+        this.useHentoidAgent = useHentoidAgent;
+        this.successListener = successListener;
+        this.errorListener = errorListener;
+        this.retryListener = retryListener;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    File getTargetFile() {
+        return targetFile;
+    }
+
+    boolean useHentoidAgent() {
+        return useHentoidAgent;
+    }
+
+    /**
+     * Consume a retry if the given failed attempt can be retried
+     *
+     * @param error Error of the failed attempt
+     * @return True if the attempt has to be retried; false if the request has failed
+     */
+    boolean retry(@NonNull Failure error) {
+        // Server responses (e.g. 404, 503) are final
+        if (error.getStatusCode() > 0 || nbRetries >= MAX_RETRIES) return false;
+        nbRetries++;
+        retryListener.run();
+        return true;
+    }
+
+    void deliverSuccess(@NonNull Result result) {
+        successListener.accept(result);
+    }
+
+    void deliverError(@NonNull Failure error) {
+        errorListener.accept(error);
+    }
+
+
+    /**
+     * Downloaded picture
+     */
+    static class Result {
+        private final int statusCode;
+        private final String contentType;
+        private final File file;
+        private final long size;
+        private final long networkTimeMs;
+
+        Result(int statusCode, @Nullable String contentType, @NonNull File file, long size, long networkTimeMs) {
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.file = file;
+            this.size = size;
+            this.networkTimeMs = networkTimeMs;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        @Nullable
+        String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return File the picture has been downloaded into
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * @return Size of the picture, in bytes
+         */
+        long getSize() {
+            return size;
+        }
+
+        long getNetworkTimeMs() {
+            return networkTimeMs;
+        }
+    }
+
+    /**
+     * Download failure
+     */
+    static class Failure {
+        enum Reason {
+            TIMEOUT, NO_CONNECTION, AUTH_FAILURE, SERVER_ERROR, NETWORK_ERROR
+        }
+
+        private final Reason reason;
+        private final int statusCode;
+        private final long networkTimeMs;
+        private final String message;
+
+        /**
+         * Failure where the server has answered with an HTTP error
+         */
+        Failure(int statusCode, long networkTimeMs, @Nullable String message) {
+            this.reason = (401 == statusCode || 403 == statusCode) ? Reason.AUTH_FAILURE : Reason.SERVER_ERROR;
+            this.statusCode = statusCode;
+            this.networkTimeMs = networkTimeMs;
+            this.message = message;
+        }
+
+        /**
+         * Failure where no response has been received
+         */
+        Failure(@NonNull IOException e, long networkTimeMs) {
+            if (e instanceof SocketTimeoutException || e instanceof InterruptedIOException)
+                reason = Reason.TIMEOUT;
+            else if (e instanceof UnknownHostException || e instanceof ConnectException)
+                reason = Reason.NO_CONNECTION;
+            else reason = Reason.NETWORK_ERROR;
+            this.statusCode = 0;
+            this.networkTimeMs = networkTimeMs;
+            this.message = e.getMessage();
+        }
+
+        Reason getReason() {
+            return reason;
+        }
+
+        /**
+         * @return HTTP status of the response; 0 if no response has been received
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        long getNetworkTimeMs() {
+            return networkTimeMs;
+        }
+
+        @Nullable
+        String getMessage() {
+            return message;
+        }
+    }
+}
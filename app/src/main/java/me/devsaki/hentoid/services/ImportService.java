@@ -20,9 +20,11 @@ import java.util.List;
 
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.activities.bundles.ImportActivityBundle;
+import me.devsaki.hentoid.database.DatabaseMaintenance;
 import me.devsaki.hentoid.database.ObjectBoxDB;
 import me.devsaki.hentoid.database.domains.Attribute;
 import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.AttributeType;
 import me.devsaki.hentoid.enums.Site;
 import me.devsaki.hentoid.enums.StatusContent;
@@ -35,11 +37,13 @@ import me.devsaki.hentoid.notification.import_.ImportCompleteNotification;
 import me.devsaki.hentoid.notification.import_.ImportStartNotification;
 import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.ContentJsonWriter;
 import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Helper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.LogUtil;
 import me.devsaki.hentoid.util.Preferences;
+import me.devsaki.hentoid.util.Tracer;
 import me.devsaki.hentoid.util.exception.ParseException;
 import me.devsaki.hentoid.util.notification.ServiceNotificationManager;
 import timber.log.Timber;
@@ -145,105 +149,131 @@ public class ImportService extends IntentService {
         List<LogUtil.LogEntry> log = new ArrayList<>();
 
         File rootFolder = new File(Preferences.getRootFolderName());
-
-        // 1st pass : count subfolders of every site folder
         List<File> files = new ArrayList<>();
-        File[] siteFolders = rootFolder.listFiles(File::isDirectory);
-        if (siteFolders != null) {
-            for (File f : siteFolders) files.addAll(Arrays.asList(f.listFiles(File::isDirectory)));
-        }
+        // NB : The span is closed even if the import fails, to keep the trace consistent
+        try (Tracer.Span importSpan = Tracer.begin("import")) {
+            // Make sure JSON files are up to date before reading them
+            try (Tracer.Span ignored = Tracer.begin("import.flushJson")) {
+                ContentJsonWriter.getInstance(this).flushBlocking();
+            }
 
-        // 2nd pass : scan every folder for a JSON file or subdirectories
-        String enabled = getApplication().getResources().getString(R.string.enabled);
-        String disabled = getApplication().getResources().getString(R.string.disabled);
-        trace(Log.DEBUG, log, "Import books starting - initial detected count : %s", files.size() + "");
-        trace(Log.INFO, log, "Rename folders %s", (rename ? enabled : disabled));
-        trace(Log.INFO, log, "Remove folders with no JSONs %s", (cleanNoJSON ? enabled : disabled));
-        trace(Log.INFO, log, "Remove folders with no images %s", (cleanNoImages ? enabled : disabled));
-        trace(Log.INFO, log, "Remove folders with unreadable JSONs %s", (cleanUnreadableJSON ? enabled : disabled));
-        for (int i = 0; i < files.size(); i++) {
-            File folder = files.get(i);
-
-            // Detect the presence of images if the corresponding cleanup option has been enabled
-            if (cleanNoImages) {
-                File[] images = folder.listFiles(
-                        file -> (file.isDirectory() || Helper.isImageExtensionSupported(FileHelper.getExtension(file.getName())))
-                );
-
-                if (images != null && 0 == images.length) { // No images nor subfolders
-                    booksKO++;
-                    boolean success = FileHelper.removeFile(folder);
-                    trace(Log.INFO, log, "[Remove no image %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
-                    continue;
+            // 1st pass : count subfolders of every site folder
+            try (Tracer.Span ignored = Tracer.begin("import.listFolders")) {
+                File[] siteFolders = rootFolder.listFiles(File::isDirectory);
+                if (siteFolders != null) {
+                    for (File f : siteFolders) files.addAll(Arrays.asList(f.listFiles(File::isDirectory)));
                 }
             }
 
-            // Detect JSON and try to parse it
-            try {
-                content = importJson(folder);
-                if (content != null) {
-                    if (rename) {
-                        String canonicalBookDir = ContentHelper.formatDirPath(content);
-
-                        String[] currentPathParts = folder.getAbsolutePath().split(File.separator);
-                        String currentBookDir = File.separator + currentPathParts[currentPathParts.length - 2] + File.separator + currentPathParts[currentPathParts.length - 1];
-
-                        if (!canonicalBookDir.equalsIgnoreCase(currentBookDir)) {
-                            String settingDir = Preferences.getRootFolderName();
-                            if (settingDir.isEmpty())
-                                settingDir = FileHelper.getDefaultDir(this, canonicalBookDir).getAbsolutePath();
-
-                            if (FileHelper.renameDirectory(folder, new File(settingDir, canonicalBookDir))) {
-                                content.setStorageFolder(canonicalBookDir);
-                                trace(Log.INFO, log, "[Rename OK] Folder %s renamed to %s", currentBookDir, canonicalBookDir);
-                            } else {
-                                trace(Log.WARN, log, "[Rename KO] Could not rename file %s to %s", currentBookDir, canonicalBookDir);
+            // 2nd pass : scan every folder for a JSON file or subdirectories
+            String enabled = getApplication().getResources().getString(R.string.enabled);
+            String disabled = getApplication().getResources().getString(R.string.disabled);
+            trace(Log.DEBUG, log, "Import books starting - initial detected count : %s", files.size() + "");
+            trace(Log.INFO, log, "Rename folders %s", (rename ? enabled : disabled));
+            trace(Log.INFO, log, "Remove folders with no JSONs %s", (cleanNoJSON ? enabled : disabled));
+            trace(Log.INFO, log, "Remove folders with no images %s", (cleanNoImages ? enabled : disabled));
+            trace(Log.INFO, log, "Remove folders with unreadable JSONs %s", (cleanUnreadableJSON ? enabled : disabled));
+            for (int i = 0; i < files.size(); i++) {
+                File folder = files.get(i);
+
+                // Detect the presence of images if the corresponding cleanup option has been enabled
+                if (cleanNoImages) {
+                    File[] images = folder.listFiles(
+                            file -> (file.isDirectory() || Helper.isImageExtensionSupported(FileHelper.getExtension(file.getName())))
+                    );
+
+                    if (images != null && 0 == images.length) { // No images nor subfolders
+                        booksKO++;
+                        boolean success = FileHelper.removeFile(folder);
+                        trace(Log.INFO, log, "[Remove no image %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
+                        continue;
+                    }
+                }
+
+                // Detect JSON and try to parse it
+                try {
+                    try (Tracer.Span ignored = Tracer.begin("import.readJson")) {
+                        content = importJson(folder);
+                    }
+                    if (content != null) {
+                        File bookFolder = folder;
+                        if (rename) {
+                            String canonicalBookDir = ContentHelper.formatDirPath(content);
+
+                            String[] currentPathParts = folder.getAbsolutePath().split(File.separator);
+                            String currentBookDir = File.separator + currentPathParts[currentPathParts.length - 2] + File.separator + currentPathParts[currentPathParts.length - 1];
+
+                            if (!canonicalBookDir.equalsIgnoreCase(currentBookDir)) {
+                                String settingDir = Preferences.getRootFolderName();
+                                if (settingDir.isEmpty())
+                                    settingDir = FileHelper.getDefaultDir(this, canonicalBookDir).getAbsolutePath();
+
+                                File renamedFolder = new File(settingDir, canonicalBookDir);
+                                if (FileHelper.renameDirectory(folder, renamedFolder)) {
+                                    content.setStorageFolder(canonicalBookDir);
+                                    bookFolder = renamedFolder;
+                                    trace(Log.INFO, log, "[Rename OK] Folder %s renamed to %s", currentBookDir, canonicalBookDir);
+                                } else {
+                                    trace(Log.WARN, log, "[Rename KO] Could not rename file %s to %s", currentBookDir, canonicalBookDir);
+                                }
                             }
                         }
-                    }
-                    // TODO : Populate images when data is loaded from old JSONs (DoujinBuilder object)
-                    ObjectBoxDB.getInstance(this).insertContent(content);
-                    trace(Log.INFO, log, "Import book OK : %s", folder.getAbsolutePath());
-                } else { // JSON not found
-                    File[] subdirs = folder.listFiles(File::isDirectory);
-                    if (subdirs != null && subdirs.length > 0) // Folder doesn't contain books but contains subdirectories
-                    {
-                        files.addAll(Arrays.asList(subdirs));
-                        trace(Log.INFO, log, "Subfolders found in : %s", folder.getAbsolutePath());
-                        nbFolders++;
-                        continue;
-                    } else { // No JSON nor any subdirectory
-                        trace(Log.WARN, log, "Import book KO! (no JSON found) : %s", folder.getAbsolutePath());
-                        // Deletes the folder if cleanup is active
-                        if (cleanNoJSON) {
-                            boolean success = FileHelper.removeFile(folder);
-                            trace(Log.INFO, log, "[Remove no JSON %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
+                        // TODO : Populate images when data is loaded from old JSONs (DoujinBuilder object)
+                        // Record the path of each page to spare the image viewer from listing the book folder
+                        List<ImageFile> contentImages = content.getImageFiles();
+                        if (contentImages != null && !contentImages.isEmpty()) {
+                            File[] pictureFiles = ContentHelper.listPictureFiles(bookFolder);
+                            if (pictureFiles != null)
+                                ContentHelper.matchFilesToImageList(pictureFiles, contentImages);
+                        }
+                        try (Tracer.Span ignored = Tracer.begin("import.insertContent")) {
+                            ObjectBoxDB.getInstance(this).insertContent(content);
+                        }
+                        trace(Log.INFO, log, "Import book OK : %s", folder.getAbsolutePath());
+                    } else { // JSON not found
+                        File[] subdirs = folder.listFiles(File::isDirectory);
+                        if (subdirs != null && subdirs.length > 0) // Folder doesn't contain books but contains subdirectories
+                        {
+                            files.addAll(Arrays.asList(subdirs));
+                            trace(Log.INFO, log, "Subfolders found in : %s", folder.getAbsolutePath());
+                            nbFolders++;
+                            continue;
+                        } else { // No JSON nor any subdirectory
+                            trace(Log.WARN, log, "Import book KO! (no JSON found) : %s", folder.getAbsolutePath());
+                            // Deletes the folder if cleanup is active
+                            if (cleanNoJSON) {
+                                boolean success = FileHelper.removeFile(folder);
+                                trace(Log.INFO, log, "[Remove no JSON %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
+                            }
                         }
                     }
-                }
 
-                if (null == content) booksKO++;
-                else booksOK++;
-            } catch (ParseException jse) {
-                if (null == content)
-                    content = new Content().setTitle("none").setSite(Site.NONE).setUrl("");
-                booksKO++;
-                trace(Log.ERROR, log, "Import book ERROR : %s for Folder %s", jse.getMessage(), folder.getAbsolutePath());
-                if (cleanUnreadableJSON) {
-                    boolean success = FileHelper.removeFile(folder);
-                    trace(Log.INFO, log, "[Remove unreadable JSON %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
+                    if (null == content) booksKO++;
+                    else booksOK++;
+                } catch (ParseException jse) {
+                    if (null == content)
+                        content = new Content().setTitle("none").setSite(Site.NONE).setUrl("");
+                    booksKO++;
+                    trace(Log.ERROR, log, "Import book ERROR : %s for Folder %s", jse.getMessage(), folder.getAbsolutePath());
+                    if (cleanUnreadableJSON) {
+                        boolean success = FileHelper.removeFile(folder);
+                        trace(Log.INFO, log, "[Remove unreadable JSON %s] Folder %s", success ? "OK" : "KO", folder.getAbsolutePath());
+                    }
+                } catch (Exception e) {
+                    if (null == content)
+                        content = new Content().setTitle("none").setSite(Site.NONE).setUrl("");
+                    booksKO++;
+                    trace(Log.ERROR, log, "Import book ERROR : %s for Folder %s", e.getMessage(), folder.getAbsolutePath());
                 }
-            } catch (Exception e) {
-                if (null == content)
-                    content = new Content().setTitle("none").setSite(Site.NONE).setUrl("");
-                booksKO++;
-                trace(Log.ERROR, log, "Import book ERROR : %s for Folder %s", e.getMessage(), folder.getAbsolutePath());
-            }
 
-            eventProgress(files.size() - nbFolders, booksOK, booksKO);
+                eventProgress(files.size() - nbFolders, booksOK, booksKO);
+            }
         }
         trace(Log.INFO, log, "Import books complete - %s OK; %s KO; %s final count", booksOK + "", booksKO + "", files.size() - nbFolders + "");
 
+        // Books imported from old JSONs may still use deprecated URLs
+        DatabaseMaintenance.performUrlUpgrades(this);
+
         // Write cleanup log in root folder
         File cleanupLogFile = LogUtil.writeLog(this, buildLogInfo(rename || cleanNoJSON || cleanNoImages || cleanUnreadableJSON, log));
 
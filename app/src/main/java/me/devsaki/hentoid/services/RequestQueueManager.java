@@ -3,46 +3,82 @@ package me.devsaki.hentoid.services;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.BasicNetwork;
-import com.android.volley.toolbox.DiskBasedCache;
-import com.android.volley.toolbox.Volley;
 import com.crashlytics.android.Crashlytics;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
+import me.devsaki.hentoid.util.Consts;
+import me.devsaki.hentoid.util.DownloadMetrics;
+import me.devsaki.hentoid.util.FileHelper;
+import me.devsaki.hentoid.util.HttpHelper;
+import me.devsaki.hentoid.util.OkHttpClientSingleton;
 import me.devsaki.hentoid.util.Preferences;
-import me.devsaki.hentoid.util.VolleyOkHttp3Stack;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
 import timber.log.Timber;
 
 /**
  * Created by Robb_w on 2018/04
- * Manager class for image download queue (Volley)
+ * Manager class for image download queue
+ * <p>
+ * Requests are held by host and handed over to OkHttp according to the number of parallel downloads
+ * allowed by the {@link DownloadConcurrencyController}
  * <p>
- * NB : Class looks like a singleton but isn't really one, since it is reinstanciated everytime forceSlowMode changes
+ * Pictures are fetched with asynchronous OkHttp calls : no thread is blocked per download, and requests
+ * to the same HTTP/2 server are multiplexed over a single connection
  */
-public class RequestQueueManager<T> implements RequestQueue.RequestFinishedListener<T> {
+public class RequestQueueManager {
     private static RequestQueueManager mInstance;           // Instance of the singleton
-    //    private static Boolean allowParallelDownloads = null;   // True if current instance can download from the same IP with multiple simultaneous connexions
     private static final int TIMEOUT_MS = 15000;
+    // Maximum number of parallel downloads in automatic mode
+    private static final int MAX_AUTO_THREAD_COUNT = 8;
+    // Idle connections kept alive between two books
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_DURATION_S = 120;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_UNAVAILABLE = 503;
 
-    private RequestQueue mRequestQueue;                     // Volley download request queue
-    private int nbRequests = 0;                             // Number of requests currently in the queue (for debug display)
+    private final OkHttpClient client;                      // Image download client
+    private final DownloadConcurrencyController concurrencyController;
 
-    // Anti-parallel downloads management
-//    private Map<String, List<Request<T>>> serverRequests;  // Stores requests for all servers to be handed down to Volley during anti-parallel mode
+    // Requests waiting to be handed over to OkHttp, by host (guarded by this)
+    private final Map<String, Queue<ImageDownloadRequest>> pendingRequests = new LinkedHashMap<>();
+    // Number of requests handed over to OkHttp, by host (guarded by this)
+    private final Map<String, Integer> activeRequests = new HashMap<>();
+    private int nbActiveRequests = 0;
 
 
     private RequestQueueManager(Context context) {
         int dlThreadCount = Preferences.getDownloadThreadCount();
-        if (dlThreadCount == Preferences.Constant.DOWNLOAD_THREAD_COUNT_AUTO) {
-            dlThreadCount = getSuggestedThreadCount(context);
+        boolean isAuto = (dlThreadCount == Preferences.Constant.DOWNLOAD_THREAD_COUNT_AUTO);
+        int initialLimit = dlThreadCount;
+        if (isAuto) {
+            // Start from the suggested value; the controller adapts it to each host
+            initialLimit = getSuggestedThreadCount(context);
+            dlThreadCount = MAX_AUTO_THREAD_COUNT;
         }
-        Crashlytics.setInt("Download thread count", dlThreadCount);
+        Crashlytics.setInt("Download thread count", initialLimit);
 
-        mRequestQueue = getRequestQueue(context, dlThreadCount);
+        concurrencyController = new DownloadConcurrencyController(isAuto, initialLimit, dlThreadCount, getMemoryClass(context), DownloadMetrics.getInstance(context)::recordConcurrency);
+        client = createClient(dlThreadCount);
     }
 
     private static int getSuggestedThreadCount(Context context) {
@@ -63,104 +99,177 @@ public class RequestQueueManager<T> implements RequestQueue.RequestFinishedListe
         return activityManager.getMemoryClass();
     }
 
-    @SuppressWarnings("unchecked")
-    public static synchronized <T> RequestQueueManager<T> getInstance(Context context) {
+    public static synchronized RequestQueueManager getInstance(Context context) {
         if (context != null && mInstance == null) {
-            mInstance = new RequestQueueManager<T>(context);
+            mInstance = new RequestQueueManager(context);
         }
         return mInstance;
     }
 
     /**
-     * Returns the app's Volley request queue
+     * Create the client used to download pictures
+     * NB : Limits per host are managed by this class; the dispatcher only caps the total number of calls
      *
-     * @param ctx App context
-     * @return Hentoid Volley request queue
+     * @param maxRequests Maximum number of parallel downloads
+     * @return Client to download pictures with
      */
-    private RequestQueue getRequestQueue(Context ctx) { // This is the safest code, as it relies on standard Volley interface
-        if (mRequestQueue == null) {
-            mRequestQueue = Volley.newRequestQueue(ctx.getApplicationContext(), new VolleyOkHttp3Stack(TIMEOUT_MS));
-            mRequestQueue.addRequestFinishedListener(this);
-        }
-        return mRequestQueue;
+    private static OkHttpClient createClient(int maxRequests) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+
+        return OkHttpClientSingleton.getInstance(TIMEOUT_MS).newBuilder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_S, TimeUnit.SECONDS))
+                .cache(null) // Pictures are never read twice
+                .build();
     }
 
-    private RequestQueue getRequestQueue(Context ctx, int nbDlThreads) { // Freely inspired by inner workings of Volley.java and RequestQueue.java; to be watched closely as Volley evolves
-        if (mRequestQueue == null) {
-            BasicNetwork network = new BasicNetwork(new VolleyOkHttp3Stack(TIMEOUT_MS));
+    /**
+     * Add a request to the app's queue
+     *
+     * @param request Request to add to the queue
+     */
+    void queueRequest(@NonNull ImageDownloadRequest request) {
+        String host = getHost(request.getUrl());
+        synchronized (this) {
+            Queue<ImageDownloadRequest> requests = pendingRequests.get(host);
+            if (null == requests) {
+                requests = new ArrayDeque<>();
+                pendingRequests.put(host, requests);
+            }
+            requests.add(request);
+            dispatchRequests();
+        }
+    }
 
-            File cacheDir = new File(ctx.getCacheDir(), "volley"); // NB : this is dirty, as this value is supposed to be private in Volley.java
-            mRequestQueue = new RequestQueue(new DiskBasedCache(cacheDir), network, nbDlThreads);
-            mRequestQueue.addRequestFinishedListener(this);
-            mRequestQueue.start();
+    /**
+     * Hand pending requests over to OkHttp, within the limits set by the concurrency controller
+     * Hosts are served in turn so that a book hosted on multiple servers uses all of them
+     */
+    private synchronized void dispatchRequests() {
+        int globalLimit = concurrencyController.getGlobalLimit();
+        boolean dispatched = true;
+        while (dispatched && nbActiveRequests < globalLimit) {
+            dispatched = false;
+            Iterator<Map.Entry<String, Queue<ImageDownloadRequest>>> iterator = pendingRequests.entrySet().iterator();
+            while (iterator.hasNext() && nbActiveRequests < globalLimit) {
+                Map.Entry<String, Queue<ImageDownloadRequest>> entry = iterator.next();
+                String host = entry.getKey();
+                int nbActive = getActiveRequests(host);
+                if (nbActive < concurrencyController.getHostLimit(host)) {
+                    activeRequests.put(host, nbActive + 1);
+                    nbActiveRequests++;
+                    Timber.d("Global requests queue ::: request added for host %s - current total %s", host, nbActiveRequests);
+                    execute(entry.getValue().remove());
+                    dispatched = true;
+                }
+                if (entry.getValue().isEmpty()) iterator.remove();
+            }
         }
-        return mRequestQueue;
     }
 
     /**
-     * Add a request to the app's queue
+     * Execute the given request asynchronously
+     * NB : Retries keep the slot of the request
      *
-     * @param request Request to addAll to the queue
+     * @param request Request to execute
      */
-    void queueRequest(Request<T> request) {
-        /*
-        if (!allowParallelDownloads) {
-            String host = Uri.parse(request.getUrl()).getHost();
-            List<Request<T>> requests;
-            if (serverRequests.containsKey(host)) {
-                requests = serverRequests.get(host);
-                requests.add(request); // Will wait until the 1st of the list has been completed
-                Timber.d("Host %s queue ::: request added - current total %s", host, requests.size());
-                return;
-            } else {
-                requests = new ArrayList<>();
-                serverRequests.put(host, requests);
-                // 1st request of any server is directly feeded to the global request queue
-                // hence it is not added to the requests list
+    private void execute(@NonNull ImageDownloadRequest request) {
+        okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+                .url(request.getUrl())
+                .header("User-Agent", request.useHentoidAgent() ? Consts.USER_AGENT : Consts.USER_AGENT_NEUTRAL)
+                .header("Accept", "*/*"); // Required to pass through cloudflare filtering on some sites
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+            requestBuilder.header(header.getKey(), (null == header.getValue()) ? "" : header.getValue());
+
+        final long start = SystemClock.elapsedRealtime();
+        client.newCall(requestBuilder.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                if (call.isCanceled()) onRequestFinished(request);
+                else onError(request, new ImageDownloadRequest.Failure(e, SystemClock.elapsedRealtime() - start));
             }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                File target = request.getTargetFile();
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || null == body) {
+                        onError(request, new ImageDownloadRequest.Failure(response.code(), SystemClock.elapsedRealtime() - start, response.message()));
+                        return;
+                    }
+                    // Stream the body to the target file as it is received
+                    // NB : Network time includes the time spent writing, as both are interleaved
+                    try (InputStream input = body.byteStream()) {
+                        FileHelper.saveBinaryInFile(target, input);
+                    }
+                    ImageDownloadRequest.Result result = new ImageDownloadRequest.Result(response.code(), response.header(HttpHelper.HEADER_CONTENT_TYPE), target, target.length(), SystemClock.elapsedRealtime() - start);
+                    concurrencyController.onSuccess(getHost(request.getUrl()), result.getNetworkTimeMs(), result.getSize());
+                    onRequestFinished(request);
+                    request.deliverSuccess(result);
+                } catch (IOException e) {
+                    // Don't leave a truncated picture behind
+                    if (target.exists()) FileHelper.removeFile(target);
+                    if (call.isCanceled()) onRequestFinished(request);
+                    else onError(request, new ImageDownloadRequest.Failure(e, SystemClock.elapsedRealtime() - start));
+                }
+            }
+        });
+    }
+
+    private void onError(@NonNull ImageDownloadRequest request, @NonNull ImageDownloadRequest.Failure error) {
+        if (request.retry(error)) {
+            Timber.d("Retrying %s", request.getUrl());
+            execute(request);
+            return;
         }
-         */
-        addToRequestQueue(request);
+
+        // Signs of an overloaded host or link
+        if (error.getReason() == ImageDownloadRequest.Failure.Reason.TIMEOUT
+                || HTTP_TOO_MANY_REQUESTS == error.getStatusCode()
+                || HTTP_UNAVAILABLE == error.getStatusCode())
+            concurrencyController.onThrottled(getHost(request.getUrl()));
+
+        onRequestFinished(request);
+        request.deliverError(error);
+    }
+
+    private int getActiveRequests(String host) {
+        Integer nbActive = activeRequests.get(host);
+        return (null == nbActive) ? 0 : nbActive;
     }
 
-    private void addToRequestQueue(Request<T> request) {
-        mRequestQueue.add(request);
-        nbRequests++;
-        Timber.d("Global requests queue ::: request added for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbRequests);
+    private static String getHost(String url) {
+        String host = Uri.parse(url).getHost();
+        return (null == host) ? "" : host;
     }
 
     /**
-     * Generic handler called when a request is completed
+     * Free the slot of a completed request and dispatch the next ones
      *
      * @param request Completed request
      */
-    public void onRequestFinished(Request<T> request) {
-        nbRequests--;
-        Timber.d("Global requests queue ::: request removed for host %s - current total %s", Uri.parse(request.getUrl()).getHost(), nbRequests);
-
-/*        if (!allowParallelDownloads) {
-            // Feed the next request of the same server to the global queue
-            String host = Uri.parse(request.getUrl()).getHost();
-            if (serverRequests.containsKey(host)) {
-                int hostQueueSize = serverRequests.get(host).size();
-                if (hostQueueSize > 0) {
-                    Request<T> req = serverRequests.get(host).get(0);
-                    addToRequestQueue(req);
-                    serverRequests.get(host).remove(req);
-                    hostQueueSize--;
-                }
-                if (0 == hostQueueSize) serverRequests.remove(host);
-            }
+    private void onRequestFinished(@NonNull ImageDownloadRequest request) {
+        String host = getHost(request.getUrl());
+        synchronized (this) {
+            int nbActive = getActiveRequests(host);
+            if (nbActive > 1) activeRequests.put(host, nbActive - 1);
+            else activeRequests.remove(host);
+            nbActiveRequests = Math.max(0, nbActiveRequests - 1);
+            Timber.d("Global requests queue ::: request removed for host %s - current total %s", host, nbActiveRequests);
+            dispatchRequests();
         }
-        */
     }
 
     /**
      * Cancel the app's request queue : cancel all requests remaining in the queue
      */
     void cancelQueue() {
-        RequestQueue.RequestFilter filterForAll = request -> true;
-        mRequestQueue.cancelAll(filterForAll);
+        synchronized (this) {
+            pendingRequests.clear();
+        }
+        client.dispatcher().cancelAll();
         Timber.d("RequestQueue ::: canceled");
     }
 }
@@ -0,0 +1,140 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton that tells if a text contains any of a set of strings
+ * <p>
+ * The text is read once, whatever the number of strings to look for
+ * NB : Matching is case-sensitive, as String.contains is
+ */
+public final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    // Transitions of each node, as chars sorted for binary search and their target nodes
+    private final char[][] keys;
+    private final int[][] targets;
+    // Node to fall back to when the next char has no transition
+    private final int[] fail;
+    // True if reaching the node means one of the strings has been found
+    private final boolean[] terminal;
+
+
+    /**
+     * Build the automaton of the given strings
+     * NB : Empty strings are ignored
+     *
+     * @param patterns Strings to look for
+     */
+    public AhoCorasick(@NonNull Collection<String> patterns) {
+        // Build the trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(false);
+        for (String pattern : patterns) {
+            if (pattern.isEmpty()) continue;
+            int node = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                Character c = pattern.charAt(i);
+                Integer next = trie.get(node).get(c);
+                if (null == next) {
+                    next = trie.size();
+                    trie.get(node).put(c, next);
+                    trie.add(new TreeMap<>());
+                    ends.add(false);
+                }
+                node = next;
+            }
+            ends.set(node, true);
+        }
+
+        // Compact it into arrays
+        int size = trie.size();
+        keys = new char[size][];
+        targets = new int[size][];
+        fail = new int[size];
+        terminal = new boolean[size];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> transitions = trie.get(node);
+            keys[node] = new char[transitions.size()];
+            targets[node] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                keys[node][i] = transition.getKey();
+                targets[node][i++] = transition.getValue();
+            }
+            terminal[node] = ends.get(node);
+        }
+
+        // Compute failure links breadth-first, so that the links of shorter prefixes are known first
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[ROOT]) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            for (int i = 0; i < keys[node].length; i++) {
+                char c = keys[node][i];
+                int child = targets[node][i];
+                queue.add(child);
+
+                int fallback = fail[node];
+                int next = next(fallback, c);
+                while (next < 0 && fallback != ROOT) {
+                    fallback = fail[fallback];
+                    next = next(fallback, c);
+                }
+                fail[child] = (next < 0) ? ROOT : next;
+                // A string ending in the middle of another one is found as well
+                terminal[child] |= terminal[fail[child]];
+            }
+        }
+    }
+
+    /**
+     * @return True if the automaton doesn't look for any string
+     */
+    public boolean isEmpty() {
+        return 0 == keys[ROOT].length;
+    }
+
+    /**
+     * Indicate if the given text contains any of the strings of the automaton
+     *
+     * @param text Text to examine
+     * @return True if the given text contains at least one of the strings of the automaton
+     */
+    public boolean matches(@NonNull CharSequence text) {
+        if (isEmpty()) return false;
+
+        int node = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next = next(node, c);
+            while (next < 0 && node != ROOT) {
+                node = fail[node];
+                next = next(node, c);
+            }
+            node = (next < 0) ? ROOT : next;
+            if (terminal[node]) return true;
+        }
+        return false;
+    }
+
+    private int next(int node, char c) {
+        int index = Arrays.binarySearch(keys[node], c);
+        return (index < 0) ? -1 : targets[node][index];
+    }
+}
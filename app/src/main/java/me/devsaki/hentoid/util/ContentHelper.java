@@ -7,17 +7,25 @@ import android.os.Bundle;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.documentfile.provider.DocumentFile;
 
 import org.threeten.bp.Instant;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
+import me.devsaki.hentoid.HentoidApp;
 import me.devsaki.hentoid.R;
 import me.devsaki.hentoid.activities.ImageViewerActivity;
 import me.devsaki.hentoid.activities.UnlockActivity;
@@ -42,6 +50,16 @@ public final class ContentHelper {
 
     private static final String UNAUTHORIZED_CHARS = "[^a-zA-Z0-9.-]";
 
+    // Delay under which a folder modification may not be reflected by its timestamp (e.g. 2s resolution on FAT SD cards)
+    private static final long FOLDER_TIMESTAMP_RESOLUTION_MS = 2000;
+    // Pictures of a book folder, cover aside
+    private static final FileFilter PICTURE_FILE_FILTER = file -> (file.isFile()
+            && !file.getName().toLowerCase().startsWith("thumb")
+            && Helper.isImageExtensionSupported(FileHelper.getExtension(file.getName()))
+    );
+    // Picture files of the last opened books
+    private static final FolderListingCache pictureFilesCache = new FolderListingCache(10, FOLDER_TIMESTAMP_RESOLUTION_MS, PICTURE_FILE_FILTER);
+
 
     private ContentHelper() {
         throw new IllegalStateException("Utility class");
@@ -132,35 +150,55 @@ public final class ContentHelper {
         content.increaseReads().setLastReadDate(Instant.now().toEpochMilli());
         dao.insertContent(content);
 
-        if (!content.getJsonUri().isEmpty()) updateJson(context, content);
-        else createJson(content);
+        ContentJsonWriter.getInstance(context).scheduleWrite(content);
     }
 
     /**
      * Return the URI string to use to display the given Content's cover in the library screen
      * NB : Method is used by onBindViewHolder(), speed is key
-     * @param content Content whose cover to retrieve
+     * @param content           Content whose cover to retrieve
+     * @param generateThumbnail True to generate the thumbnail of the given Content if its cover has been downloaded;
+     *                          false if its existence couldn't be verified (e.g. the thumbnail index is still loading)
      * @return URI string where the cover should be retrieved
      */
-    public static String getThumb(@NonNull final Content content) {
+    public static String getThumb(@NonNull final Content content, boolean generateThumbnail) {
         String coverUrl = content.getCoverImageUrl();
 
         // If trying to access a non-downloaded book cover (e.g. viewing the download queue)
         if (content.getStorageFolder().equals("")) return coverUrl;
 
-        String extension = HttpHelper.getExtensionFromUri(coverUrl);
+        File f = getCoverFile(content);
+        if (f.exists()) {
+            // Books imported from an existing library don't have a thumbnail yet => generate it for the next time
+            // NB : The thumbnail itself is retrieved through ThumbnailAtlas.getThumbnail
+            if (generateThumbnail)
+                ThumbnailHelper.generateThumbnailAsync(HentoidApp.getInstance(), content.getId(), f);
+            return f.getAbsolutePath();
+        }
+        return coverUrl;
+    }
+
+    /**
+     * Return the location of the given Content's downloaded cover
+     * NB : The file might not exist if the cover hasn't been downloaded
+     *
+     * @param content Content whose cover to locate
+     * @return Location of the given Content's downloaded cover
+     */
+    public static File getCoverFile(@NonNull final Content content) {
+        String extension = HttpHelper.getExtensionFromUri(content.getCoverImageUrl());
         // Some URLs do not link the image itself (e.g Tsumino) => jpg by default
         // NB : ideal would be to get the content-type of the resource behind coverUrl, but that's too time-consuming
         if (extension.isEmpty() || extension.contains("/")) extension = "jpg";
 
-        File f = new File(Preferences.getRootFolderName(), content.getStorageFolder() + File.separator + "thumb." + extension);
-        return f.exists() ? f.getAbsolutePath() : coverUrl;
+        return new File(Preferences.getRootFolderName(), content.getStorageFolder() + File.separator + "thumb." + extension);
     }
 
     /**
      * Find the picture files for the given Content
      * NB1 : Pictures with non-supported formats are not included in the results
      * NB2 : Cover picture is not included in the results
+     * NB3 : Listings are cached until the timestamp of the book's folder changes
      * @param content Content to retrieve picture files for
      * @return List of picture files
      */
@@ -176,12 +214,91 @@ public final class ContentHelper {
             return null;
         }
 
-        return dir.listFiles(
-                file -> (file.isFile()
-                        && !file.getName().toLowerCase().startsWith("thumb")
-                        && Helper.isImageExtensionSupported(FileHelper.getExtension(file.getName()))
-                )
-        );
+        return pictureFilesCache.listFiles(dir);
+    }
+
+    /**
+     * List the picture files of the given book folder
+     * NB1 : Pictures with non-supported formats are not included in the results
+     * NB2 : Cover picture is not included in the results
+     *
+     * @param dir Book folder to list
+     * @return Picture files of the given folder; null if it can't be listed
+     */
+    @Nullable
+    public static File[] listPictureFiles(@NonNull final File dir) {
+        return dir.listFiles(PICTURE_FILE_FILTER);
+    }
+
+    /**
+     * Store the path of the matching file into each of the given images
+     * Image and file names match when they are the same (case-insensitive), or when they have the same numeric value
+     * (e.g. "1" and "001"), extensions aside
+     * NB : Files are indexed by name and by numeric value once, so that each image is matched in constant time
+     *
+     * @param files  Files to match
+     * @param images Images to match
+     * @return Images that have a matching file, in the same order
+     */
+    public static List<ImageFile> matchFilesToImageList(@NonNull File[] files, @NonNull List<ImageFile> images) {
+        // Index of the first file having each name and numeric value
+        Map<String, Integer> fileIndexByName = new HashMap<>(files.length * 2);
+        Map<Integer, Integer> fileIndexByValue = new HashMap<>(files.length * 2);
+        for (int i = files.length - 1; i >= 0; i--) {
+            String name = FileHelper.getFileNameWithoutExtension(files[i].getName());
+            fileIndexByName.put(name.toLowerCase(Locale.US), i);
+            Integer value = parseFileNumber(name);
+            if (value != null) fileIndexByValue.put(value, i);
+        }
+
+        List<ImageFile> result = new ArrayList<>(images.size());
+        for (ImageFile img : images) {
+            String name = FileHelper.getFileNameWithoutExtension(img.getName());
+            Integer fileIndex = fileIndexByName.get(name.toLowerCase(Locale.US));
+            Integer value = parseFileNumber(name);
+            if (value != null) {
+                Integer valueIndex = fileIndexByValue.get(value);
+                if (valueIndex != null && (null == fileIndex || valueIndex < fileIndex))
+                    fileIndex = valueIndex;
+            }
+            // Image and file name match => store absolute path
+            if (fileIndex != null) {
+                img.setAbsolutePath(files[fileIndex].getAbsolutePath());
+                result.add(img);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parse the given file name as an integer, the way Integer.parseInt does, without throwing any exception
+     *
+     * @param name File name to parse, without its extension
+     * @return Numeric value of the given name; null if it isn't a number
+     */
+    @Nullable
+    @VisibleForTesting
+    static Integer parseFileNumber(@NonNull String name) {
+        int length = name.length();
+        if (0 == length) return null;
+        int i = 0;
+        boolean isNegative = false;
+        char first = name.charAt(0);
+        if ('-' == first || '+' == first) {
+            if (1 == length) return null;
+            isNegative = ('-' == first);
+            i++;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(name.charAt(i), 10);
+            if (digit < 0) return null;
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) return null;
+        }
+        if (isNegative) value = -value;
+        if (value > Integer.MAX_VALUE) return null;
+        return (int) value;
     }
 
     /**
@@ -195,6 +312,8 @@ public final class ContentHelper {
         // Remove from DB
         // NB : start with DB to have a LiveData feedback, because file removal can take much time
         dao.deleteContent(content);
+        ThumbnailHelper.removeThumbnail(HentoidApp.getInstance(), content.getId());
+        ContentJsonWriter.getInstance(HentoidApp.getInstance()).cancelWrite(content.getId());
 
         // If the book has just starting being downloaded and there are no complete pictures on memory yet, it has no storage folder => nothing to delete
         if (!content.getStorageFolder().isEmpty()) {
@@ -227,7 +346,7 @@ public final class ContentHelper {
 
         // Update content JSON if it exists (i.e. if book is not queued)
         Content content = dao.selectContent(image.content.getTargetId());
-        if (!content.getJsonUri().isEmpty()) updateJson(context, content);
+        if (!content.getJsonUri().isEmpty()) ContentJsonWriter.getInstance(context).scheduleWrite(content);
     }
 
     /**
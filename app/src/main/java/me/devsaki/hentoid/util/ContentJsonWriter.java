@@ -0,0 +1,128 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import me.devsaki.hentoid.database.domains.Content;
+import timber.log.Timber;
+
+/**
+ * Background writer for the books' JSON files
+ * <p>
+ * Updates (reads, favourites, page edits...) are coalesced by Content : only the latest state of each book is written,
+ * once no update has been scheduled for a short while (and at most after a maximum delay).
+ * Pending updates are written when the app goes to background, and when the screens that produce them are closed.
+ */
+public final class ContentJsonWriter {
+
+    // Delay without any new update before pending updates are written
+    private static final long DEBOUNCE_MS = 1500;
+    // Maximum delay between the 1st pending update and its writing
+    private static final long MAX_DELAY_MS = 10000;
+    // Maximum time to wait for a blocking flush
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+
+    private static ContentJsonWriter instance;
+
+    private final Context context;
+    // Single thread => writes never overlap
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "json-writer"));
+
+    // Content to write, by ID (guarded by this)
+    private final Map<Long, Content> pendingContents = new LinkedHashMap<>();
+    private long firstPendingTime = 0;
+    private ScheduledFuture<?> scheduledFlush = null;
+
+
+    private ContentJsonWriter(@NonNull final Context context) {
+        this.context = context;
+    }
+
+    public static synchronized ContentJsonWriter getInstance(@NonNull final Context context) {
+        // Use application context only
+        if (null == instance) {
+            instance = new ContentJsonWriter(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Schedule the update of the JSON file of the given Content with its current values
+     *
+     * @param content Content whose JSON file to update
+     */
+    public synchronized void scheduleWrite(@NonNull final Content content) {
+        long now = System.currentTimeMillis();
+        if (pendingContents.isEmpty()) firstPendingTime = now;
+        pendingContents.put(content.getId(), content);
+
+        if (scheduledFlush != null) scheduledFlush.cancel(false);
+        long delay = Math.max(0, Math.min(DEBOUNCE_MS, firstPendingTime + MAX_DELAY_MS - now));
+        scheduledFlush = executor.schedule(this::writePending, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel the pending update of the JSON file of the given Content (e.g. when it is being deleted)
+     *
+     * @param contentId ID of the Content whose pending update to cancel
+     */
+    public synchronized void cancelWrite(long contentId) {
+        pendingContents.remove(contentId);
+    }
+
+    /**
+     * Write pending updates now, in the background
+     */
+    public synchronized void flush() {
+        if (pendingContents.isEmpty()) return;
+        if (scheduledFlush != null) scheduledFlush.cancel(false);
+        scheduledFlush = executor.schedule(this::writePending, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write pending updates now, and wait for them to be written
+     * NB : Must not be called from the UI thread
+     */
+    public void flushBlocking() {
+        try {
+            executor.submit(this::writePending).get(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Timber.w(e, "Pending JSON updates could not be written");
+        } catch (InterruptedException e) {
+            Timber.w(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writePending() {
+        List<Content> toWrite;
+        synchronized (this) {
+            toWrite = new ArrayList<>(pendingContents.values());
+            pendingContents.clear();
+            scheduledFlush = null;
+        }
+        if (!toWrite.isEmpty()) Timber.d("Writing %s JSON file(s)", toWrite.size());
+
+        for (Content content : toWrite) {
+            try {
+                if (!content.getJsonUri().isEmpty()) ContentHelper.updateJson(context, content);
+                else ContentHelper.createJson(content);
+            } catch (Exception e) { // Don't let a faulty book prevent the others from being written
+                Timber.w(e, "JSON of content %s could not be written", content.getId());
+            }
+        }
+    }
+}
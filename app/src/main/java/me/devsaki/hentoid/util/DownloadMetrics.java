@@ -0,0 +1,422 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.annimon.stream.Stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import me.devsaki.hentoid.enums.Site;
+import timber.log.Timber;
+
+/**
+ * Per-site and per-host metrics of the download pipeline
+ * (throughput, latency, retries, backup URLs usage, HTTP statuses and time spent in each phase)
+ * <p>
+ * Metrics are cumulated by day in a small JSON file of the app's private storage that only keeps the last days.
+ * NB : Recording a value only updates a few counters; the file is written in the background, after a delay
+ */
+public final class DownloadMetrics {
+
+    /**
+     * Phases of the download of a book
+     */
+    public enum Phase {
+        PARSE, // Parsing of the image list
+        DOWNLOAD, // Download of a picture
+        PROCESS, // Processing of a picture (e.g. descrambling)
+        SAVE // Saving of a picture
+    }
+
+    // Status recorded when no HTTP response has been received (e.g. timeout, no connection)
+    public static final int STATUS_NO_RESPONSE = 0;
+
+    private static final String FILE_NAME = "download_metrics.json";
+    // Number of days of metrics to keep
+    private static final int RETENTION_DAYS = 7;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // Delay between the 1st recorded value and the writing of the file
+    private static final long SAVE_DELAY_MS = 30000;
+    // Upper bounds of the latency buckets, in ms; the last bucket catches everything above
+    private static final long[] LATENCY_BOUNDS_MS = {100, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 7500, 10000, 15000, 30000, Long.MAX_VALUE};
+
+    private static DownloadMetrics instance;
+
+    private final File file;
+    // Single thread => writes never overlap
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "dl-metrics"));
+
+    // Guarded by this
+    private Store store = null; // Lazily loaded
+    private ScheduledFuture<?> scheduledSave = null;
+    // Current number of parallel downloads, by host (not persisted)
+    private final Map<String, Integer> concurrency = new TreeMap<>();
+
+
+    private DownloadMetrics(@NonNull final Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public static synchronized DownloadMetrics getInstance(@NonNull final Context context) {
+        // Use application context only
+        if (null == instance) {
+            instance = new DownloadMetrics(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Record the download of a picture
+     *
+     * @param site       Site the picture belongs to
+     * @param url        URL of the picture
+     * @param statusCode HTTP status of the response; {@link #STATUS_NO_RESPONSE} if no response has been received
+     * @param durationMs Duration of the download, in ms
+     * @param bytes      Size of the downloaded picture, in bytes; 0 if the download has failed
+     * @param success    True if the download has succeeded; false if it has failed
+     */
+    public void recordImage(@NonNull Site site, @NonNull String url, int statusCode, long durationMs, long bytes, boolean success) {
+        String statusKey = (STATUS_NO_RESPONSE == statusCode) ? "N/A" : Integer.toString(statusCode);
+        synchronized (this) {
+            HostStats stats = getHostStats(site, url);
+            if (success) stats.images++;
+            else stats.errors++;
+            stats.bytes += bytes;
+            stats.latencySumMs += durationMs;
+            stats.latencyBuckets[getLatencyBucket(durationMs)]++;
+            stats.phaseMs[Phase.DOWNLOAD.ordinal()] += durationMs;
+            Long nbStatus = stats.statuses.get(statusKey);
+            stats.statuses.put(statusKey, (null == nbStatus) ? 1 : nbStatus + 1);
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Record a network retry
+     *
+     * @param site Site the retried resource belongs to
+     * @param url  URL of the retried resource
+     */
+    public synchronized void recordRetry(@NonNull Site site, @NonNull String url) {
+        getHostStats(site, url).retries++;
+        scheduleSave();
+    }
+
+    /**
+     * Record the use of a backup URL
+     *
+     * @param site Site the picture belongs to
+     * @param url  Original URL of the picture
+     */
+    public synchronized void recordBackupUrl(@NonNull Site site, @NonNull String url) {
+        getHostStats(site, url).backupUrls++;
+        scheduleSave();
+    }
+
+    /**
+     * Record the time spent in the given phase
+     * NB : Use {@link #recordImage} to record the download of a picture
+     *
+     * @param site       Site of the book being downloaded
+     * @param url        URL of the processed resource
+     * @param phase      Phase to record the time of
+     * @param durationMs Time spent in the given phase, in ms
+     */
+    public synchronized void recordPhase(@NonNull Site site, @NonNull String url, @NonNull Phase phase, long durationMs) {
+        getHostStats(site, url).phaseMs[phase.ordinal()] += durationMs;
+        scheduleSave();
+    }
+
+    /**
+     * Record the number of parallel downloads currently allowed for the given host
+     *
+     * @param host  Host to record the number of parallel downloads of
+     * @param limit Number of parallel downloads currently allowed for the given host
+     */
+    public synchronized void recordConcurrency(@NonNull String host, int limit) {
+        concurrency.put(host, limit);
+    }
+
+    /**
+     * @return Number of parallel downloads currently allowed, by host
+     */
+    public synchronized Map<String, Integer> getConcurrency() {
+        return new TreeMap<>(concurrency);
+    }
+
+    /**
+     * Get the metrics of the last days, by site and host
+     *
+     * @return Metrics of the last days, by site and host, sorted by downloaded volume
+     */
+    @WorkerThread
+    public synchronized List<HostStats> getStats() {
+        long firstDay = System.currentTimeMillis() / DAY_MS - RETENTION_DAYS;
+        Map<String, HostStats> result = new HashMap<>();
+        for (DayStats day : getStore().days) {
+            if (day.day <= firstDay) continue;
+            for (Map.Entry<String, HostStats> entry : day.hosts.entrySet()) {
+                HostStats total = result.get(entry.getKey());
+                if (null == total) {
+                    total = new HostStats(entry.getValue().site, entry.getValue().host);
+                    result.put(entry.getKey(), total);
+                }
+                total.add(entry.getValue());
+            }
+        }
+        return Stream.of(result.values()).sortBy(s -> -s.bytes).toList();
+    }
+
+    /**
+     * Delete all recorded metrics
+     */
+    @WorkerThread
+    public synchronized void clear() {
+        store = new Store();
+        if (scheduledSave != null) scheduledSave.cancel(false);
+        scheduledSave = null;
+        if (file.exists() && !file.delete()) Timber.w("Could not delete %s", file.getAbsolutePath());
+    }
+
+    /**
+     * Write the recorded metrics now, in the background
+     */
+    public synchronized void flush() {
+        if (null == scheduledSave) return;
+        scheduledSave.cancel(false);
+        scheduledSave = executor.schedule(this::save, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private HostStats getHostStats(@NonNull Site site, @NonNull String url) {
+        long today = System.currentTimeMillis() / DAY_MS;
+        List<DayStats> days = getStore().days;
+        DayStats day = days.isEmpty() ? null : days.get(days.size() - 1);
+        if (null == day || day.day != today) {
+            day = new DayStats(today);
+            days.add(day);
+            // Rolling window
+            Iterator<DayStats> iterator = days.iterator();
+            while (iterator.hasNext())
+                if (iterator.next().day <= today - RETENTION_DAYS) iterator.remove();
+        }
+
+        String host = Uri.parse(url).getHost();
+        if (null == host) host = "";
+        String key = site.getCode() + "|" + host;
+        HostStats stats = day.hosts.get(key);
+        if (null == stats) {
+            stats = new HostStats(site.getDescription(), host);
+            day.hosts.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static int getLatencyBucket(long durationMs) {
+        for (int i = 0; i < LATENCY_BOUNDS_MS.length; i++)
+            if (durationMs <= LATENCY_BOUNDS_MS[i]) return i;
+        return LATENCY_BOUNDS_MS.length - 1;
+    }
+
+    private Store getStore() {
+        if (null == store) store = load();
+        return store;
+    }
+
+    private Store load() {
+        if (file.exists()) {
+            try {
+                Store result = JsonHelper.jsonToObject(file, Store.class);
+                if (result != null && result.days != null) return result;
+            } catch (IOException e) {
+                Timber.w(e, "Download metrics could not be read; starting over");
+            }
+        }
+        return new Store();
+    }
+
+    private void scheduleSave() {
+        if (scheduledSave != null) return;
+        scheduledSave = executor.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void save() {
+        String json;
+        synchronized (this) {
+            scheduledSave = null;
+            if (null == store) return;
+            json = JsonHelper.serializeToJson(store, Store.class);
+        }
+        try {
+            FileHelper.saveBinaryInFile(file, json.getBytes(Charset.forName("UTF-8")));
+        } catch (IOException e) {
+            Timber.w(e, "Download metrics could not be written");
+        }
+    }
+
+
+    /**
+     * Persisted metrics
+     */
+    static final class Store {
+        List<DayStats> days = new ArrayList<>();
+    }
+
+    /**
+     * Metrics of a given day, by site and host
+     */
+    static final class DayStats {
+        // Days since epoch (UTC)
+        long day;
+        Map<String, HostStats> hosts = new HashMap<>();
+
+        private DayStats() {
+            // Used by the JSON deserializer
+        }
+
+        DayStats(long day) {
+            this.day = day;
+        }
+    }
+
+    /**
+     * Metrics of a given host of a given site
+     */
+    public static final class HostStats {
+        String site;
+        String host;
+        long images = 0;
+        long errors = 0;
+        long bytes = 0;
+        long retries = 0;
+        long backupUrls = 0;
+        long latencySumMs = 0;
+        long[] latencyBuckets = new long[LATENCY_BOUNDS_MS.length];
+        // Number of responses by HTTP status
+        Map<String, Long> statuses = new HashMap<>();
+        // Time spent in each phase (see Phase), in ms
+        long[] phaseMs = new long[Phase.values().length];
+
+        private HostStats() {
+            // Used by the JSON deserializer
+        }
+
+        HostStats(String site, String host) {
+            this.site = site;
+            this.host = host;
+        }
+
+        private void add(@NonNull HostStats other) {
+            images += other.images;
+            errors += other.errors;
+            bytes += other.bytes;
+            retries += other.retries;
+            backupUrls += other.backupUrls;
+            latencySumMs += other.latencySumMs;
+            // Arrays read from older files may have a different size
+            for (int i = 0; i < Math.min(latencyBuckets.length, other.latencyBuckets.length); i++)
+                latencyBuckets[i] += other.latencyBuckets[i];
+            for (int i = 0; i < Math.min(phaseMs.length, other.phaseMs.length); i++)
+                phaseMs[i] += other.phaseMs[i];
+            for (Map.Entry<String, Long> status : other.statuses.entrySet()) {
+                Long nbStatus = statuses.get(status.getKey());
+                statuses.put(status.getKey(), (null == nbStatus) ? status.getValue() : nbStatus + status.getValue());
+            }
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public long getImages() {
+            return images;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getBackupUrls() {
+            return backupUrls;
+        }
+
+        /**
+         * @return Download speed, in bytes per second of download time
+         */
+        public long getBytesPerSecond() {
+            long downloadMs = phaseMs[Phase.DOWNLOAD.ordinal()];
+            return (0 == downloadMs) ? 0 : bytes * 1000 / downloadMs;
+        }
+
+        /**
+         * @return Average latency of downloads, in ms
+         */
+        public long getAverageLatencyMs() {
+            long count = images + errors;
+            return (0 == count) ? 0 : latencySumMs / count;
+        }
+
+        /**
+         * NB : Latencies are bucketed; the returned value is the upper bound of the bucket containing the 95th percentile
+         *
+         * @return 95th percentile of the latency of downloads, in ms; -1 if above the highest bucket
+         */
+        public long getP95LatencyMs() {
+            long count = 0;
+            for (long nb : latencyBuckets) count += nb;
+            if (0 == count) return 0;
+
+            long target = (long) Math.ceil(count * 0.95);
+            long cumulated = 0;
+            for (int i = 0; i < latencyBuckets.length; i++) {
+                cumulated += latencyBuckets[i];
+                if (cumulated >= target)
+                    return (i < LATENCY_BOUNDS_MS.length - 1) ? LATENCY_BOUNDS_MS[i] : -1;
+            }
+            return -1;
+        }
+
+        /**
+         * @return Number of responses by HTTP status ("N/A" when no response has been received), sorted by status
+         */
+        public Map<String, Long> getStatuses() {
+            return new TreeMap<>(statuses);
+        }
+
+        /**
+         * @param phase Phase to get the time of
+         * @return Time spent in the given phase, in ms
+         */
+        public long getPhaseMs(@NonNull Phase phase) {
+            return (phase.ordinal() < phaseMs.length) ? phaseMs[phase.ordinal()] : 0;
+        }
+    }
+}
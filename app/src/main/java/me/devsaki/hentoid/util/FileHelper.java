@@ -61,6 +61,9 @@ public class FileHelper {
 
     private static final Charset CHARSET_LATIN_1 = Charset.forName("ISO-8859-1");
 
+    // Maximum number appended to the name of a new file of the Downloads folder to make it unique
+    private static final int MAX_DOWNLOAD_FILE_INDEX = 1000;
+
 
     public static String getFileProviderAuthority() {
         return AUTHORITY;
@@ -301,7 +304,7 @@ public class FileHelper {
      * @param target The file.
      * @return FileOutputStream.
      */
-    static OutputStream getOutputStream(@NonNull final File target) throws IOException {
+    public static OutputStream getOutputStream(@NonNull final File target) throws IOException {
         return FileUtil.getOutputStream(target);
     }
 
@@ -502,12 +505,37 @@ public class FileHelper {
      */
     public static void saveBinaryInFile(File file, byte[] binaryContent) throws IOException {
         try (InputStream input = new ByteArrayInputStream(binaryContent)) {
-            try (BufferedOutputStream output = new BufferedOutputStream(FileHelper.getOutputStream(file))) {
-                copy(input, output);
-            }
+            saveBinaryInFile(file, input);
         }
     }
 
+    /**
+     * Write the given stream to the given file, without holding its whole content in memory
+     * NB : The stream isn't closed afterwards
+     *
+     * @param file  File to write to
+     * @param input Stream to write
+     * @throws IOException If the file can't be written
+     */
+    public static void saveBinaryInFile(File file, InputStream input) throws IOException {
+        try (BufferedOutputStream output = new BufferedOutputStream(FileHelper.getOutputStream(file))) {
+            copy(input, output);
+        }
+    }
+
+    /**
+     * Rename the given file inside its folder, replacing any existing file with the new name
+     *
+     * @param file    File to rename
+     * @param newName New name of the file, with its extension
+     * @return True if the file has been renamed; false if not
+     */
+    public static boolean renameFile(@NonNull File file, @NonNull String newName) {
+        File target = new File(file.getParentFile(), newName);
+        if (target.exists() && !removeFile(target)) return false;
+        return file.renameTo(target) || FileUtil.renameWithSAF(file, newName, false);
+    }
+
     public static boolean renameDirectory(File srcDir, File destDir) {
         try {
             FileUtils.moveDirectory(srcDir, destDir);
@@ -648,14 +676,30 @@ public class FileHelper {
     }
 
     private static OutputStream openNewDownloadOutputStreamLegacy(@NonNull final String fileName) throws IOException {
-        File downloadsFolder = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-        if (null == downloadsFolder) throw new IOException("Downloads folder not found");
+        return FileUtil.getOutputStream(createNewDownloadFile(fileName));
+    }
 
-        File target = new File(downloadsFolder, fileName);
-        if (!target.exists() && !target.createNewFile())
-            throw new IOException("Could not create new file in downloads folder");
+    /**
+     * Create a new empty file inside the Downloads folder
+     * NB : Existing files are never reused; if the given name is already taken, a number is appended to it
+     * (e.g. "name (1).cbz")
+     *
+     * @param fileName Name of the file to create
+     * @return Created file
+     * @throws IOException If the file couldn't be created
+     */
+    public static File createNewDownloadFile(@NonNull final String fileName) throws IOException {
+        File downloadsFolder = getDownloadsFolder();
+        if (null == downloadsFolder) throw new IOException("Downloads folder not found");
 
-        return FileUtil.getOutputStream(target);
+        String baseName = getFileNameWithoutExtension(fileName);
+        String extension = fileName.substring(baseName.length());
+        for (int i = 0; i < MAX_DOWNLOAD_FILE_INDEX; i++) {
+            File target = new File(downloadsFolder, (0 == i) ? fileName : baseName + " (" + i + ")" + extension);
+            // createNewFile fails if the file exists, so that two concurrent calls never get the same file
+            if (target.createNewFile()) return target;
+        }
+        throw new IOException("Could not create new file in downloads folder");
     }
 
     @TargetApi(29)
@@ -387,8 +387,12 @@ class FileUtil {
     }
 
     static boolean renameWithSAF(File srcDir, String newName) {
+        return renameWithSAF(srcDir, newName, true);
+    }
+
+    static boolean renameWithSAF(File src, String newName, boolean isDirectory) {
         if (Build.VERSION.SDK_INT >= LOLLIPOP) {
-            DocumentFile srcDocument = getDocumentFile(srcDir, true);
+            DocumentFile srcDocument = getDocumentFile(src, isDirectory);
             if (srcDocument != null) return srcDocument.renameTo(newName);
         }
         return false;
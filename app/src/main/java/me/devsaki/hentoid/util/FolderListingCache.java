@@ -0,0 +1,89 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.annimon.stream.function.LongSupplier;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the filtered listings of the last listed folders
+ * <p>
+ * Adding or removing files updates the timestamp of their folder : each listing is valid as long as the timestamp
+ * of its folder doesn't change. Listings of folders that have just been modified aren't cached, as further changes
+ * may not update their timestamp (e.g. 2s resolution on FAT SD cards).
+ * NB : Thread-safe; listings are returned as copies that can be modified freely
+ */
+final class FolderListingCache {
+
+    private final FileFilter filter;
+    // Delay under which a folder modification may not be reflected by its timestamp
+    private final long timestampResolutionMs;
+    private final LongSupplier clock;
+    // Listings, by folder path, in least recently used order
+    private final Map<String, Listing> listings;
+
+
+    /**
+     * @param maxSize               Maximum number of listings to keep
+     * @param timestampResolutionMs Delay under which a folder modification may not be reflected by its timestamp
+     * @param filter                Filter of the files to list
+     */
+    FolderListingCache(int maxSize, long timestampResolutionMs, @NonNull FileFilter filter) {
+        this(maxSize, timestampResolutionMs, filter, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    FolderListingCache(int maxSize, long timestampResolutionMs, @NonNull FileFilter filter, @NonNull LongSupplier clock) {
+        this.filter = filter;
+        this.timestampResolutionMs = timestampResolutionMs;
+        this.clock = clock;
+        this.listings = new LinkedHashMap<String, Listing>(maxSize * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * List the files of the given folder that pass the filter, from the cache if the folder hasn't changed
+     *
+     * @param dir Folder to list
+     * @return Files of the given folder that pass the filter; null if it can't be listed
+     */
+    @Nullable
+    File[] listFiles(@NonNull File dir) {
+        String path = dir.getAbsolutePath();
+        long lastModified = dir.lastModified();
+        synchronized (this) {
+            Listing cached = listings.get(path);
+            if (cached != null && cached.lastModified == lastModified) return cached.files.clone();
+        }
+
+        File[] result = dir.listFiles(filter);
+
+        synchronized (this) {
+            if (result != null && lastModified > 0 && clock.getAsLong() - lastModified > timestampResolutionMs)
+                listings.put(path, new Listing(lastModified, result.clone()));
+            else
+                listings.remove(path);
+        }
+        return result;
+    }
+
+    private static class Listing {
+        private final long lastModified;
+        private final File[] files;
+
+        Listing(long lastModified, @NonNull File[] files) {
+            this.lastModified = lastModified;
+            this.files = files;
+        }
+    }
+}
@@ -11,18 +11,12 @@ import androidx.annotation.NonNull;
 
 import org.apache.commons.text.StringEscapeUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.annotation.Nonnull;
-
 import static android.content.Context.CLIPBOARD_SERVICE;
 
 /**
@@ -112,22 +106,6 @@ public final class Helper {
         else return Math.min(value, max);
     }
 
-    public static List<InputStream> duplicateInputStream(@Nonnull InputStream stream, int numberDuplicates) throws IOException {
-        List<InputStream> result = new ArrayList<>();
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = stream.read(buffer)) > -1) baos.write(buffer, 0, len);
-        baos.flush();
-
-        for (int i = 0; i < numberDuplicates; i++)
-            result.add(new ByteArrayInputStream(baos.toByteArray()));
-
-        return result;
-    }
-
     public static boolean copyPlainTextToClipboard(@NonNull Context context, @NonNull String text) {
         ClipboardManager clipboard = (ClipboardManager) context.getSystemService(CLIPBOARD_SERVICE);
         if (clipboard != null) {
@@ -0,0 +1,632 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Removes elements matching CSS selectors from HTML pages while they are being downloaded
+ * <p>
+ * Pages are tokenized on the fly, byte by byte : the bytes of the page are passed through untouched, except the
+ * elements to remove, which are dropped along with their whole subtree. Nothing is parsed into a DOM and nothing
+ * is re-serialized.
+ * <p>
+ * Supported selectors are simple selectors made of a tag, an id, classes and attribute conditions
+ * (e.g. "section.advertisement", "#ad", "iframe[name^='spot']"). Combinators, pseudo-classes and selector groups
+ * aren't supported; {@link #compile(List)} returns null for them so that the caller can use a DOM parser instead.
+ * <p>
+ * NB : Safety rules
+ * - Elements whose end tag may be omitted (e.g. p, li) are never removed, as their end can't be found reliably
+ * - If the end of an element can't be found before the end of the body, it is put back and kept
+ * - Pages whose encoding isn't ASCII-compatible (UTF-16, ISO-2022...) aren't supported
+ */
+public class HtmlStreamSanitizer {
+
+    // Maximum size of a tag; beyond that, the rest of the page is passed through untouched
+    private static final int MAX_TAG_SIZE = 64 * 1024;
+    // Maximum size of a removed element; beyond that, the element is put back and kept
+    private static final int MAX_REMOVED_SIZE = 512 * 1024;
+    private static final int READ_SIZE = 8 * 1024;
+
+    private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"));
+    // Roots of the elements whose content isn't HTML but SVG / MathML, where any element may be self-closing
+    private static final Set<String> FOREIGN_ELEMENTS = new HashSet<>(Arrays.asList("svg", "math"));
+    // Elements whose content isn't HTML (must not be tokenized)
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<>(Arrays.asList(
+            "script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes", "noscript"));
+    // Elements whose end tag may be omitted
+    private static final Set<String> OPTIONAL_END_ELEMENTS = new HashSet<>(Arrays.asList(
+            "p", "li", "dt", "dd", "option", "optgroup", "tr", "td", "th", "thead", "tbody", "tfoot", "colgroup",
+            "rb", "rt", "rtc", "rp", "caption", "html", "head", "body"));
+    private static final String[] UNSUPPORTED_CHARSETS = {"utf-16", "utf-32", "iso-2022", "utf-7"};
+
+    private final List<Selector> selectors;
+
+
+    private HtmlStreamSanitizer(@NonNull List<Selector> selectors) {
+        this.selectors = selectors;
+    }
+
+    /**
+     * Compile the given CSS selectors
+     *
+     * @param cssSelectors CSS selectors of the elements to remove
+     * @return Sanitizer removing the elements matching the given selectors; null if any of them isn't supported
+     */
+    @Nullable
+    public static HtmlStreamSanitizer compile(@NonNull List<String> cssSelectors) {
+        List<Selector> result = new ArrayList<>();
+        for (String s : cssSelectors) {
+            Selector selector = Selector.parse(s.trim());
+            if (null == selector) {
+                Timber.d("Streaming sanitizer : unsupported selector %s", s);
+                return null;
+            }
+            result.add(selector);
+        }
+        return new HtmlStreamSanitizer(result);
+    }
+
+    /**
+     * Sanitize the given HTML page as it is read
+     *
+     * @param stream  Stream of the HTML page to sanitize
+     * @param charset Charset of the page, as declared by the server; null if none has been declared
+     * @return Stream of the sanitized page; null if the encoding of the page isn't supported
+     * (in that case, the given stream can still be read from its start)
+     * @throws IOException If the start of the page couldn't be read
+     */
+    @Nullable
+    public InputStream sanitize(@NonNull InputStream stream, @Nullable String charset) throws IOException {
+        if (charset != null) {
+            String lowerCharset = charset.toLowerCase(Locale.US);
+            for (String s : UNSUPPORTED_CHARSETS) if (lowerCharset.startsWith(s)) return null;
+        }
+
+        // Look for a UTF-16 / UTF-32 byte order mark
+        BufferedInputStream source = (stream instanceof BufferedInputStream) ? (BufferedInputStream) stream : new BufferedInputStream(stream);
+        source.mark(2);
+        int b1 = source.read();
+        int b2 = source.read();
+        source.reset();
+        if ((0xFE == b1 && 0xFF == b2) || (0xFF == b1 && 0xFE == b2) || (0 == b1 && 0 == b2)) return null;
+
+        return new SanitizingInputStream(source);
+    }
+
+    private boolean matches(@NonNull Tag tag) {
+        for (Selector s : selectors) if (s.matches(tag)) return true;
+        return false;
+    }
+
+
+    private enum State {
+        TEXT, TAG_OPEN, TAG, MARKUP_DECLARATION, COMMENT, BOGUS_COMMENT, RAW_TEXT, PASS_THROUGH
+    }
+
+    /**
+     * Stream of the sanitized page
+     */
+    private class SanitizingInputStream extends InputStream {
+        private final InputStream source;
+        private final byte[] readBuffer = new byte[READ_SIZE];
+        private boolean isEof = false;
+
+        // Bytes ready to be read
+        private final ByteArray output = new ByteArray();
+        private int outputPosition = 0;
+
+        private State state = State.TEXT;
+        // Bytes of the markup being tokenized
+        private final ByteArray markup = new ByteArray();
+        private byte quote = 0;
+        private int dashes = 0;
+        // Raw text element being read
+        private String rawTextElement = null;
+        // Number of foreign elements (svg, math) the current position is nested in
+        private int foreignDepth = 0;
+
+        // Element being removed; null if none
+        private String removedElement = null;
+        private int removedDepth = 0;
+        private final ByteArray removedBytes = new ByteArray();
+        private int nbRemoved = 0;
+
+        SanitizingInputStream(@NonNull InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n < 0) ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (0 == len) return 0;
+            while (outputPosition == output.length) {
+                if (isEof) return -1;
+                output.length = 0;
+                outputPosition = 0;
+                int n = source.read(readBuffer, 0, readBuffer.length);
+                if (n < 0) onEof();
+                else process(readBuffer, n);
+            }
+            int n = Math.min(len, output.length - outputPosition);
+            System.arraycopy(output.data, outputPosition, b, off, n);
+            outputPosition += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private void onEof() {
+            isEof = true;
+            emit(markup.data, 0, markup.length);
+            markup.length = 0;
+            // Unterminated removed element : put it back
+            if (removedElement != null) restoreRemovedElement();
+            Timber.d("Streaming sanitizer : %s element(s) removed", nbRemoved);
+        }
+
+        private void process(@NonNull byte[] data, int length) {
+            int i = 0;
+            while (i < length) {
+                byte c = data[i];
+                switch (state) {
+                    case PASS_THROUGH:
+                        emit(data, i, length - i);
+                        return;
+                    case TEXT:
+                        // Emit all text up to the next tag at once
+                        int next = i;
+                        while (next < length && data[next] != '<') next++;
+                        emit(data, i, next - i);
+                        if (next < length) {
+                            markup.append((byte) '<');
+                            state = State.TAG_OPEN;
+                        }
+                        i = next;
+                        break;
+                    case TAG_OPEN:
+                        if ('!' == c) {
+                            markup.append(c);
+                            state = State.MARKUP_DECLARATION;
+                        } else if ('/' == c || isLetter(c)) {
+                            markup.append(c);
+                            quote = 0;
+                            state = State.TAG;
+                        } else if ('?' == c) {
+                            markup.append(c);
+                            flushMarkup();
+                            state = State.BOGUS_COMMENT;
+                        } else {
+                            // Not a tag after all; reprocess the current char as text
+                            flushMarkup();
+                            state = State.TEXT;
+                            continue;
+                        }
+                        break;
+                    case MARKUP_DECLARATION:
+                        markup.append(c);
+                        if ('-' == c && 3 == markup.length) break; // "<!-"
+                        if ('-' == c && 4 == markup.length) { // "<!--"
+                            flushMarkup();
+                            dashes = 0;
+                            state = State.COMMENT;
+                            break;
+                        }
+                        // Doctype, CDATA...
+                        flushMarkup();
+                        state = ('>' == c) ? State.TEXT : State.BOGUS_COMMENT;
+                        break;
+                    case COMMENT:
+                        emit(c);
+                        if ('>' == c && dashes >= 2) state = State.TEXT;
+                        dashes = ('-' == c) ? dashes + 1 : 0;
+                        break;
+                    case BOGUS_COMMENT:
+                        emit(c);
+                        if ('>' == c) state = State.TEXT;
+                        break;
+                    case TAG:
+                        markup.append(c);
+                        if (quote != 0) {
+                            if (c == quote) quote = 0;
+                        } else if (('"' == c || '\'' == c) && isAfterEquals()) {
+                            quote = c;
+                        } else if ('>' == c) {
+                            state = State.TEXT;
+                            onTag();
+                        }
+                        if (markup.length > MAX_TAG_SIZE) passThrough();
+                        break;
+                    case RAW_TEXT:
+                        if (markup.length > 0 || '<' == c) {
+                            // Look for the end tag of the raw text element
+                            markup.append(c);
+                            if (!isRawTextEndCandidate()) {
+                                if ('<' == c && markup.length > 1) {
+                                    // The current char may start the end tag
+                                    markup.length--;
+                                    flushMarkup();
+                                    markup.append(c);
+                                } else flushMarkup();
+                            } else if (markup.length == rawTextElement.length() + 3) {
+                                // Found "</name" followed by a delimiter
+                                quote = 0;
+                                state = State.TAG;
+                                if ('>' == c) {
+                                    state = State.TEXT;
+                                    onTag();
+                                }
+                            }
+                        } else emit(c);
+                        break;
+                    default:
+                        // Nothing to do
+                }
+                i++;
+            }
+        }
+
+        /**
+         * Indicate if the markup read in raw text mode may still be the end tag of the raw text element
+         */
+        private boolean isRawTextEndCandidate() {
+            int length = markup.length;
+            if (length >= 2 && markup.data[1] != '/') return false;
+            int nameLength = rawTextElement.length();
+            for (int i = 2; i < Math.min(length, nameLength + 2); i++)
+                if (toLower(markup.data[i]) != rawTextElement.charAt(i - 2)) return false;
+            if (length == nameLength + 3) {
+                byte delimiter = markup.data[length - 1];
+                return isWhitespace(delimiter) || '/' == delimiter || '>' == delimiter;
+            }
+            return true;
+        }
+
+        private boolean isAfterEquals() {
+            for (int i = markup.length - 2; i >= 0; i--) {
+                byte b = markup.data[i];
+                if (isWhitespace(b)) continue;
+                return '=' == b;
+            }
+            return false;
+        }
+
+        private void onTag() {
+            Tag tag = Tag.parse(markup.data, markup.length);
+            if (null == tag) {
+                flushMarkup();
+                return;
+            }
+
+            // A trailing slash only closes void and foreign elements; HTML ignores it on other elements (e.g. <div/>)
+            boolean isForeign = FOREIGN_ELEMENTS.contains(tag.name);
+            boolean isSelfClosing = VOID_ELEMENTS.contains(tag.name)
+                    || (tag.hasTrailingSlash && (foreignDepth > 0 || isForeign));
+            if (isForeign && !isSelfClosing) foreignDepth = Math.max(foreignDepth + (tag.isEnd ? -1 : 1), 0);
+            // Script and style elements of foreign content are tokenized as usual
+            boolean isRawText = !tag.isEnd && !isSelfClosing && 0 == foreignDepth && RAW_TEXT_ELEMENTS.contains(tag.name);
+
+            if (removedElement != null) {
+                if (!tag.isEnd && tag.name.equals(removedElement) && !isSelfClosing) {
+                    removedDepth++;
+                } else if (tag.isEnd && tag.name.equals(removedElement)) {
+                    removedDepth--;
+                } else if (tag.isEnd && ("body".equals(tag.name) || "html".equals(tag.name))) {
+                    // The end of the removed element hasn't been found : keep it
+                    restoreRemovedElement();
+                }
+                flushMarkup();
+                if (removedElement != null && 0 == removedDepth) {
+                    // Drop the removed element
+                    removedElement = null;
+                    removedBytes.length = 0;
+                    nbRemoved++;
+                } else if (removedBytes.length > MAX_REMOVED_SIZE) {
+                    restoreRemovedElement();
+                }
+            } else if (!tag.isEnd && matches(tag)) {
+                if (isSelfClosing) {
+                    // Drop the tag alone
+                    markup.length = 0;
+                    nbRemoved++;
+                    isRawText = false;
+                } else if (OPTIONAL_END_ELEMENTS.contains(tag.name)) {
+                    Timber.d("Streaming sanitizer : keeping %s element (end tag may be omitted)", tag.name);
+                    flushMarkup();
+                } else {
+                    removedElement = tag.name;
+                    removedDepth = 1;
+                    flushMarkup();
+                }
+            } else {
+                flushMarkup();
+            }
+
+            if (isRawText) {
+                rawTextElement = tag.name;
+                state = State.RAW_TEXT;
+            }
+        }
+
+        /**
+         * Put the bytes of the element being removed back into the output
+         */
+        private void restoreRemovedElement() {
+            removedElement = null;
+            output.append(removedBytes.data, 0, removedBytes.length);
+            removedBytes.length = 0;
+        }
+
+        /**
+         * Stop sanitizing; pass the rest of the page through untouched
+         */
+        private void passThrough() {
+            Timber.w("Streaming sanitizer : tag too large; passing the rest of the page through");
+            flushMarkup();
+            if (removedElement != null) restoreRemovedElement();
+            state = State.PASS_THROUGH;
+        }
+
+        private void flushMarkup() {
+            emit(markup.data, 0, markup.length);
+            markup.length = 0;
+        }
+
+        private void emit(byte b) {
+            if (removedElement != null) removedBytes.append(b);
+            else output.append(b);
+        }
+
+        private void emit(@NonNull byte[] data, int offset, int length) {
+            if (removedElement != null) removedBytes.append(data, offset, length);
+            else output.append(data, offset, length);
+        }
+    }
+
+    /**
+     * Start or end tag
+     */
+    private static class Tag {
+        private String name;
+        private boolean isEnd;
+        // True if the tag ends with "/>"; NB : that doesn't make it self-closing, except for void and foreign elements
+        private boolean hasTrailingSlash;
+        private final Map<String, String> attributes = new HashMap<>();
+
+        /**
+         * Parse the given tag
+         *
+         * @param data   Bytes of the tag, from '<' to '>' included
+         * @param length Length of the tag
+         * @return Parsed tag; null if the given bytes can't be parsed
+         */
+        @Nullable
+        static Tag parse(@NonNull byte[] data, int length) {
+            Tag result = new Tag();
+            int i = 1;
+            if ('/' == data[i]) {
+                result.isEnd = true;
+                i++;
+            }
+            int nameStart = i;
+            while (i < length - 1 && !isWhitespace(data[i]) && data[i] != '/' && data[i] != '>') i++;
+            if (i == nameStart) return null;
+            result.name = toLowerString(data, nameStart, i);
+            result.hasTrailingSlash = length >= 2 && '/' == data[length - 2];
+            if (result.isEnd) return result;
+
+            // Attributes
+            while (i < length - 1) {
+                while (i < length - 1 && (isWhitespace(data[i]) || '/' == data[i])) i++;
+                int attrStart = i;
+                while (i < length - 1 && !isWhitespace(data[i]) && data[i] != '=' && data[i] != '>' && data[i] != '/')
+                    i++;
+                if (i == attrStart) break;
+                String attrName = toLowerString(data, attrStart, i);
+                while (i < length - 1 && isWhitespace(data[i])) i++;
+
+                String value = "";
+                if (i < length - 1 && '=' == data[i]) {
+                    i++;
+                    while (i < length - 1 && isWhitespace(data[i])) i++;
+                    if (i < length - 1 && ('"' == data[i] || '\'' == data[i])) {
+                        byte q = data[i++];
+                        int valueStart = i;
+                        while (i < length - 1 && data[i] != q) i++;
+                        value = new String(data, valueStart, i - valueStart, StandardCharsets.ISO_8859_1);
+                        i++;
+                    } else {
+                        int valueStart = i;
+                        while (i < length - 1 && !isWhitespace(data[i]) && data[i] != '>') i++;
+                        value = new String(data, valueStart, i - valueStart, StandardCharsets.ISO_8859_1);
+                    }
+                }
+                if (!result.attributes.containsKey(attrName)) result.attributes.put(attrName, value);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Simple selector : tag, id, classes and attribute conditions
+     */
+    private static class Selector {
+        private String tag = null;
+        private String id = null;
+        private final List<String> classes = new ArrayList<>();
+        private final List<AttributeCondition> attributes = new ArrayList<>();
+
+        @Nullable
+        static Selector parse(@NonNull String s) {
+            if (s.isEmpty()) return null;
+            for (int i = 0; i < s.length(); i++) if (s.charAt(i) > 127) return null;
+
+            Selector result = new Selector();
+            int i = 0;
+            int end = readIdentifier(s, i);
+            if (end > i) {
+                result.tag = s.substring(i, end).toLowerCase(Locale.US);
+                i = end;
+            }
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if ('#' == c || '.' == c) {
+                    end = readIdentifier(s, i + 1);
+                    if (end == i + 1) return null;
+                    if ('#' == c) result.id = s.substring(i + 1, end);
+                    else result.classes.add(s.substring(i + 1, end).toLowerCase(Locale.US));
+                    i = end;
+                } else if ('[' == c) {
+                    int closing = s.indexOf(']', i);
+                    if (closing < 0) return null;
+                    AttributeCondition condition = AttributeCondition.parse(s.substring(i + 1, closing));
+                    if (null == condition) return null;
+                    result.attributes.add(condition);
+                    i = closing + 1;
+                } else {
+                    // Combinators, pseudo-classes, groups, universal selector...
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        boolean matches(@NonNull Tag t) {
+            if (tag != null && !tag.equals(t.name)) return false;
+            if (id != null && !id.equals(t.attributes.get("id"))) return false;
+            if (!classes.isEmpty()) {
+                String classAttr = t.attributes.get("class");
+                if (null == classAttr) return false;
+                List<String> tagClasses = Arrays.asList(classAttr.toLowerCase(Locale.US).trim().split("\\s+"));
+                if (!tagClasses.containsAll(classes)) return false;
+            }
+            for (AttributeCondition condition : attributes)
+                if (!condition.matches(t.attributes.get(condition.name))) return false;
+            return true;
+        }
+
+        private static int readIdentifier(@NonNull String s, int start) {
+            int i = start;
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if (Character.isLetterOrDigit(c) || '-' == c || '_' == c) i++;
+                else break;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Condition on an attribute : presence, or value equal to / starting with / ending with / containing a string
+     */
+    private static class AttributeCondition {
+        private static final List<String> OPERATORS = Collections.unmodifiableList(Arrays.asList("^=", "$=", "*=", "="));
+
+        private String name;
+        private String operator = null;
+        private String value = null;
+
+        @Nullable
+        static AttributeCondition parse(@NonNull String s) {
+            AttributeCondition result = new AttributeCondition();
+            for (String op : OPERATORS) {
+                int index = s.indexOf(op);
+                if (index > 0) {
+                    result.name = s.substring(0, index).trim().toLowerCase(Locale.US);
+                    result.operator = op;
+                    String v = s.substring(index + op.length()).trim();
+                    if (v.length() >= 2 && (v.startsWith("'") && v.endsWith("'") || v.startsWith("\"") && v.endsWith("\"")))
+                        v = v.substring(1, v.length() - 1);
+                    result.value = v.toLowerCase(Locale.US);
+                    break;
+                }
+            }
+            if (null == result.operator) result.name = s.trim().toLowerCase(Locale.US);
+            // Other operators (~=, |=) and namespaces aren't supported
+            if (result.name.isEmpty() || !result.name.matches("[a-z0-9_\\-]+")) return null;
+            return result;
+        }
+
+        boolean matches(@Nullable String attributeValue) {
+            if (null == attributeValue) return false;
+            if (null == operator) return true;
+            // Values are compared case-insensitively, as Jsoup does
+            String v = attributeValue.toLowerCase(Locale.US).trim();
+            switch (operator) {
+                case "^=":
+                    return v.startsWith(value);
+                case "$=":
+                    return v.endsWith(value);
+                case "*=":
+                    return v.contains(value);
+                default:
+                    return v.equals(value);
+            }
+        }
+    }
+
+    /**
+     * Growable byte array
+     */
+    private static class ByteArray {
+        private byte[] data = new byte[1024];
+        private int length = 0;
+
+        void append(byte b) {
+            ensureCapacity(length + 1);
+            data[length++] = b;
+        }
+
+        void append(@NonNull byte[] bytes, int offset, int count) {
+            if (0 == count) return;
+            ensureCapacity(length + count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return ' ' == b || '\t' == b || '\n' == b || '\r' == b || '\f' == b;
+    }
+
+    private static char toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (char) (b + 32) : (char) b;
+    }
+
+    private static String toLowerString(@NonNull byte[] data, int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.ISO_8859_1).toLowerCase(Locale.US);
+    }
+}
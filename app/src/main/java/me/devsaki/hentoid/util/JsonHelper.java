@@ -7,19 +7,23 @@ import com.squareup.moshi.Moshi;
 import com.squareup.moshi.Types;
 import com.squareup.moshi.adapters.Rfc3339DateJsonAdapter;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
 import me.devsaki.hentoid.enums.AttributeType;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
 import timber.log.Timber;
 
 /**
@@ -37,6 +41,8 @@ public class JsonHelper {
             .add(Date.class, new Rfc3339DateJsonAdapter())
             .add(new AttributeType.AttributeTypeAdapter())
             .build();
+    private static final Map<Type, JsonAdapter<?>> LENIENT_ADAPTERS = new ConcurrentHashMap<>();
+    private static final ByteString UTF8_BOM = ByteString.decodeHex("EFBBBF");
 
     public static <K> String serializeToJson(K o, Type type) {
         JsonAdapter<K> jsonAdapter = MOSHI.adapter(type);
@@ -82,39 +88,81 @@ public class JsonHelper {
     }
 
     private static <K> void updateJson(K object, Type type, @Nonnull OutputStream output) throws IOException {
-        byte[] bytes = serializeToJson(object, type).getBytes();
-        output.write(bytes);
+        // Serialize directly to the file without building the whole JSON in memory
+        // NB : The sink isn't closed as it would close the output stream, which is managed by the caller
+        BufferedSink sink = Okio.buffer(Okio.sink(output));
+        JsonAdapter<K> jsonAdapter = MOSHI.adapter(type);
+        jsonAdapter.toJson(sink, object);
+        sink.flush();
         FileHelper.sync(output);
-        output.flush();
     }
 
+    /**
+     * Deserialize the given JSON file
+     * NB : The file is streamed directly to the JSON parser
+     *
+     * @param f    JSON file to read
+     * @param type Type of the object to deserialize
+     * @param <T>  Type of the object to deserialize
+     * @return Deserialized object
+     * @throws IOException If anything happens during file I/O or if the JSON is malformed
+     */
     public static <T> T jsonToObject(File f, Class<T> type) throws IOException {
-        StringBuilder json = new StringBuilder();
-        String sCurrentLine;
-        boolean isFirst = true;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            while ((sCurrentLine = br.readLine()) != null) {
-                if (isFirst) {
-                    // Strip UTF-8 BOMs if any
-                    if (sCurrentLine.charAt(0) == '\uFEFF')
-                        sCurrentLine = sCurrentLine.substring(1);
-                    isFirst = false;
-                }
-                json.append(sCurrentLine);
-            }
+        return jsonToObject(FileHelper.getInputStream(f), type);
+    }
+
+    /**
+     * Deserialize the JSON contained in the given stream (e.g. a file located in the SAF area)
+     * NB1 : The stream is read directly by the JSON parser
+     * NB2 : The stream is closed afterwards
+     *
+     * @param input Stream to read the JSON from
+     * @param type  Type of the object to deserialize
+     * @param <T>   Type of the object to deserialize
+     * @return Deserialized object
+     * @throws IOException If anything happens during I/O or if the JSON is malformed
+     */
+    public static <T> T jsonToObject(InputStream input, Class<T> type) throws IOException {
+        try (BufferedSource source = Okio.buffer(Okio.source(input))) {
+            return jsonToObject(source, type);
         }
-        return jsonToObject(json.toString(), type);
+    }
+
+    private static <T> T jsonToObject(@Nonnull BufferedSource source, Class<T> type) throws IOException {
+        // Skip UTF-8 BOM if any
+        if (source.rangeEquals(0, UTF8_BOM)) source.skip(UTF8_BOM.size());
+
+        JsonAdapter<T> jsonAdapter = getAdapter(type);
+        return jsonAdapter.fromJson(source);
     }
 
     public static <T> T jsonToObject(String s, Class<T> type) throws IOException {
-        JsonAdapter<T> jsonAdapter = MOSHI.adapter(type);
+        JsonAdapter<T> jsonAdapter = getAdapter(type);
 
-        return jsonAdapter.lenient().fromJson(s);
+        return jsonAdapter.fromJson(s);
     }
 
     public static <T> T jsonToObject(String s, Type type) throws IOException {
-        JsonAdapter<T> jsonAdapter = MOSHI.adapter(type);
+        JsonAdapter<T> jsonAdapter = getAdapter(type);
+
+        return jsonAdapter.fromJson(s);
+    }
 
-        return jsonAdapter.lenient().fromJson(s);
+    /**
+     * Get the lenient adapter for the given type
+     * NB : Adapters are cached to avoid building their lenient wrapper at each deserialization
+     *
+     * @param type Type to get the adapter for
+     * @param <T>  Type to get the adapter for
+     * @return Lenient adapter for the given type
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> JsonAdapter<T> getAdapter(Type type) {
+        JsonAdapter<?> result = LENIENT_ADAPTERS.get(type);
+        if (null == result) {
+            result = MOSHI.adapter(type).lenient();
+            LENIENT_ADAPTERS.put(type, result);
+        }
+        return (JsonAdapter<T>) result;
     }
 }
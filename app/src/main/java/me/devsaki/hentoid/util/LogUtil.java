@@ -101,15 +101,8 @@ public class LogUtil {
         String log = buildLog(info);
 
         // Save it
-        File rootFolder;
         try {
-            String settingDir = Preferences.getRootFolderName();
-            if (!settingDir.isEmpty() && FileHelper.isWritable(new File(settingDir))) {
-                rootFolder = new File(settingDir); // Use selected and output-tested location (possibly SD card)
-            } else {
-                rootFolder = FileHelper.getDefaultDir(context, ""); // Fallback to default location (phone memory)
-            }
-            File cleanupLogFile = new File(rootFolder, info.fileName + ".txt");
+            File cleanupLogFile = new File(getLogFolder(context), info.fileName + ".txt");
             FileHelper.saveBinaryInFile(cleanupLogFile, log.getBytes());
             return cleanupLogFile;
         } catch (Exception e) {
@@ -118,4 +111,32 @@ public class LogUtil {
 
         return null;
     }
+
+    /**
+     * Export everything recorded by the {@link Tracer} to a JSON trace file
+     *
+     * @param context Context to use
+     * @return Trace file; null if it couldn't be written
+     */
+    @Nullable
+    public static File writeTrace(@Nonnull Context context) {
+        try {
+            File traceFile = new File(getLogFolder(context), "trace_" + Instant.now().toEpochMilli() + ".json");
+            Tracer.exportJson(traceFile);
+            return traceFile;
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+
+        return null;
+    }
+
+    private static File getLogFolder(@Nonnull Context context) {
+        String settingDir = Preferences.getRootFolderName();
+        if (!settingDir.isEmpty() && FileHelper.isWritable(new File(settingDir))) {
+            return new File(settingDir); // Use selected and output-tested location (possibly SD card)
+        } else {
+            return FileHelper.getDefaultDir(context, ""); // Fallback to default location (phone memory)
+        }
+    }
 }
@@ -2,21 +2,41 @@ package me.devsaki.hentoid.util;
 
 import android.util.SparseArray;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.HentoidApp;
 import okhttp3.Cache;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import timber.log.Timber;
 
 /**
  * Manages a single instance of OkHttpClient per timeout delay
+ * <p>
+ * All instances are derived from the same base client : they share its connection pool, its dispatcher
+ * and its HTTP cache, so that parsers and the in-app browser reuse warm connections and cached pages
+ * whatever their timeout
  */
 @SuppressWarnings("squid:S3077") // https://stackoverflow.com/questions/11639746/what-is-the-point-of-making-the-singleton-instance-volatile-while-using-double-l
 public class OkHttpClientSingleton {
 
+    private static final int DEFAULT_TIMEOUT = 20 * 1000;
+    // Subfolder of the app's cache folder dedicated to the HTTP cache
+    private static final String CACHE_FOLDER = "http";
+    private static final long CACHE_SIZE = 20L * 1024 * 1024; // 20 MB
+    // Files of the former HTTP cache, which used to be stored at the root of the app's cache folder
+    private static final Pattern LEGACY_CACHE_FILE = Pattern.compile("journal(\\.bkp|\\.tmp)?|[0-9a-f]{32}\\.[01](\\.tmp)?");
+
+    private static volatile OkHttpClient baseClient = null;
     private static volatile SparseArray<OkHttpClient> instance = new SparseArray<>();
 
 
@@ -24,7 +44,6 @@ public class OkHttpClientSingleton {
     }
 
     public static OkHttpClient getInstance() {
-        int DEFAULT_TIMEOUT = 20 * 1000;
         return getInstance(DEFAULT_TIMEOUT);
     }
 
@@ -32,24 +51,36 @@ public class OkHttpClientSingleton {
         if (null == OkHttpClientSingleton.instance.get(timeoutMs)) {
             synchronized (OkHttpClientSingleton.class) {
                 if (null == OkHttpClientSingleton.instance.get(timeoutMs)) {
-
-                    int CACHE_SIZE = 2 * 1024 * 1024; // 2 MB
-
-                    OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
-                            .addInterceptor(OkHttpClientSingleton::onIntercept)
+                    // Derived clients share the connection pool, dispatcher and cache of the base client
+                    OkHttpClient client = getBaseClient().newBuilder()
                             .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
                             .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
                             .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
-                            .cache(new Cache(HentoidApp.getInstance().getCacheDir(), CACHE_SIZE));
+                            .build();
 
-
-                    OkHttpClientSingleton.instance.put(timeoutMs, clientBuilder.build());
+                    OkHttpClientSingleton.instance.put(timeoutMs, client);
                 }
             }
         }
         return OkHttpClientSingleton.instance.get(timeoutMs);
     }
 
+    private static OkHttpClient getBaseClient() {
+        if (null == baseClient) {
+            synchronized (OkHttpClientSingleton.class) {
+                if (null == baseClient) {
+                    File cacheRoot = HentoidApp.getInstance().getCacheDir();
+                    baseClient = new OkHttpClient.Builder()
+                            .addInterceptor(OkHttpClientSingleton::onIntercept)
+                            .cache(new Cache(new File(cacheRoot, CACHE_FOLDER), CACHE_SIZE))
+                            .build();
+                    removeLegacyCache(cacheRoot);
+                }
+            }
+        }
+        return baseClient;
+    }
+
     private static okhttp3.Response onIntercept(Interceptor.Chain chain) throws IOException {
         Request request = chain.request()
                 .newBuilder()
@@ -57,4 +88,113 @@ public class OkHttpClientSingleton {
                 .build();
         return chain.proceed(request);
     }
+
+    /**
+     * Remove the files of the former HTTP cache in the background, to reclaim their space
+     *
+     * @param cacheRoot Root of the app's cache folder
+     */
+    private static void removeLegacyCache(@NonNull File cacheRoot) {
+        Completable.fromRunnable(() -> {
+            File[] files = cacheRoot.listFiles(f -> f.isFile() && LEGACY_CACHE_FILE.matcher(f.getName()).matches());
+            if (null == files || 0 == files.length) return;
+            for (File f : files) FileHelper.removeFile(f);
+            Timber.i("Former HTTP cache removed (%s files)", files.length);
+        })
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::w
+                );
+    }
+
+    /**
+     * Get the statistics of the HTTP cache shared by all instances
+     *
+     * @return Statistics of the HTTP cache; null if no instance has been created yet
+     */
+    @Nullable
+    public static CacheStats getCacheStats() {
+        if (null == baseClient) return null;
+        Cache cache = baseClient.cache();
+        if (null == cache) return null;
+
+        long size;
+        try {
+            size = cache.size();
+        } catch (IOException e) {
+            Timber.w(e);
+            size = 0;
+        }
+        return new CacheStats(cache.requestCount(), cache.networkCount(), cache.hitCount(), size, cache.maxSize());
+    }
+
+    /**
+     * Remove all entries of the HTTP cache shared by all instances
+     * NB : Performs I/O; not to be called from the UI thread
+     */
+    public static void clearCache() {
+        Cache cache = getBaseClient().cache();
+        if (null == cache) return;
+        try {
+            cache.evictAll();
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+    }
+
+    /**
+     * Statistics of the HTTP cache since the creation of the base client
+     */
+    public static class CacheStats {
+        private final int requestCount;
+        private final int networkCount;
+        private final int hitCount;
+        private final long size;
+        private final long maxSize;
+
+        CacheStats(int requestCount, int networkCount, int hitCount, long size, long maxSize) {
+            this.requestCount = requestCount;
+            this.networkCount = networkCount;
+            this.hitCount = hitCount;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return Number of HTTP requests issued through the cache
+         */
+        public int getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * @return Number of responses that have been fetched from the network (conditional hits included)
+         */
+        public int getNetworkCount() {
+            return networkCount;
+        }
+
+        /**
+         * @return Number of responses that have been served by the cache (conditional hits included)
+         */
+        public int getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * @return Size of the cache on disk, in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Maximum size of the cache on disk, in bytes
+         */
+        public long getMaxSize() {
+            return maxSize;
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Ordered list of DB IDs (e.g. the IDs of the books of a library search, in display order)
+ * <p>
+ * - IDs are kept in a primitive array, as returned by ObjectBox, without any boxing
+ * - The position of any ID is found in constant time, thanks to an open-addressing hash index
+ * built the first time it is needed
+ * NB : Not thread-safe
+ */
+public final class OrderedIdList {
+
+    private long[] ids;
+    private int size;
+    // Hash index of the positions of the IDs : position + 1 (0 = empty slot); null until needed
+    private int[] index = null;
+
+
+    /**
+     * @param ids IDs to wrap, in list order; the array is used as is and mustn't be modified afterwards
+     */
+    public OrderedIdList(@NonNull long[] ids) {
+        this.ids = ids;
+        this.size = ids.length;
+    }
+
+    /**
+     * @return Empty list
+     */
+    public static OrderedIdList empty() {
+        return new OrderedIdList(new long[0]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * @param position Position of the ID to get
+     * @return ID at the given position
+     */
+    public long get(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position " + position + " outside of [0," + size + "[");
+        return ids[position];
+    }
+
+    /**
+     * Get the position of the given ID
+     *
+     * @param id ID to look for
+     * @return Position of the first occurrence of the given ID; -1 if it isn't in the list
+     */
+    public int indexOf(long id) {
+        if (isEmpty()) return -1;
+        if (null == index) buildIndex();
+
+        int mask = index.length - 1;
+        int slot = hash(id) & mask;
+        while (index[slot] != 0) {
+            int position = index[slot] - 1;
+            if (ids[position] == id) return position;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the ID at the given position
+     * NB : Shifts the following IDs; the hash index is rebuilt the next time it is needed
+     *
+     * @param position Position of the ID to remove
+     */
+    public void remove(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position " + position + " outside of [0," + size + "[");
+        long[] newIds = new long[size - 1];
+        System.arraycopy(ids, 0, newIds, 0, position);
+        System.arraycopy(ids, position + 1, newIds, position, size - position - 1);
+        ids = newIds;
+        size--;
+        index = null;
+    }
+
+    private void buildIndex() {
+        // Keep the load factor under 0.5 to keep probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        int[] newIndex = new int[capacity];
+        int mask = capacity - 1;
+        for (int position = 0; position < size; position++) {
+            long id = ids[position];
+            int slot = hash(id) & mask;
+            boolean isDuplicate = false;
+            while (newIndex[slot] != 0) {
+                if (ids[newIndex[slot] - 1] == id) {
+                    isDuplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!isDuplicate) newIndex[slot] = position + 1;
+        }
+        index = newIndex;
+    }
+
+    private static int hash(long id) {
+        // Fibonacci hashing spreads consecutive IDs evenly
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
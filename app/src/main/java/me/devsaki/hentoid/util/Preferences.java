@@ -101,6 +101,10 @@ public final class Preferences {
         return sharedPreferences.getBoolean(Key.PREF_ANALYTICS_PREFERENCE, true);
     }
 
+    public static boolean isTracingEnabled() {
+        return sharedPreferences.getBoolean(Key.PREF_TRACING_ENABLED, Default.PREF_TRACING_ENABLED);
+    }
+
     public static boolean isAutomaticUpdateEnabled() {
         return sharedPreferences.getBoolean(Key.PREF_CHECK_UPDATES, Default.PREF_CHECK_UPDATES);
     }
@@ -203,6 +207,10 @@ public final class Preferences {
         return sharedPreferences.getBoolean(Key.PREF_BROWSER_QUICK_DL, Default.PREF_BROWSER_QUICK_DL);
     }
 
+    public static boolean isBrowserMarkDownloaded() {
+        return sharedPreferences.getBoolean(Key.PREF_BROWSER_MARK_DOWNLOADED, Default.PREF_BROWSER_MARK_DOWNLOADED_DEFAULT);
+    }
+
     public static int getDownloadThreadCount() {
         return Integer.parseInt(sharedPreferences.getString(Key.PREF_DL_THREADS_QUANTITY_LISTS,
                 Default.PREF_DL_THREADS_QUANTITY_DEFAULT + "") + "");
@@ -316,6 +324,16 @@ public final class Preferences {
                 .apply();
     }
 
+    public static int getDbMaintenanceVersion() {
+        return sharedPreferences.getInt(Key.DB_MAINTENANCE_VERSION, 0);
+    }
+
+    public static void setDbMaintenanceVersion(int version) {
+        sharedPreferences.edit()
+                .putInt(Key.DB_MAINTENANCE_VERSION, version)
+                .apply();
+    }
+
     public static boolean isQueueAutostart() {
         return sharedPreferences.getBoolean(Key.PREF_QUEUE_AUTOSTART, Default.PREF_QUEUE_AUTOSTART);
     }
@@ -389,6 +407,9 @@ public final class Preferences {
 
         public static final String PREF_ANALYTICS_PREFERENCE = "pref_analytics_preference";
         public static final String PREF_APP_LOCK = "pref_app_lock";
+        public static final String PREF_TRACING_ENABLED = "pref_tracing_enabled";
+        public static final String PREF_TRACING_EXPORT = "pref_tracing_export";
+        public static final String PREF_HTTP_CACHE = "pref_http_cache";
         public static final String PREF_APP_PREVIEW = "pref_app_preview";
         public static final String PREF_ADD_NO_MEDIA_FILE = "pref_add_no_media_file";
         static final String PREF_CHECK_UPDATES = "pref_check_updates";
@@ -409,6 +430,7 @@ public final class Preferences {
         static final String PREF_BROWSER_RESUME_LAST = "pref_browser_resume_last";
         static final String PREF_BROWSER_AUGMENTED = "pref_browser_augmented";
         static final String PREF_BROWSER_QUICK_DL = "pref_browser_quick_dl";
+        static final String PREF_BROWSER_MARK_DOWNLOADED = "pref_browser_mark_downloaded";
         static final String PREF_FOLDER_TRUNCATION_LISTS = "pref_folder_trunc_lists";
         static final String PREF_VIEWER_RESUME_LAST_LEFT = "pref_viewer_resume_last_left";
         public static final String PREF_VIEWER_KEEP_SCREEN_ON = "pref_viewer_keep_screen_on";
@@ -430,6 +452,7 @@ public final class Preferences {
         public static final String PREF_VIEWER_HOLD_TO_ZOOM = "pref_viewer_zoom_holding";
         public static final String PREF_VIEWER_AUTO_ROTATE = "pref_viewer_auto_rotate";
         static final String LAST_KNOWN_APP_VERSION_CODE = "last_known_app_version_code";
+        static final String DB_MAINTENANCE_VERSION = "db_maintenance_version";
         public static final String PREF_COLOR_THEME = "pref_color_theme";
         static final String PREF_QUEUE_AUTOSTART = "pref_queue_autostart";
         static final String PREF_DL_RETRIES_ACTIVE = "pref_dl_retries_active";
@@ -467,6 +490,8 @@ public final class Preferences {
         static final boolean PREF_BROWSER_RESUME_LAST_DEFAULT = false;
         static final boolean PREF_BROWSER_AUGMENTED_DEFAULT = true;
         static final boolean PREF_BROWSER_QUICK_DL = true;
+        static final boolean PREF_BROWSER_MARK_DOWNLOADED_DEFAULT = true;
+        static final boolean PREF_TRACING_ENABLED = false;
         static final int PREF_DL_THREADS_QUANTITY_DEFAULT = Constant.DOWNLOAD_THREAD_COUNT_AUTO;
         static final int PREF_FOLDER_TRUNCATION_DEFAULT = Constant.TRUNCATE_FOLDER_NONE;
         static final boolean PREF_VIEWER_RESUME_LAST_LEFT = true;
@@ -0,0 +1,232 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Splits an input stream into branches that can be read independently, from different threads
+ * <p>
+ * - Each branch receives the bytes of the source as soon as they have been read from it
+ * - Only the bytes that haven't been read by the slowest branch yet are kept, inside a bounded ring buffer
+ * - When the buffer is full, the fastest branches wait for the slowest one (backpressure)
+ * - A branch that hasn't read anything for too long while the others wait is detached : its next read fails
+ * with an IOException, and the others go on without it
+ * <p>
+ * NB : All branches have to be either read or closed; the source is closed when all branches are closed or detached
+ */
+public class TeeInputStream extends InputStream {
+
+    // Delay after which a branch that prevents the others from reading is detached
+    private static final long STALL_TIMEOUT_MS = 10 * 1000L;
+    // Maximum number of bytes read from the source at once
+    private static final int READ_SIZE = 8 * 1024;
+
+    private final Tee tee;
+    // Position of the next byte to read, relative to the start of the source
+    private long position = 0;
+    private boolean isClosed = false;
+    private boolean isDetached = false;
+
+
+    private TeeInputStream(@NonNull Tee tee) {
+        this.tee = tee;
+    }
+
+    /**
+     * Split the given stream into the given number of branches
+     *
+     * @param source     Stream to split
+     * @param nbBranches Number of branches to create
+     * @param bufferSize Maximum number of bytes the fastest branch may read ahead of the slowest one
+     * @return Branches of the given stream
+     */
+    public static List<InputStream> split(@NonNull InputStream source, int nbBranches, int bufferSize) {
+        Tee tee = new Tee(source, bufferSize);
+        List<InputStream> result = new ArrayList<>();
+        for (int i = 0; i < nbBranches; i++) {
+            TeeInputStream branch = new TeeInputStream(tee);
+            tee.branches.add(branch);
+            result.add(branch);
+        }
+        return result;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return (n < 0) ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (0 == len) return 0;
+        return tee.read(this, b, off, len);
+    }
+
+    @Override
+    public int available() {
+        synchronized (tee) {
+            return (isClosed || isDetached) ? 0 : (int) (tee.end - position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tee.close(this);
+    }
+
+
+    /**
+     * State shared by all branches of the same source
+     */
+    private static class Tee {
+        private final InputStream source;
+        private final byte[] buffer;
+        private final List<TeeInputStream> branches = new ArrayList<>();
+
+        // All fields below are guarded by this
+        // Position of the oldest byte kept inside the buffer
+        private long start = 0;
+        // Position of the next byte to read from the source
+        private long end = 0;
+        // True while a branch reads from the source
+        private boolean isReading = false;
+        private boolean isEof = false;
+        private IOException sourceError = null;
+        private boolean isSourceClosed = false;
+
+        Tee(@NonNull InputStream source, int bufferSize) {
+            this.source = source;
+            this.buffer = new byte[Math.max(bufferSize, READ_SIZE)];
+        }
+
+        int read(@NonNull TeeInputStream branch, @NonNull byte[] b, int off, int len) throws IOException {
+            while (true) {
+                int readIndex;
+                int readLength;
+                synchronized (this) {
+                    while (true) {
+                        if (branch.isClosed) throw new IOException("Stream closed");
+                        if (branch.isDetached)
+                            throw new IOException("Stream detached after being stalled");
+
+                        // Serve buffered bytes
+                        if (branch.position < end) {
+                            int n = (int) Math.min(len, end - branch.position);
+                            copy(branch.position, b, off, n);
+                            branch.position += n;
+                            trim();
+                            return n;
+                        }
+                        if (sourceError != null) throw sourceError;
+                        if (isEof) return -1;
+
+                        if (isReading) {
+                            await(0);
+                        } else if (end - start >= buffer.length) {
+                            waitForSlowestBranch();
+                        } else {
+                            break;
+                        }
+                    }
+                    // Read the source into the free part of the buffer; nobody reads that part in the meantime
+                    isReading = true;
+                    readIndex = (int) (end % buffer.length);
+                    readLength = (int) Math.min(Math.min(buffer.length - (end - start), buffer.length - readIndex), READ_SIZE);
+                }
+
+                int n = -1;
+                IOException error = null;
+                try {
+                    n = source.read(buffer, readIndex, readLength);
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                synchronized (this) {
+                    isReading = false;
+                    if (error != null) sourceError = error;
+                    else if (n < 0) isEof = true;
+                    else end += n;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Wait until the slowest branch reads; detach it if it doesn't within STALL_TIMEOUT_MS
+         */
+        private void waitForSlowestBranch() throws InterruptedIOException {
+            long initialStart = start;
+            long waitStart = System.currentTimeMillis();
+            while (start == initialStart) {
+                long remaining = STALL_TIMEOUT_MS - (System.currentTimeMillis() - waitStart);
+                if (remaining <= 0) {
+                    for (TeeInputStream branch : branches)
+                        if (!branch.isClosed && !branch.isDetached && branch.position == start) {
+                            Timber.w("Tee stream : detaching a branch stalled for %s ms", STALL_TIMEOUT_MS);
+                            branch.isDetached = true;
+                        }
+                    trim();
+                    return;
+                }
+                await(remaining);
+            }
+        }
+
+        private void await(long timeoutMs) throws InterruptedIOException {
+            try {
+                wait(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for another branch");
+            }
+        }
+
+        /**
+         * Copy the given range of buffered bytes, taking care of the wrapping of the ring buffer
+         */
+        private void copy(long from, @NonNull byte[] b, int off, int len) {
+            int index = (int) (from % buffer.length);
+            int firstPart = Math.min(len, buffer.length - index);
+            System.arraycopy(buffer, index, b, off, firstPart);
+            if (firstPart < len) System.arraycopy(buffer, 0, b, off + firstPart, len - firstPart);
+        }
+
+        /**
+         * Free the bytes every active branch has read
+         */
+        private void trim() {
+            long newStart = end;
+            for (TeeInputStream branch : branches)
+                if (!branch.isClosed && !branch.isDetached)
+                    newStart = Math.min(newStart, branch.position);
+            if (newStart != start) {
+                start = newStart;
+                notifyAll();
+            }
+        }
+
+        void close(@NonNull TeeInputStream branch) throws IOException {
+            synchronized (this) {
+                if (branch.isClosed) return;
+                branch.isClosed = true;
+                trim();
+                notifyAll();
+
+                for (TeeInputStream b : branches) if (!b.isClosed && !b.isDetached) return;
+                if (isSourceClosed) return;
+                isSourceClosed = true;
+            }
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Packed storage for the library's cover thumbnails
+ * <p>
+ * All thumbnails are appended to a single data file that is memory-mapped for reading, so that
+ * displaying the library doesn't open one file per cover.
+ * The location of each thumbnail inside the data file is recorded in an append-only index file,
+ * where a removal is recorded as an entry with a negative length.
+ * <p>
+ * Space left by removed or replaced thumbnails is reclaimed by compacting the data file once it
+ * represents a significant part of it. Each compaction writes a new generation of both files; the
+ * new generation becomes the current one when its index file is renamed into place, so that the
+ * data file and the index always match.
+ * <p>
+ * The entries are read without locking through an immutable snapshot, which is replaced after each
+ * modification; files are only written while holding the atlas' lock.
+ * <p>
+ * NB : The index is loaded in the background; until then, the atlas isn't ready and no thumbnail is found
+ */
+public final class ThumbnailAtlas {
+
+    private static final String FOLDER = "thumbs";
+    private static final String FILE_PREFIX = "atlas-";
+    private static final String DATA_EXTENSION = ".dat";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String COMPACTION_SUFFIX = ".tmp";
+
+    // Compact when more than 25% of the data file is wasted, and at least 1 MB
+    private static final float COMPACTION_RATIO = 0.25f;
+    private static final long COMPACTION_MIN_WASTED_BYTES = 1024L * 1024;
+
+    private static ThumbnailAtlas instance;
+
+    private final File folder;
+    // Generation of the data and index files; incremented by each compaction
+    private long generation = 0;
+    private File dataFile;
+    private File indexFile;
+    // Released once the index has been loaded
+    private final CountDownLatch indexLoaded = new CountDownLatch(1);
+
+    // Content ID -> {offset, length} inside the data file; only accessed while holding the lock
+    private final LongSparseArray<long[]> entries = new LongSparseArray<>();
+    // Copy of the entries that is read by getThumbnail and read; null until the index has been loaded
+    private volatile Snapshot snapshot = null;
+    // Size of the data file
+    private long dataSize = 0;
+    // Size of the data that isn't referenced by any entry anymore
+    private long wastedSize = 0;
+    private boolean compactionScheduled = false;
+
+    // Read-only mapping of the data file of the given generation; null until the first read
+    private final Object mappingLock = new Object();
+    private MappedByteBuffer mappedData = null;
+    private long mappedGeneration = -1;
+
+
+    private ThumbnailAtlas(@NonNull final Context context) {
+        folder = new File(context.getFilesDir(), FOLDER);
+        Completable.fromAction(this::loadIndex)
+                .subscribeOn(Schedulers.io())
+                .doFinally(indexLoaded::countDown)
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::w
+                );
+    }
+
+    public static synchronized ThumbnailAtlas getInstance(@NonNull final Context context) {
+        // Use application context only
+        if (null == instance) {
+            instance = new ThumbnailAtlas(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Indicate if the index has been loaded
+     * NB : Until then, getThumbnail doesn't find any thumbnail, whether it has been generated or not
+     *
+     * @return True if the index has been loaded; false if it is still loading
+     */
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Get the thumbnail of the given Content, to be loaded by Glide
+     * NB : Doesn't lock nor wait for the index, so that it can be called on the UI thread
+     *
+     * @param contentId ID of the Content whose thumbnail to get
+     * @return Thumbnail of the given Content; null if it hasn't been generated yet, or if the atlas isn't ready
+     */
+    @Nullable
+    public Thumbnail getThumbnail(long contentId) {
+        Snapshot current = snapshot;
+        if (null == current) return null;
+        long[] entry = current.entries.get(contentId);
+        if (null == entry) return null;
+        return new Thumbnail(contentId, current.generation, entry[0], (int) entry[1]);
+    }
+
+    /**
+     * Read the picture of the given thumbnail
+     * NB : The returned buffer is a read-only view on the mapped data file; no file is opened
+     *
+     * @param thumbnail Thumbnail to read
+     * @return Picture of the given thumbnail, in its compressed format; null if it doesn't exist anymore,
+     * or if it has been replaced or moved by a compaction since it has been retrieved
+     */
+    @Nullable
+    ByteBuffer read(@NonNull final Thumbnail thumbnail) throws IOException {
+        Snapshot current = snapshot;
+        if (null == current || current.generation != thumbnail.generation) return null;
+        long[] entry = current.entries.get(thumbnail.contentId);
+        if (null == entry || entry[0] != thumbnail.offset || entry[1] != thumbnail.length) return null;
+
+        ByteBuffer data = getMappedData(thumbnail.generation, thumbnail.offset + thumbnail.length);
+        if (null == data) return null;
+
+        ByteBuffer result = data.duplicate();
+        result.position((int) thumbnail.offset);
+        result.limit((int) thumbnail.offset + thumbnail.length);
+        return result.slice();
+    }
+
+    /**
+     * Store the given picture as the thumbnail of the given Content, replacing any existing one
+     *
+     * @param contentId ID of the Content whose thumbnail to store
+     * @param data      Picture to store, in its compressed format
+     */
+    @WorkerThread
+    public void put(long contentId, @NonNull final byte[] data) throws IOException {
+        awaitIndex();
+        synchronized (this) {
+            doPut(contentId, data);
+        }
+    }
+
+    private void doPut(long contentId, @NonNull final byte[] data) throws IOException {
+        // Write data before its index entry so that the index never points to unwritten data
+        try (FileOutputStream output = new FileOutputStream(dataFile, true)) {
+            output.write(data);
+            output.getFD().sync();
+        }
+        long offset = dataSize;
+        dataSize += data.length;
+        appendIndexEntry(contentId, offset, data.length);
+
+        long[] previous = entries.get(contentId);
+        if (previous != null) wastedSize += previous[1];
+        entries.put(contentId, new long[]{offset, data.length});
+        publish();
+    }
+
+    /**
+     * Remove the thumbnail of the given Content, if it exists
+     * NB : The space it used is reclaimed by the next compaction
+     *
+     * @param contentId ID of the Content whose thumbnail to remove
+     */
+    @WorkerThread
+    public void remove(long contentId) {
+        remove(new long[]{contentId});
+    }
+
+    /**
+     * Remove the thumbnails of the given Contents, if they exist
+     * NB : The space they used is reclaimed by the next compaction
+     *
+     * @param contentIds IDs of the Contents whose thumbnails to remove
+     */
+    @WorkerThread
+    public void remove(@NonNull final long[] contentIds) {
+        awaitIndex();
+        synchronized (this) {
+            doRemove(contentIds);
+        }
+    }
+
+    private void doRemove(@NonNull final long[] contentIds) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+            for (long contentId : contentIds) {
+                long[] entry = entries.get(contentId);
+                if (null == entry) continue;
+
+                writeIndexEntry(output, contentId, 0, -1);
+                entries.remove(contentId);
+                wastedSize += entry[1];
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Thumbnails could not be removed");
+        }
+        publish();
+
+        if (!compactionScheduled && wastedSize > COMPACTION_MIN_WASTED_BYTES && wastedSize > dataSize * COMPACTION_RATIO) {
+            compactionScheduled = true;
+            Completable.fromAction(this::compact)
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(
+                            () -> {
+                            },
+                            Timber::w
+                    );
+        }
+    }
+
+    /**
+     * Rewrite the data and index files with the thumbnails that are still in use, as a new generation
+     */
+    @WorkerThread
+    synchronized void compact() throws IOException {
+        compactionScheduled = false;
+        if (0 == wastedSize) return;
+        Timber.d("Compacting thumbnails : %s bytes wasted out of %s", wastedSize, dataSize);
+
+        long newGeneration = generation + 1;
+        File newDataFile = getDataFile(newGeneration);
+        File newIndexFile = getIndexFile(newGeneration);
+        File tempIndexFile = new File(newIndexFile.getAbsolutePath() + COMPACTION_SUFFIX);
+        LongSparseArray<long[]> newEntries = new LongSparseArray<>(entries.size());
+        long newDataSize = 0;
+
+        try (RandomAccessFile source = new RandomAccessFile(dataFile, "r");
+             FileOutputStream dataOutput = new FileOutputStream(newDataFile);
+             FileOutputStream indexFileOutput = new FileOutputStream(tempIndexFile);
+             DataOutputStream indexOutput = new DataOutputStream(new BufferedOutputStream(indexFileOutput))) {
+            FileChannel sourceChannel = source.getChannel();
+            FileChannel targetChannel = dataOutput.getChannel();
+            for (int i = 0; i < entries.size(); i++) {
+                long[] entry = entries.valueAt(i);
+                long transferred = 0;
+                while (transferred < entry[1])
+                    transferred += sourceChannel.transferTo(entry[0] + transferred, entry[1] - transferred, targetChannel);
+
+                writeIndexEntry(indexOutput, entries.keyAt(i), newDataSize, (int) entry[1]);
+                newEntries.put(entries.keyAt(i), new long[]{newDataSize, entry[1]});
+                newDataSize += entry[1];
+            }
+            dataOutput.getFD().sync();
+            indexOutput.flush();
+            indexFileOutput.getFD().sync();
+        }
+
+        // Single swap : the new generation becomes the current one as soon as its index exists
+        if (!tempIndexFile.renameTo(newIndexFile)) {
+            FileHelper.removeFile(tempIndexFile);
+            FileHelper.removeFile(newDataFile);
+            throw new IOException("Compacted thumbnail index could not be swapped");
+        }
+        FileHelper.removeFile(indexFile);
+        FileHelper.removeFile(dataFile);
+
+        generation = newGeneration;
+        dataFile = newDataFile;
+        indexFile = newIndexFile;
+        entries.clear();
+        for (int i = 0; i < newEntries.size(); i++)
+            entries.put(newEntries.keyAt(i), newEntries.valueAt(i));
+        dataSize = newDataSize;
+        wastedSize = 0;
+        publish();
+    }
+
+    /**
+     * Replace the snapshot read by getThumbnail and read with a copy of the current entries
+     */
+    private void publish() {
+        // NB : size() purges the removed entries, so that the copy is never modified by its readers
+        entries.size();
+        snapshot = new Snapshot(generation, entries.clone());
+    }
+
+    /**
+     * Get the mapping of the data file of the given generation, covering at least the given size
+     * NB : Buffers that have already been handed out keep the previous mapping alive until they're released
+     *
+     * @param dataGeneration Generation of the data file to map
+     * @param minSize        Minimum size the mapping must cover
+     * @return Mapping of the data file of the given generation; null if that generation doesn't exist anymore
+     */
+    @Nullable
+    private MappedByteBuffer getMappedData(long dataGeneration, long minSize) throws IOException {
+        synchronized (mappingLock) {
+            if (null == mappedData || mappedGeneration != dataGeneration || mappedData.capacity() < minSize) {
+                File file = getDataFile(dataGeneration);
+                if (!file.exists()) return null; // Compacted in the meantime
+                try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+                    // The mapping remains valid after the file is closed
+                    mappedData = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+                    mappedGeneration = dataGeneration;
+                }
+            }
+            return mappedData;
+        }
+    }
+
+    /**
+     * Wait until the index has been loaded
+     */
+    private void awaitIndex() {
+        try {
+            indexLoaded.await();
+        } catch (InterruptedException e) {
+            Timber.w(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File getDataFile(long fileGeneration) {
+        return new File(folder, FILE_PREFIX + fileGeneration + DATA_EXTENSION);
+    }
+
+    private File getIndexFile(long fileGeneration) {
+        return new File(folder, FILE_PREFIX + fileGeneration + INDEX_EXTENSION);
+    }
+
+    /**
+     * Get the generation of the given atlas file
+     *
+     * @param name Name of the file to examine
+     * @return Generation of the given file; -1 if it isn't an atlas file
+     */
+    private static long getGeneration(@NonNull final String name) {
+        if (!name.startsWith(FILE_PREFIX)) return -1;
+        int end = name.indexOf('.');
+        if (end < 0) return -1;
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Select the current generation (the latest one that has an index file), remove the files of the
+     * other generations, then load the current index
+     */
+    @WorkerThread
+    private synchronized void loadIndex() {
+        try {
+            doLoadIndex();
+        } finally {
+            // The atlas is ready even if the index couldn't be read, so that thumbnails get generated again
+            publish();
+        }
+    }
+
+    private void doLoadIndex() {
+        if (!folder.exists() && !folder.mkdirs())
+            Timber.w("Thumbnail folder %s could not be created", folder.getAbsolutePath());
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File f : files)
+                if (f.getName().endsWith(INDEX_EXTENSION))
+                    generation = Math.max(generation, getGeneration(f.getName()));
+            // Previous generations, and leftovers of interrupted compactions
+            for (File f : files)
+                if (getGeneration(f.getName()) != generation || f.getName().endsWith(COMPACTION_SUFFIX))
+                    FileHelper.removeFile(f);
+        }
+        dataFile = getDataFile(generation);
+        indexFile = getIndexFile(generation);
+
+        dataSize = dataFile.exists() ? dataFile.length() : 0;
+        if (!indexFile.exists()) return;
+
+        long usedSize = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                long contentId = input.readLong();
+                long offset = input.readLong();
+                int length = input.readInt();
+
+                long[] previous = entries.get(contentId);
+                if (previous != null) usedSize -= previous[1];
+                if (length < 0 || offset + length > dataSize) { // Removal, or data that didn't make it to the disk
+                    entries.remove(contentId);
+                } else {
+                    entries.put(contentId, new long[]{offset, length});
+                    usedSize += length;
+                }
+            }
+        } catch (EOFException e) {
+            // End of the index; a truncated last entry is ignored
+        } catch (IOException e) {
+            Timber.w(e, "Thumbnail index could not be read");
+        }
+        wastedSize = dataSize - usedSize;
+    }
+
+    private void appendIndexEntry(long contentId, long offset, int length) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(indexFile, true))) {
+            writeIndexEntry(output, contentId, offset, length);
+        }
+    }
+
+    private static void writeIndexEntry(@NonNull final DataOutputStream output, long contentId, long offset, int length) throws IOException {
+        output.writeLong(contentId);
+        output.writeLong(offset);
+        output.writeInt(length);
+    }
+
+
+    /**
+     * Immutable state of the entries, published after each modification
+     */
+    private static final class Snapshot {
+        private final long generation;
+        private final LongSparseArray<long[]> entries;
+
+        Snapshot(long generation, @NonNull final LongSparseArray<long[]> entries) {
+            this.generation = generation;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Reference to a thumbnail stored in the atlas, to be used as a Glide model
+     * NB : Its location is part of the identity, so that a replaced or compacted thumbnail isn't served from Glide's caches
+     */
+    public static final class Thumbnail {
+        private final long contentId;
+        private final long generation;
+        private final long offset;
+        private final int length;
+
+        Thumbnail(long contentId, long generation, long offset, int length) {
+            this.contentId = contentId;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Thumbnail thumbnail = (Thumbnail) o;
+            return contentId == thumbnail.contentId
+                    && generation == thumbnail.generation
+                    && offset == thumbnail.offset
+                    && length == thumbnail.length;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (contentId ^ (contentId >>> 32));
+            result = 31 * result + (int) (generation ^ (generation >>> 32));
+            result = 31 * result + (int) (offset ^ (offset >>> 32));
+            return 31 * result + length;
+        }
+
+        // Used by Glide to build the disk cache key
+        @NonNull
+        @Override
+        public String toString() {
+            return "thumb-" + contentId + "-" + generation + "-" + offset + "-" + length;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Glide loader for the thumbnails stored inside the {@link ThumbnailAtlas}
+ */
+public class ThumbnailAtlasLoader implements ModelLoader<ThumbnailAtlas.Thumbnail, ByteBuffer> {
+
+    private final ThumbnailAtlas atlas;
+
+    private ThumbnailAtlasLoader(@NonNull final ThumbnailAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    @Override
+    public LoadData<ByteBuffer> buildLoadData(@NonNull ThumbnailAtlas.Thumbnail thumbnail, int width, int height, @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(thumbnail), new Fetcher(atlas, thumbnail));
+    }
+
+    @Override
+    public boolean handles(@NonNull ThumbnailAtlas.Thumbnail thumbnail) {
+        return true;
+    }
+
+
+    public static class Factory implements ModelLoaderFactory<ThumbnailAtlas.Thumbnail, ByteBuffer> {
+
+        private final Context context;
+
+        public Factory(@NonNull final Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<ThumbnailAtlas.Thumbnail, ByteBuffer> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new ThumbnailAtlasLoader(ThumbnailAtlas.getInstance(context));
+        }
+
+        @Override
+        public void teardown() {
+            // Nothing to do
+        }
+    }
+
+    private static class Fetcher implements DataFetcher<ByteBuffer> {
+
+        private final ThumbnailAtlas atlas;
+        private final ThumbnailAtlas.Thumbnail thumbnail;
+
+        Fetcher(@NonNull final ThumbnailAtlas atlas, @NonNull final ThumbnailAtlas.Thumbnail thumbnail) {
+            this.atlas = atlas;
+            this.thumbnail = thumbnail;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super ByteBuffer> callback) {
+            try {
+                ByteBuffer data = atlas.read(thumbnail);
+                if (null == data) callback.onLoadFailed(new FileNotFoundException("Thumbnail not found : " + thumbnail));
+                else callback.onDataReady(data);
+            } catch (IOException e) {
+                callback.onLoadFailed(e);
+            }
+        }
+
+        @Override
+        public void cleanup() {
+            // Nothing to do; the mapped buffer is released by the GC
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing to do; reading from the mapped buffer is immediate
+        }
+
+        @NonNull
+        @Override
+        public Class<ByteBuffer> getDataClass() {
+            return ByteBuffer.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.LOCAL;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package me.devsaki.hentoid.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Utility class for the library's cover thumbnails
+ * <p>
+ * Thumbnails are downscaled copies of the books' downloaded covers, sized after the library's cover view
+ * and packed inside the {@link ThumbnailAtlas}, so that scrolling the library doesn't decode full-resolution pictures
+ */
+public final class ThumbnailHelper {
+
+    private static final int THUMB_QUALITY = 80;
+
+    // Dimensions of the cover view of the library (see include_item_details.xml)
+    private static final int THUMB_WIDTH_DP = 150;
+    private static final int THUMB_HEIGHT_DP = 200;
+
+    // IDs of the Content whose thumbnail is being generated in the background
+    private static final Set<Long> pendingGenerations = Collections.synchronizedSet(new HashSet<>());
+
+
+    private ThumbnailHelper() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Generate the thumbnail of the given Content in the background, using the given cover picture
+     * NB : Used to lazily create thumbnails for books that have been imported from an existing library
+     *
+     * @param context   Context to use
+     * @param contentId ID of the Content whose thumbnail to generate
+     * @param cover     Full-resolution cover picture to generate the thumbnail from
+     */
+    public static void generateThumbnailAsync(@NonNull final Context context, long contentId, @NonNull final File cover) {
+        // Don't queue the same generation multiple times when the library is scrolled back and forth
+        if (!pendingGenerations.add(contentId)) return;
+
+        Context appContext = context.getApplicationContext();
+        // Single thread to avoid flooding the storage when loading a whole page of the library
+        Completable.fromRunnable(() -> generateThumbnail(appContext, contentId, cover))
+                .subscribeOn(Schedulers.single())
+                .doFinally(() -> pendingGenerations.remove(contentId))
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::w
+                );
+    }
+
+    /**
+     * Generate the thumbnail of the given Content using the given cover picture
+     *
+     * @param context   Context to use
+     * @param contentId ID of the Content whose thumbnail to generate
+     * @param cover     Full-resolution cover picture to generate the thumbnail from
+     * @return True if the thumbnail has been generated successfully; false if not
+     */
+    @WorkerThread
+    public static boolean generateThumbnail(@NonNull final Context context, long contentId, @NonNull final File cover) {
+        Bitmap thumb = decodeThumbnail(context, cover);
+        if (null == thumb) {
+            Timber.w("Cover %s could not be decoded; no thumbnail generated", cover.getAbsolutePath());
+            return false;
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            thumb.compress(Bitmap.CompressFormat.WEBP, THUMB_QUALITY, output);
+            ThumbnailAtlas.getInstance(context).put(contentId, output.toByteArray());
+            return true;
+        } catch (IOException e) {
+            Timber.w(e, "Thumbnail of content %s could not be saved", contentId);
+            return false;
+        } finally {
+            thumb.recycle();
+        }
+    }
+
+    /**
+     * Remove the thumbnail of the given Content, if it exists
+     *
+     * @param context   Context to use
+     * @param contentId ID of the Content whose thumbnail to remove
+     */
+    @WorkerThread
+    public static void removeThumbnail(@NonNull final Context context, long contentId) {
+        ThumbnailAtlas.getInstance(context).remove(contentId);
+    }
+
+    /**
+     * Remove the thumbnails of the given Contents in the background, if they exist
+     *
+     * @param context    Context to use
+     * @param contentIds IDs of the Contents whose thumbnails to remove
+     */
+    public static void removeThumbnailsAsync(@NonNull final Context context, @NonNull final long[] contentIds) {
+        if (0 == contentIds.length) return;
+
+        Context appContext = context.getApplicationContext();
+        Completable.fromRunnable(() -> ThumbnailAtlas.getInstance(appContext).remove(contentIds))
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        () -> {
+                        },
+                        Timber::w
+                );
+    }
+
+    /**
+     * Decode the given picture as a bitmap that fits the dimensions of the library's cover view
+     *
+     * @param context Context to use
+     * @param picture Picture to decode
+     * @return Decoded bitmap; null if the picture couldn't be decoded
+     */
+    private static Bitmap decodeThumbnail(@NonNull final Context context, @NonNull final File picture) {
+        int targetWidth = Helper.dpToPixel(context, THUMB_WIDTH_DP);
+        int targetHeight = Helper.dpToPixel(context, THUMB_HEIGHT_DP);
+
+        // Read dimensions only
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(picture.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        // Subsample while decoding to avoid allocating the full-resolution picture
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565; // Covers are opaque
+        Bitmap sampled = BitmapFactory.decodeFile(picture.getAbsolutePath(), options);
+        if (null == sampled) return null;
+
+        // Scale down to the exact dimensions of the view (same logic as centerInside)
+        float ratio = Math.min(targetWidth * 1f / sampled.getWidth(), targetHeight * 1f / sampled.getHeight());
+        if (ratio >= 1) return sampled;
+
+        int width = Math.max(1, Math.round(sampled.getWidth() * ratio));
+        int height = Math.max(1, Math.round(sampled.getHeight() * ratio));
+        Bitmap result = Bitmap.createScaledBitmap(sampled, width, height, true);
+        if (result != sampled) sampled.recycle();
+        return result;
+    }
+
+    /**
+     * Compute the largest power-of-2 sample size that keeps the decoded picture larger than the target dimensions
+     *
+     * @param width        Width of the source picture
+     * @param height       Height of the source picture
+     * @param targetWidth  Target width
+     * @param targetHeight Target height
+     * @return Sample size to use for decoding (see BitmapFactory.Options.inSampleSize)
+     */
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+}
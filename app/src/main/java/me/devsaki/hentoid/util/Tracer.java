@@ -0,0 +1,358 @@
+package me.devsaki.hentoid.util;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.squareup.moshi.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.Okio;
+import timber.log.Timber;
+
+/**
+ * Lightweight tracing facility to profile the app on real devices without attaching a profiler
+ * <p>
+ * Records :
+ * - spans (named durations), also emitted as systrace sections
+ * - counters (cumulated values)
+ * - histograms (distribution of values, e.g. durations in ms)
+ * <p>
+ * Spans are kept in a fixed-size ring buffer that can be exported as a JSON trace file,
+ * readable by chrome://tracing or Perfetto.
+ * NB : Nothing is recorded and no object is allocated while tracing is disabled
+ */
+public final class Tracer {
+
+    // Number of spans kept in the ring buffer
+    private static final int BUFFER_CAPACITY = 4096;
+    // Systrace section names are limited to 127 characters
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static volatile boolean enabled = false;
+
+    // Ring buffer of completed spans (guarded by BUFFER)
+    private static final SpanRecord[] BUFFER = new SpanRecord[BUFFER_CAPACITY];
+    private static int bufferPosition = 0;
+
+    private static final ConcurrentHashMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    // Cookies of async systrace sections
+    private static final AtomicInteger ASYNC_COOKIE = new AtomicInteger();
+
+    // Span returned when tracing is disabled
+    private static final Span NO_OP_SPAN = new Span();
+
+
+    private Tracer() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable tracing
+     * NB : Disabling tracing clears everything that has been recorded
+     *
+     * @param isEnabled True to enable tracing; false to disable it
+     */
+    public static void setEnabled(boolean isEnabled) {
+        if (enabled == isEnabled) return;
+        enabled = isEnabled;
+        if (!isEnabled) clear();
+        Timber.i("Tracing %s", isEnabled ? "enabled" : "disabled");
+    }
+
+    /**
+     * Start a span that will end on the same thread
+     * Usage : try (Tracer.Span span = Tracer.begin("name")) { ... }
+     *
+     * @param name Name of the span
+     * @return Started span; to be closed when the traced operation ends
+     */
+    public static Span begin(@NonNull String name) {
+        if (!enabled) return NO_OP_SPAN;
+        return new Span(name, false);
+    }
+
+    /**
+     * Start a span that may end on another thread (e.g. network calls)
+     *
+     * @param name Name of the span
+     * @return Started span; to be closed when the traced operation ends
+     */
+    public static Span beginAsync(@NonNull String name) {
+        if (!enabled) return NO_OP_SPAN;
+        return new Span(name, true);
+    }
+
+    /**
+     * Record a span that has already ended
+     *
+     * @param name    Name of the span
+     * @param startMs Start time of the span (as per SystemClock.elapsedRealtime)
+     * @param endMs   End time of the span (as per SystemClock.elapsedRealtime)
+     */
+    public static void addSpan(@NonNull String name, long startMs, long endMs) {
+        if (!enabled) return;
+        record(new SpanRecord(name, Process.myTid(), startMs * 1000, (endMs - startMs) * 1000));
+    }
+
+    /**
+     * Add the given value to the given counter
+     *
+     * @param name  Name of the counter
+     * @param delta Value to add
+     */
+    public static void count(@NonNull String name, long delta) {
+        if (!enabled) return;
+        AtomicLong counter = COUNTERS.get(name);
+        if (null == counter) {
+            counter = new AtomicLong();
+            AtomicLong existing = COUNTERS.putIfAbsent(name, counter);
+            if (existing != null) counter = existing;
+        }
+        long value = counter.addAndGet(delta);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            Trace.setCounter(sectionName(name), value);
+    }
+
+    /**
+     * Record the given value in the given histogram
+     *
+     * @param name  Name of the histogram
+     * @param value Value to record (e.g. a duration in ms)
+     */
+    public static void histogram(@NonNull String name, long value) {
+        if (!enabled) return;
+        Histogram histogram = HISTOGRAMS.get(name);
+        if (null == histogram) {
+            histogram = new Histogram();
+            Histogram existing = HISTOGRAMS.putIfAbsent(name, histogram);
+            if (existing != null) histogram = existing;
+        }
+        histogram.add(value);
+    }
+
+    /**
+     * Clear everything that has been recorded
+     */
+    public static void clear() {
+        synchronized (BUFFER) {
+            for (int i = 0; i < BUFFER_CAPACITY; i++) BUFFER[i] = null;
+            bufferPosition = 0;
+        }
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /**
+     * Export everything that has been recorded to the given file, using the Trace Event format
+     * (see https://docs.google.com/document/d/1CvAClvFfyA5R-PhYUmn5OOQtYMH4h6I0nSsKchNAySU)
+     * - spans are exported as complete events
+     * - counters are exported as counter events
+     * - histograms are exported as metadata
+     *
+     * @param file File to write the trace to
+     * @throws IOException If the file can't be written
+     */
+    @WorkerThread
+    public static void exportJson(@NonNull File file) throws IOException {
+        List<SpanRecord> spans = new ArrayList<>();
+        synchronized (BUFFER) {
+            for (int i = 0; i < BUFFER_CAPACITY; i++) {
+                SpanRecord span = BUFFER[(bufferPosition + i) % BUFFER_CAPACITY];
+                if (span != null) spans.add(span);
+            }
+        }
+        int pid = Process.myPid();
+        long nowUs = SystemClock.elapsedRealtime() * 1000;
+
+        try (JsonWriter writer = JsonWriter.of(Okio.buffer(Okio.sink(file)))) {
+            writer.beginObject();
+            writer.name("traceEvents").beginArray();
+            for (SpanRecord span : spans) {
+                writer.beginObject();
+                writer.name("name").value(span.name);
+                writer.name("ph").value("X");
+                writer.name("ts").value(span.startUs);
+                writer.name("dur").value(span.durationUs);
+                writer.name("pid").value(pid);
+                writer.name("tid").value(span.threadId);
+                writer.endObject();
+            }
+            for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(COUNTERS).entrySet()) {
+                writer.beginObject();
+                writer.name("name").value(counter.getKey());
+                writer.name("ph").value("C");
+                writer.name("ts").value(nowUs);
+                writer.name("pid").value(pid);
+                writer.name("args").beginObject().name("value").value(counter.getValue().get()).endObject();
+                writer.endObject();
+            }
+            writer.endArray();
+
+            writer.name("metadata").beginObject();
+            writer.name("histograms").beginObject();
+            for (Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet()) {
+                writer.name(histogram.getKey());
+                histogram.getValue().toJson(writer);
+            }
+            writer.endObject();
+            writer.endObject();
+
+            writer.endObject();
+        }
+        Timber.i("Trace exported to %s : %s spans", file.getAbsolutePath(), spans.size());
+    }
+
+    private static void record(@NonNull SpanRecord span) {
+        synchronized (BUFFER) {
+            BUFFER[bufferPosition] = span;
+            bufferPosition = (bufferPosition + 1) % BUFFER_CAPACITY;
+        }
+    }
+
+    private static String sectionName(@NonNull String name) {
+        return (name.length() > MAX_SECTION_NAME_LENGTH) ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name;
+    }
+
+
+    /**
+     * Traced operation; ends when closed
+     * NB : Spans started with {@link Tracer#begin(String)} must be closed on the thread they've been started on
+     */
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final boolean async;
+        private final long startNs;
+        private final int cookie;
+        private boolean closed = false;
+
+        // No-op span
+        private Span() {
+            name = "";
+            async = false;
+            startNs = 0;
+            cookie = 0;
+            closed = true;
+        }
+
+        private Span(@NonNull String name, boolean async) {
+            this.name = name;
+            this.async = async;
+            startNs = SystemClock.elapsedRealtimeNanos();
+            if (!async) {
+                cookie = 0;
+                Trace.beginSection(sectionName(name));
+            } else {
+                cookie = ASYNC_COOKIE.incrementAndGet();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                    Trace.beginAsyncSection(sectionName(name), cookie);
+            }
+        }
+
+        /**
+         * End the span
+         *
+         * @return Duration of the span, in ms
+         */
+        public long end() {
+            if (closed) return 0;
+            closed = true;
+            if (!async) Trace.endSection();
+            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                Trace.endAsyncSection(sectionName(name), cookie);
+
+            long durationNs = SystemClock.elapsedRealtimeNanos() - startNs;
+            // Tracing may have been disabled in the meantime
+            if (enabled)
+                record(new SpanRecord(name, Process.myTid(), startNs / 1000, durationNs / 1000));
+            return durationNs / 1000000;
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+
+    private static final class SpanRecord {
+        private final String name;
+        private final int threadId;
+        private final long startUs;
+        private final long durationUs;
+
+        SpanRecord(@NonNull String name, int threadId, long startUs, long durationUs) {
+            this.name = name;
+            this.threadId = threadId;
+            this.startUs = startUs;
+            this.durationUs = durationUs;
+        }
+    }
+
+    /**
+     * Distribution of values, using power-of-2 buckets
+     */
+    private static final class Histogram {
+        // Bucket i counts values in [2^(i-1), 2^i[; bucket 0 counts values < 1
+        private final long[] buckets = new long[64];
+        private long count = 0;
+        private long sum = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        synchronized void add(long value) {
+            int bucket = (value < 1) ? 0 : 64 - Long.numberOfLeadingZeros(value);
+            buckets[Math.min(bucket, buckets.length - 1)]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        synchronized void toJson(@NonNull JsonWriter writer) throws IOException {
+            writer.beginObject();
+            writer.name("count").value(count);
+            writer.name("sum").value(sum);
+            writer.name("min").value((0 == count) ? 0 : min);
+            writer.name("max").value((0 == count) ? 0 : max);
+            writer.name("mean").value((0 == count) ? 0 : (double) sum / count);
+            writer.name("p50").value(percentile(0.5));
+            writer.name("p95").value(percentile(0.95));
+            // Upper bound of each non-empty bucket -> number of values
+            writer.name("buckets").beginObject();
+            for (int i = 0; i < buckets.length; i++)
+                if (buckets[i] > 0) writer.name(Long.toString(1L << i)).value(buckets[i]);
+            writer.endObject();
+            writer.endObject();
+        }
+
+        // Approximate percentile : upper bound of the bucket that contains it
+        private long percentile(double ratio) {
+            long target = (long) Math.ceil(count * ratio);
+            long cumulated = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulated += buckets[i];
+                if (cumulated >= target && cumulated > 0) return Math.min(1L << i, max);
+            }
+            return 0;
+        }
+    }
+}
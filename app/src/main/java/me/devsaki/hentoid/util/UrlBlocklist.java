@@ -0,0 +1,180 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Compiled list of blocked URLs, used to filter the requests of the in-app browser
+ * <p>
+ * Two kinds of entries are supported :
+ * - Content patterns (e.g. "ads.js", "/nutaku/") block any URL that contains them; they are all looked for
+ * in a single pass by an Aho-Corasick automaton
+ * - Hosts (e.g. "exoclick.com") block the host and all its subdomains; they are stored in a trie of reversed
+ * domain labels, so that checking a URL only takes as many lookups as its host has labels
+ * <p>
+ * External block lists are text files with one entry per line, using either the hosts file format
+ * ("0.0.0.0 example.com"), the adblock host format ("||example.com^") or plain entries
+ * NB : Plain entries that look like a domain name are treated as hosts; others as content patterns
+ */
+public class UrlBlocklist {
+
+    // Prefixes of hosts file lines
+    private static final String[] HOSTS_FILE_PREFIXES = {"0.0.0.0 ", "127.0.0.1 "};
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile("^[a-z0-9\\-]+(\\.[a-z0-9\\-]+)+$");
+
+    private final AhoCorasick contentMatcher;
+    private final HostNode hostRoot = new HostNode();
+    private final int size;
+
+
+    /**
+     * @param contentPatterns Patterns blocking any URL that contains them
+     * @param hosts           Hosts blocked with all their subdomains
+     */
+    public UrlBlocklist(@NonNull Collection<String> contentPatterns, @NonNull Collection<String> hosts) {
+        contentMatcher = new AhoCorasick(contentPatterns);
+        for (String host : hosts) addHost(host);
+        size = contentPatterns.size() + hosts.size();
+    }
+
+    /**
+     * @return Number of entries of the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Indicate if the given URL is blocked by the list
+     *
+     * @param url URL to examine
+     * @return True if the given URL is blocked; false if not
+     */
+    public boolean isForbidden(@NonNull String url) {
+        if (hostRoot.children != null) {
+            String host = getHost(url);
+            if (host != null && isHostForbidden(host)) return true;
+        }
+        return contentMatcher.matches(url);
+    }
+
+    private void addHost(@NonNull String host) {
+        HostNode node = hostRoot;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.getOrCreateChild(host.substring(start, end));
+            end = start - 1;
+        }
+        node.isBlocked = true;
+    }
+
+    private boolean isHostForbidden(@NonNull String host) {
+        HostNode node = hostRoot;
+        int end = host.length();
+        while (end > 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.getChild(host.substring(start, end));
+            if (null == node) return false;
+            if (node.isBlocked) return true;
+            end = start - 1;
+        }
+        return false;
+    }
+
+    /**
+     * Extract the host of the given URL without parsing the whole URL
+     *
+     * @param url URL to extract the host from
+     * @return Host of the given URL, lowercased; null if the URL has no host
+     */
+    @Nullable
+    private static String getHost(@NonNull String url) {
+        int start = url.indexOf("://");
+        if (start < 0) return null;
+        start += 3;
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if ('/' == c || '?' == c || '#' == c) break;
+            if ('@' == c) start = end + 1; // Skip user info
+            end++;
+        }
+        int portIndex = url.lastIndexOf(':', end - 1);
+        if (portIndex >= start) end = portIndex;
+        return (end > start) ? url.substring(start, end).toLowerCase() : null;
+    }
+
+    /**
+     * Read the entries of the given external block list
+     *
+     * @param file            Block list file to read
+     * @param contentPatterns Collection to add the content patterns of the list to
+     * @param hosts           Collection to add the hosts of the list to
+     */
+    public static void readList(@NonNull File file, @NonNull Collection<String> contentPatterns, @NonNull Collection<String> hosts) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("!")) continue;
+
+                boolean isHost = false;
+                for (String prefix : HOSTS_FILE_PREFIXES)
+                    if (line.startsWith(prefix)) {
+                        line = line.substring(prefix.length()).trim();
+                        isHost = true;
+                        break;
+                    }
+                if (line.startsWith("||") && line.endsWith("^")) {
+                    line = line.substring(2, line.length() - 1);
+                    isHost = true;
+                }
+                // Remove trailing comments
+                int commentIndex = line.indexOf(" #");
+                if (commentIndex > -1) line = line.substring(0, commentIndex).trim();
+                if (line.isEmpty() || line.equals("localhost")) continue;
+
+                if (isHost || DOMAIN_PATTERN.matcher(line).matches()) hosts.add(line.toLowerCase());
+                else contentPatterns.add(line);
+            }
+        } catch (IOException e) {
+            Timber.w(e, "Block list %s could not be read", file.getAbsolutePath());
+        }
+    }
+
+    private static class HostNode {
+        // Subdomains, by label
+        private Map<String, HostNode> children = null;
+        private boolean isBlocked = false;
+
+        @Nullable
+        HostNode getChild(@NonNull String label) {
+            return (null == children) ? null : children.get(label);
+        }
+
+        @NonNull
+        HostNode getOrCreateChild(@NonNull String label) {
+            if (null == children) children = new HashMap<>();
+            HostNode child = children.get(label);
+            if (null == child) {
+                child = new HostNode();
+                children.put(label, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package me.devsaki.hentoid.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Tells if a URL matches any of a set of regular expressions
+ * <p>
+ * - All expressions are combined into one single pattern, so that the URL is examined once
+ * - When each expression requires a literal string (e.g. "hitomi" in "//hitomi.la/[0-9]+"), URLs that contain none
+ * of these strings are rejected by an Aho-Corasick automaton before running the pattern
+ */
+public class UrlPatternMatcher {
+
+    // Minimum length of the literals required to use them as a pre-filter
+    private static final int MIN_LITERAL_LENGTH = 3;
+    private static final String META_CHARS = ".^$?*+{}[]()|\\";
+
+    private final Pattern pattern;
+    // Null if expressions can't be pre-filtered
+    private final AhoCorasick preFilter;
+
+
+    /**
+     * @param expressions Regular expressions to match
+     */
+    public UrlPatternMatcher(@NonNull String[] expressions) {
+        StringBuilder combined = new StringBuilder();
+        List<String> literals = new ArrayList<>();
+        boolean canPreFilter = expressions.length > 0;
+        for (String expression : expressions) {
+            if (combined.length() > 0) combined.append('|');
+            combined.append("(?:").append(expression).append(')');
+
+            String literal = getRequiredLiteral(expression);
+            if (literal.length() < MIN_LITERAL_LENGTH) canPreFilter = false;
+            else literals.add(literal);
+        }
+        pattern = (0 == expressions.length) ? null : Pattern.compile(combined.toString());
+        preFilter = canPreFilter ? new AhoCorasick(literals) : null;
+    }
+
+    /**
+     * Indicate if the given URL matches any of the expressions
+     *
+     * @param url URL to examine
+     * @return True if the given URL matches at least one of the expressions
+     */
+    public boolean matches(@NonNull String url) {
+        if (null == pattern) return false;
+        if (preFilter != null && !preFilter.matches(url)) return false;
+        return pattern.matcher(url).find();
+    }
+
+    /**
+     * Get the longest literal string any match of the given expression contains
+     * NB : Deliberately conservative : expressions with groups or alternatives only yield the literal before them
+     *
+     * @param expression Regular expression to examine
+     * @return Longest literal required by the given expression; empty string if none has been found
+     */
+    @VisibleForTesting
+    static String getRequiredLiteral(@NonNull String expression) {
+        if (expression.indexOf('|') > -1) return "";
+
+        String best = "";
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if ('\\' == c) {
+                // Escaped meta char (e.g. \.) are literals; character classes (e.g. \d) aren't
+                if (i + 1 < expression.length() && META_CHARS.indexOf(expression.charAt(i + 1)) > -1) {
+                    current.append(expression.charAt(i + 1));
+                } else {
+                    best = longest(best, current);
+                }
+                i += 2;
+            } else if ('?' == c || '*' == c || '{' == c) {
+                // The previous char is optional
+                if (current.length() > 0) current.setLength(current.length() - 1);
+                best = longest(best, current);
+                if ('{' == c) {
+                    int closing = expression.indexOf('}', i);
+                    i = (closing < 0) ? expression.length() : closing + 1;
+                } else i++;
+            } else if ('[' == c) {
+                best = longest(best, current);
+                i = skipCharacterClass(expression, i);
+            } else if ('(' == c) {
+                break;
+            } else if (META_CHARS.indexOf(c) > -1) {
+                // NB : '+' keeps the previous char but the next one isn't contiguous anymore
+                best = longest(best, current);
+                i++;
+            } else {
+                current.append(c);
+                i++;
+            }
+        }
+        return longest(best, current);
+    }
+
+    private static String longest(@NonNull String best, @NonNull StringBuilder current) {
+        String result = (current.length() > best.length()) ? current.toString() : best;
+        current.setLength(0);
+        return result;
+    }
+
+    /**
+     * @return Index of the char following the character class starting at the given index
+     */
+    private static int skipCharacterClass(@NonNull String expression, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if ('\\' == c) i++;
+            else if ('[' == c) depth++;
+            else if (']' == c && --depth == 0) return i + 1;
+            i++;
+        }
+        return expression.length();
+    }
+}
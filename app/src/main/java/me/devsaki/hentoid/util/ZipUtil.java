@@ -1,22 +1,49 @@
 package me.devsaki.hentoid.util;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import timber.log.Timber;
 
 /**
  * Created by avluis on 09/11/2016.
  * Zip Utility
+ * <p>
+ * Archives are written as a stream, entry after entry, so that they can be sent to any output stream
+ * (e.g. a SAF document or the Downloads folder) without any intermediate file
+ * - Already compressed files (e.g. JPEG, PNG, WebP pictures) are STORED as they are and copied from channel to channel
+ * - Other files are deflated on a thread pool while the previous entries are being written
+ * NB : ZIP64 isn't supported : entries and archives are limited to 4 GB and 65535 entries
  */
 
 public class ZipUtil {
@@ -25,30 +52,326 @@ public class ZipUtil {
         throw new IllegalStateException("Utility class");
     }
 
-    private static final int BUFFER = 32 * 1024;
+    private static final int BUFFER = 64 * 1024;
 
+    // Extensions of the files whose contents are already compressed
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<>();
+
+    static {
+        Collections.addAll(STORED_EXTENSIONS, "jpg", "jpeg", "jfif", "png", "gif", "webp", "avif", "heic",
+                "zip", "cbz", "rar", "cbr", "7z", "gz", "mp4", "webm", "mkv", "mp3", "ogg");
+    }
+
+    // ZIP format constants
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final short VERSION = 20;
+    private static final short FLAG_UTF8_NAMES = 0x0800;
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+
+    /**
+     * Listener for the progress of the creation of an archive
+     */
+    public interface ProgressListener {
+        /**
+         * @param processedBytes Number of bytes of the archived files that have been processed so far
+         * @param totalBytes     Total number of bytes of the archived files
+         */
+        void onProgress(long processedBytes, long totalBytes);
+    }
+
+    /**
+     * File to add to an archive
+     */
+    public static class Entry {
+        // Path of the file inside the archive
+        private final String name;
+        private final File file;
+
+        /**
+         * @param name Path of the file inside the archive (e.g. "folder/001.jpg")
+         * @param file File to add
+         */
+        public Entry(@NonNull String name, @NonNull File file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Archive the given files into the given ZIP file, at its root
+     *
+     * @param files Files to archive
+     * @param dest  Archive to create
+     * @return Created archive
+     * @throws IOException If anything goes wrong
+     */
     @WorkerThread
     public static File zipFiles(List<File> files, File dest) throws IOException {
-        try (FileOutputStream out = new FileOutputStream(dest); ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(out))) {
-            final byte[] data = new byte[BUFFER];
-            for (File file : files) addFile(file, zipOutputStream, data);
-            FileUtil.sync(out);
-            out.flush();
+        List<Entry> entries = new ArrayList<>();
+        for (File file : files) entries.add(new Entry(file.getName(), file));
+        try (FileOutputStream out = new FileOutputStream(dest)) {
+            zip(entries, out, null);
         }
         return dest;
     }
 
-    private static void addFile(final File file, final ZipOutputStream stream, final byte[] data) throws IOException {
-        Timber.d("Adding: %s", file);
-        try (FileInputStream fi = new FileInputStream(file); BufferedInputStream origin = new BufferedInputStream(fi, BUFFER)) {
+    /**
+     * Write a ZIP archive containing the given entries to the given stream
+     * NB : The stream is not closed by this method
+     *
+     * @param entries  Entries to archive, in archive order
+     * @param out      Stream to write the archive to
+     * @param listener Listener to notify of the progress of the operation; null if none
+     * @throws IOException If anything goes wrong, including the interruption of the calling thread
+     */
+    @WorkerThread
+    public static void zip(@NonNull List<Entry> entries, @NonNull OutputStream out, @Nullable ProgressListener listener) throws IOException {
+        if (entries.size() > MAX_ENTRIES)
+            throw new IOException("Too many entries : " + entries.size());
+
+        long totalBytes = 0;
+        for (Entry entry : entries) totalBytes += entry.file.length();
+
+        // Writing to a FileOutputStream through its own channel allows the system to copy files directly
+        WritableByteChannel channel = (out instanceof FileOutputStream) ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+        ZipWriter writer = new ZipWriter(channel);
+
+        int nbThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            // Prepare the next entries while the current one is being written, within a bounded window to cap memory usage
+            Queue<Future<PreparedEntry>> window = new ArrayDeque<>();
+            int nextToPrepare = 0;
+            long processedBytes = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                while (nextToPrepare < entries.size() && window.size() < nbThreads * 2) {
+                    final Entry entry = entries.get(nextToPrepare++);
+                    window.add(executor.submit((Callable<PreparedEntry>) () -> prepare(entry)));
+                }
+                PreparedEntry prepared = await(window.remove());
+                writer.write(prepared);
+
+                processedBytes += prepared.size;
+                if (listener != null) listener.onProgress(processedBytes, totalBytes);
+            }
+            writer.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+        out.flush();
+    }
+
+    private static PreparedEntry await(@NonNull Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while archiving");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Compute the CRC and sizes of the given entry, and compress it if it is worth it
+     * NB : Runs on the thread pool
+     */
+    private static PreparedEntry prepare(@NonNull Entry entry) throws IOException {
+        Timber.d("Adding: %s", entry.file);
+        PreparedEntry result = new PreparedEntry(entry);
+        boolean compress = !STORED_EXTENSIONS.contains(FileHelper.getExtension(entry.file.getName()));
+
+        CRC32 crc = new CRC32();
+        Deflater deflater = compress ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        ByteArrayOutputStream compressed = compress ? new ByteArrayOutputStream((int) Math.min(entry.file.length(), BUFFER * 16L)) : null;
+        byte[] buffer = new byte[BUFFER];
+        byte[] deflated = compress ? new byte[BUFFER] : null;
+        try (FileInputStream in = new FileInputStream(entry.file)) {
+            int read;
+            while ((read = in.read(buffer)) > -1) {
+                crc.update(buffer, 0, read);
+                result.size += read;
+                if (deflater != null) {
+                    deflater.setInput(buffer, 0, read);
+                    while (!deflater.needsInput()) {
+                        int n = deflater.deflate(deflated);
+                        compressed.write(deflated, 0, n);
+                    }
+                }
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(deflated);
+                    compressed.write(deflated, 0, n);
+                }
+            }
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+        if (result.size > MAX_SIZE) throw new IOException("File too large : " + entry.file.getAbsolutePath());
+
+        result.crc = crc.getValue();
+        // Keep the compressed data only if it is actually smaller
+        if (compressed != null && compressed.size() < result.size) {
+            result.method = METHOD_DEFLATED;
+            result.data = compressed.toByteArray();
+            result.compressedSize = result.data.length;
+        } else {
+            result.compressedSize = result.size;
+        }
+        result.time = toDosTime(entry.file.lastModified());
+        return result;
+    }
+
+    /**
+     * Convert the given timestamp to MS-DOS date and time, as used by ZIP headers
+     *
+     * @param timestamp Timestamp to convert (ms)
+     * @return MS-DOS date (upper 16 bits) and time (lower 16 bits)
+     */
+    private static int toDosTime(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
 
-            ZipEntry zipEntry = new ZipEntry(file.getName());
-            stream.putNextEntry(zipEntry);
-            int count;
+    /**
+     * Entry whose CRC and sizes are known, ready to be written
+     */
+    private static class PreparedEntry {
+        private final Entry entry;
+        private short method = METHOD_STORED;
+        private long crc;
+        private long size = 0;
+        private long compressedSize;
+        private int time;
+        // Compressed data; null if the file has to be stored as it is
+        private byte[] data = null;
+        // Offset of the local header inside the archive
+        private long offset;
+
+        PreparedEntry(@NonNull Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Sequential writer of the ZIP structures
+     */
+    private static class ZipWriter {
+        private final WritableByteChannel channel;
+        private final List<PreparedEntry> written = new ArrayList<>();
+        private final ByteBuffer header = ByteBuffer.allocate(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        ZipWriter(@NonNull WritableByteChannel channel) {
+            this.channel = channel;
+        }
 
-            while ((count = origin.read(data, 0, BUFFER)) != -1) {
-                stream.write(data, 0, count);
+        void write(@NonNull PreparedEntry entry) throws IOException {
+            byte[] name = entry.entry.name.getBytes(StandardCharsets.UTF_8);
+            entry.offset = position;
+            checkSize(position);
+
+            header.clear();
+            header.putInt(LOCAL_HEADER_SIGNATURE)
+                    .putShort(VERSION)
+                    .putShort(FLAG_UTF8_NAMES)
+                    .putShort(entry.method)
+                    .putInt(entry.time)
+                    .putInt((int) entry.crc)
+                    .putInt((int) entry.compressedSize)
+                    .putInt((int) entry.size)
+                    .putShort((short) name.length)
+                    .putShort((short) 0)
+                    .put(name);
+            writeHeader();
+
+            if (entry.data != null) {
+                writeFully(ByteBuffer.wrap(entry.data));
+                entry.data = null; // Only the headers are needed from now on
+            } else {
+                try (FileInputStream in = new FileInputStream(entry.entry.file)) {
+                    FileChannel source = in.getChannel();
+                    long copied = 0;
+                    while (copied < entry.size) {
+                        long n = source.transferTo(copied, entry.size - copied, channel);
+                        if (n <= 0) throw new IOException("File changed while being archived : " + entry.entry.file.getAbsolutePath());
+                        copied += n;
+                    }
+                }
+                position += entry.size;
+            }
+            written.add(entry);
+        }
+
+        void finish() throws IOException {
+            long centralDirectoryOffset = position;
+            checkSize(centralDirectoryOffset);
+            for (PreparedEntry entry : written) {
+                byte[] name = entry.entry.name.getBytes(StandardCharsets.UTF_8);
+                header.clear();
+                header.putInt(CENTRAL_HEADER_SIGNATURE)
+                        .putShort(VERSION)
+                        .putShort(VERSION)
+                        .putShort(FLAG_UTF8_NAMES)
+                        .putShort(entry.method)
+                        .putInt(entry.time)
+                        .putInt((int) entry.crc)
+                        .putInt((int) entry.compressedSize)
+                        .putInt((int) entry.size)
+                        .putShort((short) name.length)
+                        .putShort((short) 0) // Extra field length
+                        .putShort((short) 0) // Comment length
+                        .putShort((short) 0) // Disk number
+                        .putShort((short) 0) // Internal attributes
+                        .putInt(0) // External attributes
+                        .putInt((int) entry.offset)
+                        .put(name);
+                writeHeader();
             }
+            long centralDirectorySize = position - centralDirectoryOffset;
+            checkSize(position);
+
+            header.clear();
+            header.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) written.size())
+                    .putShort((short) written.size())
+                    .putInt((int) centralDirectorySize)
+                    .putInt((int) centralDirectoryOffset)
+                    .putShort((short) 0);
+            writeHeader();
+        }
+
+        private void writeHeader() throws IOException {
+            header.flip();
+            writeFully(header);
+        }
+
+        private void writeFully(@NonNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) position += channel.write(buffer);
+        }
+
+        private static void checkSize(long position) throws IOException {
+            if (position > MAX_SIZE) throw new IOException("Archive too large");
         }
     }
 }
@@ -42,6 +42,7 @@ import me.devsaki.hentoid.util.ContentHelper;
 import me.devsaki.hentoid.util.HttpHelper;
 import me.devsaki.hentoid.util.JsonHelper;
 import me.devsaki.hentoid.util.ThemeHelper;
+import me.devsaki.hentoid.util.ThumbnailAtlas;
 import timber.log.Timber;
 
 import static androidx.core.view.ViewCompat.requireViewById;
@@ -197,9 +198,23 @@ public class ContentItem extends AbstractItem<ContentItem.ContentViewHolder> {
         }
 
         private void attachCover(Content content) {
-            String thumbLocation = ContentHelper.getThumb(content);
             Context context = ivCover.getContext();
 
+            // Use the packed thumbnail when it exists, to avoid opening and decoding the full-size cover
+            // NB : Readiness is checked first, so that a thumbnail that isn't found is really missing
+            ThumbnailAtlas atlas = ThumbnailAtlas.getInstance(context);
+            boolean atlasReady = atlas.isReady();
+            ThumbnailAtlas.Thumbnail thumbnail = atlas.getThumbnail(content.getId());
+            if (thumbnail != null) {
+                Glide.with(context.getApplicationContext())
+                        .load(thumbnail)
+                        .apply(glideRequestOptions)
+                        .into(ivCover);
+                return;
+            }
+
+            String thumbLocation = ContentHelper.getThumb(content, atlasReady);
+
             // Use content's cookies to load image (useful for ExHentai when viewing queue screen)
             if (thumbLocation.startsWith("http")
                     && content.getDownloadParams() != null
@@ -4,6 +4,7 @@ import android.app.Application;
 import android.content.Context;
 import android.os.Build;
 import android.os.Bundle;
+import android.util.LongSparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -23,6 +24,7 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import javax.annotation.Nonnull;
 
@@ -41,7 +43,9 @@ import me.devsaki.hentoid.database.domains.ImageFile;
 import me.devsaki.hentoid.enums.StatusContent;
 import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.ContentJsonWriter;
 import me.devsaki.hentoid.util.FileHelper;
+import me.devsaki.hentoid.util.OrderedIdList;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.ToastUtil;
 import me.devsaki.hentoid.widget.ContentSearchManager;
@@ -64,12 +68,14 @@ public class ImageViewerViewModel extends AndroidViewModel {
 
     // Collection data
     private final MutableLiveData<Content> content = new MutableLiveData<>();        // Current content
-    private List<Long> contentIds = Collections.emptyList();                         // Content Ids of the whole collection ordered according to current filter
+    private OrderedIdList contentIds = OrderedIdList.empty();                        // Content Ids of the whole collection ordered according to current filter
     private int currentContentIndex = -1;                                            // Index of current content within the above list
     private long loadedBookId = -1;                                                  // ID of currently loaded book
+    private long pathsCheckedBookId = -1;                                            // ID of the book whose page paths have been checked against its folder since it has been loaded
 
     // Pictures data
     private LiveData<List<ImageFile>> currentImageSource;
+    private List<ImageFile> sourceImages = Collections.emptyList();                   // Images of the current book, as last emitted by the database
     private final MediatorLiveData<List<ImageFile>> images = new MediatorLiveData<>();    // Currently displayed set of images
     private final MutableLiveData<Integer> startingIndex = new MutableLiveData<>();     // 0-based index of the current image
 
@@ -141,18 +147,38 @@ public class ImageViewerViewModel extends AndroidViewModel {
     }
 
     private void setImages(@NonNull Content content, @NonNull List<ImageFile> imgs) {
+        // Only the stored paths have changed (e.g. they have just been recorded) => keep the pages where they are
+        List<ImageFile> displayedImages = images.getValue();
+        boolean pathsOnly = content.getId() == loadedBookId && displayedImages != null && hasSamePages(sourceImages, imgs);
+        sourceImages = imgs;
+        if (pathsOnly && updateDisplayedImages(displayedImages, imgs)) return;
+
         // Load new content
-        File[] pictureFiles = ContentHelper.getPictureFilesFromContent(content); // TODO this is called too often when viewing a queued book -> optimize !
-        if (pictureFiles != null && pictureFiles.length > 0) {
-            List<ImageFile> imageFiles;
-            if (imgs.isEmpty()) {
-                imageFiles = filesToImageList(pictureFiles);
-                content.setImageFiles(imageFiles);
-                collectionDao.insertContent(content);
-            } else {
-                imageFiles = new ArrayList<>(imgs);
-                matchFilesToImageList(pictureFiles, imageFiles);
+        List<ImageFile> imageFiles = null;
+        if (hasStoredPaths(content, imgs)) {
+            // Stored paths are trusted; they are checked one by one when the pages are displayed (see verifyPageFile)
+            imageFiles = new ArrayList<>(imgs);
+        } else {
+            File[] pictureFiles = ContentHelper.getPictureFilesFromContent(content); // NB : Cached as long as the book folder is unchanged
+            if (pictureFiles != null && pictureFiles.length > 0) {
+                if (imgs.isEmpty()) {
+                    imageFiles = filesToImageList(pictureFiles);
+                    content.setImageFiles(imageFiles);
+                    collectionDao.insertContent(content);
+                } else {
+                    List<String> previousPaths = Stream.of(imgs).map(ImageFile::getAbsolutePath).toList();
+                    imageFiles = ContentHelper.matchFilesToImageList(pictureFiles, imgs);
+                    // NB : Only store changed paths, as any update triggers a new call to setImages
+                    List<ImageFile> changedImages = new ArrayList<>();
+                    for (int i = 0; i < imgs.size(); i++)
+                        if (!Objects.equals(previousPaths.get(i), imgs.get(i).getAbsolutePath()))
+                            changedImages.add(imgs.get(i));
+                    if (!changedImages.isEmpty()) updateImageFilePaths(changedImages);
+                }
             }
+        }
+
+        if (imageFiles != null && !imageFiles.isEmpty()) {
             sortAndSetImages(imageFiles, isShuffled);
 
             if (content.getId() != loadedBookId) { // To be done once per book only
@@ -180,6 +206,146 @@ public class ImageViewerViewModel extends AndroidViewModel {
         }
     }
 
+    /**
+     * Indicate if the given lists contain the same pages, regardless of their stored paths
+     *
+     * @param previousImgs Images to compare
+     * @param imgs         Images to compare
+     * @return True if both lists contain the same pages, in the same order, with the same attributes apart from
+     * their stored paths; false if not
+     */
+    private static boolean hasSamePages(@NonNull List<ImageFile> previousImgs, @NonNull List<ImageFile> imgs) {
+        if (imgs.isEmpty() || previousImgs.size() != imgs.size()) return false;
+        for (int i = 0; i < imgs.size(); i++) {
+            ImageFile previous = previousImgs.get(i);
+            ImageFile img = imgs.get(i);
+            if (previous.getId() != img.getId()
+                    || !Objects.equals(previous.getOrder(), img.getOrder())
+                    || previous.isFavourite() != img.isFavourite()
+                    || previous.getStatus() != img.getStatus())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replace the displayed images by the given ones, without changing their display order
+     *
+     * @param displayedImgs Images currently displayed
+     * @param imgs          Images to display instead, in any order
+     * @return True if the displayed images have been replaced; false if some of them couldn't be found
+     */
+    private boolean updateDisplayedImages(@NonNull List<ImageFile> displayedImgs, @NonNull List<ImageFile> imgs) {
+        LongSparseArray<ImageFile> imagesById = new LongSparseArray<>(imgs.size());
+        for (ImageFile img : imgs) imagesById.put(img.getId(), img);
+
+        List<ImageFile> result = new ArrayList<>(displayedImgs.size());
+        for (ImageFile displayed : displayedImgs) {
+            ImageFile img = imagesById.get(displayed.getId());
+            if (null == img) return false;
+            img.setDisplayOrder(displayed.getDisplayOrder());
+            result.add(img);
+        }
+        images.setValue(result);
+        return true;
+    }
+
+    /**
+     * Indicate if all the given images have a stored path inside the current folder of the given book
+     * NB : Stored paths are absolute; they become stale when the library root folder moves
+     *
+     * @param content Book the given images belong to
+     * @param imgs    Images to examine
+     * @return True if the given list isn't empty and all its images have a stored path inside the folder of the
+     * given book; false if not
+     */
+    private static boolean hasStoredPaths(@NonNull Content content, @NonNull List<ImageFile> imgs) {
+        if (imgs.isEmpty()) return false;
+        String bookFolderPath = ContentHelper.getContentDownloadDir(content).getAbsolutePath() + File.separator;
+        for (ImageFile img : imgs) {
+            String path = img.getAbsolutePath();
+            if (null == path || !path.startsWith(bookFolderPath)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check that the file of the given page still exists at its stored path
+     * If it doesn't, the files of the whole book are matched again and their paths are stored
+     * NB : Files are matched again once per loading of the book at most; displayed images are then updated through LiveData
+     *
+     * @param img Page to check
+     */
+    public void verifyPageFile(@NonNull ImageFile img) {
+        Content theContent = content.getValue();
+        if (null == theContent || theContent.getId() == pathsCheckedBookId) return;
+        String path = img.getAbsolutePath();
+        if (null == path || path.isEmpty()) return;
+
+        compositeDisposable.add(
+                Single.fromCallable(() -> new File(path).exists())
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                exists -> {
+                                    if (!exists && theContent.getId() != pathsCheckedBookId) {
+                                        pathsCheckedBookId = theContent.getId();
+                                        Timber.i("Page %s not found at %s; matching files again", img.getName(), path);
+                                        resolveImageFilePaths(theContent);
+                                    }
+                                },
+                                Timber::e
+                        )
+        );
+    }
+
+    private void resolveImageFilePaths(@NonNull Content theContent) {
+        if (sourceImages.isEmpty()) return;
+        // Work on copies, as the displayed images must only be modified on the UI thread
+        // NB : The stored paths are then published through LiveData (see setImages)
+        List<ImageFile> toUpdate = new ArrayList<>(sourceImages.size());
+        for (ImageFile img : sourceImages) {
+            ImageFile copy = new ImageFile().setName(img.getName());
+            copy.setId(img.getId());
+            copy.setAbsolutePath("");
+            toUpdate.add(copy);
+        }
+
+        compositeDisposable.add(
+                Completable.fromRunnable(() -> {
+                    File[] pictureFiles = ContentHelper.getPictureFilesFromContent(theContent);
+                    if (null == pictureFiles) return;
+                    ContentHelper.matchFilesToImageList(pictureFiles, toUpdate);
+                    collectionDao.updateImageFilePaths(toUpdate);
+                })
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                () -> { // Update is done through LiveData
+                                },
+                                Timber::e
+                        )
+        );
+    }
+
+    /**
+     * Store the paths of the given images, so that the next openings don't have to list the book folder
+     *
+     * @param imgs Images whose path to store
+     */
+    private void updateImageFilePaths(@NonNull List<ImageFile> imgs) {
+        compositeDisposable.add(
+                Completable.fromRunnable(() -> collectionDao.updateImageFilePaths(imgs))
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                () -> { // Update is done through LiveData
+                                },
+                                Timber::e
+                        )
+        );
+    }
+
     public void onShuffleClick() {
         isShuffled = !isShuffled;
         onShuffledChangeListener.accept(isShuffled);
@@ -209,6 +375,7 @@ public class ImageViewerViewModel extends AndroidViewModel {
         super.onCleared();
         searchDisposable.dispose();
         compositeDisposable.clear();
+        ContentJsonWriter.getInstance(getApplication()).flush();
     }
 
     public void onLeaveBook(int index, int highestImageIndexReached) {
@@ -294,9 +461,7 @@ public class ImageViewerViewModel extends AndroidViewModel {
             collectionDao.insertImageFile(img);
 
             // Persist in it JSON
-            Content theContent = img.content.getTarget();
-            if (!theContent.getJsonUri().isEmpty()) ContentHelper.updateJson(context, theContent);
-            else ContentHelper.createJson(theContent);
+            ContentJsonWriter.getInstance(context).scheduleWrite(img.content.getTarget());
 
             return img;
         } else
@@ -378,6 +543,10 @@ public class ImageViewerViewModel extends AndroidViewModel {
         currentContentIndex = contentIds.indexOf(theContent.getId());
         if (-1 == currentContentIndex) currentContentIndex = 0;
 
+        // Page paths are checked again each time a book is loaded
+        pathsCheckedBookId = -1;
+        sourceImages = Collections.emptyList();
+
         theContent.setFirst(0 == currentContentIndex);
         theContent.setLast(currentContentIndex >= contentIds.size() - 1);
         content.setValue(theContent);
@@ -389,38 +558,6 @@ public class ImageViewerViewModel extends AndroidViewModel {
         images.addSource(currentImageSource, imgs -> setImages(theContent, imgs));
     }
 
-    private static void matchFilesToImageList(File[] files, @Nonnull List<ImageFile> images) {
-        int i = 0;
-        while (i < images.size()) {
-            boolean matchFound = false;
-            for (File f : files) {
-                // Image and file name match => store absolute path
-                if (fileNamesMatch(images.get(i).getName(), f.getName())) {
-                    matchFound = true;
-                    images.get(i).setAbsolutePath(f.getAbsolutePath());
-                    break;
-                }
-            }
-            // Image is not among detected files => remove it
-            if (!matchFound) {
-                images.remove(i);
-            } else i++;
-        }
-    }
-
-    // Match when the names are exactly the same, or when their value is
-    private static boolean fileNamesMatch(@NonNull String name1, @NonNull String name2) {
-        name1 = FileHelper.getFileNameWithoutExtension(name1);
-        name2 = FileHelper.getFileNameWithoutExtension(name2);
-        if (name1.equalsIgnoreCase(name2)) return true;
-
-        try {
-            return (Integer.parseInt(name1) == Integer.parseInt(name2));
-        } catch (NumberFormatException e) {
-            return false;
-        }
-    }
-
     private List<ImageFile> filesToImageList(@NonNull File[] files) {
         List<ImageFile> result = new ArrayList<>();
         int order = 1;
@@ -15,22 +15,29 @@ import androidx.paging.PagedList;
 import com.annimon.stream.function.Consumer;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 import me.devsaki.hentoid.database.CollectionDAO;
 import me.devsaki.hentoid.database.ObjectBoxDAO;
 import me.devsaki.hentoid.database.domains.Attribute;
 import me.devsaki.hentoid.database.domains.Content;
 import me.devsaki.hentoid.enums.StatusContent;
+import me.devsaki.hentoid.services.ContentQueueManager;
+import me.devsaki.hentoid.util.Consts;
 import me.devsaki.hentoid.util.ContentHelper;
+import me.devsaki.hentoid.util.ContentJsonWriter;
 import me.devsaki.hentoid.util.FileHelper;
 import me.devsaki.hentoid.util.Preferences;
 import me.devsaki.hentoid.util.ZipUtil;
@@ -57,6 +64,16 @@ public class LibraryViewModel extends AndroidViewModel {
 
     // Updated whenever a new search is performed
     private MutableLiveData<Boolean> newSearch = new MutableLiveData<>();
+    // Current export; null if none is running
+    private Disposable exportDisposable = null;
+    // Percentage of the current export; null if no export is running
+    private final MutableLiveData<Integer> exportProgress = new MutableLiveData<>();
+    // Number of archives of the last successful export; null once the user has been notified
+    private final MutableLiveData<Integer> exportResult = new MutableLiveData<>();
+    // Error of the last failed export; null once the user has been notified
+    private final MutableLiveData<Throwable> exportError = new MutableLiveData<>();
+    // True when content has just been added to the download queue; reset once the user has been notified
+    private final MutableLiveData<Boolean> contentQueued = new MutableLiveData<>();
 
 
     public LibraryViewModel(@NonNull Application application) {
@@ -76,6 +93,7 @@ public class LibraryViewModel extends AndroidViewModel {
     protected void onCleared() {
         super.onCleared();
         compositeDisposable.clear();
+        ContentJsonWriter.getInstance(getApplication()).flush();
     }
 
     @NonNull
@@ -93,6 +111,26 @@ public class LibraryViewModel extends AndroidViewModel {
         return newSearch;
     }
 
+    @NonNull
+    public LiveData<Integer> getExportProgress() {
+        return exportProgress;
+    }
+
+    @NonNull
+    public LiveData<Integer> getExportResult() {
+        return exportResult;
+    }
+
+    @NonNull
+    public LiveData<Throwable> getExportError() {
+        return exportError;
+    }
+
+    @NonNull
+    public LiveData<Boolean> getContentQueued() {
+        return contentQueued;
+    }
+
     public Bundle getSearchManagerBundle() {
         Bundle bundle = new Bundle();
         searchManager.saveToBundle(bundle);
@@ -212,9 +250,7 @@ public class LibraryViewModel extends AndroidViewModel {
             theContent.setIsBeingFavourited(false);
 
             // Persist in it JSON
-            if (!theContent.getJsonUri().isEmpty())
-                ContentHelper.updateJson(getApplication(), theContent);
-            else ContentHelper.createJson(theContent);
+            ContentJsonWriter.getInstance(getApplication()).scheduleWrite(theContent);
 
             // Persist in it DB
             collectionDao.insertContent(theContent);
@@ -226,12 +262,35 @@ public class LibraryViewModel extends AndroidViewModel {
     }
 
     /**
-     * Add the given content to the download queue
+     * Add the given content to the download queue, and start the queue if it is set to autostart
+     * NB : The end of the operation is signalled through getContentQueued
      *
-     * @param content Content to be added to the download queue
+     * @param contents          Content to be added to the download queue
+     * @param targetImageStatus Status to set to the images of the given content; null to leave them as they are
+     */
+    public void addContentToQueue(@NonNull final List<Content> contents, StatusContent targetImageStatus) {
+        compositeDisposable.add(
+                Completable.fromRunnable(() -> collectionDao.addContentToQueue(contents, targetImageStatus))
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                this::onContentQueued,
+                                Timber::e
+                        )
+        );
+    }
+
+    private void onContentQueued() {
+        if (Preferences.isQueueAutostart())
+            ContentQueueManager.getInstance().resumeQueue(getApplication());
+        contentQueued.setValue(true);
+    }
+
+    /**
+     * Signal that the user has been notified of the addition of content to the download queue
      */
-    public void addContentToQueue(@NonNull final Content content, StatusContent targetImageStatus) {
-        collectionDao.addContentToQueue(content, targetImageStatus);
+    public void clearContentQueued() {
+        contentQueued.setValue(false);
     }
 
     /**
@@ -304,20 +363,8 @@ public class LibraryViewModel extends AndroidViewModel {
     public void archiveContent(@NonNull final Content content, Consumer<File> onSuccess) {
         Timber.d("Building file list for: %s", content.getTitle());
 
-        File dir = ContentHelper.getContentDownloadDir(content);
-
-        File[] files = dir.listFiles();
-        if (files != null && files.length > 0) {
-            Arrays.sort(files);
-            ArrayList<File> fileList = new ArrayList<>();
-            for (File file : files) {
-                String filename = file.getName();
-                if (filename.endsWith(".json") || filename.contains("thumb")) {
-                    break;
-                }
-                fileList.add(file);
-            }
-
+        List<File> fileList = getArchivableFiles(content);
+        if (!fileList.isEmpty()) {
             // Create folder to share from
             File sharedDir = new File(getApplication().getExternalCacheDir() + "/shared");
             if (FileHelper.createDirectory(sharedDir)) {
@@ -343,4 +390,124 @@ public class LibraryViewModel extends AndroidViewModel {
             );
         }
     }
+
+    /**
+     * Export the given Content as CBZ archives inside the Downloads folder
+     * NB : Archives are streamed straight to their destination, without any temp file;
+     * the progress and the outcome of the operation can be followed through getExportProgress,
+     * getExportResult and getExportError
+     *
+     * @param contents Content to be exported
+     * @return True if the export has started; false if another export is already running
+     */
+    public boolean exportContents(@NonNull final List<Content> contents) {
+        if (exportDisposable != null) return false;
+
+        exportProgress.setValue(0);
+        exportDisposable = Single.fromCallable(() -> doExportContents(contents))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        nbArchives -> {
+                            onExportEnded();
+                            exportResult.setValue(nbArchives);
+                        },
+                        t -> {
+                            onExportEnded();
+                            exportError.setValue(t);
+                        }
+                );
+        compositeDisposable.add(exportDisposable);
+        return true;
+    }
+
+    private void onExportEnded() {
+        compositeDisposable.delete(exportDisposable);
+        exportDisposable = null;
+        exportProgress.setValue(null);
+    }
+
+    /**
+     * Signal that the user has been notified of the outcome of the last export
+     */
+    public void clearExportOutcome() {
+        exportResult.setValue(null);
+        exportError.setValue(null);
+    }
+
+    /**
+     * Export the given Content as CBZ archives inside the Downloads folder
+     *
+     * @param contents Content to be exported
+     * @return Number of exported archives
+     * @throws IOException If anything goes wrong
+     */
+    @WorkerThread
+    private int doExportContents(@NonNull final List<Content> contents) throws IOException {
+        List<List<ZipUtil.Entry>> archives = new ArrayList<>();
+        List<String> archiveNames = new ArrayList<>();
+        List<Long> archiveSizes = new ArrayList<>();
+        long totalBytes = 0;
+        for (Content c : contents) {
+            List<File> files = getArchivableFiles(c);
+            if (files.isEmpty()) continue;
+            List<ZipUtil.Entry> entries = new ArrayList<>();
+            long size = 0;
+            for (File f : files) {
+                entries.add(new ZipUtil.Entry(f.getName(), f));
+                size += f.length();
+            }
+            archives.add(entries);
+            archiveNames.add(c.getTitle().replaceAll(AUTHORIZED_CHARS, "_") + ".cbz");
+            archiveSizes.add(size);
+            totalBytes += size;
+        }
+
+        final long total = Math.max(1, totalBytes);
+        final int[] lastPercent = {0};
+        long processedBytes = 0;
+        for (int i = 0; i < archives.size(); i++) {
+            final long offset = processedBytes;
+            File target = FileHelper.createNewDownloadFile(archiveNames.get(i));
+            try (OutputStream out = FileHelper.getOutputStream(target)) {
+                ZipUtil.zip(archives.get(i), out, (processed, archiveTotal) -> {
+                    int percent = (int) ((offset + processed) * 100 / total);
+                    if (percent != lastPercent[0]) {
+                        lastPercent[0] = percent;
+                        exportProgress.postValue(percent);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                // Don't leave a partial archive behind
+                FileHelper.removeFile(target);
+                throw e;
+            }
+            processedBytes += archiveSizes.get(i);
+        }
+        return archives.size();
+    }
+
+    /**
+     * Get the files of the given Content that belong in an archive (i.e. its pictures), in name order
+     * NB : Pictures that are still being downloaded are excluded
+     *
+     * @param content Content to get the files from
+     * @return Files of the given Content to be archived
+     */
+    private static List<File> getArchivableFiles(@NonNull final Content content) {
+        List<File> result = new ArrayList<>();
+        File[] files = ContentHelper.getContentDownloadDir(content).listFiles();
+        if (files != null && files.length > 0) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String filename = file.getName();
+                if (filename.endsWith(".json") || filename.contains("thumb")) {
+                    break;
+                }
+                if (filename.endsWith(Consts.DOWNLOAD_EXTENSION)) continue;
+                result.add(file);
+            }
+        }
+        return result;
+    }
 }
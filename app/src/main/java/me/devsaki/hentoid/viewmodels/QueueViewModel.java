@@ -11,8 +11,6 @@ import androidx.paging.PagedList;
 
 import org.greenrobot.eventbus.EventBus;
 
-import java.util.List;
-
 import io.reactivex.Completable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -82,28 +80,8 @@ public class QueueViewModel extends AndroidViewModel {
      * @param contentId ID of Content whose priority has to be raised
      */
     public void moveUp(long contentId) {
-        List<QueueRecord> queue = queueDao.selectQueue();
-
-        long prevItemId = 0;
-        int prevItemQueuePosition = -1;
-        int prevItemPosition = -1;
-        int loopPosition = 0;
-
-        for (QueueRecord p : queue) {
-            if (p.content.getTargetId() == contentId && prevItemId != 0) {
-                queueDao.updateQueue(p.content.getTargetId(), prevItemQueuePosition);
-                queueDao.updateQueue(prevItemId, p.rank);
-
-                if (0 == prevItemPosition)
-                    EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
-                break;
-            } else {
-                prevItemId = p.content.getTargetId();
-                prevItemQueuePosition = p.rank;
-                prevItemPosition = loopPosition;
-            }
-            loopPosition++;
-        }
+        int position = queueDao.moveQueue(contentId, -1);
+        if (1 == position) EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
     }
 
     /**
@@ -112,31 +90,9 @@ public class QueueViewModel extends AndroidViewModel {
      * @param contentId ID of Content whose priority has to be raised to the top
      */
     public void moveTop(long contentId) {
-        List<QueueRecord> queue = queueDao.selectQueue();
-        QueueRecord p;
-
-        long topItemId = 0;
-        int topItemQueuePosition = -1;
-
-        for (int i = 0; i < queue.size(); i++) {
-            p = queue.get(i);
-            if (0 == topItemId) {
-                topItemId = p.content.getTargetId();
-                topItemQueuePosition = p.rank;
-            }
-
-            if (p.content.getTargetId() == contentId) {
-                // Put selected item on top of list in the DB
-                queueDao.updateQueue(p.content.getTargetId(), topItemQueuePosition);
-
-                // Skip download for the 1st item of the adapter
-                EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
-
-                break;
-            } else {
-                queueDao.updateQueue(p.content.getTargetId(), p.rank + 1); // Depriorize every item by 1
-            }
-        }
+        int position = queueDao.moveQueue(contentId, Integer.MIN_VALUE);
+        // Skip download for the 1st item of the adapter
+        if (position > 0) EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
     }
 
     /**
@@ -145,28 +101,8 @@ public class QueueViewModel extends AndroidViewModel {
      * @param contentId ID of Content whose priority has to be lowered
      */
     public void moveDown(long contentId) {
-        List<QueueRecord> queue = queueDao.selectQueue();
-
-        long itemId = 0;
-        int itemQueuePosition = -1;
-        int itemPosition = -1;
-        int loopPosition = 0;
-
-        for (QueueRecord p : queue) {
-            if (p.content.getTargetId() == contentId) {
-                itemId = p.content.getTargetId();
-                itemQueuePosition = p.rank;
-                itemPosition = loopPosition;
-            } else if (itemId != 0) {
-                queueDao.updateQueue(p.content.getTargetId(), itemQueuePosition);
-                queueDao.updateQueue(itemId, p.rank);
-
-                if (0 == itemPosition)
-                    EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
-                break;
-            }
-            loopPosition++;
-        }
+        int position = queueDao.moveQueue(contentId, 1);
+        if (0 == position) EventBus.getDefault().post(new DownloadEvent(DownloadEvent.EV_SKIP));
     }
 
     /**
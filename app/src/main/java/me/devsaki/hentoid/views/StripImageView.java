@@ -0,0 +1,455 @@
+package me.devsaki.hentoid.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * View displaying a picture as a vertical strip, for the vertical (webtoon) mode of the viewer
+ * <p>
+ * The picture is scaled to the width of the view and split into horizontal bands that are decoded on demand
+ * from the source file, depending on the position of the view inside its scrolling parent :
+ * - Bands that are visible or about to be visible (ahead in the scroll direction) are decoded
+ * - Bands that scroll out of that window are released and their bitmaps reused to decode the next ones
+ * <p>
+ * That way, the memory used by the viewer doesn't depend on the height of the pictures nor on the length of the book.
+ */
+public class StripImageView extends View {
+
+    // Height of a band, in view pixels
+    private static final int BAND_HEIGHT = 512;
+    // Height of the area that is decoded ahead of the viewport in the scroll direction, in viewport heights
+    private static final float AHEAD_VIEWPORTS = 1.5f;
+    // Height of the area that is kept decoded behind the viewport, in viewport heights
+    private static final float BEHIND_VIEWPORTS = 0.5f;
+    // Maximum number of released bitmaps kept for reuse
+    private static final int MAX_POOLED_BITMAPS = 8;
+
+    // Bands of all instances are decoded by the same bounded pool to avoid memory spikes when flinging
+    private static final Scheduler bandScheduler = Schedulers.from(
+            Executors.newFixedThreadPool(2, r -> new Thread(r, "strip-band"))
+    );
+    // Bitmaps of released bands, reused to decode new bands (shared between all instances)
+    private static final Deque<Bitmap> bitmapPool = new ArrayDeque<>();
+
+    /**
+     * Listener notified when the picture can't be displayed
+     */
+    public interface OnImageLoadErrorListener {
+        void onImageLoadError(Throwable e);
+    }
+
+
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect dstRect = new Rect();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    private final ViewTreeObserver.OnScrollChangedListener scrollListener = this::refreshBands;
+
+    private OnImageLoadErrorListener onImageLoadErrorListener;
+
+    // Picture being displayed
+    private String path = null;
+    private BitmapRegionDecoder decoder = null;
+    private int sWidth = 0;
+    private int sHeight = 0;
+
+    // Sample size the bands are decoded with, according to the width of the view
+    private int sampleSize = 1;
+    // Decoded bands, by index (UI thread only)
+    private final SparseArray<Bitmap> bands = new SparseArray<>();
+    // Bands being decoded, by index (UI thread only)
+    private final SparseArray<Disposable> pendingBands = new SparseArray<>();
+
+    private int lastViewportTop = Integer.MIN_VALUE;
+    private boolean isScrollingDown = true;
+
+
+    public StripImageView(@NonNull Context context) {
+        super(context);
+    }
+
+    public StripImageView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public StripImageView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+
+    public void setOnImageLoadErrorListener(OnImageLoadErrorListener onImageLoadErrorListener) {
+        this.onImageLoadErrorListener = onImageLoadErrorListener;
+    }
+
+    /**
+     * Display the picture located at the given path
+     *
+     * @param path Path of the picture to display (file path or content:// URI)
+     */
+    public void setImage(@NonNull String path) {
+        recycle();
+        this.path = path;
+        disposables.add(
+                Single.fromCallable(() -> openDecoder(getContext(), path))
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(
+                                this::onDecoderReady,
+                                this::onError
+                        )
+        );
+    }
+
+    /**
+     * Release all resources held by the view
+     */
+    public void recycle() {
+        disposables.clear();
+        pendingBands.clear();
+        releaseBands();
+        if (decoder != null) {
+            // Recycling waits for running decodes to complete => don't do it on the UI thread
+            BitmapRegionDecoder oldDecoder = decoder;
+            Completable.fromAction(() -> recycleDecoder(oldDecoder))
+                    .subscribeOn(bandScheduler)
+                    .subscribe(
+                            () -> {
+                            },
+                            Timber::w
+                    );
+            decoder = null;
+        }
+        path = null;
+        sWidth = 0;
+        sHeight = 0;
+        lastViewportTop = Integer.MIN_VALUE;
+    }
+
+    @WorkerThread
+    private static BitmapRegionDecoder openDecoder(@NonNull Context context, @NonNull String path) throws IOException {
+        if (path.startsWith("content://")) {
+            try (InputStream input = context.getContentResolver().openInputStream(Uri.parse(path))) {
+                if (null == input) throw new IOException("Cannot open " + path);
+                return BitmapRegionDecoder.newInstance(input, false);
+            }
+        }
+        return BitmapRegionDecoder.newInstance(path, false);
+    }
+
+    private void onDecoderReady(@NonNull BitmapRegionDecoder decoder) {
+        this.decoder = decoder;
+        sWidth = decoder.getWidth();
+        sHeight = decoder.getHeight();
+        computeSampleSize();
+        requestLayout();
+        refreshBands();
+    }
+
+    private void onError(Throwable t) {
+        Timber.w(t, "Strip %s could not be loaded", path);
+        if (onImageLoadErrorListener != null) onImageLoadErrorListener.onImageLoadError(t);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int height;
+        if (sWidth > 0 && sHeight > 0)
+            height = Math.round(width * (float) sHeight / sWidth) + getPaddingTop() + getPaddingBottom();
+        else height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w != oldw) {
+            // Bands depend on the width of the view
+            disposeAll(pendingBands);
+            releaseBands();
+            computeSampleSize();
+        }
+        refreshBands();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(scrollListener);
+        refreshBands();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(scrollListener);
+        disposeAll(pendingBands);
+        releaseBands();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        for (int i = 0; i < bands.size(); i++) {
+            getBandRect(bands.keyAt(i), dstRect);
+            dstRect.offset(0, getPaddingTop());
+            canvas.drawBitmap(bands.valueAt(i), null, dstRect, bitmapPaint);
+        }
+    }
+
+    private int getContentWidth() {
+        return getWidth();
+    }
+
+    private int getContentHeight() {
+        return getHeight() - getPaddingTop() - getPaddingBottom();
+    }
+
+    private int getBandCount() {
+        int contentHeight = getContentHeight();
+        return (contentHeight <= 0) ? 0 : (contentHeight + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    }
+
+    /**
+     * Compute the area of the given band, in content coordinates
+     */
+    private void getBandRect(int index, @NonNull Rect target) {
+        target.set(0, index * BAND_HEIGHT, getContentWidth(), Math.min((index + 1) * BAND_HEIGHT, getContentHeight()));
+    }
+
+    /**
+     * Compute the largest power-of-2 sample size that keeps decoded bands at least as wide as the view
+     */
+    private void computeSampleSize() {
+        int width = getContentWidth();
+        sampleSize = 1;
+        if (width <= 0 || sWidth <= 0) return;
+        while (sWidth / (sampleSize * 2) >= width) sampleSize *= 2;
+    }
+
+    /**
+     * Decode the bands that are visible or about to be, and release the others
+     */
+    private void refreshBands() {
+        if (null == decoder || getWidth() <= 0 || getContentHeight() <= 0) return;
+        ViewParent parent = getParent();
+        if (!(parent instanceof View)) return;
+
+        // Viewport of the scrolling parent, in content coordinates
+        int viewportHeight = ((View) parent).getHeight();
+        int viewportTop = -getTop() - getPaddingTop();
+        if (lastViewportTop != Integer.MIN_VALUE && viewportTop != lastViewportTop)
+            isScrollingDown = viewportTop > lastViewportTop;
+        lastViewportTop = viewportTop;
+
+        int ahead = (int) (viewportHeight * AHEAD_VIEWPORTS);
+        int behind = (int) (viewportHeight * BEHIND_VIEWPORTS);
+        int windowTop = viewportTop - (isScrollingDown ? behind : ahead);
+        int windowBottom = viewportTop + viewportHeight + (isScrollingDown ? ahead : behind);
+
+        int bandCount = getBandCount();
+        int firstBand = Math.max(0, windowTop / BAND_HEIGHT);
+        int lastBand = Math.min(bandCount - 1, windowBottom / BAND_HEIGHT);
+        if (windowBottom < 0 || windowTop >= getContentHeight()) { // Window doesn't intersect the view
+            firstBand = 0;
+            lastBand = -1;
+        }
+
+        // Release the bands that have left the window
+        boolean released = false;
+        for (int i = bands.size() - 1; i >= 0; i--) {
+            int index = bands.keyAt(i);
+            if (index < firstBand || index > lastBand) {
+                recycleBitmap(bands.valueAt(i));
+                bands.removeAt(i);
+                released = true;
+            }
+        }
+        for (int i = pendingBands.size() - 1; i >= 0; i--) {
+            int index = pendingBands.keyAt(i);
+            if (index < firstBand || index > lastBand) {
+                disposables.remove(pendingBands.valueAt(i)); // Disposes it as well
+                pendingBands.removeAt(i);
+            }
+        }
+        if (released) invalidate();
+
+        // Decode visible bands first, then the ones ahead in the scroll direction, then the ones behind
+        int firstVisible = Math.max(firstBand, Math.max(0, viewportTop) / BAND_HEIGHT);
+        int lastVisible = Math.min(lastBand, Math.max(0, viewportTop + viewportHeight) / BAND_HEIGHT);
+        List<Integer> toDecode = new ArrayList<>();
+        if (isScrollingDown) {
+            for (int i = firstVisible; i <= lastBand; i++) toDecode.add(i);
+            for (int i = firstVisible - 1; i >= firstBand; i--) toDecode.add(i);
+        } else {
+            for (int i = lastVisible; i >= firstBand; i--) toDecode.add(i);
+            for (int i = lastVisible + 1; i <= lastBand; i++) toDecode.add(i);
+        }
+        for (int index : toDecode)
+            if (bands.get(index) == null && pendingBands.get(index) == null) decodeBand(index);
+    }
+
+    private void decodeBand(int index) {
+        Rect viewRect = new Rect();
+        getBandRect(index, viewRect);
+        float ratio = sWidth / (float) getContentWidth();
+        Rect sRect = new Rect(
+                0,
+                Math.round(viewRect.top * ratio),
+                sWidth,
+                (index == getBandCount() - 1) ? sHeight : Math.min(sHeight, Math.round(viewRect.bottom * ratio))
+        );
+        if (sRect.height() <= 0) return;
+
+        BitmapRegionDecoder targetDecoder = decoder;
+        int targetSampleSize = sampleSize;
+        Disposable task = Maybe.fromCallable(() -> decodeRegion(targetDecoder, sRect, targetSampleSize))
+                .subscribeOn(bandScheduler)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(
+                        bitmap -> onBandDecoded(index, targetDecoder, bitmap),
+                        t -> {
+                            pendingBands.remove(index);
+                            if (targetDecoder == decoder) Timber.w(t, "Band %s of %s could not be decoded", index, path);
+                        },
+                        () -> { // Decoder has been recycled in the meantime
+                            if (targetDecoder == decoder) pendingBands.remove(index);
+                        }
+                );
+        pendingBands.put(index, task);
+        disposables.add(task);
+    }
+
+    /**
+     * Decode the given region of the picture
+     * NB : Locks the decoder so that it isn't recycled while decoding
+     *
+     * @return Decoded region; null if the decoder has already been recycled
+     */
+    @Nullable
+    @WorkerThread
+    private static Bitmap decodeRegion(@NonNull BitmapRegionDecoder decoder, @NonNull Rect sRect, int sampleSize) {
+        synchronized (decoder) {
+            if (decoder.isRecycled()) return null;
+            return doDecodeRegion(decoder, sRect, sampleSize);
+        }
+    }
+
+    private static Bitmap doDecodeRegion(@NonNull BitmapRegionDecoder decoder, @NonNull Rect sRect, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        int width = (sRect.width() + sampleSize - 1) / sampleSize;
+        int height = (sRect.height() + sampleSize - 1) / sampleSize;
+        options.inBitmap = obtainBitmap(width, height);
+
+        Bitmap result;
+        try {
+            result = decoder.decodeRegion(sRect, options);
+        } catch (IllegalArgumentException e) {
+            // Pooled bitmap can't be reused for that region => decode without it
+            if (options.inBitmap != null) recycleBitmap(options.inBitmap);
+            options.inBitmap = null;
+            result = decoder.decodeRegion(sRect, options);
+        }
+        if (null == result) throw new IllegalStateException("Region could not be decoded");
+        return result;
+    }
+
+    @WorkerThread
+    private static void recycleDecoder(@NonNull BitmapRegionDecoder decoder) {
+        synchronized (decoder) {
+            decoder.recycle();
+        }
+    }
+
+    private void onBandDecoded(int index, @NonNull BitmapRegionDecoder sourceDecoder, @NonNull Bitmap bitmap) {
+        Disposable task = pendingBands.get(index);
+        pendingBands.remove(index);
+        if (sourceDecoder != decoder || null == task) { // Band isn't wanted anymore
+            recycleBitmap(bitmap);
+            return;
+        }
+        disposables.delete(task);
+        bands.put(index, bitmap);
+        invalidate();
+    }
+
+    private void releaseBands() {
+        for (int i = 0; i < bands.size(); i++) recycleBitmap(bands.valueAt(i));
+        bands.clear();
+    }
+
+    private void disposeAll(@NonNull SparseArray<Disposable> tasks) {
+        for (int i = 0; i < tasks.size(); i++) disposables.remove(tasks.valueAt(i));
+        tasks.clear();
+    }
+
+    /**
+     * Get a pooled bitmap with the given dimensions
+     * NB : Dimensions have to match exactly as BitmapRegionDecoder doesn't resize reused bitmaps on all versions of Android
+     *
+     * @return Pooled bitmap; null if none has the given dimensions
+     */
+    @Nullable
+    private static Bitmap obtainBitmap(int width, int height) {
+        synchronized (bitmapPool) {
+            Iterator<Bitmap> iterator = bitmapPool.iterator();
+            while (iterator.hasNext()) {
+                Bitmap b = iterator.next();
+                if (b.getWidth() == width && b.getHeight() == height) {
+                    iterator.remove();
+                    return b;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give the given bitmap back to the pool, or free it if the pool is full
+     */
+    private static void recycleBitmap(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled()) return;
+        synchronized (bitmapPool) {
+            if (bitmap.isMutable() && bitmapPool.size() < MAX_POOLED_BITMAPS) {
+                bitmapPool.push(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+}
@@ -16,6 +16,7 @@ import me.devsaki.hentoid.activities.bundles.SearchActivityBundle;
 import me.devsaki.hentoid.database.CollectionDAO;
 import me.devsaki.hentoid.database.domains.Attribute;
 import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.util.OrderedIdList;
 import me.devsaki.hentoid.util.Preferences;
 
 public class ContentSearchManager {
@@ -112,7 +113,7 @@ public class ContentSearchManager {
             return collectionDAO.getRecentBooks(contentSortOrder, filterFavourites, loadAll); // Default search (display recent)
     }
 
-    public Single<List<Long>> searchLibraryForId() {
+    public Single<OrderedIdList> searchLibraryForId() {
         if (!getQuery().isEmpty())
             return collectionDAO.searchBookIdsUniversal(getQuery(), contentSortOrder, filterFavourites); // Universal search
         else if (!tags.isEmpty())
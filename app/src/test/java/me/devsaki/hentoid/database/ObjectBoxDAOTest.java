@@ -0,0 +1,115 @@
+package me.devsaki.hentoid.database;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import me.devsaki.hentoid.database.domains.Content;
+import me.devsaki.hentoid.database.domains.QueueRecord;
+import me.devsaki.hentoid.enums.Site;
+import me.devsaki.hentoid.enums.StatusContent;
+import me.devsaki.hentoid.mocks.AbstractObjectBoxTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectBoxDAOTest extends AbstractObjectBoxTest {
+
+    private static ObjectBoxDAO dao;
+
+    @BeforeClass
+    public static void prepareDB() {
+        dao = new ObjectBoxDAO(store);
+        // Same URLs on different sites, with different statuses
+        insert(Site.HITOMI, "/galleries/1234.html", StatusContent.DOWNLOADED);
+        insert(Site.NHENTAI, "/galleries/1234.html", StatusContent.ERROR);
+        insert(Site.HITOMI, "/galleries/5678.html", StatusContent.PAUSED);
+        insert(Site.NHENTAI, "/g/5678/", StatusContent.DOWNLOADING);
+        // URLs that only differ by their case
+        insert(Site.EHENTAI, "/g/12/AbCd/", StatusContent.DOWNLOADED);
+        insert(Site.EHENTAI, "/g/12/abcd/", StatusContent.SAVED);
+    }
+
+    private static void insert(Site site, String url, StatusContent status) {
+        dao.insertContent(new Content().setTitle("").setSite(site).setUrl(url).setStatus(status));
+    }
+
+    @Test
+    public void selectContentStatusesBySourceAndUrls() {
+        Map<String, StatusContent> statuses = dao.selectContentStatusesBySourceAndUrls(Site.HITOMI,
+                Arrays.asList("/galleries/1234.html", "/galleries/5678.html", "/g/5678/", "/galleries/9999.html"));
+        assertEquals(2, statuses.size());
+        assertEquals(StatusContent.DOWNLOADED, statuses.get("/galleries/1234.html"));
+        assertEquals(StatusContent.PAUSED, statuses.get("/galleries/5678.html"));
+
+        statuses = dao.selectContentStatusesBySourceAndUrls(Site.NHENTAI,
+                Arrays.asList("/galleries/1234.html", "/galleries/5678.html", "/g/5678/"));
+        assertEquals(2, statuses.size());
+        assertEquals(StatusContent.ERROR, statuses.get("/galleries/1234.html"));
+        assertEquals(StatusContent.DOWNLOADING, statuses.get("/g/5678/"));
+
+        // Site without any book
+        assertTrue(dao.selectContentStatusesBySourceAndUrls(Site.PURURIN, Collections.singletonList("/galleries/1234.html")).isEmpty());
+        assertTrue(dao.selectContentStatusesBySourceAndUrls(Site.HITOMI, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void selectContentStatusesCaseSensitive() {
+        Map<String, StatusContent> statuses = dao.selectContentStatusesBySourceAndUrls(Site.EHENTAI,
+                Arrays.asList("/g/12/AbCd/", "/g/12/abcd/", "/g/12/ABCD/"));
+        assertEquals(2, statuses.size());
+        assertEquals(StatusContent.DOWNLOADED, statuses.get("/g/12/AbCd/"));
+        assertEquals(StatusContent.SAVED, statuses.get("/g/12/abcd/"));
+        assertNull(statuses.get("/g/12/ABCD/"));
+    }
+
+    @Test
+    public void selectContentBySourceAndUrl() {
+        Content content = dao.selectContentBySourceAndUrl(Site.NHENTAI, "/galleries/1234.html");
+        assertEquals(StatusContent.ERROR, content.getStatus());
+        content = dao.selectContentBySourceAndUrl(Site.EHENTAI, "/g/12/abcd/");
+        assertEquals(StatusContent.SAVED, content.getStatus());
+        assertNull(dao.selectContentBySourceAndUrl(Site.EHENTAI, "/g/12/ABCD/"));
+    }
+
+    @Test
+    public void reorderAndMoveQueue() {
+        List<Content> contents = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            contents.add(new Content().setTitle("").setSite(Site.TSUMINO).setUrl("/entry/" + i));
+        dao.addContentToQueue(contents, null);
+        long id0 = contents.get(0).getId();
+        long id1 = contents.get(1).getId();
+        long id2 = contents.get(2).getId();
+        long id3 = contents.get(3).getId();
+
+        // Queued Content that isn't in the list keeps its relative order, after the given ones
+        dao.reorderQueue(Arrays.asList(id2, id0));
+        assertQueue(id2, id0, id1, id3);
+
+        assertEquals(1, dao.moveQueue(id0, Integer.MIN_VALUE));
+        assertQueue(id0, id2, id1, id3);
+        assertEquals(2, dao.moveQueue(id1, 5));
+        assertQueue(id0, id2, id3, id1);
+        assertEquals(1, dao.moveQueue(id2, 1));
+        assertQueue(id0, id3, id2, id1);
+        // Moves that don't change anything
+        assertEquals(-1, dao.moveQueue(id0, -1));
+        assertEquals(-1, dao.moveQueue(id1, 1));
+        assertEquals(-1, dao.moveQueue(-1, 1));
+        assertQueue(id0, id3, id2, id1);
+    }
+
+    private static void assertQueue(long... expectedIds) {
+        List<QueueRecord> queue = dao.selectQueue();
+        assertEquals(expectedIds.length, queue.size());
+        for (int i = 0; i < expectedIds.length; i++)
+            assertEquals(expectedIds[i], queue.get(i).content.getTargetId());
+    }
+}
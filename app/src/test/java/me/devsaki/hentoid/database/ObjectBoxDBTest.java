@@ -0,0 +1,96 @@
+package me.devsaki.hentoid.database;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectBoxDBTest {
+
+    private static final int GAP = 1000;
+
+    @Test
+    public void computeQueueRanksUnchanged() {
+        assertArrayEquals(new int[0], ObjectBoxDB.computeQueueRanks(new int[0], GAP));
+        assertArrayEquals(new int[]{7}, ObjectBoxDB.computeQueueRanks(new int[]{7}, GAP));
+        assertArrayEquals(new int[]{-5, 10, 2000}, ObjectBoxDB.computeQueueRanks(new int[]{-5, 10, 2000}, GAP));
+    }
+
+    @Test
+    public void computeQueueRanksMoves() {
+        // Move up : only the moved record gets a new rank, between those of its new neighbours
+        assertArrayEquals(new int[]{1000, 1500, 2000, 4000}, ObjectBoxDB.computeQueueRanks(new int[]{1000, 3000, 2000, 4000}, GAP));
+        // Move to the top
+        assertArrayEquals(new int[]{0, 1000, 2000, 3000}, ObjectBoxDB.computeQueueRanks(new int[]{4000, 1000, 2000, 3000}, GAP));
+        // Move to the bottom
+        assertArrayEquals(new int[]{2000, 3000, 4000, 5000}, ObjectBoxDB.computeQueueRanks(new int[]{2000, 3000, 4000, 1000}, GAP));
+        // Several records moved together are spread evenly
+        assertArrayEquals(new int[]{1000, 1333, 1666, 2000, 5000}, ObjectBoxDB.computeQueueRanks(new int[]{1000, 4000, 3000, 2000, 5000}, GAP));
+        // Records that are already in order keep their rank
+        assertArrayEquals(new int[]{1000, 4000, 5000, 6000, 7000}, ObjectBoxDB.computeQueueRanks(new int[]{1000, 4000, 5000, 3000, 2000}, GAP));
+        // No room left between neighbours => the whole queue is renumbered
+        assertArrayEquals(new int[]{1000, 2000, 3000}, ObjectBoxDB.computeQueueRanks(new int[]{1, 3, 2}, GAP));
+    }
+
+    @Test
+    public void computeQueueRanksDuplicates() {
+        assertArrayEquals(new int[]{-15, -5, 5}, ObjectBoxDB.computeQueueRanks(new int[]{5, 5, 5}, 10));
+        assertArrayEquals(new int[]{0, 1000, 2000}, ObjectBoxDB.computeQueueRanks(new int[]{1000, 1000, 2000}, GAP));
+        assertArrayEquals(new int[]{-999, 1, 2}, ObjectBoxDB.computeQueueRanks(new int[]{1, 1, 2}, GAP));
+        // Duplicates with no room between their neighbours
+        assertArrayEquals(new int[]{1000, 2000, 3000, 4000}, ObjectBoxDB.computeQueueRanks(new int[]{1, 2, 2, 3}, GAP));
+    }
+
+    @Test
+    public void computeQueueRanksBounds() {
+        // Moved to the bottom, next to Integer.MAX_VALUE : the gap shrinks to fit
+        assertArrayEquals(new int[]{2, Integer.MAX_VALUE - 100, Integer.MAX_VALUE - 50},
+                ObjectBoxDB.computeQueueRanks(new int[]{2, Integer.MAX_VALUE - 100, 1}, GAP));
+        // Moved to the top, next to Integer.MIN_VALUE
+        assertArrayEquals(new int[]{Integer.MIN_VALUE + 49, Integer.MIN_VALUE + 100, 10},
+                ObjectBoxDB.computeQueueRanks(new int[]{20, Integer.MIN_VALUE + 100, 10}, GAP));
+
+        // No room left before Integer.MIN_VALUE / after Integer.MAX_VALUE => the whole queue is renumbered
+        assertArrayEquals(new int[]{1000, 2000, 3000}, ObjectBoxDB.computeQueueRanks(new int[]{20, Integer.MIN_VALUE, 10}, GAP));
+        assertArrayEquals(new int[]{1000, 2000, 3000}, ObjectBoxDB.computeQueueRanks(new int[]{2, Integer.MAX_VALUE, 1}, GAP));
+        // Renumbering reduces the gap so that the whole queue fits
+        int[] ranks = ObjectBoxDB.computeQueueRanks(new int[]{2, Integer.MAX_VALUE, 1}, Integer.MAX_VALUE / 2);
+        assertIncreasing(ranks);
+    }
+
+    @Test
+    public void computeQueueRanksRandomMoves() {
+        Random random = new Random(42);
+        int[] ranks = new int[50];
+        for (int i = 0; i < ranks.length; i++) ranks[i] = GAP * (i + 1);
+
+        for (int move = 0; move < 10000; move++) {
+            int from = random.nextInt(ranks.length);
+            int to = random.nextInt(ranks.length);
+            int[] moved = new int[ranks.length];
+            int index = 0;
+            for (int i = 0; i < ranks.length; i++) {
+                if (i == to && to <= from) moved[index++] = ranks[from];
+                if (i != from) moved[index++] = ranks[i];
+                if (i == to && to > from) moved[index++] = ranks[from];
+            }
+            int[] result = ObjectBoxDB.computeQueueRanks(moved, GAP);
+            assertIncreasing(result);
+
+            // A single move rewrites one rank at most, unless the queue has been renumbered
+            int changes = 0;
+            for (int i = 0; i < result.length; i++) if (result[i] != moved[i]) changes++;
+            boolean renumbered = result[0] == GAP && result[result.length - 1] == GAP * result.length;
+            assertTrue(changes <= 1 || renumbered);
+            ranks = result;
+        }
+        assertEquals(50, ranks.length);
+    }
+
+    private static void assertIncreasing(int[] ranks) {
+        for (int i = 1; i < ranks.length; i++) assertTrue(ranks[i - 1] < ranks[i]);
+    }
+}
@@ -0,0 +1,133 @@
+package me.devsaki.hentoid.services;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadConcurrencyControllerTest {
+
+    private static final String HOST = "i.host.com";
+    private static final String OTHER_HOST = "cdn.other.com";
+    private static final long MB = 1024L * 1024;
+
+    private final Map<String, Integer> reportedLimits = new HashMap<>();
+    private long now = 10_000;
+
+    private DownloadConcurrencyController create(boolean adaptive, int initialLimit, int maxLimit, int memoryClass) {
+        return new DownloadConcurrencyController(adaptive, initialLimit, maxLimit, memoryClass, reportedLimits::put, () -> now);
+    }
+
+    @Test
+    public void initialLimit() {
+        DownloadConcurrencyController controller = create(true, 2, 8, 256);
+        assertEquals(2, controller.getHostLimit(HOST));
+        assertEquals(2, (int) reportedLimits.get(HOST));
+
+        // Initial limit is bounded by the maximum limit
+        controller = create(true, 20, 8, 256);
+        assertEquals(8, controller.getHostLimit(HOST));
+    }
+
+    @Test
+    public void additiveIncrease() {
+        DownloadConcurrencyController controller = create(true, 2, 4, 256);
+
+        // A whole window of successes (= the current limit) increases the limit by 1
+        controller.onSuccess(HOST, 100, MB);
+        assertEquals(2, controller.getHostLimit(HOST));
+        controller.onSuccess(HOST, 100, MB);
+        assertEquals(3, controller.getHostLimit(HOST));
+        assertEquals(3, (int) reportedLimits.get(HOST));
+
+        for (int i = 0; i < 3; i++) controller.onSuccess(HOST, 100, MB);
+        assertEquals(4, controller.getHostLimit(HOST));
+
+        // Maximum limit is never exceeded
+        for (int i = 0; i < 20; i++) controller.onSuccess(HOST, 100, MB);
+        assertEquals(4, controller.getHostLimit(HOST));
+
+        // Hosts are independent
+        assertEquals(2, controller.getHostLimit(OTHER_HOST));
+    }
+
+    @Test
+    public void noIncreaseWhenSaturated() {
+        DownloadConcurrencyController controller = create(true, 2, 8, 256);
+        controller.onSuccess(HOST, 100, MB);
+        controller.onSuccess(HOST, 100, MB);
+        assertEquals(3, controller.getHostLimit(HOST));
+
+        // Each download gets much slower than the best observed one => the limit stops growing
+        for (int i = 0; i < 20; i++) controller.onSuccess(HOST, 1000, MB);
+        assertEquals(3, controller.getHostLimit(HOST));
+    }
+
+    @Test
+    public void multiplicativeDecrease() {
+        DownloadConcurrencyController controller = create(true, 8, 8, 256);
+
+        controller.onThrottled(HOST);
+        assertEquals(4, controller.getHostLimit(HOST));
+        assertEquals(4, (int) reportedLimits.get(HOST));
+
+        // Downloads sent under the previous limit don't decrease it again
+        now += 500;
+        controller.onThrottled(HOST);
+        assertEquals(4, controller.getHostLimit(HOST));
+
+        now += 1000;
+        controller.onThrottled(HOST);
+        assertEquals(2, controller.getHostLimit(HOST));
+        now += 1000;
+        controller.onThrottled(HOST);
+        assertEquals(1, controller.getHostLimit(HOST));
+
+        // Limit never goes below 1
+        now += 1000;
+        controller.onThrottled(HOST);
+        assertEquals(1, controller.getHostLimit(HOST));
+
+        // Backoff resets the current window of successes
+        now += 1000;
+        controller = create(true, 4, 8, 256);
+        controller.onSuccess(HOST, 100, MB);
+        controller.onSuccess(HOST, 100, MB);
+        controller.onThrottled(HOST);
+        assertEquals(2, controller.getHostLimit(HOST));
+        controller.onSuccess(HOST, 100, MB);
+        assertEquals(2, controller.getHostLimit(HOST));
+        controller.onSuccess(HOST, 100, MB);
+        assertEquals(3, controller.getHostLimit(HOST));
+    }
+
+    @Test
+    public void memoryCap() {
+        // Memory class of 8 MB => 2 MB for downloaded pictures
+        DownloadConcurrencyController controller = create(true, 2, 16, 8);
+        // Expected size of a picture is 1 MB until one has been downloaded
+        assertEquals(2, controller.getGlobalLimit());
+
+        // Large pictures lower the global limit, down to 1
+        for (int i = 0; i < 30; i++) controller.onSuccess(HOST, 100, 4 * MB);
+        assertEquals(1, controller.getGlobalLimit());
+
+        // Small pictures raise it, up to the maximum limit
+        for (int i = 0; i < 60; i++) controller.onSuccess(HOST, 10, 32 * 1024);
+        assertEquals(16, controller.getGlobalLimit());
+    }
+
+    @Test
+    public void nonAdaptive() {
+        DownloadConcurrencyController controller = create(false, 3, 8, 8);
+        for (int i = 0; i < 20; i++) controller.onSuccess(HOST, 100, 4 * MB);
+        assertEquals(3, controller.getHostLimit(HOST));
+        controller.onThrottled(HOST);
+        assertEquals(3, controller.getHostLimit(HOST));
+        assertEquals(8, controller.getGlobalLimit());
+        assertTrue(reportedLimits.containsKey(HOST));
+    }
+}
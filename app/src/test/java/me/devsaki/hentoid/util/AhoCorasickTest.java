@@ -0,0 +1,54 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void matches() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("ads.js", "/banner/", "popunder"));
+        assertTrue(matcher.matches("https://host.com/static/ads.js"));
+        assertTrue(matcher.matches("https://host.com/banner/1.png"));
+        assertTrue(matcher.matches("popunder"));
+        assertFalse(matcher.matches("https://host.com/static/app.js"));
+        assertFalse(matcher.matches("https://host.com/banners.png"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void overlappingPatterns() {
+        // Failure links have to resume the search in the middle of a partial match
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("abcd", "bce"));
+        assertTrue(matcher.matches("xabce"));
+        assertFalse(matcher.matches("xabcx"));
+
+        // A pattern contained in another one is found as well
+        matcher = new AhoCorasick(Arrays.asList("hentai", "tai"));
+        assertTrue(matcher.matches("xhentxtaix"));
+        assertTrue(matcher.matches("hentax tai"));
+
+        matcher = new AhoCorasick(Arrays.asList("aab", "ab"));
+        assertTrue(matcher.matches("aaab"));
+    }
+
+    @Test
+    public void caseSensitive() {
+        AhoCorasick matcher = new AhoCorasick(Collections.singletonList("Ads"));
+        assertTrue(matcher.matches("/Ads/"));
+        assertFalse(matcher.matches("/ads/"));
+    }
+
+    @Test
+    public void empty() {
+        AhoCorasick matcher = new AhoCorasick(Collections.emptyList());
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("anything"));
+        assertFalse(new AhoCorasick(Collections.singletonList("a")).isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.devsaki.hentoid.database.domains.ImageFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentHelperTest {
+
+    private static final File DIR = new File("/book");
+
+    @Test
+    public void parseFileNumber() {
+        assertEquals(1, (int) ContentHelper.parseFileNumber("001"));
+        assertEquals(0, (int) ContentHelper.parseFileNumber("0000"));
+        assertEquals(-5, (int) ContentHelper.parseFileNumber("-5"));
+        assertEquals(7, (int) ContentHelper.parseFileNumber("+7"));
+        assertEquals(Integer.MAX_VALUE, (int) ContentHelper.parseFileNumber("2147483647"));
+        assertEquals(Integer.MIN_VALUE, (int) ContentHelper.parseFileNumber("-2147483648"));
+
+        // Non-numeric names
+        assertNull(ContentHelper.parseFileNumber(""));
+        assertNull(ContentHelper.parseFileNumber("-"));
+        assertNull(ContentHelper.parseFileNumber("+"));
+        assertNull(ContentHelper.parseFileNumber("cover"));
+        assertNull(ContentHelper.parseFileNumber("1a"));
+        assertNull(ContentHelper.parseFileNumber("a1"));
+        assertNull(ContentHelper.parseFileNumber("1.5"));
+        assertNull(ContentHelper.parseFileNumber(" 1"));
+        assertNull(ContentHelper.parseFileNumber("--1"));
+        // Out of the range of int
+        assertNull(ContentHelper.parseFileNumber("2147483648"));
+        assertNull(ContentHelper.parseFileNumber("-2147483649"));
+        assertNull(ContentHelper.parseFileNumber("99999999999999999999"));
+    }
+
+    @Test
+    public void matchFilesToImageListByNumber() {
+        File[] files = files("001.jpg", "002.jpg", "004.png", "010.webp");
+        List<ImageFile> images = images("1", "2", "3", "4", "5", "10");
+
+        List<ImageFile> result = ContentHelper.matchFilesToImageList(files, images);
+
+        // Numbering gaps : images without any file are left out, the others keep their order
+        assertEquals(4, result.size());
+        assertEquals("1", result.get(0).getName());
+        assertEquals(new File(DIR, "001.jpg").getAbsolutePath(), result.get(0).getAbsolutePath());
+        assertEquals(new File(DIR, "002.jpg").getAbsolutePath(), result.get(1).getAbsolutePath());
+        assertEquals("4", result.get(2).getName());
+        assertEquals(new File(DIR, "004.png").getAbsolutePath(), result.get(2).getAbsolutePath());
+        assertEquals(new File(DIR, "010.webp").getAbsolutePath(), result.get(3).getAbsolutePath());
+        assertNull(images.get(2).getAbsolutePath());
+    }
+
+    @Test
+    public void matchFilesToImageListByName() {
+        File[] files = files("Cover.jpg", "page_a.jpg", "page_b.png", "1.jpg");
+        List<ImageFile> images = images("cover", "PAGE_B", "page_c", "0001", "page_a.png");
+
+        List<ImageFile> result = ContentHelper.matchFilesToImageList(files, images);
+
+        // Names match case-insensitively and regardless of their extension
+        assertEquals(4, result.size());
+        assertEquals(new File(DIR, "Cover.jpg").getAbsolutePath(), result.get(0).getAbsolutePath());
+        assertEquals(new File(DIR, "page_b.png").getAbsolutePath(), result.get(1).getAbsolutePath());
+        assertEquals(new File(DIR, "1.jpg").getAbsolutePath(), result.get(2).getAbsolutePath());
+        assertEquals(new File(DIR, "page_a.jpg").getAbsolutePath(), result.get(3).getAbsolutePath());
+    }
+
+    @Test
+    public void matchFilesToImageListFirstFileWins() {
+        // Several files match the same image : the first one in file order wins, whether it matches by name or by number
+        File[] files = files("01.jpg", "1.jpg", "b.jpg", "B.png");
+        List<ImageFile> result = ContentHelper.matchFilesToImageList(files, images("1", "b"));
+        assertEquals(new File(DIR, "01.jpg").getAbsolutePath(), result.get(0).getAbsolutePath());
+        assertEquals(new File(DIR, "b.jpg").getAbsolutePath(), result.get(1).getAbsolutePath());
+
+        files = files("1.jpg", "01.jpg");
+        result = ContentHelper.matchFilesToImageList(files, images("01"));
+        assertEquals(new File(DIR, "1.jpg").getAbsolutePath(), result.get(0).getAbsolutePath());
+    }
+
+    @Test
+    public void matchFilesToImageListEmpty() {
+        assertEquals(0, ContentHelper.matchFilesToImageList(new File[0], images("1", "2")).size());
+        assertEquals(0, ContentHelper.matchFilesToImageList(files("1.jpg"), new ArrayList<>()).size());
+    }
+
+    private static File[] files(String... names) {
+        File[] result = new File[names.length];
+        for (int i = 0; i < names.length; i++) result[i] = new File(DIR, names[i]);
+        return result;
+    }
+
+    private static List<ImageFile> images(String... names) {
+        List<ImageFile> result = new ArrayList<>();
+        for (String name : names) result.add(new ImageFile().setName(name));
+        return result;
+    }
+}
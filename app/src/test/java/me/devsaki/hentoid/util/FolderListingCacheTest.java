@@ -0,0 +1,149 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FolderListingCacheTest {
+
+    private static final long RESOLUTION_MS = 2000;
+    // Folder timestamps of the tests, in the past
+    private static final long TIMESTAMP = 1_000_000_000_000L;
+
+    private File root;
+    private long now = TIMESTAMP + 10 * RESOLUTION_MS;
+    // Number of times the filter has been run, i.e. number of files examined by listings
+    private int nbFiltered = 0;
+    private final FileFilter filter = file -> {
+        nbFiltered++;
+        return file.getName().endsWith(".jpg");
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("listing").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(root);
+    }
+
+    private FolderListingCache create(int maxSize) {
+        return new FolderListingCache(maxSize, RESOLUTION_MS, filter, () -> now);
+    }
+
+    @Test
+    public void cachedUntilFolderChanges() throws IOException {
+        File dir = createFolder("book", "1.jpg", "2.jpg", "notes.txt");
+        FolderListingCache cache = create(10);
+
+        File[] files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertEquals(2, files.length);
+        assertEquals(3, nbFiltered);
+
+        // Folder unchanged => listed from the cache
+        files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertEquals(2, files.length);
+        assertEquals(3, nbFiltered);
+
+        // Folder changed => listed again
+        assertTrue(new File(dir, "3.jpg").createNewFile());
+        assertTrue(dir.setLastModified(TIMESTAMP + RESOLUTION_MS));
+        files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertEquals(3, files.length);
+        assertEquals(7, nbFiltered);
+    }
+
+    @Test
+    public void recentlyModifiedFolderNotCached() throws IOException {
+        File dir = createFolder("book", "1.jpg");
+        FolderListingCache cache = create(10);
+
+        // Folder modified within the resolution of its timestamp : further changes may not update it
+        now = TIMESTAMP + RESOLUTION_MS / 2;
+        cache.listFiles(dir);
+        assertTrue(new File(dir, "2.jpg").createNewFile());
+        assertTrue(dir.setLastModified(TIMESTAMP));
+        File[] files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertEquals(2, files.length);
+
+        // Once the folder is old enough, its listing is cached
+        now = TIMESTAMP + 2 * RESOLUTION_MS;
+        cache.listFiles(dir);
+        int nbFilteredBefore = nbFiltered;
+        cache.listFiles(dir);
+        assertEquals(nbFilteredBefore, nbFiltered);
+    }
+
+    @Test
+    public void returnsCopies() throws IOException {
+        File dir = createFolder("book", "1.jpg", "2.jpg");
+        FolderListingCache cache = create(10);
+
+        File[] files = cache.listFiles(dir);
+        assertNotNull(files);
+        files[0] = null;
+        files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertNotNull(files[0]);
+        files[1] = null;
+        files = cache.listFiles(dir);
+        assertNotNull(files);
+        assertNotNull(files[1]);
+    }
+
+    @Test
+    public void missingFolder() {
+        FolderListingCache cache = create(10);
+        assertNull(cache.listFiles(new File(root, "missing")));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws IOException {
+        File dir1 = createFolder("book1", "1.jpg");
+        File dir2 = createFolder("book2", "1.jpg");
+        File dir3 = createFolder("book3", "1.jpg");
+        FolderListingCache cache = create(2);
+
+        cache.listFiles(dir1);
+        cache.listFiles(dir2);
+        cache.listFiles(dir1); // book1 is now the most recently used
+        assertEquals(2, nbFiltered);
+
+        cache.listFiles(dir3); // Evicts book2
+        assertEquals(3, nbFiltered);
+        cache.listFiles(dir1);
+        assertEquals(3, nbFiltered);
+        cache.listFiles(dir2);
+        assertEquals(4, nbFiltered);
+    }
+
+    private File createFolder(String name, String... files) throws IOException {
+        File dir = new File(root, name);
+        assertTrue(dir.mkdir());
+        for (String f : files) assertTrue(new File(dir, f).createNewFile());
+        assertTrue(dir.setLastModified(TIMESTAMP));
+        return dir;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) for (File child : children) deleteRecursively(child);
+        file.delete();
+    }
+}
@@ -0,0 +1,170 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class HtmlStreamSanitizerTest {
+
+    @Test
+    public void nestedRemoval() throws IOException {
+        assertSanitized("<body><div>keep</div></body>",
+                "<body><div class=\"ad\"><div><div>x</div></div><div>y</div></div><div>keep</div></body>",
+                "div.ad");
+        assertSanitized("<p>a</p><p>b</p>",
+                "<p>a</p><section id='spot'><section><section></section></section>text</section><p>b</p>",
+                "#spot");
+        // Other elements nested inside the removed element don't end it
+        assertSanitized("<div>a</div>b",
+                "<div>a</div><aside class='ad'><div></div><span></aside>b",
+                "aside.ad");
+    }
+
+    @Test
+    public void selfClosing() throws IOException {
+        // A trailing slash doesn't close non-void elements : their children are removed as well
+        assertSanitized("after", "<div class=\"ad\"/><span>child</span></div>after", "div.ad");
+        // Void elements are removed alone
+        assertSanitized("<p>a</p><p>b</p>", "<p>a</p><img class=\"ad\" src=\"x\"/><p>b</p>", "img.ad");
+        assertSanitized("<p>a</p><p>b</p>", "<p>a</p><img class=\"ad\" src=\"x\"><p>b</p>", "img.ad");
+        // Foreign elements may be self-closing
+        assertSanitized("<p>a</p><p>b</p>", "<p>a</p><svg class=\"ad\"/><p>b</p>", "svg.ad");
+        assertSanitized("<svg><path/></svg><p>b</p>", "<svg><path/><g class=\"ad\"/></svg><p>b</p>", "g.ad");
+        assertSanitized("<svg><g><path/></g></svg>", "<svg><g><path/></g><g class=\"ad\"><g/><path/></g></svg>", "g.ad");
+    }
+
+    @Test
+    public void rawText() throws IOException {
+        // End tags inside scripts don't end the removed element
+        assertSanitized("<p>out</p>",
+                "<section class=\"ad\"><script>var s = \"</section>\";</script><p>in</p></section><p>out</p>",
+                "section.ad");
+        assertSanitized("<p>out</p>",
+                "<section class=\"ad\"><style>a::after { content: '</section>' }</style></section><p>out</p>",
+                "section.ad");
+        // Tags inside scripts aren't removed
+        String page = "<script>document.write(\"<div class='ad'>\" + '</div>');</script><div>ok</div>";
+        assertSanitized(page, page, "div.ad");
+        // Script ends with its own end tag only
+        assertSanitized("<script>a = '</scripts>';</script><div>ok</div>",
+                "<script>a = '</scripts>';</script><div class='ad'>x</div><div>ok</div>",
+                "div.ad");
+        // Removed script
+        assertSanitized("<p>b</p>", "<script src=\"ads.js\">if (a < b) x = '<div>';</script><p>b</p>", "script[src$='ads.js']");
+    }
+
+    @Test
+    public void comments() throws IOException {
+        // Tags inside comments are ignored
+        String page = "<!-- <div class=\"ad\"> --><div>ok</div>";
+        assertSanitized(page, page, "div.ad");
+        assertSanitized("after", "<div class=\"ad\"><!-- </div> --><b>x</b></div>after", "div.ad");
+        // Comment containing dashes
+        assertSanitized("<!-- a -- b ---><p>c</p>", "<!-- a -- b ---><div class='ad'></div><p>c</p>", "div.ad");
+        // Doctype and processing instructions
+        page = "<!DOCTYPE html><?xml version=\"1.0\"?><html><body>x</body></html>";
+        assertSanitized(page, page, "div.ad");
+    }
+
+    @Test
+    public void unterminatedElement() throws IOException {
+        // The end of the element can't be found : it is kept
+        String page = "<body><div class=\"ad\"><div>text</div></body></html>";
+        assertSanitized(page, page, "div.ad");
+        page = "<body><div class=\"ad\"><div>text";
+        assertSanitized(page, page, "div.ad");
+    }
+
+    @Test
+    public void optionalEndTag() throws IOException {
+        // Elements whose end tag may be omitted are kept
+        String page = "<ul><li class=\"ad\">a<li>b</ul>";
+        assertSanitized(page, page, "li.ad");
+    }
+
+    @Test
+    public void selectors() throws IOException {
+        assertSanitized("<iframe name=\"main\"></iframe>",
+                "<iframe name=\"spot-1\"></iframe><iframe name=\"main\"></iframe>", "iframe[name^='spot']");
+        assertSanitized("<div class=\"a\"></div>",
+                "<div class=\"a\"></div><div class=\" B  a \"></div>", "div.a.b");
+        assertSanitized("<a>x</a>", "<a>x</a><a data-ad>y</a>", "a[data-ad]");
+        assertSanitized("<div id=ok></div>", "<div id=ok></div><div id=ad></div>", "div#ad");
+
+        assertNull(HtmlStreamSanitizer.compile(Collections.singletonList("div > .ad")));
+        assertNull(HtmlStreamSanitizer.compile(Collections.singletonList("a:first-child")));
+        assertNull(HtmlStreamSanitizer.compile(Collections.singletonList("a, b")));
+        assertNull(HtmlStreamSanitizer.compile(Collections.singletonList("*")));
+        assertNull(HtmlStreamSanitizer.compile(Collections.singletonList("a[class~='x']")));
+    }
+
+    @Test
+    public void unsupportedEncodings() throws IOException {
+        HtmlStreamSanitizer sanitizer = HtmlStreamSanitizer.compile(Collections.singletonList("div.ad"));
+        assertNotNull(sanitizer);
+        assertNull(sanitizer.sanitize(new ByteArrayInputStream(new byte[]{'<', 'a'}), "UTF-16LE"));
+        assertNull(sanitizer.sanitize(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xFE, '<', 0}), null));
+        assertNotNull(sanitizer.sanitize(new ByteArrayInputStream(new byte[]{'<', 'a'}), "utf-8"));
+    }
+
+    /**
+     * Check the sanitization of the given page, with the page being received in chunks of every size
+     * so that tags, comments and script end tags are split at every possible position
+     */
+    private static void assertSanitized(String expected, String page, String... selectors) throws IOException {
+        HtmlStreamSanitizer sanitizer = HtmlStreamSanitizer.compile(Arrays.asList(selectors));
+        assertNotNull(sanitizer);
+        byte[] data = page.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize = 1; chunkSize <= data.length; chunkSize++) {
+            InputStream result = sanitizer.sanitize(new ChunkedInputStream(data, chunkSize), "utf-8");
+            assertNotNull(result);
+            assertEquals("Chunks of " + chunkSize + " bytes", expected, readAll(result));
+        }
+    }
+
+    private static String readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5];
+        int n;
+        while ((n = stream.read(buffer, 0, buffer.length)) > -1) result.write(buffer, 0, n);
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stream giving the given data by chunks of the given size
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position = 0;
+
+        ChunkedInputStream(byte[] data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return (position < data.length) ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) return -1;
+            int n = Math.min(Math.min(len, chunkSize), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedIdListTest {
+
+    @Test
+    public void get() {
+        OrderedIdList list = new OrderedIdList(new long[]{5, 3, 9});
+        assertEquals(3, list.size());
+        assertFalse(list.isEmpty());
+        assertEquals(5, list.get(0));
+        assertEquals(3, list.get(1));
+        assertEquals(9, list.get(2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        new OrderedIdList(new long[]{5, 3, 9}).get(3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void removeOutOfBounds() {
+        new OrderedIdList(new long[]{5}).remove(-1);
+    }
+
+    @Test
+    public void empty() {
+        OrderedIdList list = OrderedIdList.empty();
+        assertTrue(list.isEmpty());
+        assertEquals(0, list.size());
+        assertEquals(-1, list.indexOf(0));
+    }
+
+    @Test
+    public void indexOf() {
+        OrderedIdList list = new OrderedIdList(new long[]{42, 7, 0, -3, Long.MAX_VALUE, Long.MIN_VALUE});
+        assertEquals(0, list.indexOf(42));
+        assertEquals(1, list.indexOf(7));
+        assertEquals(2, list.indexOf(0));
+        assertEquals(3, list.indexOf(-3));
+        assertEquals(4, list.indexOf(Long.MAX_VALUE));
+        assertEquals(5, list.indexOf(Long.MIN_VALUE));
+        assertEquals(-1, list.indexOf(8));
+        assertEquals(-1, list.indexOf(1));
+    }
+
+    @Test
+    public void indexOfDuplicates() {
+        OrderedIdList list = new OrderedIdList(new long[]{4, 8, 4, 15, 8, 4});
+        // First occurrence wins
+        assertEquals(0, list.indexOf(4));
+        assertEquals(1, list.indexOf(8));
+        assertEquals(3, list.indexOf(15));
+
+        // Removing the first occurrence makes the next one visible
+        list.remove(0);
+        assertEquals(1, list.indexOf(4));
+        assertEquals(0, list.indexOf(8));
+        list.remove(1);
+        assertEquals(3, list.indexOf(4));
+        list.remove(3);
+        assertEquals(-1, list.indexOf(4));
+        assertEquals(0, list.indexOf(8));
+        assertEquals(1, list.indexOf(15));
+    }
+
+    @Test
+    public void reindexAfterRemove() {
+        OrderedIdList list = new OrderedIdList(new long[]{10, 20, 30, 40});
+        assertEquals(2, list.indexOf(30)); // Builds the index
+
+        list.remove(1);
+        assertEquals(3, list.size());
+        assertEquals(-1, list.indexOf(20));
+        assertEquals(0, list.indexOf(10));
+        assertEquals(1, list.indexOf(30));
+        assertEquals(2, list.indexOf(40));
+        assertEquals(30, list.get(1));
+
+        list.remove(2);
+        assertEquals(-1, list.indexOf(40));
+        list.remove(0);
+        assertEquals(0, list.indexOf(30));
+        list.remove(0);
+        assertTrue(list.isEmpty());
+        assertEquals(-1, list.indexOf(30));
+    }
+
+    @Test
+    public void largeList() {
+        // Consecutive and strided IDs, that may collide inside the hash index
+        int size = 10000;
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) ids[i] = (i % 2 == 0) ? i : (long) i << 32;
+        OrderedIdList list = new OrderedIdList(ids);
+        for (int i = 0; i < size; i++) assertEquals(i, list.indexOf(ids[i]));
+        assertEquals(-1, list.indexOf(size));
+
+        list.remove(0);
+        for (int i = 1; i < size; i++) assertEquals(i - 1, list.indexOf(ids[i]));
+        assertEquals(-1, list.indexOf(ids[0]));
+    }
+}
@@ -0,0 +1,196 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TeeInputStreamTest {
+
+    // Larger than the internal buffer, so that it wraps several times
+    private static final int DATA_SIZE = 100 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final long TIMEOUT_S = 5;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void chunkedReads() throws Exception {
+        byte[] data = randomData();
+        // Source only gives a few bytes at a time, like a network stream
+        TestSource source = new TestSource(data, 7);
+        List<InputStream> branches = TeeInputStream.split(source, 3, BUFFER_SIZE);
+
+        Future<byte[]> singleBytes = executor.submit(readAll(branches.get(0), 1));
+        Future<byte[]> smallChunks = executor.submit(readAll(branches.get(1), 13));
+        Future<byte[]> largeChunks = executor.submit(readAll(branches.get(2), 3 * BUFFER_SIZE));
+
+        assertArrayEquals(data, singleBytes.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertArrayEquals(data, smallChunks.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertArrayEquals(data, largeChunks.get(TIMEOUT_S, TimeUnit.SECONDS));
+
+        // Source is closed when every branch is
+        for (InputStream branch : branches) {
+            assertFalse(source.isClosed);
+            branch.close();
+        }
+        assertTrue(source.isClosed);
+    }
+
+    @Test
+    public void singleByteRead() throws IOException {
+        List<InputStream> branches = TeeInputStream.split(new ByteArrayInputStream(new byte[]{(byte) 0xFF, 0x01}), 1, BUFFER_SIZE);
+        InputStream branch = branches.get(0);
+        // Bytes are returned unsigned
+        assertEquals(0xFF, branch.read());
+        assertEquals(0x01, branch.read());
+        assertEquals(-1, branch.read());
+        assertEquals(-1, branch.read());
+        branch.close();
+    }
+
+    @Test
+    public void closeOneBranch() throws Exception {
+        byte[] data = randomData();
+        TestSource source = new TestSource(data, BUFFER_SIZE);
+        List<InputStream> branches = TeeInputStream.split(source, 2, BUFFER_SIZE);
+        InputStream closed = branches.get(0);
+        InputStream open = branches.get(1);
+
+        // Read a little with the first branch, then close it
+        byte[] start = new byte[10];
+        assertEquals(10, closed.read(start, 0, start.length));
+        closed.close();
+        assertFalse(source.isClosed);
+        try {
+            closed.read();
+            fail("Reading a closed branch should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The other branch reads the whole source without waiting for the closed one
+        Future<byte[]> result = executor.submit(readAll(open, 1000));
+        assertArrayEquals(data, result.get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertFalse(source.isClosed);
+
+        // Source is closed with the last branch
+        open.close();
+        assertTrue(source.isClosed);
+        // Closing twice does nothing
+        open.close();
+    }
+
+    @Test
+    public void closeWhileOtherBranchWaits() throws Exception {
+        byte[] data = randomData();
+        List<InputStream> branches = TeeInputStream.split(new TestSource(data, BUFFER_SIZE), 2, BUFFER_SIZE);
+
+        // The first branch fills the buffer and waits for the second one, which doesn't read
+        Future<byte[]> result = executor.submit(readAll(branches.get(0), 1000));
+        Thread.sleep(200);
+        assertFalse(result.isDone());
+
+        // Closing the second branch releases the first one
+        branches.get(1).close();
+        assertArrayEquals(data, result.get(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sourceError() throws Exception {
+        TestSource source = new TestSource(randomData(), BUFFER_SIZE);
+        source.failAt = 3 * BUFFER_SIZE;
+        List<InputStream> branches = TeeInputStream.split(source, 2, BUFFER_SIZE);
+
+        Future<byte[]> first = executor.submit(readAll(branches.get(0), 100));
+        Future<byte[]> second = executor.submit(readAll(branches.get(1), 100));
+        for (Future<byte[]> f : Arrays.asList(first, second)) {
+            try {
+                f.get(TIMEOUT_S, TimeUnit.SECONDS);
+                fail("The error of the source should be thrown to every branch");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    private static byte[] randomData() {
+        byte[] result = new byte[DATA_SIZE];
+        new Random(42).nextBytes(result);
+        return result;
+    }
+
+    private static Callable<byte[]> readAll(InputStream stream, int chunkSize) {
+        return () -> {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            if (1 == chunkSize) {
+                int b;
+                while ((b = stream.read()) > -1) result.write(b);
+            } else {
+                byte[] buffer = new byte[chunkSize];
+                int n;
+                while ((n = stream.read(buffer, 0, buffer.length)) > -1) result.write(buffer, 0, n);
+            }
+            return result.toByteArray();
+        };
+    }
+
+    /**
+     * Source that returns at most the given number of bytes per read, and can fail at a given position
+     */
+    private static class TestSource extends InputStream {
+        private final byte[] data;
+        private final int maxChunk;
+        private int position = 0;
+        private int failAt = -1;
+        private volatile boolean isClosed = false;
+
+        TestSource(byte[] data, int maxChunk) {
+            this.data = data;
+            this.maxChunk = maxChunk;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (failAt > -1 && position >= failAt) throw new IOException("Connection reset");
+            if (position >= data.length) return -1;
+            int n = Math.min(Math.min(len, maxChunk), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package me.devsaki.hentoid.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UrlPatternMatcherTest {
+
+    @Test
+    public void getRequiredLiteral() {
+        assertEquals("//hitomi.la/", UrlPatternMatcher.getRequiredLiteral("//hitomi\\.la/[0-9]+"));
+        assertEquals("nhentai.net/g/", UrlPatternMatcher.getRequiredLiteral("nhentai\\.net/g/[0-9]+/?$"));
+        // Optional chars are not part of the literal
+        assertEquals("://host.com/", UrlPatternMatcher.getRequiredLiteral("https?://host\\.com/"));
+        assertEquals("/gallery/", UrlPatternMatcher.getRequiredLiteral("x{2}/gallery/\\d+"));
+        // Groups end the literal
+        assertEquals("//site.org/", UrlPatternMatcher.getRequiredLiteral("//site\\.org/([0-9]+)/page/[0-9]+"));
+        // Alternatives can't be pre-filtered
+        assertEquals("", UrlPatternMatcher.getRequiredLiteral("//a\\.com/|//b\\.com/"));
+    }
+
+    @Test
+    public void preFilterHitsAndMisses() {
+        UrlPatternMatcher matcher = new UrlPatternMatcher(new String[]{"//hitomi\\.la/galleries/[0-9]+", "nhentai\\.net/g/[0-9]+/?$"});
+        // Literal found and pattern matching
+        assertTrue(matcher.matches("https://hitomi.la/galleries/1234.html"));
+        assertTrue(matcher.matches("https://nhentai.net/g/1234/"));
+        // Literal found but pattern not matching
+        assertFalse(matcher.matches("https://hitomi.la/galleries/abcd.html"));
+        assertFalse(matcher.matches("https://nhentai.net/g/1234/1/"));
+        // Literal not found
+        assertFalse(matcher.matches("https://e-hentai.org/g/1234/"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void withoutPreFilter() {
+        // One of the expressions has no literal long enough => every URL is examined by the pattern
+        UrlPatternMatcher matcher = new UrlPatternMatcher(new String[]{"//hitomi\\.la/galleries/[0-9]+", "/g/[0-9]+"});
+        assertTrue(matcher.matches("https://hitomi.la/galleries/1234.html"));
+        assertTrue(matcher.matches("https://e-hentai.org/g/1234/"));
+        assertFalse(matcher.matches("https://e-hentai.org/s/1234/"));
+
+        matcher = new UrlPatternMatcher(new String[]{"//(www\\.)?tsumino\\.com/entry/[0-9]+"});
+        assertTrue(matcher.matches("https://www.tsumino.com/entry/1234"));
+        assertTrue(matcher.matches("https://tsumino.com/entry/1234"));
+        assertFalse(matcher.matches("https://tsumino.com/read/1234"));
+    }
+
+    @Test
+    public void noExpression() {
+        assertFalse(new UrlPatternMatcher(new String[0]).matches("https://hitomi.la/galleries/1234.html"));
+    }
+}